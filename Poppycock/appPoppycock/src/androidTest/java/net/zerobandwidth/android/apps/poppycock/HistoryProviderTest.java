@@ -0,0 +1,182 @@
+package net.zerobandwidth.android.apps.poppycock;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Exercises {@link HistoryProvider} through a content resolver, as another
+ * component would.
+ * @since zerobandwidth-net/android-poppycock 1.0.2
+ */
+@RunWith( AndroidJUnit4.class )
+public class HistoryProviderTest
+{
+    /**
+     * Begins every sentence written by these tests, so that they can be found,
+     * and removed, among the rest of the record.
+     */
+    protected static final String MARKER = "HistoryProviderTest nonsense " ;
+
+    /** Selects the sentences written by these tests. */
+    protected static final String MARKED = "sentence LIKE ?" ;
+
+    /** The argument for {@link #MARKED}. */
+    protected static final String[] MARKED_ARGS = { MARKER + "%" } ;
+
+    protected ContentResolver m_res = null ;
+
+    @Before
+    public void setUp()
+    {
+        m_res = InstrumentationRegistry.getTargetContext()
+                .getContentResolver() ;
+        m_res.delete( HistoryProvider.CONTENT_URI, MARKED, MARKED_ARGS ) ;
+    }
+
+    @After
+    public void tearDown()
+    { m_res.delete( HistoryProvider.CONTENT_URI, MARKED, MARKED_ARGS ) ; }
+
+    @Test
+    public void testPagesFollowKeyset()
+    {
+        final ContentValues[] avals = new ContentValues[5] ;
+        for( int i = 0 ; i < avals.length ; i++ )
+        {
+            avals[i] = new ContentValues() ;
+            avals[i].put( "item_ts", 1000L + ( i / 2 ) ) ;  // with some ties
+            avals[i].put( "sentence", MARKER + i ) ;
+            avals[i].put( "favorite", ( i % 2 == 0 ) ) ;
+        }
+        assertEquals( 5,
+                m_res.bulkInsert( HistoryProvider.CONTENT_URI, avals ) ) ;
+
+        final ArrayList<String> asRead = new ArrayList<>() ;
+        int nPages = 0 ;
+        Uri uri = HistoryProvider.getPageUri( false, 2 ) ;
+        while( uri != null )
+        {
+            final Cursor crs = m_res.query( uri,
+                    new String[] { "item_id", "item_ts", "sentence" },
+                    MARKED, MARKED_ARGS, HistoryProvider.SORT_OLDEST_FIRST ) ;
+            try
+            {
+                ++nPages ;
+                long nLastTS = 0L ;
+                long nLastID = 0L ;
+                while( crs.moveToNext() )
+                {
+                    nLastID = crs.getLong(0) ;
+                    nLastTS = crs.getLong(1) ;
+                    asRead.add( crs.getString(2) ) ;
+                }
+                uri = ( crs.getCount() < 2 ? null :
+                    HistoryProvider.getPageUri( false, nLastTS, nLastID, 2 ) ) ;
+            }
+            finally
+            { crs.close() ; }
+        }
+        assertEquals( 3, nPages ) ;
+        assertEquals( 5, asRead.size() ) ;
+        for( int i = 0 ; i < asRead.size() ; i++ )
+            assertEquals( MARKER + i, asRead.get(i) ) ;
+
+        final Cursor crs = m_res.query( HistoryProvider.getPageUri( true, 50 ),
+                null, MARKED, MARKED_ARGS, null ) ;
+        try { assertEquals( 3, crs.getCount() ) ; }
+        finally
+        { crs.close() ; }
+    }
+
+    @Test
+    public void testBatchesAreAtomic()
+    throws Exception
+    {
+        final ContentValues vals = new ContentValues() ;
+        vals.put( "sentence", MARKER + "in a batch" ) ;
+        final Uri uItem = m_res.insert( HistoryProvider.CONTENT_URI, vals ) ;
+        assertNotNull( uItem ) ;
+
+        final ArrayList<ContentProviderOperation> aops = new ArrayList<>() ;
+        aops.add( ContentProviderOperation.newUpdate( uItem )
+                .withValue( "favorite", true ).build() ) ;
+        aops.add( ContentProviderOperation.newAssertQuery(
+                    HistoryProvider.CONTENT_URI )
+                .withSelection( MARKED, MARKED_ARGS )
+                .withExpectedCount( 2 )                      // but there's one
+                .build() ) ;
+        try
+        {
+            m_res.applyBatch( HistoryProvider.AUTHORITY, aops ) ;
+            fail( "The assertion should have failed the batch." ) ;
+        }
+        catch( OperationApplicationException xExpected ) {}
+
+        Cursor crs = m_res.query( uItem, new String[] { "favorite" },
+                null, null, null ) ;
+        try
+        {
+            assertTrue( crs.moveToFirst() ) ;
+            assertEquals( 0, crs.getInt(0) ) ;        // the update rolled back
+        }
+        finally
+        { crs.close() ; }
+
+        aops.remove( 1 ) ;
+        assertEquals( 1, m_res.applyBatch( HistoryProvider.AUTHORITY, aops )
+                .length ) ;
+        crs = m_res.query( uItem, new String[] { "favorite" },
+                null, null, null ) ;
+        try
+        {
+            assertTrue( crs.moveToFirst() ) ;
+            assertEquals( 1, crs.getInt(0) ) ;
+        }
+        finally
+        { crs.close() ; }
+    }
+
+    @Test
+    public void testInsertRejectsUnreadableValues()
+    {
+        final ContentValues vals = new ContentValues() ;
+        vals.put( "sentence", MARKER + "at no particular time" ) ;
+        vals.put( "item_ts", "yesterday" ) ;
+        try
+        {
+            m_res.insert( HistoryProvider.CONTENT_URI, vals ) ;
+            fail( "A timestamp which is not a number should be rejected." ) ;
+        }
+        catch( IllegalArgumentException xExpected ) {}
+
+        vals.remove( "item_ts" ) ;
+        vals.put( "favorite", new byte[] { 1 } ) ;
+        try
+        {
+            m_res.insert( HistoryProvider.CONTENT_URI, vals ) ;
+            fail( "A favorite status which is not a boolean should fail." ) ;
+        }
+        catch( IllegalArgumentException xExpected ) {}
+
+        final Cursor crs = m_res.query( HistoryProvider.CONTENT_URI,
+                null, MARKED, MARKED_ARGS, null ) ;
+        try { assertEquals( 0, crs.getCount() ) ; }
+        finally
+        { crs.close() ; }
+    }
+}
@@ -0,0 +1,105 @@
+package net.zerobandwidth.android.apps.poppycock;
+
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import net.zerobandwidth.android.apps.poppycock.model.Sentence;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Exercises the counters, refills, and shutdown of {@link NonsensePool}.
+ * @since zerobandwidth-net/android-poppycock 1.0.2
+ */
+@RunWith( AndroidJUnit4.class )
+public class NonsensePoolTest
+{
+    /** A small capacity, so that refills are quick to trigger. */
+    protected static final int CAPACITY = 8 ;
+
+    /** The longest time to wait for a background refill. */
+    protected static final long TIMEOUT_MS = 10000L ;
+
+    protected NonsensePool m_pool = null ;
+
+    @Before
+    public void setUp()
+    {
+        m_pool = new NonsensePool(
+                InstrumentationRegistry.getTargetContext(), CAPACITY ) ;
+        this.awaitRefills( 1L ) ;
+    }
+
+    @After
+    public void tearDown()
+    { m_pool.shutdown() ; }
+
+    /**
+     * Waits until the pool has finished a given number of refill passes, and
+     * no other refill is pending.
+     * @param nRefills the number of passes
+     */
+    protected void awaitRefills( long nRefills )
+    {
+        final long tsDeadline = SystemClock.elapsedRealtime() + TIMEOUT_MS ;
+        while( m_pool.getStats().nRefills < nRefills
+                || m_pool.m_bRefilling.get() )
+        {
+            assertTrue( "Timed out waiting for a refill.",
+                    SystemClock.elapsedRealtime() < tsDeadline ) ;
+            SystemClock.sleep( 10L ) ;
+        }
+    }
+
+    @Test
+    public void testRefillsOnlyAtHalfCapacity()
+    {
+        assertEquals( CAPACITY, m_pool.size() ) ;
+        final long tsBefore = System.currentTimeMillis() ;
+        final Sentence o = m_pool.next() ;
+        assertNotNull( o.sSentence ) ;
+        assertTrue( o.nItemTS >= tsBefore ) ;          // stamped when taken
+        assertEquals( Sentence.NOT_IDENTIFIED, o.nItemID ) ;
+
+        for( int i = 1 ; i < CAPACITY / 2 - 1 ; i++ ) m_pool.next() ;
+        assertEquals( CAPACITY / 2 + 1, m_pool.size() ) ;
+        assertEquals( 1L, m_pool.getStats().nRefills ) ;  // still above half
+
+        m_pool.next() ;                                  // down to half
+        this.awaitRefills( 2L ) ;
+        assertEquals( CAPACITY, m_pool.size() ) ;
+        final NonsensePool.Stats stats = m_pool.getStats() ;
+        assertEquals( CAPACITY / 2, stats.nHits ) ;
+        assertEquals( 0L, stats.nMisses ) ;
+        assertEquals( CAPACITY + CAPACITY / 2, stats.nGenerated ) ;
+        assertEquals( 1.0d, stats.getHitRate(), 0.0d ) ;
+    }
+
+    @Test
+    public void testGeneratesInlineOnceShutDown()
+    {
+        m_pool.shutdown() ;
+        for( int i = 0 ; i < CAPACITY ; i++ )
+            assertNotNull( m_pool.next().sSentence ) ;   // what was ready
+        assertEquals( 0, m_pool.size() ) ;
+
+        final Sentence o = m_pool.next() ;
+        assertNotNull( o.sSentence ) ;
+        assertEquals( 0, m_pool.requestRefill().size() ) ;  // no thread left
+        assertFalse( m_pool.m_bRefilling.get() ) ;
+
+        final NonsensePool.Stats stats = m_pool.getStats() ;
+        assertEquals( CAPACITY, stats.nHits ) ;
+        assertEquals( 1L, stats.nMisses ) ;
+        assertEquals( 1L, stats.nRefills ) ;
+        assertEquals( CAPACITY, stats.nGenerated ) ;
+        assertEquals( ((double)CAPACITY) / ( CAPACITY + 1 ),
+                stats.getHitRate(), 0.0001d ) ;
+    }
+}
@@ -0,0 +1,115 @@
+package net.zerobandwidth.android.apps.poppycock;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import net.zerobandwidth.android.apps.poppycock.database.HistoryArchive;
+import net.zerobandwidth.android.apps.poppycock.database.PoppycockDatabase;
+import net.zerobandwidth.android.apps.poppycock.model.Sentence;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Exercises {@link NonsenseSeeder} against a scratch database on the device.
+ * @since zerobandwidth-net/android-poppycock 1.0.2
+ */
+@RunWith( AndroidJUnit4.class )
+public class NonsenseSeederTest
+{
+    /** A scratch database name, so that tests never touch the real record. */
+    protected static final String TEST_DATABASE_NAME =
+            "poppycock_seeder_test_db" ;
+
+    /** The number of worker threads used by these tests. */
+    protected static final int THREADS = 4 ;
+
+    /**
+     * The number of sentences seeded; deliberately not a multiple of the
+     * batch size, so that the last batch is a partial one.
+     */
+    protected static final int SEED_ROWS =
+            NonsenseSeeder.BATCH_ROWS * 5 + NonsenseSeeder.BATCH_ROWS / 2 ;
+
+    protected Context m_ctx = null ;
+
+    protected PoppycockDatabase m_dbh = null ;
+
+    @Before
+    public void setUp()
+    {
+        m_ctx = InstrumentationRegistry.getTargetContext() ;
+        m_ctx.deleteDatabase( TEST_DATABASE_NAME ) ;
+        m_dbh = (new PoppycockDatabase( m_ctx, TEST_DATABASE_NAME )).openDB() ;
+    }
+
+    @After
+    public void tearDown()
+    {
+        Thread.interrupted() ;        // in case a test left the flag behind
+        if( m_dbh != null ) m_dbh.closeDB().close() ;
+        m_ctx.deleteDatabase( TEST_DATABASE_NAME ) ;
+    }
+
+    /** @return the number of sentences in the scratch database */
+    protected int countRows()
+    { return m_dbh.countSentences( false ) + m_dbh.countSentences( true ) ; }
+
+    @Test
+    public void testSeedWritesExactlyTheCountRequested()
+    {
+        final NonsenseSeeder.Stats stats = (new NonsenseSeeder( m_ctx, m_dbh ))
+                .setThreadCount( THREADS )
+                .seed( SEED_ROWS ) ;
+        assertEquals( THREADS, stats.nThreads ) ;
+        assertEquals( SEED_ROWS, stats.nSentences ) ;
+        assertEquals( SEED_ROWS, this.countRows() ) ;
+        assertFalse( Thread.currentThread().isInterrupted() ) ;
+    }
+
+    @Test
+    public void testSeedHandsBatchesToWriter()
+    {
+        final AtomicInteger nBatches = new AtomicInteger(0) ;
+        final NonsenseSeeder.Stats stats = (new NonsenseSeeder( m_ctx, m_dbh ))
+                .setThreadCount( THREADS )
+                .setBatchWriter( new HistoryArchive.BatchWriter()
+                {
+                    @Override
+                    public int writeBatch( List<Sentence> aoBatch )
+                    {
+                        nBatches.incrementAndGet() ;
+                        return m_dbh.insertSentences( aoBatch ) ;
+                    }
+                })
+                .seed( SEED_ROWS ) ;
+        assertEquals( 6, nBatches.get() ) ;
+        assertEquals( SEED_ROWS, stats.nSentences ) ;
+        assertEquals( SEED_ROWS, this.countRows() ) ;
+    }
+
+    @Test
+    public void testInterruptStopsAfterCurrentBatch()
+    {
+        final NonsenseSeeder.Stats stats = (new NonsenseSeeder( m_ctx, m_dbh ))
+                .setThreadCount( THREADS )
+                .setProgressListener( new HistoryArchive.ProgressListener()
+                {
+                    @Override
+                    public void onProgress( int nSoFar )
+                    { Thread.currentThread().interrupt() ; }
+                })
+                .seed( SEED_ROWS ) ;
+        assertTrue( Thread.interrupted() ) ;          // and clears the flag
+        assertEquals( NonsenseSeeder.BATCH_ROWS, stats.nSentences ) ;
+        assertEquals( NonsenseSeeder.BATCH_ROWS, this.countRows() ) ;
+    }
+}
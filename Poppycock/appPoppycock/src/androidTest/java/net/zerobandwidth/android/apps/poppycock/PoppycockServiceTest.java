@@ -0,0 +1,196 @@
+package net.zerobandwidth.android.apps.poppycock;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.StrictMode;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ServiceTestRule;
+import android.support.test.runner.AndroidJUnit4;
+
+import net.zerobandwidth.android.apps.poppycock.database.PoppycockDatabase;
+import net.zerobandwidth.android.apps.poppycock.database.SentencePage;
+import net.zerobandwidth.android.apps.poppycock.model.Sentence;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Exercises the asynchronous database API of {@link PoppycockService}.
+ * @since zerobandwidth-net/android-poppycock 1.0.2
+ */
+@RunWith( AndroidJUnit4.class )
+public class PoppycockServiceTest
+{
+    /** The longest we will wait for the database thread to do its work. */
+    protected static final long TIMEOUT_SECONDS = 10L ;
+
+    @Rule
+    public final ServiceTestRule m_rule = new ServiceTestRule() ;
+
+    /**
+     * Binds the service under test.
+     * @return the service instance
+     * @throws Exception if the service could not be bound
+     */
+    protected PoppycockService bindService()
+    throws Exception
+    {
+        final Context ctx = InstrumentationRegistry.getTargetContext() ;
+        return ((PoppycockService.Binder)( m_rule.bindService(
+                new Intent( ctx, PoppycockService.class ) ) ))
+            .getServiceInstance()
+            ;
+    }
+
+    /**
+     * Counts down a latch when an operation completes, and captures any error.
+     * @param <T> the type of the operation's result
+     */
+    protected static class LatchedCallback<T>
+    extends PoppycockService.Callback<T>
+    {
+        protected final CountDownLatch m_latch ;
+
+        protected final AtomicReference<Exception> m_refError ;
+
+        public LatchedCallback( CountDownLatch latch,
+                                AtomicReference<Exception> refError )
+        { m_latch = latch ; m_refError = refError ; }
+
+        @Override
+        public void onResult( T result )
+        { m_latch.countDown() ; }
+
+        @Override
+        public void onError( Exception x )
+        {
+            m_refError.set(x) ;
+            m_latch.countDown() ;
+        }
+    }
+
+    /**
+     * Issues an insert, a page fetch, and a favorite toggle from the main
+     * thread while StrictMode is set to kill the process on any disk read or
+     * write there. The policy stays in force until every callback has been
+     * delivered back to the main thread, so the callbacks are covered too.
+     */
+    @Test
+    public void testAsyncOperationsDoNoDiskIOOnMainThread()
+    throws Exception
+    {
+        final PoppycockService svc = this.bindService() ;
+        final CountDownLatch latch = new CountDownLatch(3) ;
+        final AtomicReference<Exception> refError = new AtomicReference<>() ;
+        final AtomicReference<StrictMode.ThreadPolicy> refPolicy =
+                new AtomicReference<>() ;
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(
+                new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                refPolicy.set( StrictMode.getThreadPolicy() ) ;
+                StrictMode.setThreadPolicy(
+                        (new StrictMode.ThreadPolicy.Builder())
+                            .detectDiskReads()
+                            .detectDiskWrites()
+                            .penaltyLog()
+                            .penaltyDeath()
+                            .build()
+                    );
+
+                final Sentence o = new Sentence() ;
+                o.sSentence = "StrictMode says this nonsense never hit main." ;
+                svc.insertSentence( o,
+                        new LatchedCallback<Sentence>( latch, refError ) ) ;
+                svc.fetchPage( false, false, null,
+                        PoppycockDatabase.DEFAULT_PAGE_SIZE,
+                        new LatchedCallback<SentencePage>( latch, refError )
+                {
+                    @Override
+                    public void onResult( SentencePage pg )
+                    {
+                        if( pg != null )
+                        { // Binding reads only the filled cursor window.
+                            if( pg.size() > 0 ) pg.getSentence(0) ;
+                            pg.close() ;
+                        }
+                        super.onResult(pg) ;
+                    }
+                });
+                svc.toggleFavorite( o,
+                        new LatchedCallback<Sentence>( latch, refError ) ) ;
+            }
+        });
+
+        try
+        {
+            assertTrue( latch.await( TIMEOUT_SECONDS, TimeUnit.SECONDS ) ) ;
+            assertNull( refError.get() ) ;
+        }
+        finally
+        {
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(
+                    new Runnable()
+            {
+                @Override
+                public void run()
+                { StrictMode.setThreadPolicy( refPolicy.get() ) ; }
+            });
+        }
+    }
+
+    /**
+     * Work requested as soon as the service is bound waits for the database
+     * to be opened off the main thread, rather than failing.
+     */
+    @Test
+    public void testEarlyOperationsWaitForDatabase()
+    throws Exception
+    {
+        final PoppycockService svc = this.bindService() ;
+        final Sentence o = new Sentence() ;
+        o.sSentence = "This nonsense arrived early." ;
+        final CountDownLatch latchReady = new CountDownLatch(1) ;
+        svc.whenDatabaseReady( new Runnable()
+        {
+            @Override
+            public void run()
+            { latchReady.countDown() ; }
+        });
+        assertTrue( svc.isDatabaseAvailable() ) ;
+        final SentencePage pg = svc.fetchPage( false, false, null,
+                PoppycockDatabase.DEFAULT_PAGE_SIZE, null )
+            .get( TIMEOUT_SECONDS, TimeUnit.SECONDS ) ;
+        assertNotNull( pg ) ;
+        pg.close() ;
+        assertNotEquals( Sentence.NOT_IDENTIFIED, svc.insertSentence( o, null )
+                .get( TIMEOUT_SECONDS, TimeUnit.SECONDS ).nItemID ) ;
+        assertTrue( latchReady.await( TIMEOUT_SECONDS, TimeUnit.SECONDS ) ) ;
+        assertTrue( svc.isDatabaseReady() ) ;
+        assertNotNull( svc.getDB() ) ;
+    }
+
+    /** The inserted sentence's ID is assigned before the callback fires. */
+    @Test
+    public void testInsertAssignsID()
+    throws Exception
+    {
+        final PoppycockService svc = this.bindService() ;
+        final Sentence o = new Sentence() ;
+        o.sSentence = "This nonsense will be numbered." ;
+        final Sentence oResult = svc.insertSentence( o, null )
+                .get( TIMEOUT_SECONDS, TimeUnit.SECONDS ) ;
+        assertSame( o, oResult ) ;
+        assertNotEquals( Sentence.NOT_IDENTIFIED, oResult.nItemID ) ;
+    }
+}
@@ -0,0 +1,98 @@
+package net.zerobandwidth.android.apps.poppycock.benchmark;
+
+import android.util.Log;
+
+/**
+ * A minimal harness for the on-device benchmarks in this package. Each
+ * measurement runs its body for a number of warm-up iterations, so that the
+ * runtime has compiled the hot path, then times a fixed number of measured
+ * iterations and logs the mean cost per operation.
+ *
+ * Every result is logged under {@link #LOG_TAG} in the same format, so that
+ * runs from different releases can be compared by filtering logcat:
+ * <pre>
+ * adb shell am instrument -w -e package \
+ *     net.zerobandwidth.android.apps.poppycock.benchmark \
+ *     net.zerobandwidth.android.apps.poppycock.test/android.support.test.runner.AndroidJUnitRunner
+ * adb logcat -d -s PoppycockBenchmark
+ * </pre>
+ * @since zerobandwidth-net/android-poppycock 1.0.2
+ */
+public class Benchmark
+{
+    public static final String LOG_TAG = "PoppycockBenchmark" ;
+
+    /**
+     * The code under measurement.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public interface Body
+    {
+        /**
+         * Performs one operation.
+         * @param i the index of the iteration, which may be used to vary input
+         */
+        void run( int i ) ;
+    }
+
+    /**
+     * The outcome of one measurement.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static class Result
+    {
+        /** The name of the measurement. */
+        public final String sName ;
+
+        /** The number of measured operations. */
+        public final int nOps ;
+
+        /** The total time taken by the measured operations. */
+        public final long nNanos ;
+
+        public Result( String sName, int nOps, long nNanos )
+        { this.sName = sName ; this.nOps = nOps ; this.nNanos = nNanos ; }
+
+        /** @return the mean cost of one operation, in nanoseconds */
+        public long getNanosPerOp()
+        { return ( nOps == 0 ? 0L : nNanos / nOps ) ; }
+
+        /** @return the number of operations per second */
+        public double getOpsPerSecond()
+        { return ( nNanos == 0L ? 0.0d : nOps * 1000000000.0d / nNanos ) ; }
+
+        @Override
+        public String toString()
+        {
+            return (new StringBuilder())
+                .append( "[" ).append( sName )
+                .append( "] ops [" ).append( nOps )
+                .append( "] ns/op [" ).append( this.getNanosPerOp() )
+                .append( "] ops/s [" )
+                .append( Math.round( this.getOpsPerSecond() ) )
+                .append( "]" )
+                .toString()
+                ;
+        }
+    }
+
+    /**
+     * Warms up and then measures a body of code, logging the result.
+     * @param sName the name of the measurement
+     * @param nWarmup the number of unmeasured iterations to run first
+     * @param nOps the number of measured iterations
+     * @param body the code under measurement
+     * @return the result of the measurement
+     */
+    public static Result measure( String sName, int nWarmup, int nOps,
+                                  Body body )
+    {
+        for( int i = 0 ; i < nWarmup ; i++ ) body.run(i) ;
+        final long tsStart = System.nanoTime() ;
+        for( int i = 0 ; i < nOps ; i++ ) body.run(i) ;
+        final long nElapsed = System.nanoTime() - tsStart ;
+        final Result res = new Result( sName, nOps, nElapsed ) ;
+        Log.i( LOG_TAG, res.toString() ) ;
+        return res ;
+    }
+}
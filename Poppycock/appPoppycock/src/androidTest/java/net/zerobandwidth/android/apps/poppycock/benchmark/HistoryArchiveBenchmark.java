@@ -0,0 +1,175 @@
+package net.zerobandwidth.android.apps.poppycock.benchmark;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import net.zerobandwidth.android.apps.poppycock.database.HistoryArchive;
+import net.zerobandwidth.android.apps.poppycock.database.PoppycockDatabase;
+import net.zerobandwidth.android.apps.poppycock.model.Sentence;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures the throughput of {@link HistoryArchive} over files of a million
+ * rows. Each export is read back by an import into a second, empty scratch
+ * database. Results are logged in rows per second, and the heap in use after
+ * each transfer is logged too, to show that the files are streamed rather
+ * than held in memory.
+ * @since zerobandwidth-net/android-poppycock 1.0.2
+ */
+@RunWith( AndroidJUnit4.class )
+public class HistoryArchiveBenchmark
+{
+    /** A scratch database name, so that benchmarks never touch the record. */
+    protected static final String EXPORT_DATABASE_NAME =
+            "poppycock_benchmark_export_db" ;
+
+    /** The scratch database into which each file is imported. */
+    protected static final String IMPORT_DATABASE_NAME =
+            "poppycock_benchmark_import_db" ;
+
+    /** The number of rows seeded, and so exported and imported. */
+    protected static final int SEED_ROWS = 1000000 ;
+
+    protected static Context s_ctx = null ;
+
+    protected static PoppycockDatabase s_dbh = null ;
+
+    @BeforeClass
+    public static void setUpDatabase()
+    {
+        s_ctx = InstrumentationRegistry.getTargetContext() ;
+        s_ctx.deleteDatabase( EXPORT_DATABASE_NAME ) ;
+        s_dbh = (new PoppycockDatabase( s_ctx, EXPORT_DATABASE_NAME ))
+                .openDB() ;
+        final ArrayList<Sentence> aoBatch =
+                new ArrayList<>( HistoryArchive.IMPORT_BATCH_ROWS ) ;
+        for( int i = 0 ; i < SEED_ROWS ; i++ )
+        {
+            Sentence o = new Sentence() ;
+            o.nItemTS = i ;
+            o.sSentence = "Seeded nonsense, \"number\" " + i + "." ;
+            o.bIsFavorite = ( i % 10 == 0 ) ;
+            aoBatch.add( o ) ;
+            if( aoBatch.size() == HistoryArchive.IMPORT_BATCH_ROWS )
+            {
+                s_dbh.insertSentences( aoBatch ) ;
+                aoBatch.clear() ;
+            }
+        }
+        s_dbh.insertSentences( aoBatch ) ;
+    }
+
+    @AfterClass
+    public static void tearDownDatabase()
+    {
+        if( s_dbh != null ) s_dbh.closeDB().close() ;
+        s_dbh = null ;
+        s_ctx.deleteDatabase( EXPORT_DATABASE_NAME ) ;
+    }
+
+    /**
+     * Logs a transfer as a benchmark result whose operations are rows.
+     * @param sName the name of the measurement
+     * @param nRows the number of rows transferred
+     * @param tsStart the value of {@link System#nanoTime()} at the start
+     */
+    protected static void report( String sName, int nRows, long tsStart )
+    {
+        final Benchmark.Result res = new Benchmark.Result(
+                sName, nRows, System.nanoTime() - tsStart ) ;
+        final Runtime rt = Runtime.getRuntime() ;
+        Log.i( Benchmark.LOG_TAG, (new StringBuilder())
+                .append( res.toString() )
+                .append( " heap [" )
+                .append( ( rt.totalMemory() - rt.freeMemory() ) / 1024L )
+                .append( "KB]" )
+                .toString()
+            );
+    }
+
+    /**
+     * Exports the seeded database in one format, then imports the file.
+     * @param zFormat the format
+     * @param sExtension the extension of the scratch file
+     */
+    protected void measureRoundTrip( int zFormat, String sExtension )
+    throws IOException
+    {
+        final File f = new File( s_ctx.getCacheDir(),
+                "benchmark" + sExtension ) ;
+        s_ctx.deleteDatabase( IMPORT_DATABASE_NAME ) ;
+        PoppycockDatabase dbhImport = null ;
+        try
+        {
+            long tsStart = System.nanoTime() ;
+            FileOutputStream out = new FileOutputStream( f ) ;
+            try
+            {
+                assertEquals( SEED_ROWS, (new HistoryArchive( s_dbh ))
+                        .exportTo( out.getChannel(), zFormat ) ) ;
+            }
+            finally
+            { out.close() ; }
+            report( "HistoryArchive.exportTo" + sExtension, SEED_ROWS,
+                    tsStart ) ;
+            Log.i( Benchmark.LOG_TAG, (new StringBuilder())
+                    .append( "[HistoryArchive.exportTo" ).append( sExtension )
+                    .append( "] file [" ).append( f.length() / 1024L )
+                    .append( "KB]" )
+                    .toString()
+                );
+
+            dbhImport = (new PoppycockDatabase( s_ctx, IMPORT_DATABASE_NAME ))
+                    .openDB() ;
+            tsStart = System.nanoTime() ;
+            FileInputStream in = new FileInputStream( f ) ;
+            try
+            {
+                assertEquals( SEED_ROWS, (new HistoryArchive( dbhImport ))
+                        .importFrom( in.getChannel(), zFormat ) ) ;
+            }
+            finally
+            { in.close() ; }
+            report( "HistoryArchive.importFrom" + sExtension, SEED_ROWS,
+                    tsStart ) ;
+            assertEquals( SEED_ROWS / 10, dbhImport.countSentences( true ) ) ;
+        }
+        finally
+        {
+            if( dbhImport != null ) dbhImport.closeDB().close() ;
+            s_ctx.deleteDatabase( IMPORT_DATABASE_NAME ) ;
+            if( ! f.delete() )
+                Log.w( Benchmark.LOG_TAG, "Could not delete scratch file." ) ;
+        }
+    }
+
+    @Test
+    public void benchmarkNdjsonRoundTrip()
+    throws IOException
+    {
+        this.measureRoundTrip( HistoryArchive.FORMAT_NDJSON,
+                HistoryArchive.NDJSON_EXTENSION ) ;
+    }
+
+    @Test
+    public void benchmarkCsvRoundTrip()
+    throws IOException
+    {
+        this.measureRoundTrip( HistoryArchive.FORMAT_CSV,
+                HistoryArchive.CSV_EXTENSION ) ;
+    }
+}
@@ -0,0 +1,135 @@
+package net.zerobandwidth.android.apps.poppycock.benchmark;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import net.zerobandwidth.android.apps.poppycock.NonsensePool;
+import net.zerobandwidth.android.apps.poppycock.NonsenseSeeder;
+import net.zerobandwidth.android.apps.poppycock.database.PoppycockDatabase;
+import net.zerobandwidth.android.apps.poppycock.model.Sentence;
+import net.zerobandwidth.android.lib.nonsense.NonsenseBuilder;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures the throughput of nonsense generation, both directly from a
+ * {@link NonsenseBuilder} and through the {@link NonsensePool} as the UI
+ * consumes it, and of bulk seeding through the {@link NonsenseSeeder}.
+ * @since zerobandwidth-net/android-poppycock 1.0.2
+ */
+@RunWith( AndroidJUnit4.class )
+public class NonsenseBenchmark
+{
+    protected static final int WARMUP_OPS = 500 ;
+
+    protected static final int MEASURED_OPS = 5000 ;
+
+    /** A scratch database for the seeder, deleted after each run. */
+    protected static final String SEED_DATABASE_NAME =
+            "poppycock_seed_benchmark_db" ;
+
+    /** The number of sentences written by each run of the seeder. */
+    protected static final int SEED_ROWS = 20000 ;
+
+    /** Holds results so that the measured work can't be optimized away. */
+    protected volatile Object m_oSink = null ;
+
+    @Test
+    public void benchmarkNonsenseBuilder()
+    {
+        final NonsenseBuilder xyzzy = new NonsenseBuilder(
+                InstrumentationRegistry.getTargetContext() ) ;
+        Benchmark.measure( "NonsenseBuilder.getString", WARMUP_OPS,
+                MEASURED_OPS, new Benchmark.Body()
+        {
+            @Override
+            public void run( int i )
+            { m_oSink = xyzzy.getString() ; }
+        });
+        assertNotNull( m_oSink ) ;
+    }
+
+    /**
+     * Draws from the pool as fast as possible, which measures the blend of
+     * queue hits and inline misses when the consumer outruns the refill.
+     */
+    @Test
+    public void benchmarkNonsensePool()
+    {
+        final Context ctx = InstrumentationRegistry.getTargetContext() ;
+        final NonsensePool pool = new NonsensePool( ctx ) ;
+        try
+        {
+            Benchmark.measure( "NonsensePool.next", WARMUP_OPS, MEASURED_OPS,
+                    new Benchmark.Body()
+            {
+                @Override
+                public void run( int i )
+                { m_oSink = pool.next() ; }
+            });
+            assertNotNull( ((Sentence)m_oSink).sSentence ) ;
+            Log.i( Benchmark.LOG_TAG, (new StringBuilder())
+                    .append( "[NonsensePool.next] " )
+                    .append( pool.getStats().toString() )
+                    .toString()
+                );
+        }
+        finally
+        { pool.shutdown() ; }
+    }
+
+    /**
+     * Seeds a scratch database first with a single generator, then with one
+     * per core, so that the log shows how the rate scales with core count.
+     */
+    @Test
+    public void benchmarkNonsenseSeeder()
+    {
+        final Context ctx = InstrumentationRegistry.getTargetContext() ;
+        final int nCores = Runtime.getRuntime().availableProcessors() ;
+        NonsenseSeeder.Stats statsSingle = null ;
+        NonsenseSeeder.Stats statsAll = null ;
+        for( int nThreads : new int[] { 1, nCores } )
+        {
+            ctx.deleteDatabase( SEED_DATABASE_NAME ) ;
+            final PoppycockDatabase dbh =
+                (new PoppycockDatabase( ctx, SEED_DATABASE_NAME )).openDB() ;
+            try
+            {
+                final NonsenseSeeder.Stats stats =
+                        (new NonsenseSeeder( ctx, dbh ))
+                        .setThreadCount( nThreads )
+                        .seed( SEED_ROWS ) ;
+                assertEquals( SEED_ROWS, stats.nSentences ) ;
+                assertEquals( SEED_ROWS, dbh.countSentences( false )
+                        + dbh.countSentences( true ) ) ;
+                Log.i( Benchmark.LOG_TAG, (new StringBuilder())
+                        .append( "[NonsenseSeeder.seed] " )
+                        .append( stats.toString() )
+                        .toString()
+                    );
+                if( statsSingle == null ) statsSingle = stats ;
+                else statsAll = stats ;
+            }
+            finally
+            {
+                dbh.closeDB().close() ;
+                ctx.deleteDatabase( SEED_DATABASE_NAME ) ;
+            }
+        }
+        Log.i( Benchmark.LOG_TAG, (new StringBuilder())
+                .append( "[NonsenseSeeder.seed] speedup on [" )
+                .append( nCores ).append( "] cores [" )
+                .append( String.format( "%.2f",
+                        statsAll.getSentencesPerSecond()
+                            / statsSingle.getSentencesPerSecond() ) )
+                .append( "x]" )
+                .toString()
+            );
+    }
+}
@@ -0,0 +1,240 @@
+package net.zerobandwidth.android.apps.poppycock.benchmark;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import net.zerobandwidth.android.apps.poppycock.database.PoppycockDatabase;
+import net.zerobandwidth.android.apps.poppycock.database.SentenceCache;
+import net.zerobandwidth.android.apps.poppycock.database.SentencePage;
+import net.zerobandwidth.android.apps.poppycock.model.Sentence;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures the insert and query paths of {@link PoppycockDatabase} against a
+ * scratch database seeded with a large history, which is shared by all of the
+ * measurements in this class.
+ * @since zerobandwidth-net/android-poppycock 1.0.2
+ */
+@RunWith( AndroidJUnit4.class )
+public class PoppycockDatabaseBenchmark
+{
+    /** A scratch database name, so that benchmarks never touch the record. */
+    protected static final String BENCHMARK_DATABASE_NAME =
+            "poppycock_benchmark_db" ;
+
+    /** The number of rows seeded before any measurement. */
+    protected static final int SEED_ROWS = 100000 ;
+
+    protected static final int WARMUP_OPS = 100 ;
+
+    protected static final int MEASURED_OPS = 1000 ;
+
+    protected static Context s_ctx = null ;
+
+    protected static PoppycockDatabase s_dbh = null ;
+
+    /** Holds results so that the measured work can't be optimized away. */
+    protected volatile Object m_oSink = null ;
+
+    @BeforeClass
+    public static void setUpDatabase()
+    {
+        s_ctx = InstrumentationRegistry.getTargetContext() ;
+        s_ctx.deleteDatabase( BENCHMARK_DATABASE_NAME ) ;
+        s_dbh = (new PoppycockDatabase( s_ctx, BENCHMARK_DATABASE_NAME ))
+                .openDB() ;
+        for( int i = 0 ; i < SEED_ROWS ; i++ )
+        {
+            Sentence o = new Sentence() ;
+            o.nItemTS = i ;
+            o.sSentence = "Seeded nonsense number " + i + "." ;
+            o.bIsFavorite = ( i % 10 == 0 ) ;
+            if( s_dbh.bufferSentence(o) ) s_dbh.flushWrites() ;
+        }
+        s_dbh.flushWrites() ;
+    }
+
+    @AfterClass
+    public static void tearDownDatabase()
+    {
+        if( s_dbh != null ) s_dbh.closeDB().close() ;
+        s_dbh = null ;
+        s_ctx.deleteDatabase( BENCHMARK_DATABASE_NAME ) ;
+    }
+
+    @Test
+    public void benchmarkInsertSentence()
+    {
+        Benchmark.measure( "PoppycockDatabase.insertSentence", WARMUP_OPS,
+                MEASURED_OPS, new Benchmark.Body()
+        {
+            @Override
+            public void run( int i )
+            {
+                Sentence o = new Sentence() ;
+                o.sSentence = "Benchmarked nonsense number " + i + "." ;
+                m_oSink = s_dbh.insertSentence(o) ;
+            }
+        });
+        assertNotEquals( Sentence.NOT_IDENTIFIED,
+                ((Sentence)m_oSink).nItemID ) ;
+    }
+
+    /** Each operation is one full batch of buffered inserts. */
+    @Test
+    public void benchmarkBufferedInsertBatch()
+    {
+        Benchmark.measure( (new StringBuilder())
+                    .append( "PoppycockDatabase.bufferSentence+flushWrites x" )
+                    .append( PoppycockDatabase.WRITE_BUFFER_MAX_ROWS )
+                    .toString(),
+                WARMUP_OPS / 10, MEASURED_OPS / 10, new Benchmark.Body()
+        {
+            @Override
+            public void run( int i )
+            {
+                for( int j = 0 ; j < PoppycockDatabase.WRITE_BUFFER_MAX_ROWS ;
+                     j++ )
+                {
+                    Sentence o = new Sentence() ;
+                    o.sSentence = "Buffered nonsense number " + j + "." ;
+                    s_dbh.bufferSentence(o) ;
+                }
+                m_oSink = s_dbh.flushWrites() ;
+            }
+        });
+        assertEquals( PoppycockDatabase.WRITE_BUFFER_MAX_ROWS,
+                ((Integer)m_oSink).intValue() ) ;
+    }
+
+    /** Measures lookups which always reach the database. */
+    @Test
+    public void benchmarkGetSentence()
+    {
+        s_dbh.setSentenceCacheBudget( 0 ) ;
+        try
+        {
+            Benchmark.measure( "PoppycockDatabase.getSentence", WARMUP_OPS,
+                    MEASURED_OPS, new Benchmark.Body()
+            {
+                @Override
+                public void run( int i )
+                {
+                    m_oSink = s_dbh.getSentence(
+                            1L + ( i * 97L ) % SEED_ROWS ) ;
+                }
+            });
+        }
+        finally
+        { s_dbh.setSentenceCacheBudget( SentenceCache.DEFAULT_BUDGET_BYTES ) ; }
+        assertNotNull( m_oSink ) ;
+    }
+
+    /** Measures lookups which cycle through a set that fits in the cache. */
+    @Test
+    public void benchmarkGetSentenceCached()
+    {
+        final SentenceCache cache = s_dbh.getSentenceCache().clear() ;
+        final long nHitsBefore = cache.getHitCount() ;
+        Benchmark.measure( "PoppycockDatabase.getSentence (cached)",
+                WARMUP_OPS, MEASURED_OPS, new Benchmark.Body()
+        {
+            @Override
+            public void run( int i )
+            {
+                m_oSink = s_dbh.getSentence(
+                        1L + ( i % WARMUP_OPS ) * 97L ) ;
+            }
+        });
+        assertNotNull( m_oSink ) ;
+        assertTrue( cache.getHitCount() - nHitsBefore >= MEASURED_OPS ) ;
+        Log.i( Benchmark.LOG_TAG, cache.toString() ) ;
+    }
+
+    @Test
+    public void benchmarkFirstHistoryPage()
+    {
+        Benchmark.measure( "PoppycockDatabase.fetchHistoryPage (first)",
+                WARMUP_OPS, MEASURED_OPS, new Benchmark.Body()
+        {
+            @Override
+            public void run( int i )
+            {
+                SentencePage pg = s_dbh.fetchHistoryPage( false, null,
+                        PoppycockDatabase.DEFAULT_PAGE_SIZE ) ;
+                m_oSink = pg.getSentence( pg.size() - 1 ) ;
+                pg.close() ;
+            }
+        });
+        assertNotNull( m_oSink ) ;
+    }
+
+    /** Keys each page from halfway through the history. */
+    @Test
+    public void benchmarkDeepHistoryPage()
+    {
+        final SentencePage pgDeep = s_dbh.fetchHistoryPage( true, null,
+                SEED_ROWS / 2 ) ;
+        try
+        {
+            Benchmark.measure( "PoppycockDatabase.fetchHistoryPage (deep)",
+                    WARMUP_OPS, MEASURED_OPS, new Benchmark.Body()
+            {
+                @Override
+                public void run( int i )
+                {
+                    SentencePage pg = s_dbh.fetchHistoryPage( true, pgDeep,
+                            PoppycockDatabase.DEFAULT_PAGE_SIZE ) ;
+                    m_oSink = pg.getSentence( pg.size() - 1 ) ;
+                    pg.close() ;
+                }
+            });
+        }
+        finally
+        { pgDeep.close() ; }
+        assertNotNull( m_oSink ) ;
+    }
+
+    @Test
+    public void benchmarkFirstFavoritesPage()
+    {
+        Benchmark.measure( "PoppycockDatabase.fetchFavoritesPage (first)",
+                WARMUP_OPS, MEASURED_OPS, new Benchmark.Body()
+        {
+            @Override
+            public void run( int i )
+            {
+                SentencePage pg = s_dbh.fetchFavoritesPage( false, null,
+                        PoppycockDatabase.DEFAULT_PAGE_SIZE ) ;
+                m_oSink = pg.getSentence( pg.size() - 1 ) ;
+                pg.close() ;
+            }
+        });
+        assertNotNull( m_oSink ) ;
+    }
+
+    /** The materialized list path, for comparison with the cursor pages. */
+    @Test
+    public void benchmarkHistoryPageList()
+    {
+        Benchmark.measure( "PoppycockDatabase.getHistoryPage", WARMUP_OPS,
+                MEASURED_OPS, new Benchmark.Body()
+        {
+            @Override
+            public void run( int i )
+            {
+                m_oSink = s_dbh.getHistoryPage( false, null,
+                        PoppycockDatabase.DEFAULT_PAGE_SIZE ) ;
+            }
+        });
+        assertNotNull( m_oSink ) ;
+    }
+}
@@ -0,0 +1,111 @@
+package net.zerobandwidth.android.apps.poppycock.benchmark;
+
+import android.content.ContentValues;
+import android.database.MatrixCursor;
+import android.os.Parcel;
+import android.support.test.runner.AndroidJUnit4;
+
+import net.zerobandwidth.android.apps.poppycock.database.SentenceRowMapper;
+import net.zerobandwidth.android.apps.poppycock.model.Sentence;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures the cost of marshalling a {@link Sentence} into and out of the
+ * database and parcel formats.
+ * @since zerobandwidth-net/android-poppycock 1.0.2
+ */
+@RunWith( AndroidJUnit4.class )
+public class SentenceBenchmark
+{
+    protected static final int WARMUP_OPS = 10000 ;
+
+    protected static final int MEASURED_OPS = 100000 ;
+
+    /** Holds results so that the measured work can't be optimized away. */
+    protected volatile Object m_oSink = null ;
+
+    /** @return a representative sentence */
+    protected Sentence sample()
+    {
+        Sentence o = new Sentence() ;
+        o.nItemID = 12345L ;
+        o.sSentence = "The perspicacious walrus regrets nothing, obliquely." ;
+        o.bIsFavorite = true ;
+        return o ;
+    }
+
+    @Test
+    public void benchmarkToContentValues()
+    {
+        final Sentence o = this.sample() ;
+        Benchmark.Result res = Benchmark.measure( "Sentence.toContentValues",
+                WARMUP_OPS, MEASURED_OPS, new Benchmark.Body()
+        {
+            @Override
+            public void run( int i )
+            { m_oSink = o.toContentValues() ; }
+        });
+        assertTrue( ((ContentValues)m_oSink).containsKey( "sentence" ) ) ;
+        assertTrue( res.nNanos > 0L ) ;
+    }
+
+    @Test
+    public void benchmarkFromCursor()
+    {
+        final MatrixCursor crs = new MatrixCursor(
+                SentenceRowMapper.PROJECTION, 1 ) ;
+        crs.addRow( new Object[]
+            { 12345L, 1000000L, "The walrus, again.", 1 } ) ;
+        crs.moveToFirst() ;
+        try
+        {
+            Benchmark.measure( "Sentence.fromCursor", WARMUP_OPS,
+                    MEASURED_OPS, new Benchmark.Body()
+            {
+                @Override
+                public void run( int i )
+                { m_oSink = Sentence.fromCursor( crs ) ; }
+            });
+            final SentenceRowMapper map = new SentenceRowMapper( crs ) ;
+            Benchmark.measure( "SentenceRowMapper.map", WARMUP_OPS,
+                    MEASURED_OPS, new Benchmark.Body()
+            {
+                @Override
+                public void run( int i )
+                { m_oSink = map.map( crs ) ; }
+            });
+            assertEquals( 12345L, ((Sentence)m_oSink).nItemID ) ;
+        }
+        finally
+        { crs.close() ; }
+    }
+
+    @Test
+    public void benchmarkParcelRoundTrip()
+    {
+        final Sentence o = this.sample() ;
+        final Parcel pcl = Parcel.obtain() ;
+        try
+        {
+            Benchmark.measure( "Sentence.writeToParcel+readFromParcel",
+                    WARMUP_OPS, MEASURED_OPS, new Benchmark.Body()
+            {
+                @Override
+                public void run( int i )
+                {
+                    pcl.setDataPosition(0) ;
+                    o.writeToParcel( pcl, 0 ) ;
+                    pcl.setDataPosition(0) ;
+                    m_oSink = (new Sentence()).readFromParcel( pcl ) ;
+                }
+            });
+            assertEquals( o.sSentence, ((Sentence)m_oSink).sSentence ) ;
+        }
+        finally
+        { pcl.recycle() ; }
+    }
+}
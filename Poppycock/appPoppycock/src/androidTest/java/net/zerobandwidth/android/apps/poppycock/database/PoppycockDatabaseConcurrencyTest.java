@@ -0,0 +1,246 @@
+package net.zerobandwidth.android.apps.poppycock.database;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import net.zerobandwidth.android.apps.poppycock.model.Sentence;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Hammers {@link PoppycockDatabase} with several reader threads and one writer
+ * thread at once, and logs the throughput of each, first with the rollback
+ * journal and a single global lock (as the class worked before), and then in
+ * write-ahead logging mode with no lock around reads.
+ * @since zerobandwidth-net/android-poppycock 1.0.2
+ */
+@RunWith( AndroidJUnit4.class )
+public class PoppycockDatabaseConcurrencyTest
+{
+    protected static final String LOG_TAG =
+            PoppycockDatabaseConcurrencyTest.class.getSimpleName() ;
+
+    /** A scratch database name, so that tests never touch the real record. */
+    protected static final String TEST_DATABASE_NAME =
+            "poppycock_concurrency_test_db" ;
+
+    /** The number of rows seeded before each run. */
+    protected static final int SEED_ROWS = 10000 ;
+
+    /** The number of threads reading pages. */
+    protected static final int READER_THREADS = 4 ;
+
+    /** The number of pages each read operation walks through. */
+    protected static final int PAGES_PER_READ = 3 ;
+
+    /** The duration of each run. */
+    protected static final long RUN_MILLIS = 3000L ;
+
+    /** The number of reads and writes completed in one run. */
+    protected static class Throughput
+    {
+        public long nReads = 0L ;
+        public long nWrites = 0L ;
+
+        @Override
+        public String toString()
+        {
+            return (new StringBuilder())
+                .append( "reads/s [" )
+                .append( nReads * 1000L / RUN_MILLIS )
+                .append( "] writes/s [" )
+                .append( nWrites * 1000L / RUN_MILLIS )
+                .append( "]" )
+                .toString()
+                ;
+        }
+    }
+
+    protected Context m_ctx = null ;
+
+    protected PoppycockDatabase m_dbh = null ;
+
+    @Before
+    public void setUp()
+    {
+        m_ctx = InstrumentationRegistry.getTargetContext() ;
+        m_ctx.deleteDatabase( TEST_DATABASE_NAME ) ;
+    }
+
+    @After
+    public void tearDown()
+    {
+        if( m_dbh != null ) m_dbh.closeDB().close() ;
+        m_dbh = null ;
+        m_ctx.deleteDatabase( TEST_DATABASE_NAME ) ;
+    }
+
+    /**
+     * Opens a fresh scratch database and seeds it.
+     * @param bWAL whether to enable write-ahead logging
+     */
+    protected void open( boolean bWAL )
+    {
+        if( m_dbh != null ) m_dbh.closeDB().close() ;
+        m_ctx.deleteDatabase( TEST_DATABASE_NAME ) ;
+        m_dbh = (new PoppycockDatabase( m_ctx, TEST_DATABASE_NAME ))
+                .setWriteAheadLogging( bWAL )
+                .openDB()
+                ;
+        for( int i = 0 ; i < SEED_ROWS ; i++ )
+        {
+            Sentence o = new Sentence() ;
+            o.nItemTS = i ;
+            o.sSentence = "Seeded nonsense number " + i + "." ;
+            o.bIsFavorite = ( i % 10 == 0 ) ;
+            if( m_dbh.bufferSentence(o) ) m_dbh.flushWrites() ;
+        }
+        m_dbh.flushWrites() ;
+    }
+
+    /**
+     * Runs readers and a writer against the open database for
+     * {@link #RUN_MILLIS}.
+     * @param oLock if not {@code null}, then every operation is synchronized
+     *  on this object, emulating the former global monitor
+     * @return the number of operations completed
+     * @throws Exception if any thread failed
+     */
+    protected Throughput run( final Object oLock )
+    throws Exception
+    {
+        final AtomicLong nReads = new AtomicLong(0L) ;
+        final AtomicLong nWrites = new AtomicLong(0L) ;
+        final AtomicReference<Throwable> refError = new AtomicReference<>() ;
+        final CountDownLatch latchStart = new CountDownLatch(1) ;
+        final CountDownLatch latchDone =
+                new CountDownLatch( READER_THREADS + 1 ) ;
+        final long[] tsStop = new long[1] ;
+        ArrayList<Thread> at = new ArrayList<>() ;
+
+        for( int i = 0 ; i < READER_THREADS ; i++ )
+        {
+            at.add( new Thread( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        latchStart.await() ;
+                        while( System.currentTimeMillis() < tsStop[0] )
+                        {
+                            if( oLock != null )
+                                synchronized( oLock ) { readPages() ; }
+                            else readPages() ;
+                            nReads.incrementAndGet() ;
+                        }
+                    }
+                    catch( Throwable x ) { refError.compareAndSet( null, x ) ; }
+                    finally { latchDone.countDown() ; }
+                }
+            }, "StressReader-" + i ) ) ;
+        }
+
+        at.add( new Thread( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    latchStart.await() ;
+                    int i = 0 ;
+                    while( System.currentTimeMillis() < tsStop[0] )
+                    {
+                        if( oLock != null )
+                            synchronized( oLock ) { writeOne(i) ; }
+                        else writeOne(i) ;
+                        nWrites.incrementAndGet() ;
+                        ++i ;
+                    }
+                }
+                catch( Throwable x ) { refError.compareAndSet( null, x ) ; }
+                finally { latchDone.countDown() ; }
+            }
+        }, "StressWriter" ) ) ;
+
+        for( Thread t : at ) t.start() ;
+        tsStop[0] = System.currentTimeMillis() + RUN_MILLIS ;
+        latchStart.countDown() ;
+        assertTrue( latchDone.await( RUN_MILLIS * 10L,
+                TimeUnit.MILLISECONDS ) ) ;
+        if( refError.get() != null )
+            throw new AssertionError( refError.get() ) ;
+
+        Throughput tp = new Throughput() ;
+        tp.nReads = nReads.get() ;
+        tp.nWrites = nWrites.get() ;
+        return tp ;
+    }
+
+    /** Walks the first few pages of the history, newest first. */
+    protected void readPages()
+    {
+        SentencePage pgPrevious = null ;
+        for( int i = 0 ; i < PAGES_PER_READ ; i++ )
+        {
+            SentencePage pg = m_dbh.fetchHistoryPage( false, pgPrevious,
+                    PoppycockDatabase.DEFAULT_PAGE_SIZE ) ;
+            for( int j = 0 ; j < pg.size() ; j++ ) pg.getSentence(j) ;
+            if( pgPrevious != null ) pgPrevious.close() ;
+            pgPrevious = pg ;
+        }
+        if( pgPrevious != null ) pgPrevious.close() ;
+    }
+
+    /**
+     * Inserts one sentence and toggles it, as the UI would.
+     * @param i a serial number for the sentence
+     */
+    protected void writeOne( int i )
+    {
+        Sentence o = new Sentence() ;
+        o.nItemTS = SEED_ROWS + i ;
+        o.sSentence = "Stressful nonsense number " + i + "." ;
+        m_dbh.insertSentence(o) ;
+        m_dbh.toggleFavorite(o) ;
+    }
+
+    @Test
+    public void testConcurrentReadersAndWriter()
+    throws Exception
+    {
+        this.open( false ) ;
+        final Throughput tpLocked = this.run( new Object() ) ;
+        this.open( true ) ;
+        final Throughput tpWAL = this.run( null ) ;
+
+        Log.i( LOG_TAG, (new StringBuilder())
+                .append( "Rollback journal with global lock: " )
+                .append( tpLocked.toString() )
+                .append( "; write-ahead log with concurrent readers: " )
+                .append( tpWAL.toString() )
+                .toString()
+            );
+
+        assertTrue( tpWAL.nReads > 0L ) ;
+        assertTrue( tpWAL.nWrites > 0L ) ;
+        // Every write must have landed, regardless of the readers.
+        assertEquals( SEED_ROWS + tpWAL.nWrites,
+                m_dbh.getHistory( false ).size() ) ;
+    }
+}
@@ -0,0 +1,1144 @@
+package net.zerobandwidth.android.apps.poppycock.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import net.zerobandwidth.android.apps.poppycock.model.Sentence;
+import net.zerobandwidth.android.lib.database.SQLitePortal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Exercises the schema and paged queries of {@link PoppycockDatabase} against
+ * a scratch database on the device.
+ * @since zerobandwidth-net/android-poppycock 1.0.2
+ */
+@RunWith( AndroidJUnit4.class )
+public class PoppycockDatabaseTest
+{
+    protected static final String LOG_TAG =
+            PoppycockDatabaseTest.class.getSimpleName() ;
+
+    /** A scratch database name, so that tests never touch the real record. */
+    protected static final String TEST_DATABASE_NAME = "poppycock_test_db" ;
+
+    /** The number of rows seeded for timing tests. */
+    protected static final int LARGE_HISTORY_SIZE = 100000 ;
+
+    /** The number of rows seeded for the full-text search timing test. */
+    protected static final int SEARCH_HISTORY_SIZE = 500000 ;
+
+    /**
+     * The sentence table as it was defined before schema version 4, in which
+     * each row kept its own copy of its text.
+     */
+    protected static final String LEGACY_SENTENCE_TABLE_SQL =
+              "CREATE TABLE " + PoppycockDatabase.SENTENCE_TABLE_NAME + " ("
+            + "item_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + "item_ts INTEGER, "
+            + "sentence TEXT, "
+            + "favorite INT "
+            + ") ;"
+            ;
+
+    protected Context m_ctx = null ;
+
+    protected PoppycockDatabase m_dbh = null ;
+
+    @Before
+    public void setUp()
+    {
+        m_ctx = InstrumentationRegistry.getTargetContext() ;
+        m_ctx.deleteDatabase( TEST_DATABASE_NAME ) ;
+        m_dbh = (new PoppycockDatabase( m_ctx, TEST_DATABASE_NAME )).openDB() ;
+    }
+
+    @After
+    public void tearDown()
+    {
+        if( m_dbh != null ) m_dbh.closeDB().close() ;
+        m_ctx.deleteDatabase( TEST_DATABASE_NAME ) ;
+    }
+
+    /**
+     * Seeds the scratch database with a history in which every tenth sentence
+     * is a favorite.
+     * @param nRows the number of rows to write
+     */
+    protected void seed( int nRows )
+    {
+        final SQLiteDatabase db = m_dbh.getWritableDatabase() ;
+        final long tsStart = System.currentTimeMillis() - nRows ;
+        synchronized( m_dbh.m_oWriteLock )
+        {
+            db.beginTransaction() ;
+            try
+            {
+                for( int i = 0 ; i < nRows ; i++ )
+                {
+                    Sentence o = new Sentence() ;
+                    o.nItemTS = tsStart + i ;
+                    o.sSentence = "Seeded nonsense number " + i + "." ;
+                    o.bIsFavorite = ( i % 10 == 0 ) ;
+                    m_dbh.writeSentence(o) ;
+                }
+                db.setTransactionSuccessful() ;
+            }
+            finally
+            { db.endTransaction() ; }
+        }
+    }
+
+    /**
+     * Gathers the detail lines of SQLite's query plan for a statement.
+     * @param sSQL the statement to be explained
+     * @param asArgs arguments to the statement
+     * @return the plan, one step per line
+     */
+    protected String explain( String sSQL, String[] asArgs )
+    {
+        StringBuilder sb = new StringBuilder() ;
+        Cursor crs = m_dbh.getReadableDatabase().rawQuery(
+                "EXPLAIN QUERY PLAN " + sSQL, asArgs ) ;
+        try
+        {
+            final int nDetail = crs.getColumnIndex( "detail" ) ;
+            while( crs.moveToNext() )
+                sb.append( crs.getString( nDetail ) ).append( "\n" ) ;
+        }
+        finally
+        { crs.close() ; }
+        Log.i( LOG_TAG, "Plan for [" + sSQL + "]:\n" + sb.toString() ) ;
+        return sb.toString() ;
+    }
+
+    @Test
+    public void testUpgradeFromVersion1AddsIndexes()
+    {
+        SQLiteDatabase db = SQLiteDatabase.create(null) ;
+        try
+        {
+            db.execSQL( LEGACY_SENTENCE_TABLE_SQL ) ;
+            m_dbh.onUpgrade( db, 1, PoppycockDatabase.SCHEMA_VERSION ) ;
+            Cursor crs = db.rawQuery( "SELECT name FROM sqlite_master "
+                    + "WHERE type='index' AND tbl_name=?",
+                    new String[] { PoppycockDatabase.SENTENCE_TABLE_NAME } ) ;
+            ArrayList<String> asIndexes = new ArrayList<>() ;
+            while( crs.moveToNext() ) asIndexes.add( crs.getString(0) ) ;
+            crs.close() ;
+            assertTrue( asIndexes.contains(
+                    PoppycockDatabase.SENTENCE_TS_INDEX_NAME ) ) ;
+            assertTrue( asIndexes.contains(
+                    PoppycockDatabase.SENTENCE_FAVORITE_INDEX_NAME ) ) ;
+        }
+        finally
+        { db.close() ; }
+    }
+
+    @Test
+    public void testHistoryPageUsesSortIndex()
+    {
+        seed( 1000 ) ;
+        final String sPlan = this.explain(
+                "SELECT * FROM " + PoppycockDatabase.SENTENCE_VIEW_NAME
+              + " WHERE " + PoppycockDatabase.KEYSET_AFTER_DESC
+              + " ORDER BY " + PoppycockDatabase.PAGE_ORDER_DESC
+              + " LIMIT 50",
+                new String[] { "500", "500", "500" } ) ;
+        assertTrue( sPlan.contains( PoppycockDatabase.SENTENCE_TS_INDEX_NAME ) ) ;
+        assertFalse( sPlan.contains( "TEMP B-TREE" ) ) ;
+    }
+
+    @Test
+    public void testFavoritesPageUsesFavoriteIndex()
+    {
+        seed( 1000 ) ;
+        final String sPlan = this.explain(
+                "SELECT * FROM " + PoppycockDatabase.SENTENCE_VIEW_NAME
+              + " WHERE favorite=? ORDER BY "
+              + PoppycockDatabase.PAGE_ORDER_ASC + " LIMIT 50",
+                new String[] { "1" } ) ;
+        assertTrue( sPlan.contains(
+                PoppycockDatabase.SENTENCE_FAVORITE_INDEX_NAME ) ) ;
+        assertFalse( sPlan.contains( "TEMP B-TREE" ) ) ;
+    }
+
+    @Test
+    public void testPagesFollowKeyset()
+    {
+        seed( 125 ) ;
+        ArrayList<Sentence> aoAll = new ArrayList<>() ;
+        ArrayList<Sentence> aoPage = m_dbh.getHistoryPage( false, null, 50 ) ;
+        while( ! aoPage.isEmpty() )
+        {
+            aoAll.addAll( aoPage ) ;
+            aoPage = m_dbh.getHistoryPage( false,
+                    aoPage.get( aoPage.size() - 1 ), 50 ) ;
+        }
+        assertEquals( 125, aoAll.size() ) ;
+        for( int i = 1 ; i < aoAll.size() ; i++ )
+            assertTrue( aoAll.get(i-1).nItemTS > aoAll.get(i).nItemTS ) ;
+    }
+
+    /**
+     * Logs the time taken to fetch the first and a deep page, compared with
+     * loading the entire history, on a large seeded database.
+     */
+    @Test
+    public void testPagedQueryTimingOnLargeHistory()
+    {
+        seed( LARGE_HISTORY_SIZE ) ;
+
+        long tsStart = SystemClock.elapsedRealtime() ;
+        ArrayList<Sentence> aoFirst = m_dbh.getHistoryPage( false, null,
+                PoppycockDatabase.DEFAULT_PAGE_SIZE ) ;
+        final long nFirstPage = SystemClock.elapsedRealtime() - tsStart ;
+        assertEquals( PoppycockDatabase.DEFAULT_PAGE_SIZE, aoFirst.size() ) ;
+
+        Sentence oDeep = m_dbh.getSentence( LARGE_HISTORY_SIZE / 10 ) ;
+        tsStart = SystemClock.elapsedRealtime() ;
+        ArrayList<Sentence> aoDeep = m_dbh.getHistoryPage( false, oDeep,
+                PoppycockDatabase.DEFAULT_PAGE_SIZE ) ;
+        final long nDeepPage = SystemClock.elapsedRealtime() - tsStart ;
+        assertEquals( PoppycockDatabase.DEFAULT_PAGE_SIZE, aoDeep.size() ) ;
+
+        tsStart = SystemClock.elapsedRealtime() ;
+        ArrayList<Sentence> aoFavorites = m_dbh.getFavoritesPage( true, null,
+                PoppycockDatabase.DEFAULT_PAGE_SIZE ) ;
+        final long nFavoritesPage = SystemClock.elapsedRealtime() - tsStart ;
+        assertEquals( PoppycockDatabase.DEFAULT_PAGE_SIZE, aoFavorites.size() ) ;
+
+        tsStart = SystemClock.elapsedRealtime() ;
+        ArrayList<Sentence> aoAll = m_dbh.getHistory( false ) ;
+        final long nFullLoad = SystemClock.elapsedRealtime() - tsStart ;
+        assertEquals( LARGE_HISTORY_SIZE, aoAll.size() ) ;
+
+        Log.i( LOG_TAG, (new StringBuilder())
+                .append( "Timings over [" ).append( LARGE_HISTORY_SIZE )
+                .append( "] rows: first page [" ).append( nFirstPage )
+                .append( "ms], deep page [" ).append( nDeepPage )
+                .append( "ms], favorites page [" ).append( nFavoritesPage )
+                .append( "ms], full history [" ).append( nFullLoad )
+                .append( "ms]" )
+                .toString()
+            );
+    }
+
+    @Test
+    public void testUpgradeFromVersion2BuildsSearchIndex()
+    {
+        SQLiteDatabase db = SQLiteDatabase.create(null) ;
+        try
+        {
+            db.execSQL( LEGACY_SENTENCE_TABLE_SQL ) ;
+            db.execSQL( "INSERT INTO " + PoppycockDatabase.SENTENCE_TABLE_NAME
+                    + " ( item_ts, sentence, favorite )"
+                    + " VALUES ( 1, 'The walrus was here first.', 0 )" ) ;
+            m_dbh.onUpgrade( db, 2, PoppycockDatabase.SCHEMA_VERSION ) ;
+            Cursor crs = db.rawQuery( "SELECT docid FROM "
+                    + PoppycockDatabase.SENTENCE_FTS_TABLE_NAME + " WHERE "
+                    + PoppycockDatabase.SENTENCE_FTS_TABLE_NAME + " MATCH ?",
+                    new String[] { "walrus" } ) ;
+            assertEquals( 1, crs.getCount() ) ;
+            crs.close() ;
+        }
+        finally
+        { db.close() ; }
+    }
+
+    @Test
+    public void testMatchExpressionDiscardsOperators()
+    {
+        assertNull( PoppycockDatabase.toMatchExpression( null ) ) ;
+        assertNull( PoppycockDatabase.toMatchExpression( " \"*- " ) ) ;
+        assertEquals( "walrus* or* carp*",
+                PoppycockDatabase.toMatchExpression( "\"Walrus\" OR-carp*" ) ) ;
+    }
+
+    /**
+     * Inserts a sentence through the public API.
+     * @param sSentence the nonsense
+     * @return the inserted sentence
+     */
+    protected Sentence insert( String sSentence )
+    {
+        Sentence o = new Sentence() ;
+        o.sSentence = sSentence ;
+        return m_dbh.insertSentence(o) ;
+    }
+
+    /**
+     * Collects the IDs from a page of search results, and closes it.
+     * @param pg the page
+     * @return the IDs, in order
+     */
+    protected ArrayList<Long> idsOf( SentencePage pg )
+    {
+        ArrayList<Long> anIDs = new ArrayList<>() ;
+        for( int i = 0 ; i < pg.size() ; i++ ) anIDs.add( pg.getItemID(i) ) ;
+        pg.close() ;
+        return anIDs ;
+    }
+
+    @Test
+    public void testSearchRanksAndPages()
+    {
+        final Sentence oOnce = this.insert( "A walrus ate the cabbage." ) ;
+        final Sentence oTwice = this.insert( "Walrus, walrus, sealing wax." ) ;
+        final Sentence oNone = this.insert( "The carpenter said nothing." ) ;
+        final Sentence oLater = this.insert( "The walrus regrets nothing." ) ;
+
+        ArrayList<Long> anIDs = this.idsOf( m_dbh.search( "walrus", false,
+                0, PoppycockDatabase.DEFAULT_PAGE_SIZE ) ) ;
+        assertEquals( 3, anIDs.size() ) ;
+        assertEquals( oTwice.nItemID, anIDs.get(0).longValue() ) ;
+        assertEquals( oLater.nItemID, anIDs.get(1).longValue() ) ; // newer tie
+        assertEquals( oOnce.nItemID, anIDs.get(2).longValue() ) ;
+        assertFalse( anIDs.contains( oNone.nItemID ) ) ;
+
+        anIDs = this.idsOf( m_dbh.search( "walrus", false, 1, 1 ) ) ;
+        assertEquals( 1, anIDs.size() ) ;
+        assertEquals( oLater.nItemID, anIDs.get(0).longValue() ) ;
+
+        anIDs = this.idsOf( m_dbh.search( "WAL noth", false, 0, 10 ) ) ;
+        assertEquals( 1, anIDs.size() ) ;
+        assertEquals( oLater.nItemID, anIDs.get(0).longValue() ) ;
+
+        m_dbh.toggleFavorite( oOnce ) ;
+        anIDs = this.idsOf( m_dbh.search( "walrus", true, 0, 10 ) ) ;
+        assertEquals( 1, anIDs.size() ) ;
+        assertEquals( oOnce.nItemID, anIDs.get(0).longValue() ) ;
+    }
+
+    @Test
+    public void testSearchIndexFollowsDeletes()
+    {
+        final Sentence oKeep = this.insert( "An oyster worth keeping." ) ;
+        this.insert( "An oyster worth forgetting." ) ;
+        m_dbh.toggleFavorite( oKeep ) ;
+        m_dbh.delete( false ) ;
+        ArrayList<Long> anIDs = this.idsOf(
+                m_dbh.search( "oyster", false, 0, 10 ) ) ;
+        assertEquals( 1, anIDs.size() ) ;
+        assertEquals( oKeep.nItemID, anIDs.get(0).longValue() ) ;
+    }
+
+    /**
+     * Logs the time taken by a selective search and by a search which matches
+     * every row, on a very large seeded database.
+     */
+    @Test
+    public void testSearchTimingOnLargeHistory()
+    {
+        seed( SEARCH_HISTORY_SIZE ) ;
+
+        long tsStart = SystemClock.elapsedRealtime() ;
+        ArrayList<Long> anIDs = this.idsOf( m_dbh.search( "number 424242",
+                false, 0, PoppycockDatabase.DEFAULT_PAGE_SIZE ) ) ;
+        final long nSelective = SystemClock.elapsedRealtime() - tsStart ;
+        assertEquals( 1, anIDs.size() ) ;
+
+        tsStart = SystemClock.elapsedRealtime() ;
+        anIDs = this.idsOf( m_dbh.search( "seeded", false,
+                PoppycockDatabase.DEFAULT_PAGE_SIZE,
+                PoppycockDatabase.DEFAULT_PAGE_SIZE ) ) ;
+        final long nEverything = SystemClock.elapsedRealtime() - tsStart ;
+        assertEquals( PoppycockDatabase.DEFAULT_PAGE_SIZE, anIDs.size() ) ;
+
+        Log.i( LOG_TAG, (new StringBuilder())
+                .append( "Search timings over [" ).append( SEARCH_HISTORY_SIZE )
+                .append( "] rows: selective [" ).append( nSelective )
+                .append( "ms], matching every row [" ).append( nEverything )
+                .append( "ms]" )
+                .toString()
+            );
+    }
+
+    /**
+     * Counts the sentences in the scratch database.
+     * @param bFavorites whether to count favorites or non-favorites
+     * @return the number of sentences
+     */
+    protected long count( boolean bFavorites )
+    {
+        Cursor crs = m_dbh.getReadableDatabase().rawQuery(
+                "SELECT COUNT(*) FROM " + PoppycockDatabase.SENTENCE_TABLE_NAME
+              + " WHERE favorite=?",
+                new String[] { Integer.toString(
+                        SQLitePortal.boolToInt( bFavorites ) ) } ) ;
+        try
+        {
+            crs.moveToFirst() ;
+            return crs.getLong(0) ;
+        }
+        finally
+        { crs.close() ; }
+    }
+
+    @Test
+    public void testFlushWritesAssignsIDs()
+    {
+        final Sentence[] ao = new Sentence[3] ;
+        for( int i = 0 ; i < ao.length ; i++ )
+        {
+            ao[i] = new Sentence() ;
+            ao[i].sSentence = "Buffered nonsense number " + i + "." ;
+            assertFalse( m_dbh.bufferSentence( ao[i] ) ) ;
+        }
+        assertEquals( 3, m_dbh.getPendingWriteCount() ) ;
+        for( Sentence o : ao )
+            assertEquals( Sentence.NOT_IDENTIFIED, o.nItemID ) ;
+        assertEquals( 0L, this.count( false ) ) ;
+
+        assertEquals( 3, m_dbh.flushWrites() ) ;
+        assertEquals( 0, m_dbh.getPendingWriteCount() ) ;
+        assertEquals( 3L, this.count( false ) ) ;
+        for( int i = 0 ; i < ao.length ; i++ )
+        {
+            assertNotEquals( Sentence.NOT_IDENTIFIED, ao[i].nItemID ) ;
+            if( i > 0 ) assertTrue( ao[i].nItemID > ao[i-1].nItemID ) ;
+            assertEquals( ao[i].sSentence,
+                    m_dbh.getSentence( ao[i].nItemID ).sSentence ) ;
+        }
+        assertEquals( 0, m_dbh.flushWrites() ) ;           // nothing left
+
+        final Sentence oRead = new Sentence() ;
+        oRead.sSentence = "Flushed by a read." ;
+        m_dbh.bufferSentence( oRead ) ;
+        assertEquals( 4, m_dbh.getHistoryPage( false, null, 10 ).size() ) ;
+        assertNotEquals( Sentence.NOT_IDENTIFIED, oRead.nItemID ) ;
+    }
+
+    @Test
+    public void testFailedFlushLeavesSentencesUnidentified()
+    {
+        m_dbh.getWritableDatabase().execSQL( (new StringBuilder())
+                .append( "CREATE TRIGGER reject_nonsense BEFORE INSERT ON " )
+                .append( PoppycockDatabase.SENTENCE_TABLE_NAME )
+                .append( " WHEN new.item_ts = 42 BEGIN " )
+                .append( "SELECT RAISE( ABORT, 'rejected' ) ; END" )
+                .toString()
+            );
+        final Sentence oGood = new Sentence() ;
+        oGood.sSentence = "Nonsense which would have been written." ;
+        final Sentence oBad = new Sentence() ;
+        oBad.nItemTS = 42L ;
+        oBad.sSentence = "Nonsense which the trigger rejects." ;
+        m_dbh.bufferSentence( oGood ) ;
+        m_dbh.bufferSentence( oBad ) ;
+        try
+        {
+            m_dbh.flushWrites() ;
+            fail( "The trigger should have failed the flush." ) ;
+        }
+        catch( SQLiteException xExpected ) {}
+
+        // The whole batch rolled back, so neither sentence keeps an ID.
+        assertEquals( Sentence.NOT_IDENTIFIED, oGood.nItemID ) ;
+        assertEquals( Sentence.NOT_IDENTIFIED, oBad.nItemID ) ;
+        assertEquals( 0, m_dbh.getPendingWriteCount() ) ;
+        assertEquals( 0L, this.count( false ) ) ;
+
+        m_dbh.bufferSentence( oGood ) ;           // and may be written again
+        assertEquals( 1, m_dbh.flushWrites() ) ;
+        assertNotEquals( Sentence.NOT_IDENTIFIED, oGood.nItemID ) ;
+        assertEquals( 1L, this.count( false ) ) ;
+    }
+
+    @Test
+    public void testFailedFlushDiscardsFavorites()
+    {
+        final Sentence oA = this.insert( "Favored in vain." ) ;
+        final ArrayList<HistoryChange> achg = new ArrayList<>() ;
+        m_dbh.addChangeListener( new PoppycockDatabase.ChangeListener()
+        {
+            @Override
+            public void onHistoryChanged( HistoryChange chg )
+            { achg.add( chg ) ; }
+        });
+        m_dbh.getWritableDatabase().execSQL( (new StringBuilder())
+                .append( "CREATE TRIGGER reject_nonsense BEFORE INSERT ON " )
+                .append( PoppycockDatabase.SENTENCE_TABLE_NAME )
+                .append( " WHEN new.item_ts = 42 BEGIN " )
+                .append( "SELECT RAISE( ABORT, 'rejected' ) ; END" )
+                .toString()
+            );
+        final Sentence oBad = new Sentence() ;
+        oBad.nItemTS = 42L ;
+        oBad.sSentence = "Nonsense which the trigger rejects." ;
+        m_dbh.bufferFavorite( oA.nItemID, true ) ;
+        m_dbh.bufferSentence( oBad ) ;
+        try
+        {
+            m_dbh.flushWrites() ;
+            fail( "The trigger should have failed the flush." ) ;
+        }
+        catch( SQLiteException xExpected ) {}
+
+        assertEquals( 1, achg.size() ) ;
+        assertEquals( HistoryChange.DISCARDED, achg.get(0).zKind ) ;
+        assertEquals( 1, achg.get(0).anIDs.length ) ;
+        assertEquals( oA.nItemID, achg.get(0).anIDs[0] ) ;
+        assertFalse( m_dbh.getSentence( oA.nItemID ).bIsFavorite ) ;
+
+        // A flush of favorites alone reports no insertion.
+        m_dbh.bufferFavorite( oA.nItemID, true ) ;
+        assertEquals( 1, m_dbh.flushWrites() ) ;
+        assertEquals( 2, achg.size() ) ;
+        assertEquals( HistoryChange.UPDATED, achg.get(1).zKind ) ;
+    }
+
+    @Test
+    public void testTrimHistoryKeepsNewestAndFavorites()
+    {
+        seed( 1000 ) ;
+        assertFalse( m_dbh.hasRetentionPolicy() ) ;     // nothing by default
+        assertEquals( 0, m_dbh.trimHistory( 64 ) ) ;
+        m_dbh.setRetentionPolicy( 100, 0L ) ;
+        assertTrue( m_dbh.hasRetentionPolicy() ) ;
+        int nTrimmed = 0 ;
+        int nBatch ;
+        do
+        {
+            nBatch = m_dbh.trimHistory( 64 ) ;
+            assertTrue( nBatch <= 64 ) ;
+            nTrimmed += nBatch ;
+        } while( nBatch == 64 ) ;
+        assertEquals( 800, nTrimmed ) ;
+        assertEquals( 100L, this.count( false ) ) ;
+        assertEquals( 100L, this.count( true ) ) ;
+        ArrayList<Sentence> ao = m_dbh.getHistoryPage( false, null, 1 ) ;
+        assertEquals( "Seeded nonsense number 999.", ao.get(0).sSentence ) ;
+        assertEquals( 0, m_dbh.trimHistory( 64 ) ) ;
+    }
+
+    @Test
+    public void testTrimHistoryByAge()
+    {
+        final long tsNow = System.currentTimeMillis() ;
+        Sentence oOld = new Sentence() ;
+        oOld.nItemTS = tsNow - 10000L ;
+        oOld.sSentence = "Ancient nonsense." ;
+        Sentence oOldFavorite = new Sentence() ;
+        oOldFavorite.nItemTS = tsNow - 10000L ;
+        oOldFavorite.sSentence = "Ancient, cherished nonsense." ;
+        oOldFavorite.bIsFavorite = true ;
+        m_dbh.insertSentence( oOld ) ;
+        m_dbh.insertSentence( oOldFavorite ) ;
+        this.insert( "Fresh nonsense." ) ;
+
+        m_dbh.setRetentionPolicy( 0, 5000L ) ;
+        assertEquals( 1, m_dbh.trimHistory( 10 ) ) ;
+        assertNull( m_dbh.getSentence( oOld.nItemID ) ) ;
+        assertNotNull( m_dbh.getSentence( oOldFavorite.nItemID ) ) ;
+        assertEquals( 1L, this.count( false ) ) ;
+
+        m_dbh.setRetentionPolicy( 0, 0L ) ;
+        assertEquals( 0, m_dbh.trimHistory( 10 ) ) ;
+    }
+
+    @Test
+    public void testCompactReclaimsFreePages()
+    {
+        assertEquals( PoppycockDatabase.AUTO_VACUUM_INCREMENTAL,
+                m_dbh.queryPragma( "auto_vacuum" ) ) ;       // from creation
+        seed( 20000 ) ;
+        m_dbh.delete( false ) ;
+        int nReclaimed = 0 ;
+        int nBatch ;
+        while( ( nBatch = m_dbh.compact( 128 ) ) > 0 )
+        {
+            assertTrue( nBatch <= 128 ) ;
+            nReclaimed += nBatch ;
+        }
+        Log.i( LOG_TAG, "Reclaimed [" + nReclaimed + "] pages." ) ;
+        assertTrue( nReclaimed > 0 ) ;
+        assertEquals( 2000L, this.count( true ) ) ;
+    }
+
+    @Test
+    public void testUpgradeEnablesIncrementalVacuum()
+    {
+        m_dbh.closeDB().close() ;
+        m_ctx.deleteDatabase( TEST_DATABASE_NAME ) ;
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(
+                m_ctx.getDatabasePath( TEST_DATABASE_NAME ), null ) ;
+        try
+        {
+            db.execSQL( LEGACY_SENTENCE_TABLE_SQL ) ;
+            db.execSQL( "INSERT INTO " + PoppycockDatabase.SENTENCE_TABLE_NAME
+                    + " ( item_ts, sentence, favorite )"
+                    + " VALUES ( 1, 'Nonsense from version one.', 0 )" ) ;
+            db.setVersion( 1 ) ;
+            assertEquals( 0L, this.queryPragma( db, "auto_vacuum" ) ) ;
+        }
+        finally
+        { db.close() ; }
+
+        m_dbh = (new PoppycockDatabase( m_ctx, TEST_DATABASE_NAME )).openDB() ;
+        assertEquals( PoppycockDatabase.AUTO_VACUUM_INCREMENTAL,
+                m_dbh.queryPragma( "auto_vacuum" ) ) ;
+        assertEquals( 1L, this.count( false ) ) ;
+    }
+
+    /**
+     * Reads a pragma which returns a single number from a database.
+     * @param db the database
+     * @param sPragma the name of the pragma
+     * @return its value
+     */
+    protected long queryPragma( SQLiteDatabase db, String sPragma )
+    {
+        Cursor crs = db.rawQuery( "PRAGMA " + sPragma, null ) ;
+        try
+        {
+            crs.moveToFirst() ;
+            return crs.getLong(0) ;
+        }
+        finally
+        { crs.close() ; }
+    }
+
+    /**
+     * Counts the rows of a table in a database.
+     * @param db the database
+     * @param sTable the name of the table
+     * @return the number of rows
+     */
+    protected long count( SQLiteDatabase db, String sTable )
+    {
+        Cursor crs = db.rawQuery( "SELECT COUNT(*) FROM " + sTable, null ) ;
+        try
+        {
+            crs.moveToFirst() ;
+            return crs.getLong(0) ;
+        }
+        finally
+        { crs.close() ; }
+    }
+
+    @Test
+    public void testUpgradeFromVersion3StoresEachTextOnce()
+    {
+        SQLiteDatabase db = SQLiteDatabase.create(null) ;
+        try
+        {
+            db.execSQL( LEGACY_SENTENCE_TABLE_SQL ) ;
+            db.execSQL( "CREATE VIRTUAL TABLE "
+                    + PoppycockDatabase.SENTENCE_FTS_TABLE_NAME
+                    + " USING fts4( sentence ) ;" ) ;
+            db.execSQL( "CREATE TRIGGER sentence_fts_insert AFTER INSERT ON "
+                    + PoppycockDatabase.SENTENCE_TABLE_NAME + " BEGIN INSERT"
+                    + " INTO " + PoppycockDatabase.SENTENCE_FTS_TABLE_NAME
+                    + " ( docid, sentence ) VALUES ( new.item_id,"
+                    + " new.sentence ) ; END ;" ) ;
+            final String sInsert = "INSERT INTO "
+                    + PoppycockDatabase.SENTENCE_TABLE_NAME
+                    + " ( item_ts, sentence, favorite ) VALUES ( ?, ?, ? )" ;
+            db.execSQL( sInsert, new Object[]
+                { 1, "The walrus repeats himself.", 0 } ) ;
+            db.execSQL( sInsert, new Object[]
+                { 2, "The walrus repeats himself.", 1 } ) ;
+            db.execSQL( sInsert, new Object[]
+                { 3, "The carpenter does not.", 0 } ) ;
+            db.execSQL( sInsert, new Object[] { 4, null, 0 } ) ;
+            m_dbh.onUpgrade( db, 3, PoppycockDatabase.SCHEMA_VERSION ) ;
+
+            assertEquals( 2L, this.count( db,
+                    PoppycockDatabase.SENTENCE_TEXT_TABLE_NAME ) ) ;
+            assertEquals( 2L, this.count( db,
+                    PoppycockDatabase.SENTENCE_FTS_TABLE_NAME ) ) ;
+            Cursor crs = db.query( PoppycockDatabase.SENTENCE_VIEW_NAME,
+                    SentenceRowMapper.PROJECTION, null, null, null, null,
+                    "item_id ASC" ) ;
+            ArrayList<Sentence> ao = (new SentenceRowMapper(crs)).mapAll(crs) ;
+            crs.close() ;
+            assertEquals( 4, ao.size() ) ;
+            assertEquals( "The walrus repeats himself.", ao.get(1).sSentence ) ;
+            assertTrue( ao.get(1).bIsFavorite ) ;
+            assertEquals( "The carpenter does not.", ao.get(2).sSentence ) ;
+            assertNull( ao.get(3).sSentence ) ;
+            assertEquals( 4L, ao.get(3).nItemID ) ;
+        }
+        finally
+        { db.close() ; }
+    }
+
+    @Test
+    public void testInsertWithTakenIDWritesNothing()
+    {
+        final SQLiteDatabase db = m_dbh.getReadableDatabase() ;
+        final Sentence oFirst = this.insert( "The first oyster." ) ;
+        final ArrayList<HistoryChange> achg = new ArrayList<>() ;
+        m_dbh.addChangeListener( new PoppycockDatabase.ChangeListener()
+        {
+            @Override
+            public void onHistoryChanged( HistoryChange chg )
+            { achg.add( chg ) ; }
+        });
+        final Sentence oClash = new Sentence() ;
+        oClash.nItemID = oFirst.nItemID ;
+        oClash.sSentence = "An oyster with a borrowed ID." ;
+        assertSame( oClash, m_dbh.insertSentence( oClash ) ) ;
+        assertEquals( Sentence.NOT_IDENTIFIED, oClash.nItemID ) ;
+        assertTrue( achg.isEmpty() ) ;
+        assertEquals( 1L, this.count( false ) ) ;
+        assertEquals( 1L, this.count( db,         // no text left behind
+                PoppycockDatabase.SENTENCE_TEXT_TABLE_NAME ) ) ;
+        assertEquals( "The first oyster.",
+                m_dbh.getSentence( oFirst.nItemID ).sSentence ) ;
+    }
+
+    @Test
+    public void testRepeatedSentencesShareText()
+    {
+        final SQLiteDatabase db = m_dbh.getReadableDatabase() ;
+        final Sentence oFirst = this.insert( "A familiar oyster." ) ;
+        final Sentence oAgain = this.insert( "A familiar oyster." ) ;
+        this.insert( "A novel oyster." ) ;
+        assertNotEquals( oFirst.nItemID, oAgain.nItemID ) ;
+        assertEquals( 2L, this.count( db,
+                PoppycockDatabase.SENTENCE_TEXT_TABLE_NAME ) ) ;
+        assertEquals( "A familiar oyster.",
+                m_dbh.getSentence( oAgain.nItemID ).sSentence ) ;
+
+        // The shared text outlives one of its uses, but not both.
+        m_dbh.toggleFavorite( oFirst ) ;
+        m_dbh.delete( false ) ;
+        assertEquals( 1L, this.count( db,
+                PoppycockDatabase.SENTENCE_TEXT_TABLE_NAME ) ) ;
+        assertEquals( 1, this.idsOf( m_dbh.search( "oyster", false, 0, 10 ) )
+                .size() ) ;
+        m_dbh.delete( true ) ;
+        assertEquals( 0L, this.count( db,
+                PoppycockDatabase.SENTENCE_TEXT_TABLE_NAME ) ) ;
+        assertEquals( 0L, this.count( db,
+                PoppycockDatabase.SENTENCE_FTS_TABLE_NAME ) ) ;
+    }
+
+    @Test
+    public void testHashSentence()
+    {
+        assertEquals( 0xcbf29ce484222325L,
+                PoppycockDatabase.hashSentence( "" ) ) ;
+        assertEquals( PoppycockDatabase.hashSentence( "Walrus." ),
+                PoppycockDatabase.hashSentence( "Walrus." ) ) ;
+        assertNotEquals( PoppycockDatabase.hashSentence( "Walrus." ),
+                PoppycockDatabase.hashSentence( "Walrus!" ) ) ;
+    }
+
+    @Test
+    public void testDeleteBatchesSpareLaterSentences()
+    {
+        seed( 1000 ) ;
+        assertEquals( 900, m_dbh.countSentences( false ) ) ;
+        final long nThroughID = m_dbh.getLastItemID() ;
+        final Sentence oLater = this.insert( "Written during the purge." ) ;
+        int nDeleted = 0 ;
+        int nBatch ;
+        do
+        {
+            nBatch = m_dbh.deleteBatch( false, nThroughID, 128 ) ;
+            assertTrue( nBatch <= 128 ) ;
+            nDeleted += nBatch ;
+        } while( nBatch == 128 ) ;
+        assertEquals( 900, nDeleted ) ;
+        assertEquals( 1, m_dbh.countSentences( false ) ) ;
+        assertEquals( 100, m_dbh.countSentences( true ) ) ;
+        assertNotNull( m_dbh.getSentence( oLater.nItemID ) ) ;
+        assertEquals( oLater.nItemID, m_dbh.getLastItemID() ) ;
+    }
+
+    @Test
+    public void testStatsWithoutLoadingRows()
+    {
+        HistoryStats stats = m_dbh.getStats( HistoryStats.NO_TIMESTAMP ) ;
+        assertEquals( 0, stats.getTotalCount() ) ;
+        assertEquals( HistoryStats.NO_TIMESTAMP, stats.getFirstTS() ) ;
+        assertEquals( HistoryStats.NO_TIMESTAMP, stats.getLastTS() ) ;
+
+        seed( 1000 ) ;
+        stats = m_dbh.getStats( 0L ) ;
+        assertEquals( 900, stats.nHistoryCount ) ;
+        assertEquals( 100, stats.nFavoriteCount ) ;
+        assertEquals( stats.tsFavoritesFirst + 1L, stats.tsHistoryFirst ) ;
+        assertEquals( stats.tsFavoritesFirst + 999L, stats.tsHistoryLast ) ;
+        assertEquals( stats.tsFavoritesFirst + 990L, stats.tsFavoritesLast ) ;
+        assertEquals( stats.tsFavoritesFirst, stats.getFirstTS() ) ;
+        assertEquals( stats.tsHistoryLast, stats.getLastTS() ) ;
+        int nDaily = 0 ;
+        for( Integer n : stats.mapDailyCounts.values() ) nDaily += n ;
+        assertEquals( 1000, nDaily ) ;
+
+        this.insert( "Buffered nonsense." ) ;
+        m_dbh.bufferSentence( new Sentence() ) ;
+        stats = m_dbh.getStats( System.currentTimeMillis() + 86400000L ) ;
+        assertEquals( 902, stats.nHistoryCount ) ;
+        assertTrue( stats.mapDailyCounts.isEmpty() ) ;
+    }
+
+    @Test
+    public void testSentenceCacheFollowsWrites()
+    {
+        final SentenceCache cache = m_dbh.getSentenceCache() ;
+        final Sentence o = this.insert( "Cached nonsense." ) ;
+        assertEquals( 0L, cache.getHitCount() ) ;
+
+        Sentence oRead = m_dbh.getSentence( o.nItemID ) ;
+        assertEquals( 1L, cache.getMissCount() ) ;
+        oRead.sSentence = "Vandalized." ; // must not reach the cache
+        oRead = m_dbh.getSentence( o.nItemID ) ;
+        assertEquals( 1L, cache.getHitCount() ) ;
+        assertEquals( "Cached nonsense.", oRead.sSentence ) ;
+        assertFalse( oRead.bIsFavorite ) ;
+
+        m_dbh.toggleFavorite( oRead ) ;
+        assertTrue( m_dbh.getSentence( o.nItemID ).bIsFavorite ) ;
+        assertEquals( 2L, cache.getMissCount() ) ;
+
+        m_dbh.delete( true ) ;
+        assertNull( m_dbh.getSentence( o.nItemID ) ) ;
+        assertEquals( 0, cache.size() ) ;
+
+        m_dbh.setSentenceCacheBudget( 0 ) ;
+        final Sentence oOther = this.insert( "Uncached nonsense." ) ;
+        m_dbh.getSentence( oOther.nItemID ) ;
+        assertNotNull( m_dbh.getSentence( oOther.nItemID ) ) ;
+        assertEquals( 0, cache.size() ) ;
+        assertEquals( 1L, cache.getHitCount() ) ;
+    }
+
+    @Test
+    public void testChangesArePublished()
+    {
+        final ArrayList<HistoryChange> achg = new ArrayList<>() ;
+        final PoppycockDatabase.ChangeListener l =
+                new PoppycockDatabase.ChangeListener()
+        {
+            @Override
+            public void onHistoryChanged( HistoryChange chg )
+            { achg.add( chg ) ; }
+        };
+        m_dbh.addChangeListener( l ) ;
+
+        m_dbh.bufferSentence( new Sentence() ) ;
+        m_dbh.bufferSentence( new Sentence() ) ;
+        m_dbh.flushWrites() ;
+        assertEquals( 1, achg.size() ) ;
+        assertEquals( HistoryChange.INSERTED, achg.get(0).zKind ) ;
+        assertEquals( 2, achg.get(0).anIDs.length ) ;
+
+        final Sentence o = this.insert( "Changed nonsense." ) ;
+        m_dbh.toggleFavorite( o ) ;
+        assertEquals( 3, achg.size() ) ;
+        assertEquals( HistoryChange.UPDATED, achg.get(2).zKind ) ;
+        assertEquals( o.nItemID, achg.get(2).anIDs[0] ) ;
+
+        final SentencePage pg = m_dbh.fetchSentences( achg.get(2).anIDs ) ;
+        assertEquals( 1, pg.size() ) ;
+        assertTrue( pg.isFavorite(0) ) ;
+        pg.close() ;
+
+        assertEquals( 2, m_dbh.deleteBatch( false, o.nItemID, 10 ) ) ;
+        assertEquals( HistoryChange.DELETED, achg.get(3).zKind ) ;
+        assertEquals( 2, achg.get(3).anIDs.length ) ;
+        assertEquals( achg.get(0).anIDs[0], achg.get(3).anIDs[0] ) ;
+
+        m_dbh.delete( true ) ;
+        assertEquals( HistoryChange.PURGED, achg.get(4).zKind ) ;
+        assertTrue( achg.get(4).bFavorites ) ;
+
+        m_dbh.delete( true ) ; // nothing left to delete, so nothing to say
+        m_dbh.removeChangeListener( l ) ;
+        this.insert( "Unheard nonsense." ) ;
+        assertEquals( 5, achg.size() ) ;
+    }
+
+    @Test
+    public void testFavoriteTogglesCoalesce()
+    {
+        final Sentence oA = this.insert( "Toggled once." ) ;
+        final Sentence oB = this.insert( "Toggled twice." ) ;
+        final Sentence oC = this.insert( "Toggled thrice." ) ;
+        final ArrayList<HistoryChange> achg = new ArrayList<>() ;
+        m_dbh.addChangeListener( new PoppycockDatabase.ChangeListener()
+        {
+            @Override
+            public void onHistoryChanged( HistoryChange chg )
+            { achg.add( chg ) ; }
+        });
+        assertFalse( m_dbh.getSentence( oA.nItemID ).bIsFavorite ) ; // cached
+
+        assertFalse( m_dbh.bufferFavorite( oA.nItemID, true ) ) ;
+        m_dbh.bufferFavorite( oB.nItemID, true ) ;
+        m_dbh.bufferFavorite( oB.nItemID, false ) ;     // cancels out
+        m_dbh.bufferFavorite( oC.nItemID, true ) ;
+        m_dbh.bufferFavorite( oC.nItemID, false ) ;
+        m_dbh.bufferFavorite( oC.nItemID, true ) ;
+        assertEquals( 2, m_dbh.getPendingWriteCount() ) ;
+        assertTrue( achg.isEmpty() ) ;
+
+        // A cached copy must not hide a buffered status.
+        assertTrue( m_dbh.getSentence( oA.nItemID ).bIsFavorite ) ;
+        assertEquals( 0, m_dbh.getPendingWriteCount() ) ;
+        assertEquals( 1, achg.size() ) ;
+        assertEquals( HistoryChange.UPDATED, achg.get(0).zKind ) ;
+        assertEquals( 2, achg.get(0).anIDs.length ) ;
+        assertEquals( oA.nItemID, achg.get(0).anIDs[0] ) ;
+        assertEquals( oC.nItemID, achg.get(0).anIDs[1] ) ;
+        assertFalse( m_dbh.getSentence( oB.nItemID ).bIsFavorite ) ;
+        assertTrue( m_dbh.getSentence( oC.nItemID ).bIsFavorite ) ;
+        assertEquals( 2L, count( true ) ) ;
+
+        m_dbh.bufferFavorite( oA.nItemID, true ) ; // already a favorite
+        assertEquals( 0, m_dbh.flushWrites() ) ;
+        assertEquals( 1, achg.size() ) ;
+    }
+
+    @Test
+    public void testTransactionsPublishOnlyWhatCommits()
+    {
+        final ArrayList<HistoryChange> achg = new ArrayList<>() ;
+        m_dbh.addChangeListener( new PoppycockDatabase.ChangeListener()
+        {
+            @Override
+            public void onHistoryChanged( HistoryChange chg )
+            { achg.add( chg ) ; }
+        });
+
+        try
+        {
+            m_dbh.runInTransaction( new PoppycockDatabase
+                    .Transaction<Void,IllegalStateException>()
+            {
+                @Override
+                public Void run( PoppycockDatabase dbh )
+                {
+                    insert( "Undone nonsense." ) ;
+                    assertTrue( achg.isEmpty() ) ;
+                    throw new IllegalStateException( "Roll it back." ) ;
+                }
+            });
+            fail( "The exception should have been rethrown." ) ;
+        }
+        catch( IllegalStateException xExpected ) {}
+        assertTrue( achg.isEmpty() ) ;
+        assertEquals( Sentence.NOT_IDENTIFIED, m_dbh.getLastItemID() ) ;
+
+        final int nFavorites = m_dbh.runInTransaction( new PoppycockDatabase
+                .Transaction<Integer,RuntimeException>()
+        {
+            @Override
+            public Integer run( PoppycockDatabase dbh )
+            {
+                insert( "Kept nonsense." ) ;
+                insert( "Kept favorite nonsense." ) ;
+                insert( "Other nonsense." ) ;
+                return dbh.setFavorites( "sentence LIKE ?",
+                        new String[] { "Kept%" }, true ) ;
+            }
+        });
+        assertEquals( 2, nFavorites ) ;
+        assertEquals( 4, achg.size() ) ;
+        assertEquals( HistoryChange.UPDATED, achg.get(3).zKind ) ;
+        assertEquals( 2, achg.get(3).anIDs.length ) ;
+        assertEquals( 2L, count( true ) ) ;
+
+        final Cursor crs = m_dbh.queryHistory( new String[] { "sentence" },
+                "favorite=?", new String[] { "1" }, true, false, 0L, 0L, 1 ) ;
+        try
+        {
+            assertEquals( 1, crs.getCount() ) ;
+            assertEquals( 1, crs.getColumnCount() ) ;
+            assertTrue( crs.moveToFirst() ) ;
+            assertEquals( "Kept nonsense.", crs.getString(0) ) ;
+        }
+        finally
+        { crs.close() ; }
+
+        assertEquals( 1, m_dbh.deleteSentences( "favorite=? AND sentence=?",
+                new String[] { "1", "Kept nonsense." } ) ) ;
+        assertEquals( HistoryChange.DELETED, achg.get(4).zKind ) ;
+        assertEquals( 1L, count( true ) ) ;
+        assertEquals( 1L, count( false ) ) ;
+    }
+
+    /**
+     * Exports the scratch database to a file, empties it, imports the file,
+     * and checks that every sentence came back as it was, but for its ID.
+     * @param zFormat the format in which to export
+     */
+    protected void assertRoundTrip( int zFormat )
+    throws IOException
+    {
+        seed( 2500 ) ; // more than one page and one batch
+        this.insert( "Commas, \"quotes\", and\r\nline breaks." ) ;
+        this.insert( "" ) ;
+        this.insert( null ) ;
+        Sentence oFavorite = this.insert( "Sn\u00f6wm\u00e4n \u2603\t\\" ) ;
+        m_dbh.toggleFavorite( oFavorite ) ;
+        final ArrayList<Sentence> aoBefore =
+                m_dbh.getHistoryPage( true, null, Integer.MAX_VALUE ) ;
+
+        final File f = new File( m_ctx.getCacheDir(), "round_trip" ) ;
+        final HistoryArchive arc = new HistoryArchive( m_dbh ) ;
+        try
+        {
+            FileOutputStream out = new FileOutputStream( f ) ;
+            try
+            {
+                assertEquals( aoBefore.size(),
+                        arc.exportTo( out.getChannel(), zFormat ) ) ;
+            }
+            finally
+            { out.close() ; }
+
+            m_dbh.delete( false ) ;
+            m_dbh.delete( true ) ;
+            assertEquals( Sentence.NOT_IDENTIFIED, m_dbh.getLastItemID() ) ;
+
+            FileInputStream in = new FileInputStream( f ) ;
+            try
+            {
+                assertEquals( aoBefore.size(),
+                        arc.importFrom( in.getChannel(), zFormat ) ) ;
+            }
+            finally
+            { in.close() ; }
+        }
+        finally
+        { assertTrue( f.delete() ) ; }
+
+        final ArrayList<Sentence> aoAfter =
+                m_dbh.getHistoryPage( true, null, Integer.MAX_VALUE ) ;
+        assertEquals( aoBefore.size(), aoAfter.size() ) ;
+        for( int i = 0 ; i < aoBefore.size() ; i++ )
+        {
+            final Sentence oBefore = aoBefore.get(i) ;
+            final Sentence oAfter = aoAfter.get(i) ;
+            assertNotEquals( oBefore.nItemID, oAfter.nItemID ) ;
+            assertEquals( oBefore.nItemTS, oAfter.nItemTS ) ;
+            assertEquals( oBefore.sSentence, oAfter.sSentence ) ;
+            assertEquals( oBefore.bIsFavorite, oAfter.bIsFavorite ) ;
+        }
+    }
+
+    @Test
+    public void testNdjsonRoundTrip()
+    throws IOException
+    { this.assertRoundTrip( HistoryArchive.FORMAT_NDJSON ) ; }
+
+    @Test
+    public void testCsvRoundTrip()
+    throws IOException
+    { this.assertRoundTrip( HistoryArchive.FORMAT_CSV ) ; }
+
+    @Test
+    public void testImportStopsAtMalformedRecord()
+    throws IOException
+    {
+        StringBuilder sb = new StringBuilder() ;
+        for( int i = 0 ; i < HistoryArchive.IMPORT_BATCH_ROWS ; i++ )
+            HistoryArchive.appendJsonLine( sb, i, i, "Line " + i, false ) ;
+        sb.append( "{\"sentence\":\"unterminated}\n" ) ;
+        final ReadableByteChannel ch = Channels.newChannel(
+                new ByteArrayInputStream(
+                        sb.toString().getBytes( "UTF-8" ) ) ) ;
+        try
+        {
+            (new HistoryArchive( m_dbh ))
+                    .importFrom( ch, HistoryArchive.FORMAT_NDJSON ) ;
+            fail( "Imported a malformed record." ) ;
+        }
+        catch( IOException x )
+        { assertTrue( x.getMessage().contains( "line 501" ) ) ; }
+        assertEquals( HistoryArchive.IMPORT_BATCH_ROWS,    // the first batch
+                m_dbh.countSentences( false ) ) ;
+    }
+
+    @Test
+    public void testImportHandsBatchesToWriter()
+    throws IOException
+    {
+        final int nRows = HistoryArchive.IMPORT_BATCH_ROWS * 2 + 1 ;
+        StringBuilder sb = new StringBuilder() ;
+        for( int i = 0 ; i < nRows ; i++ )
+            HistoryArchive.appendJsonLine( sb, i, i, "Line " + i, false ) ;
+        final ReadableByteChannel ch = Channels.newChannel(
+                new ByteArrayInputStream(
+                        sb.toString().getBytes( "UTF-8" ) ) ) ;
+        final ArrayList<Integer> anBatches = new ArrayList<>() ;
+        final int nImported = (new HistoryArchive( m_dbh ))
+            .setBatchWriter( new HistoryArchive.BatchWriter()
+            {
+                @Override
+                public int writeBatch( List<Sentence> aoBatch )
+                {
+                    anBatches.add( aoBatch.size() ) ;
+                    return m_dbh.insertSentences( aoBatch ) ;
+                }
+            })
+            .importFrom( ch, HistoryArchive.FORMAT_NDJSON ) ;
+        assertEquals( nRows, nImported ) ;
+        assertEquals( 3, anBatches.size() ) ;
+        assertEquals( HistoryArchive.IMPORT_BATCH_ROWS,
+                anBatches.get(0).intValue() ) ;
+        assertEquals( 1, anBatches.get(2).intValue() ) ;
+        assertEquals( nRows, m_dbh.countSentences( false ) ) ;
+    }
+
+    @Test
+    public void testSnapshotMatchesFirstPage()
+    throws IOException
+    {
+        seed( 200 ) ;
+        final File f = new File( m_ctx.getCacheDir(), "test.snapshot" ) ;
+        try
+        {
+            HistorySnapshot.write( m_dbh.getHistoryPage( false, null,
+                    HistorySnapshot.SNAPSHOT_ROWS ), f ) ;
+            final long tsStart = SystemClock.elapsedRealtime() ;
+            final SentencePage pgSnapshot = HistorySnapshot.read( f ) ;
+            Log.i( LOG_TAG, "Read snapshot in ["
+                    + ( SystemClock.elapsedRealtime() - tsStart ) + "ms]." ) ;
+            assertNotNull( pgSnapshot ) ;
+            final SentencePage pgLive = m_dbh.fetchHistoryPage( false, null,
+                    HistorySnapshot.SNAPSHOT_ROWS ) ;
+            assertEquals( pgLive.size(), pgSnapshot.size() ) ;
+            for( int i = 0 ; i < pgLive.size() ; i++ )
+            {
+                assertEquals( pgLive.getItemID(i), pgSnapshot.getItemID(i) ) ;
+                assertEquals( pgLive.getSentence(i),
+                        pgSnapshot.getSentence(i) ) ;
+                assertEquals( pgLive.isFavorite(i), pgSnapshot.isFavorite(i) ) ;
+            }
+            assertEquals( pgLive.getLastItemID(), pgSnapshot.getLastItemID() ) ;
+            pgLive.close() ;
+            pgSnapshot.close() ;
+        }
+        finally
+        { assertTrue( f.delete() ) ; }
+        assertNull( HistorySnapshot.read( f ) ) ;
+    }
+}
@@ -0,0 +1,170 @@
+package net.zerobandwidth.android.apps.poppycock.ui;
+
+import android.database.MatrixCursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import net.zerobandwidth.android.apps.poppycock.database.SentencePage;
+import net.zerobandwidth.android.apps.poppycock.database.SentenceRowMapper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Exercises the way {@link SentenceListAdapter} applies changes to the list
+ * row by row, with pages built in memory rather than fetched.
+ * @since zerobandwidth-net/android-poppycock 1.0.2
+ */
+@RunWith( AndroidJUnit4.class )
+public class SentenceListAdapterTest
+{
+    /** A page over an in-memory cursor, which remembers being closed. */
+    protected static class TrackedPage
+    extends SentencePage
+    {
+        protected boolean m_bClosed = false ;
+
+        public TrackedPage( MatrixCursor crs )
+        { super( crs ) ; }
+
+        @Override
+        public void close()
+        {
+            m_bClosed = true ;
+            super.close() ;
+        }
+    }
+
+    protected SentenceListAdapter m_adapter = null ;
+
+    @Before
+    public void setUp()
+    {
+        m_adapter = new SentenceListAdapter(
+                InstrumentationRegistry.getTargetContext(), null ) ;
+    }
+
+    @After
+    public void tearDown()
+    { m_adapter.close() ; }
+
+    /**
+     * Builds a page of sentences.
+     * @param aanRows each row, as { item_id, item_ts, favorite }
+     * @return the page
+     */
+    protected static TrackedPage page( long[]... aanRows )
+    {
+        final MatrixCursor crs = new MatrixCursor(
+                SentenceRowMapper.PROJECTION, aanRows.length ) ;
+        for( long[] anRow : aanRows )
+        {
+            crs.addRow( new Object[]
+                { anRow[0], anRow[1], "Nonsense #" + anRow[0], anRow[2] } ) ;
+        }
+        return new TrackedPage( crs ) ;
+    }
+
+    /** @return the IDs of the adapter's rows, in order */
+    protected long[] ids()
+    {
+        final long[] anIDs = new long[m_adapter.getItemCount()] ;
+        for( int i = 0 ; i < anIDs.length ; i++ )
+            anIDs[i] = m_adapter.getItemId(i) ;
+        return anIDs ;
+    }
+
+    @Test
+    public void testInsertsWhereRowsSortNewestFirst()
+    {
+        m_adapter.appendPage( page( new long[] { 5, 500, 0 },
+                new long[] { 3, 300, 0 }, new long[] { 1, 100, 0 } ) ) ;
+        assertEquals( 3, m_adapter.applyPage( page(
+                new long[] { 4, 300, 0 },     // ties sort by ID, newest first
+                new long[] { 6, 600, 0 },
+                new long[] { 2, 100, 0 } ), false, true, false, true ) ) ;
+        assertArrayEquals( new long[] { 6, 5, 4, 3, 2, 1 }, this.ids() ) ;
+        assertEquals( "Nonsense #4", m_adapter.getItem(2).sSentence ) ;
+    }
+
+    @Test
+    public void testInsertsWhereRowsSortOldestFirst()
+    {
+        m_adapter.appendPage( page( new long[] { 1, 100, 0 },
+                new long[] { 3, 300, 0 }, new long[] { 5, 500, 0 } ) ) ;
+        assertEquals( 3, m_adapter.applyPage( page(
+                new long[] { 4, 300, 0 },     // ties sort by ID, oldest first
+                new long[] { 6, 600, 0 },
+                new long[] { 2, 100, 0 } ), false, true, true, true ) ) ;
+        assertArrayEquals( new long[] { 1, 2, 3, 4, 5, 6 }, this.ids() ) ;
+    }
+
+    @Test
+    public void testSkipsRowsPastLastFetchedPage()
+    {
+        m_adapter.appendPage( page( new long[] { 5, 500, 0 },
+                new long[] { 3, 300, 0 } ) ) ;
+        final TrackedPage pgEarly = page( new long[] { 1, 100, 0 } ) ;
+        assertEquals( 0, m_adapter.applyPage(
+                pgEarly, false, true, false, false ) ) ;
+        assertArrayEquals( new long[] { 5, 3 }, this.ids() ) ;
+        assertTrue( pgEarly.m_bClosed ) ;          // a later page brings it
+
+        final TrackedPage pgLate = page( new long[] { 1, 100, 0 } ) ;
+        assertEquals( 1, m_adapter.applyPage(
+                pgLate, false, true, false, true ) ) ;
+        assertArrayEquals( new long[] { 5, 3, 1 }, this.ids() ) ;
+        assertFalse( pgLate.m_bClosed ) ;
+    }
+
+    @Test
+    public void testRemovesSeveralIDsInOnePass()
+    {
+        m_adapter.appendPage( page( new long[] { 6, 600, 0 },
+                new long[] { 5, 500, 1 }, new long[] { 4, 400, 0 },
+                new long[] { 3, 300, 0 }, new long[] { 2, 200, 1 },
+                new long[] { 1, 100, 0 } ) ) ;
+        assertEquals( 3, m_adapter.removeItems(
+                new long[] { 2, 42, 6, 5 } ) ) ;     // 42 isn't in the list
+        assertArrayEquals( new long[] { 4, 3, 1 }, this.ids() ) ;
+        assertEquals( "Nonsense #3", m_adapter.getItem(1).sSentence ) ;
+        assertEquals( 0, m_adapter.removeItems( new long[0] ) ) ;
+        assertEquals( 3, m_adapter.getItemCount() ) ;
+    }
+
+    @Test
+    public void testClosesPagesNoRowRefersTo()
+    {
+        final TrackedPage pgFirst = page( new long[] { 3, 300, 0 },
+                new long[] { 2, 200, 0 }, new long[] { 1, 100, 0 } ) ;
+        m_adapter.appendPage( pgFirst ) ;
+
+        final TrackedPage pgChange = page( new long[] { 2, 200, 1 } ) ;
+        m_adapter.applyPage( pgChange, false, true, false, false ) ;
+        assertTrue( m_adapter.getItem(1).bIsFavorite ) ;
+        assertFalse( pgChange.m_bClosed ) ;
+
+        final TrackedPage pgAgain = page( new long[] { 2, 200, 0 } ) ;
+        m_adapter.applyPage( pgAgain, false, true, false, false ) ;
+        assertTrue( pgChange.m_bClosed ) ;        // its only row was replaced
+        assertFalse( pgAgain.m_bClosed ) ;
+
+        // The last page fetched stays open for its last key.
+        m_adapter.removeItems( new long[] { 3, 1 } ) ;
+        assertFalse( pgFirst.m_bClosed ) ;
+        assertSame( pgFirst, m_adapter.getLastPage() ) ;
+        final TrackedPage pgNext = page( new long[] { 0, 50, 0 } ) ;
+        m_adapter.appendPage( pgNext ) ;
+        assertTrue( pgFirst.m_bClosed ) ;
+
+        m_adapter.removeItem(0) ;                 // the row from pgAgain
+        assertTrue( pgAgain.m_bClosed ) ;
+        assertFalse( pgNext.m_bClosed ) ;
+        m_adapter.close() ;
+        assertTrue( pgNext.m_bClosed ) ;
+    }
+}
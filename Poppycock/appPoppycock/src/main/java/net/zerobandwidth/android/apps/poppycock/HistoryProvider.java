@@ -0,0 +1,612 @@
+package net.zerobandwidth.android.apps.poppycock;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.BaseColumns;
+
+import net.zerobandwidth.android.apps.poppycock.database.HistoryChange;
+import net.zerobandwidth.android.apps.poppycock.database.PoppycockDatabase;
+import net.zerobandwidth.android.apps.poppycock.database.SentenceRowMapper;
+import net.zerobandwidth.android.apps.poppycock.model.Sentence;
+import net.zerobandwidth.android.lib.database.SQLitePortal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Exposes the historical record of nonsense to other components, such as
+ * widgets, share targets, and test tooling, without binding
+ * {@link PoppycockService}.
+ *
+ * Every query returns one bounded page, never the whole record, so that no
+ * reader ever pulls more than {@link #MAX_PAGE_SIZE} rows through one cursor
+ * window. Pages are keyed, as in the app's own history screen, by the
+ * {@code item_ts} and {@code item_id} of the last row of the previous page;
+ * see {@link #getPageUri(boolean, long, long, int)}. Writes made through
+ * {@link #bulkInsert(Uri, ContentValues[])} and
+ * {@link #applyBatch(ArrayList)} are each committed in a single transaction.
+ *
+ * The provider shares its instance of the database with the service, so every
+ * write, whether made here or by the app, notifies observers of
+ * {@link #CONTENT_URI} once it is committed. The provider is not exported; it
+ * serves the app's own process and anything running under its user ID.
+ * @since zerobandwidth-net/android-poppycock 1.0.2
+ */
+public class HistoryProvider
+extends ContentProvider
+{
+    /** The authority under which the provider is registered. */
+    public static final String AUTHORITY =
+            "net.zerobandwidth.android.apps.poppycock.history" ;
+
+    /** The path of the collection of sentences. */
+    public static final String PATH_SENTENCES = "sentences" ;
+
+    /**
+     * The URI of the whole historical record. A sentence's own URI appends
+     * its ID, as by {@link ContentUris#withAppendedId(Uri, long)}.
+     */
+    public static final Uri CONTENT_URI =
+            Uri.parse( "content://" + AUTHORITY + "/" + PATH_SENTENCES ) ;
+
+    /** The MIME type of a page of sentences. */
+    public static final String CONTENT_TYPE =
+            ContentResolver.CURSOR_DIR_BASE_TYPE
+            + "/vnd.net.zerobandwidth.poppycock.sentence" ;
+
+    /** The MIME type of a single sentence. */
+    public static final String CONTENT_ITEM_TYPE =
+            ContentResolver.CURSOR_ITEM_BASE_TYPE
+            + "/vnd.net.zerobandwidth.poppycock.sentence" ;
+
+    /** Query parameter: the maximum number of sentences in a page. */
+    public static final String PARAM_LIMIT = "limit" ;
+
+    /**
+     * Query parameter: the {@code item_ts} of the last sentence of the
+     * previous page. Must be given along with {@link #PARAM_AFTER_ID}.
+     */
+    public static final String PARAM_AFTER_TS = "after_ts" ;
+
+    /**
+     * Query parameter: the {@code item_id} of the last sentence of the
+     * previous page. Must be given along with {@link #PARAM_AFTER_TS}.
+     */
+    public static final String PARAM_AFTER_ID = "after_id" ;
+
+    /**
+     * Query parameter: if {@code true}, then only favorites are selected; if
+     * {@code false}, then only the rest. If absent, then all sentences are.
+     */
+    public static final String PARAM_FAVORITES = "favorites" ;
+
+    /** The sort order in which pages run from the oldest sentence. */
+    public static final String SORT_OLDEST_FIRST =
+            PoppycockDatabase.PAGE_ORDER_ASC ;
+
+    /**
+     * The sort order in which pages run from the newest sentence. This is the
+     * default.
+     */
+    public static final String SORT_NEWEST_FIRST =
+            PoppycockDatabase.PAGE_ORDER_DESC ;
+
+    /** The number of sentences in a page if {@link #PARAM_LIMIT} is absent. */
+    public static final int DEFAULT_PAGE_SIZE =
+            PoppycockDatabase.DEFAULT_PAGE_SIZE ;
+
+    /**
+     * The largest page which will be returned, whatever the caller asks for.
+     * Even long sentences fill well under one cursor window at this size.
+     */
+    public static final int MAX_PAGE_SIZE = 500 ;
+
+    /** The columns which may be projected. */
+    protected static final List<String> COLUMNS =
+            Arrays.asList( SentenceRowMapper.PROJECTION ) ;
+
+    /** Matches {@link #CONTENT_URI}. */
+    protected static final int MATCH_SENTENCES = 1 ;
+
+    /** Matches the URI of a single sentence. */
+    protected static final int MATCH_SENTENCE = 2 ;
+
+    /** Matches the URIs which the provider serves. */
+    protected static final UriMatcher s_matcher =
+            new UriMatcher( UriMatcher.NO_MATCH ) ;
+    static
+    {
+        s_matcher.addURI( AUTHORITY, PATH_SENTENCES, MATCH_SENTENCES ) ;
+        s_matcher.addURI( AUTHORITY, PATH_SENTENCES + "/#", MATCH_SENTENCE ) ;
+    }
+
+/// Static Methods /////////////////////////////////////////////////////////////
+
+    /**
+     * Builds the URI of the first page of the historical record, or of part of
+     * it.
+     * @param bFavorites whether to select only favorites
+     * @param nLimit the maximum number of sentences in the page
+     * @return the URI of the page
+     */
+    public static Uri getPageUri( boolean bFavorites, int nLimit )
+    {
+        Uri.Builder bld = CONTENT_URI.buildUpon()
+                .appendQueryParameter( PARAM_LIMIT, Integer.toString(nLimit) ) ;
+        if( bFavorites )
+            bld.appendQueryParameter( PARAM_FAVORITES, "true" ) ;
+        return bld.build() ;
+    }
+
+    /**
+     * Builds the URI of a page which follows a previous page.
+     * @param bFavorites whether to select only favorites
+     * @param nAfterTS the {@code item_ts} of the last row of the previous page
+     * @param nAfterID the {@code item_id} of the last row of the previous page
+     * @param nLimit the maximum number of sentences in the page
+     * @return the URI of the page
+     */
+    public static Uri getPageUri( boolean bFavorites, long nAfterTS,
+                                  long nAfterID, int nLimit )
+    {
+        return getPageUri( bFavorites, nLimit ).buildUpon()
+                .appendQueryParameter( PARAM_AFTER_TS, Long.toString(nAfterTS) )
+                .appendQueryParameter( PARAM_AFTER_ID, Long.toString(nAfterID) )
+                .build()
+                ;
+    }
+
+    /**
+     * Reads a numeric query parameter.
+     * @param uri the URI
+     * @param sKey the name of the parameter
+     * @param nDefault the value if the parameter is absent
+     * @return the value of the parameter
+     * @throws IllegalArgumentException if the parameter is not a number
+     */
+    protected static long getLongParameter( Uri uri, String sKey,
+                                            long nDefault )
+    {
+        final String sValue = uri.getQueryParameter( sKey ) ;
+        if( sValue == null ) return nDefault ;
+        try { return Long.parseLong( sValue ) ; }
+        catch( NumberFormatException xNaN )
+        {
+            throw new IllegalArgumentException( (new StringBuilder())
+                    .append( "Parameter [" ).append( sKey )
+                    .append( "] is not a number: " ).append( sValue )
+                    .toString()
+                );
+        }
+    }
+
+    /**
+     * Checks a caller's projection against the columns of the sentence view,
+     * translating {@link BaseColumns#_ID} into {@code item_id}, so that the
+     * cursor can back an ordinary cursor adapter.
+     * @param asProjection the caller's projection, or {@code null} for every
+     *  column
+     * @return the projection to be queried
+     * @throws IllegalArgumentException if any column is unknown
+     */
+    protected static String[] toQueryProjection( String[] asProjection )
+    {
+        if( asProjection == null ) return SentenceRowMapper.PROJECTION ;
+        final String[] asColumns = new String[asProjection.length] ;
+        for( int i = 0 ; i < asProjection.length ; i++ )
+        {
+            if( BaseColumns._ID.equals( asProjection[i] ) )
+                asColumns[i] = "item_id AS " + BaseColumns._ID ;
+            else if( COLUMNS.contains( asProjection[i] ) )
+                asColumns[i] = asProjection[i] ;
+            else
+            {
+                throw new IllegalArgumentException(
+                        "Unknown column: " + asProjection[i] ) ;
+            }
+        }
+        return asColumns ;
+    }
+
+    /**
+     * Combines the sentences selected by a URI with a caller's selection into
+     * a filter over the sentence view.
+     * @param uri the URI of the record, or of a single sentence
+     * @param sSelection the caller's selection, or {@code null}
+     * @param asSelectionArgs the caller's selection arguments, or {@code null}
+     * @param asArgs receives the arguments of the filter, in order
+     * @return the filter, or {@code null} if every sentence is selected
+     * @throws IllegalArgumentException if the URI is not served here
+     */
+    protected static String toFilter( Uri uri, String sSelection,
+            String[] asSelectionArgs, ArrayList<String> asArgs )
+    {
+        final StringBuilder sb = new StringBuilder() ;
+        switch( s_matcher.match(uri) )
+        {
+            case MATCH_SENTENCE:
+                sb.append( "item_id=?" ) ;
+                asArgs.add( uri.getLastPathSegment() ) ;
+                break ;
+            case MATCH_SENTENCES:
+                if( uri.getQueryParameter( PARAM_FAVORITES ) != null )
+                {
+                    sb.append( "favorite=?" ) ;
+                    asArgs.add( Integer.toString( SQLitePortal.boolToInt(
+                        uri.getBooleanQueryParameter( PARAM_FAVORITES, true )
+                        ))) ;
+                }
+                break ;
+            default:
+                throw new IllegalArgumentException( "Unknown URI: " + uri ) ;
+        }
+        if( sSelection != null && ! sSelection.isEmpty() )
+        {
+            if( sb.length() > 0 ) sb.append( " AND " ) ;
+            sb.append( "( " ).append( sSelection ).append( " )" ) ;
+            if( asSelectionArgs != null )
+                asArgs.addAll( Arrays.asList( asSelectionArgs ) ) ;
+        }
+        return ( sb.length() > 0 ? sb.toString() : null ) ;
+    }
+
+    /**
+     * Marshals the values of a new sentence. The database assigns its ID; its
+     * timestamp defaults to now, and its favorite status to {@code false}.
+     * @param vals the values
+     * @return the new sentence
+     * @throws IllegalArgumentException if the values include an ID, an
+     *  unknown column, or a timestamp or favorite status which is {@code null}
+     *  or cannot be read as one
+     */
+    protected static Sentence toNewSentence( ContentValues vals )
+    {
+        if( vals == null ) return new Sentence() ;
+        for( String sKey : vals.keySet() )
+        {
+            if( "item_id".equals( sKey ) )
+            {
+                throw new IllegalArgumentException(
+                        "New sentences are assigned IDs by the database." ) ;
+            }
+            if( ! COLUMNS.contains( sKey ) )
+            {
+                throw new IllegalArgumentException(
+                        "Unknown column: " + sKey ) ;
+            }
+            if( ! "sentence".equals( sKey ) && vals.get( sKey ) == null )
+                throw new IllegalArgumentException( "Null column: " + sKey ) ;
+        }
+        // ContentValues returns null for a value it can't convert.
+        if( vals.containsKey( "item_ts" )
+         && vals.getAsLong( "item_ts" ) == null )
+        {
+            throw new IllegalArgumentException( (new StringBuilder())
+                    .append( "Timestamp is not a number: " )
+                    .append( vals.get( "item_ts" ) )
+                    .toString()
+                );
+        }
+        if( vals.containsKey( "favorite" )
+         && vals.getAsBoolean( "favorite" ) == null )
+        {
+            throw new IllegalArgumentException( (new StringBuilder())
+                    .append( "Favorite status is not a boolean: " )
+                    .append( vals.get( "favorite" ) )
+                    .toString()
+                );
+        }
+        return Sentence.fromContentValues( vals ) ;
+    }
+
+/// Instance Members ///////////////////////////////////////////////////////////
+
+    /** The database instance shared with the rest of the process. */
+    protected PoppycockDatabase m_dbh = null ;
+
+    /**
+     * Indicates that the provider has opened the database, so that it needn't
+     * take the write lock to check again.
+     */
+    protected volatile boolean m_bOpened = false ;
+
+    /** Delivers change notifications off the thread which made the change. */
+    protected final Handler m_hMain = new Handler( Looper.getMainLooper() ) ;
+
+    /**
+     * Indicates that a notification has been posted and not yet delivered, so
+     * that a burst of writes costs observers only one notification.
+     */
+    protected final AtomicBoolean m_bNotifyDue = new AtomicBoolean(false) ;
+
+    /** Notifies observers of {@link #CONTENT_URI}. */
+    protected final Runnable m_runNotify = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            m_bNotifyDue.set( false ) ;
+            getContext().getContentResolver()
+                    .notifyChange( CONTENT_URI, null ) ;
+        }
+    };
+
+    /**
+     * Receives each committed change to the historical record, whoever made
+     * it, and schedules a notification. Since this is registered for the life
+     * of the process, the database always gathers the IDs of deleted rows.
+     */
+    protected final PoppycockDatabase.ChangeListener m_lChanges =
+        new PoppycockDatabase.ChangeListener()
+    {
+        @Override
+        public void onHistoryChanged( HistoryChange chg )
+        {
+            if( m_bNotifyDue.compareAndSet( false, true ) )
+                m_hMain.post( m_runNotify ) ;
+        }
+    };
+
+/// android.content.ContentProvider ///////////////////////////////////////////
+
+    /**
+     * Obtains the shared database instance and starts listening to it, but
+     * does not open it, since this runs on the UI thread as the process
+     * starts.
+     * @return {@code true}
+     */
+    @Override
+    public boolean onCreate()
+    {
+        m_dbh = PoppycockDatabase.acquire( this.getContext() ) ;
+        m_dbh.addChangeListener( m_lChanges ) ;
+        return true ;
+    }
+
+    @Override
+    public String getType( Uri uri )
+    {
+        switch( s_matcher.match(uri) )
+        {
+            case MATCH_SENTENCES: return CONTENT_TYPE ;
+            case MATCH_SENTENCE: return CONTENT_ITEM_TYPE ;
+            default: return null ;
+        }
+    }
+
+    /**
+     * Opens one page of sentences.
+     * @param uri {@link #CONTENT_URI}, with any of {@link #PARAM_LIMIT},
+     *  {@link #PARAM_FAVORITES}, and the keyset parameters; or the URI of a
+     *  single sentence
+     * @param asProjection columns of {@link SentenceRowMapper#PROJECTION}, or
+     *  {@link BaseColumns#_ID}; {@code null} selects the former
+     * @param sSelection a filter over those columns, or {@code null}
+     * @param asSelectionArgs arguments for the filter, or {@code null}
+     * @param sSortOrder {@link #SORT_NEWEST_FIRST}, {@link #SORT_OLDEST_FIRST},
+     *  or {@code null} for the former
+     * @return a cursor over at most {@link #MAX_PAGE_SIZE} sentences
+     */
+    @Override
+    public Cursor query( Uri uri, String[] asProjection, String sSelection,
+                         String[] asSelectionArgs, String sSortOrder )
+    {
+        final ArrayList<String> asArgs = new ArrayList<>() ;
+        final String sFilter =
+                toFilter( uri, sSelection, asSelectionArgs, asArgs ) ;
+        final boolean bOldestFirst ;
+        if( sSortOrder == null || SORT_NEWEST_FIRST.equals( sSortOrder ) )
+            bOldestFirst = false ;
+        else if( SORT_OLDEST_FIRST.equals( sSortOrder ) )
+            bOldestFirst = true ;
+        else
+        {
+            throw new IllegalArgumentException(
+                    "Unsupported sort order: " + sSortOrder ) ;
+        }
+        final boolean bHasKey =
+                ( uri.getQueryParameter( PARAM_AFTER_ID ) != null ) ;
+        if( bHasKey != ( uri.getQueryParameter( PARAM_AFTER_TS ) != null ) )
+        {
+            throw new IllegalArgumentException( (new StringBuilder())
+                    .append( "Parameters [" ).append( PARAM_AFTER_TS )
+                    .append( "] and [" ).append( PARAM_AFTER_ID )
+                    .append( "] must be given together." )
+                    .toString()
+                );
+        }
+        final long nLimit = Math.min( MAX_PAGE_SIZE,
+                getLongParameter( uri, PARAM_LIMIT, DEFAULT_PAGE_SIZE ) ) ;
+        if( nLimit <= 0 )
+            throw new IllegalArgumentException( "Limit must be positive." ) ;
+
+        final Cursor crs = this.getDB().queryHistory(
+                toQueryProjection( asProjection ), sFilter,
+                asArgs.toArray( new String[asArgs.size()] ), bOldestFirst,
+                bHasKey, getLongParameter( uri, PARAM_AFTER_TS, 0L ),
+                getLongParameter( uri, PARAM_AFTER_ID, 0L ), (int)nLimit ) ;
+        if( crs != null )
+        {
+            crs.setNotificationUri(
+                    this.getContext().getContentResolver(), CONTENT_URI ) ;
+        }
+        return crs ;
+    }
+
+    /**
+     * Writes a new sentence.
+     * @param uri {@link #CONTENT_URI}
+     * @param vals any of {@code item_ts}, {@code sentence}, and
+     *  {@code favorite}
+     * @return the URI of the new sentence
+     */
+    @Override
+    public Uri insert( Uri uri, ContentValues vals )
+    {
+        this.checkCollection( uri ) ;
+        final Sentence o = this.getDB().insertSentence( toNewSentence(vals) ) ;
+        return ( o != null ?
+                ContentUris.withAppendedId( CONTENT_URI, o.nItemID ) : null ) ;
+    }
+
+    /**
+     * Writes several new sentences in a single transaction.
+     * @param uri {@link #CONTENT_URI}
+     * @param avals the values of each sentence, as for
+     *  {@link #insert(Uri, ContentValues)}
+     * @return the number of sentences written
+     */
+    @Override
+    public int bulkInsert( Uri uri, ContentValues[] avals )
+    {
+        this.checkCollection( uri ) ;
+        final ArrayList<Sentence> ao = new ArrayList<>( avals.length ) ;
+        for( ContentValues vals : avals )
+            ao.add( toNewSentence( vals ) ) ;
+        return this.getDB().insertSentences( ao ) ;
+    }
+
+    /**
+     * Sets the favorite status of the selected sentences. Nothing else about
+     * a sentence may be changed.
+     * @param uri {@link #CONTENT_URI}, optionally with
+     *  {@link #PARAM_FAVORITES}; or the URI of a single sentence
+     * @param vals only {@code favorite}
+     * @param sSelection a filter over the columns of the sentence view, or
+     *  {@code null}
+     * @param asSelectionArgs arguments for the filter, or {@code null}
+     * @return the number of sentences whose status changed
+     */
+    @Override
+    public int update( Uri uri, ContentValues vals, String sSelection,
+                       String[] asSelectionArgs )
+    {
+        if( vals == null || vals.size() != 1
+                || vals.getAsBoolean( "favorite" ) == null )
+        {
+            throw new IllegalArgumentException(
+                    "Only the favorite status of a sentence may be updated." ) ;
+        }
+        final ArrayList<String> asArgs = new ArrayList<>() ;
+        final String sFilter =
+                toFilter( uri, sSelection, asSelectionArgs, asArgs ) ;
+        return this.getDB().setFavorites( sFilter,
+                asArgs.toArray( new String[asArgs.size()] ),
+                vals.getAsBoolean( "favorite" ) ) ;
+    }
+
+    /**
+     * Deletes the selected sentences.
+     * @param uri {@link #CONTENT_URI}, optionally with
+     *  {@link #PARAM_FAVORITES}; or the URI of a single sentence
+     * @param sSelection a filter over the columns of the sentence view, or
+     *  {@code null}
+     * @param asSelectionArgs arguments for the filter, or {@code null}
+     * @return the number of sentences deleted
+     */
+    @Override
+    public int delete( Uri uri, String sSelection, String[] asSelectionArgs )
+    {
+        final ArrayList<String> asArgs = new ArrayList<>() ;
+        final String sFilter =
+                toFilter( uri, sSelection, asSelectionArgs, asArgs ) ;
+        return this.getDB().deleteSentences( sFilter,
+                asArgs.toArray( new String[asArgs.size()] ) ) ;
+    }
+
+    /**
+     * Applies a batch of operations in a single transaction, which is rolled
+     * back if any of them fails. Observers are notified only once the batch
+     * is committed.
+     * @param aops the operations
+     * @return the results of the operations
+     * @throws OperationApplicationException if any operation fails
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(
+            final ArrayList<ContentProviderOperation> aops )
+    throws OperationApplicationException
+    {
+        return this.getDB().runInTransaction( new PoppycockDatabase.Transaction
+                <ContentProviderResult[],OperationApplicationException>()
+        {
+            @Override
+            public ContentProviderResult[] run( PoppycockDatabase dbh )
+            throws OperationApplicationException
+            { return HistoryProvider.super.applyBatch( aops ) ; }
+        });
+    }
+
+    /**
+     * Releases the shared database instance. Android calls this only from
+     * tests; otherwise the provider holds the database for the life of the
+     * process.
+     */
+    @Override
+    public void shutdown()
+    {
+        if( m_dbh != null )
+        {
+            m_dbh.removeChangeListener( m_lChanges ) ;
+            PoppycockDatabase.release( m_dbh ) ;
+            m_dbh = null ;
+        }
+        m_hMain.removeCallbacks( m_runNotify ) ;
+        super.shutdown() ;
+    }
+
+/// Instance Methods ///////////////////////////////////////////////////////////
+
+    /**
+     * Opens the shared database, if the provider hasn't already done so. Like
+     * any provider, this one should be called off the UI thread.
+     * @return the database
+     * @throws IllegalStateException if the database could not be opened
+     */
+    protected PoppycockDatabase getDB()
+    {
+        final PoppycockDatabase dbh = m_dbh ;
+        if( dbh == null )
+        {
+            throw new IllegalStateException(
+                    "The provider has been shut down." ) ;
+        }
+        if( ! m_bOpened )
+        {
+            dbh.openDB() ;            // does nothing if the service opened it
+            m_bOpened = dbh.isConnected() ;
+            if( ! m_bOpened )
+            {
+                throw new IllegalStateException(
+                        "The Historical Record is not connected." ) ;
+            }
+        }
+        return dbh ;
+    }
+
+    /**
+     * Checks that a URI names the whole collection of sentences.
+     * @param uri the URI
+     * @throws IllegalArgumentException if it does not
+     */
+    protected void checkCollection( Uri uri )
+    {
+        if( s_matcher.match(uri) != MATCH_SENTENCES )
+        {
+            throw new IllegalArgumentException(
+                    "Sentences may be inserted only at " + CONTENT_URI ) ;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package net.zerobandwidth.android.apps.poppycock;
+
+import android.content.Context;
+import android.util.Log;
+
+import net.zerobandwidth.android.apps.poppycock.model.Sentence;
+import net.zerobandwidth.android.lib.nonsense.NonsenseBuilder;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a bounded queue of nonsense which has already been generated, so that
+ * the UI can show a new sentence without waiting for {@link NonsenseBuilder}.
+ * The queue is refilled on a background thread whenever it drops to half of
+ * its capacity.
+ * @since zerobandwidth-net/android-poppycock 1.0.2
+ */
+public class NonsensePool
+{
+    protected static final String LOG_TAG = NonsensePool.class.getSimpleName() ;
+
+    /** The default number of sentences to keep ready. */
+    public static final int DEFAULT_CAPACITY = 16 ;
+
+/// Inner Classes //////////////////////////////////////////////////////////////
+
+    /**
+     * A snapshot of the pool's performance counters.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static class Stats
+    {
+        /** The number of requests served from the queue. */
+        public long nHits = 0L ;
+
+        /** The number of requests that had to generate nonsense inline. */
+        public long nMisses = 0L ;
+
+        /** The number of sentences generated by the background thread. */
+        public long nGenerated = 0L ;
+
+        /** The number of refill passes run by the background thread. */
+        public long nRefills = 0L ;
+
+        /** Total time spent in refill passes, in nanoseconds. */
+        public long nRefillNanos = 0L ;
+
+        /** The longest single refill pass, in nanoseconds. */
+        public long nMaxRefillNanos = 0L ;
+
+        /** @return the fraction of requests served from the queue */
+        public double getHitRate()
+        {
+            final long nTotal = nHits + nMisses ;
+            return ( nTotal == 0L ? 0.0d : ((double)nHits) / nTotal ) ;
+        }
+
+        /** @return the mean duration of a refill pass, in milliseconds */
+        public double getMeanRefillMillis()
+        {
+            return ( nRefills == 0L ? 0.0d :
+                    ((double)nRefillNanos) / nRefills / 1000000.0d ) ;
+        }
+
+        /** @return the mean time to generate one sentence, in milliseconds */
+        public double getMeanGenerateMillis()
+        {
+            return ( nGenerated == 0L ? 0.0d :
+                    ((double)nRefillNanos) / nGenerated / 1000000.0d ) ;
+        }
+
+        @Override
+        public String toString()
+        {
+            return (new StringBuilder())
+                .append( "hits [" ).append( nHits )
+                .append( "] misses [" ).append( nMisses )
+                .append( "] hit rate [" ).append( this.getHitRate() )
+                .append( "] refills [" ).append( nRefills )
+                .append( "] mean refill [" ).append( this.getMeanRefillMillis() )
+                .append( "ms] max refill [" )
+                .append( nMaxRefillNanos / 1000000.0d )
+                .append( "ms] mean per sentence [" )
+                .append( this.getMeanGenerateMillis() )
+                .append( "ms]" )
+                .toString()
+                ;
+        }
+    }
+
+    /**
+     * Fills the queue to capacity. Runs only on the pool's own thread, which
+     * is the only thread that touches {@link #m_xyzzyBackground}.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected class Refiller
+    implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            try
+            {
+                final long tsStart = System.nanoTime() ;
+                long nGenerated = 0L ;
+                while( m_qReady.remainingCapacity() > 0 )
+                {
+                    Sentence o = new Sentence() ;
+                    o.sSentence = m_xyzzyBackground.getString() ;
+                    if( ! m_qReady.offer(o) ) break ;
+                    ++nGenerated ;
+                }
+                final long nElapsed = System.nanoTime() - tsStart ;
+                m_nGenerated.addAndGet( nGenerated ) ;
+                m_nRefills.incrementAndGet() ;
+                m_nRefillNanos.addAndGet( nElapsed ) ;
+                long nMax = m_nMaxRefillNanos.get() ;
+                while( nElapsed > nMax
+                        && ! m_nMaxRefillNanos.compareAndSet( nMax, nElapsed ) )
+                { nMax = m_nMaxRefillNanos.get() ; }
+            }
+            catch( Exception x )
+            { Log.e( LOG_TAG, "Failed to refill the nonsense pool.", x ) ; }
+            finally
+            { m_bRefilling.set( false ) ; }
+        }
+    }
+
+/// Instance Members ///////////////////////////////////////////////////////////
+
+    /** The nonsense which is ready to be shown. */
+    protected final ArrayBlockingQueue<Sentence> m_qReady ;
+
+    /** The generator used only by the background thread. */
+    protected final NonsenseBuilder m_xyzzyBackground ;
+
+    /** The generator used only by callers whose request missed the queue. */
+    protected final NonsenseBuilder m_xyzzyInline ;
+
+    /** The background thread which refills the queue. */
+    protected final ExecutorService m_xRefill ;
+
+    /** The task which refills the queue. */
+    protected final Refiller m_runRefill = new Refiller() ;
+
+    /** Indicates that a refill is already queued or running. */
+    protected final AtomicBoolean m_bRefilling = new AtomicBoolean( false ) ;
+
+    /** Counts requests served from the queue; see {@link Stats#nHits}. */
+    protected final AtomicLong m_nHits = new AtomicLong(0L) ;
+
+    /** Counts requests generated inline; see {@link Stats#nMisses}. */
+    protected final AtomicLong m_nMisses = new AtomicLong(0L) ;
+
+    /**
+     * Counts sentences generated in the background; see
+     * {@link Stats#nGenerated}.
+     */
+    protected final AtomicLong m_nGenerated = new AtomicLong(0L) ;
+
+    /** Counts completed refill passes; see {@link Stats#nRefills}. */
+    protected final AtomicLong m_nRefills = new AtomicLong(0L) ;
+
+    /**
+     * Accumulates the time spent in refill passes; see
+     * {@link Stats#nRefillNanos}.
+     */
+    protected final AtomicLong m_nRefillNanos = new AtomicLong(0L) ;
+
+    /**
+     * Holds the longest refill pass so far; see
+     * {@link Stats#nMaxRefillNanos}.
+     */
+    protected final AtomicLong m_nMaxRefillNanos = new AtomicLong(0L) ;
+
+/// Constructors ///////////////////////////////////////////////////////////////
+
+    /**
+     * Constructs a pool with the default capacity, and starts filling it.
+     * @param ctx the context in which nonsense is generated
+     */
+    public NonsensePool( Context ctx )
+    { this( ctx, DEFAULT_CAPACITY ) ; }
+
+    /**
+     * Constructs a pool, and starts filling it.
+     * @param ctx the context in which nonsense is generated
+     * @param nCapacity the number of sentences to keep ready
+     */
+    public NonsensePool( Context ctx, int nCapacity )
+    {
+        m_qReady = new ArrayBlockingQueue<>( nCapacity ) ;
+        m_xyzzyBackground = new NonsenseBuilder( ctx ) ;
+        m_xyzzyInline = new NonsenseBuilder( ctx ) ;
+        m_xRefill = Executors.newSingleThreadExecutor( new ThreadFactory()
+        {
+            @Override
+            public Thread newThread( Runnable r )
+            {
+                Thread t = new Thread( r, "PoppycockNonsense" ) ;
+                t.setPriority( Thread.MIN_PRIORITY ) ;
+                return t ;
+            }
+        });
+        this.requestRefill() ;
+    }
+
+/// Instance Methods ///////////////////////////////////////////////////////////
+
+    /**
+     * Takes the next bit of nonsense from the pool. If the pool has run dry,
+     * then the nonsense is generated inline instead. Either way, the pool is
+     * topped up in the background if it has fallen to half capacity.
+     * This method should be called from only one thread, normally the UI.
+     * @return fresh nonsense, timestamped now, and not yet recorded
+     */
+    public Sentence next()
+    {
+        Sentence o = m_qReady.poll() ;
+        if( o != null )
+            m_nHits.incrementAndGet() ;
+        else
+        {
+            m_nMisses.incrementAndGet() ;
+            o = new Sentence() ;
+            o.sSentence = m_xyzzyInline.getString() ;
+        }
+        o.nItemTS = System.currentTimeMillis() ;    // shown now, not generated
+        if( m_qReady.size() <= m_qReady.remainingCapacity() )
+            this.requestRefill() ;
+        return o ;
+    }
+
+    /**
+     * Queues a refill of the pool, unless one is already pending.
+     * @return (fluid)
+     */
+    public NonsensePool requestRefill()
+    {
+        if( m_bRefilling.compareAndSet( false, true ) )
+        {
+            try { m_xRefill.execute( m_runRefill ) ; }
+            catch( Exception x )
+            { // The pool has been shut down.
+                m_bRefilling.set( false ) ;
+            }
+        }
+        return this ;
+    }
+
+    /** @return the number of sentences currently ready */
+    public int size()
+    { return m_qReady.size() ; }
+
+    /** @return a snapshot of the pool's performance counters */
+    public Stats getStats()
+    {
+        Stats stats = new Stats() ;
+        stats.nHits = m_nHits.get() ;
+        stats.nMisses = m_nMisses.get() ;
+        stats.nGenerated = m_nGenerated.get() ;
+        stats.nRefills = m_nRefills.get() ;
+        stats.nRefillNanos = m_nRefillNanos.get() ;
+        stats.nMaxRefillNanos = m_nMaxRefillNanos.get() ;
+        return stats ;
+    }
+
+    /** Stops the background thread. The pool can't be refilled afterward. */
+    public void shutdown()
+    { m_xRefill.shutdownNow() ; }
+}
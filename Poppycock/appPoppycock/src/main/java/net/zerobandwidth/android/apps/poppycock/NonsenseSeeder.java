@@ -0,0 +1,341 @@
+package net.zerobandwidth.android.apps.poppycock;
+
+import android.content.Context;
+import android.util.Log;
+
+import net.zerobandwidth.android.apps.poppycock.database.HistoryArchive;
+import net.zerobandwidth.android.apps.poppycock.database.PoppycockDatabase;
+import net.zerobandwidth.android.apps.poppycock.model.Sentence;
+import net.zerobandwidth.android.lib.nonsense.NonsenseBuilder;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Fills the historical record with large amounts of freshly generated
+ * nonsense, for load tests and demonstrations.
+ *
+ * Generation runs on a pool of worker threads, one per core by default, each
+ * with its own {@link NonsenseBuilder}. Workers claim batches of
+ * {@link #BATCH_ROWS} sentences from a shared count until none are left, and
+ * hand each finished batch to the calling thread through a short queue. The
+ * calling thread is the only writer, and writes each batch in a single
+ * transaction, since SQLite would serialize concurrent writers anyway; it may
+ * instead hand each batch to a {@link HistoryArchive.BatchWriter}. The
+ * queue holds only a few batches per worker, so that generation never runs
+ * far ahead of the database, and memory stays bounded however many sentences
+ * are requested.
+ * @since zerobandwidth-net/android-poppycock 1.0.2
+ */
+public class NonsenseSeeder
+{
+    protected static final String LOG_TAG =
+            NonsenseSeeder.class.getSimpleName() ;
+
+    /** The number of sentences written by each transaction. */
+    public static final int BATCH_ROWS = HistoryArchive.IMPORT_BATCH_ROWS ;
+
+    /** The number of finished batches which may wait for the writer. */
+    protected static final int QUEUED_BATCHES_PER_THREAD = 2 ;
+
+    /** How long the writer waits for a batch before checking on workers. */
+    protected static final long POLL_INTERVAL_MS = 500L ;
+
+/// Inner Classes //////////////////////////////////////////////////////////////
+
+    /**
+     * The outcome of a run of the seeder.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static class Stats
+    {
+        /** The number of sentences written. */
+        public int nSentences = 0 ;
+
+        /** The number of worker threads which generated them. */
+        public int nThreads = 0 ;
+
+        /** The time from the start of the run to its last write. */
+        public long nElapsedNanos = 0L ;
+
+        /** The time spent by all workers generating, added together. */
+        public long nGenerateNanos = 0L ;
+
+        /** The time spent by the writer writing. */
+        public long nWriteNanos = 0L ;
+
+        /** @return the number of sentences written per second, overall */
+        public double getSentencesPerSecond()
+        {
+            return ( nElapsedNanos == 0L ? 0.0d :
+                    nSentences * 1000000000.0d / nElapsedNanos ) ;
+        }
+
+        /**
+         * @return the number of sentences generated per second by a single
+         *  worker, which bounds the rate that one more core could add
+         */
+        public double getGeneratedPerThreadSecond()
+        {
+            return ( nGenerateNanos == 0L ? 0.0d :
+                    nSentences * 1000000000.0d / nGenerateNanos ) ;
+        }
+
+        /**
+         * @return the number of sentences the writer could write per second,
+         *  which bounds the overall rate however many cores generate
+         */
+        public double getWrittenPerSecond()
+        {
+            return ( nWriteNanos == 0L ? 0.0d :
+                    nSentences * 1000000000.0d / nWriteNanos ) ;
+        }
+
+        @Override
+        public String toString()
+        {
+            return (new StringBuilder())
+                .append( "sentences [" ).append( nSentences )
+                .append( "] threads [" ).append( nThreads )
+                .append( "] elapsed [" ).append( nElapsedNanos / 1000000L )
+                .append( "ms] rate [" )
+                .append( Math.round( this.getSentencesPerSecond() ) )
+                .append( "/s] per thread [" )
+                .append( Math.round( this.getGeneratedPerThreadSecond() ) )
+                .append( "/s] writer [" )
+                .append( Math.round( this.getWrittenPerSecond() ) )
+                .append( "/s]" )
+                .toString()
+                ;
+        }
+    }
+
+    /**
+     * Generates batches of nonsense until there are none left to claim. Runs
+     * on a worker thread, which is the only thread that touches its
+     * {@link NonsenseBuilder}.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected class Generator
+    implements Runnable
+    {
+        /** The number of sentences which no worker has claimed yet. */
+        protected final AtomicInteger m_nUnclaimed ;
+
+        /** Receives each finished batch. */
+        protected final ArrayBlockingQueue<ArrayList<Sentence>> m_qBatches ;
+
+        /** Accumulates the time spent generating. */
+        protected final AtomicLong m_nGenerateNanos ;
+
+        /** Receives the exception that stopped the worker, if any. */
+        protected final AtomicReference<RuntimeException> m_refError ;
+
+        public Generator( AtomicInteger nUnclaimed,
+                          ArrayBlockingQueue<ArrayList<Sentence>> qBatches,
+                          AtomicLong nGenerateNanos,
+                          AtomicReference<RuntimeException> refError )
+        {
+            m_nUnclaimed = nUnclaimed ;
+            m_qBatches = qBatches ;
+            m_nGenerateNanos = nGenerateNanos ;
+            m_refError = refError ;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                final NonsenseBuilder xyzzy = new NonsenseBuilder( m_ctx ) ;
+                int nClaimed ;
+                while( ( nClaimed = this.claim() ) > 0 )
+                {
+                    final long tsStart = System.nanoTime() ;
+                    final ArrayList<Sentence> aoBatch =
+                            new ArrayList<>( nClaimed ) ;
+                    for( int i = 0 ; i < nClaimed ; i++ )
+                    {
+                        final Sentence o = new Sentence() ;
+                        o.sSentence = xyzzy.getString() ;
+                        aoBatch.add( o ) ;
+                    }
+                    m_nGenerateNanos.addAndGet( System.nanoTime() - tsStart ) ;
+                    m_qBatches.put( aoBatch ) ;
+                }
+            }
+            catch( InterruptedException xInterrupt )
+            { /* The run has been stopped. */ }
+            catch( RuntimeException x )
+            { m_refError.compareAndSet( null, x ) ; }
+        }
+
+        /** @return the size of the next batch, or zero if none remain */
+        protected int claim()
+        {
+            int nUnclaimed ;
+            int nClaimed ;
+            do
+            {
+                nUnclaimed = m_nUnclaimed.get() ;
+                nClaimed = Math.min( nUnclaimed, BATCH_ROWS ) ;
+            }
+            while( nClaimed > 0 && ! m_nUnclaimed.compareAndSet(
+                    nUnclaimed, nUnclaimed - nClaimed ) ) ;
+            return nClaimed ;
+        }
+    }
+
+/// Instance Members ///////////////////////////////////////////////////////////
+
+    /** The context in which nonsense is generated. */
+    protected final Context m_ctx ;
+
+    /** The database to be filled. */
+    protected final PoppycockDatabase m_dbh ;
+
+    /** The number of worker threads. */
+    protected int m_nThreads = Runtime.getRuntime().availableProcessors() ;
+
+    /** Receives the running count of sentences written, if set. */
+    protected HistoryArchive.ProgressListener m_lProgress = null ;
+
+    /** Writes each batch, if set; otherwise, batches are written directly. */
+    protected HistoryArchive.BatchWriter m_writer = null ;
+
+/// Constructors ///////////////////////////////////////////////////////////////
+
+    /**
+     * Constructs a seeder for a database.
+     * @param ctx the context in which nonsense is generated
+     * @param dbh the database to be filled
+     */
+    public NonsenseSeeder( Context ctx, PoppycockDatabase dbh )
+    {
+        m_ctx = ctx ;
+        m_dbh = dbh ;
+    }
+
+/// Instance Methods ///////////////////////////////////////////////////////////
+
+    /**
+     * Sets the number of worker threads which generate nonsense. By default,
+     * there is one per available core.
+     * @param nThreads the number of workers
+     * @return (fluid)
+     */
+    public NonsenseSeeder setThreadCount( int nThreads )
+    { m_nThreads = Math.max( 1, nThreads ) ; return this ; }
+
+    /** @return the number of worker threads which generate nonsense */
+    public int getThreadCount()
+    { return m_nThreads ; }
+
+    /**
+     * Sets a listener for the running count of sentences written, which is
+     * called on the writing thread after each batch.
+     * @param l the listener, or {@code null}
+     * @return (fluid)
+     */
+    public NonsenseSeeder setProgressListener(
+            HistoryArchive.ProgressListener l )
+    { m_lProgress = l ; return this ; }
+
+    /**
+     * Sets the writer to which each batch is handed, instead of being written
+     * to the database directly by the calling thread.
+     * @param writer the writer, or {@code null} to write directly
+     * @return (fluid)
+     */
+    public NonsenseSeeder setBatchWriter( HistoryArchive.BatchWriter writer )
+    { m_writer = writer ; return this ; }
+
+    /**
+     * Generates nonsense and writes it to the database, returning once it
+     * has all been written. The calling thread is the writer, unless a
+     * {@link HistoryArchive.BatchWriter} has been set. If it is interrupted,
+     * then the run stops after the current batch, the interrupt is preserved,
+     * and the batches already written remain. A batch writer may withdraw the
+     * current batch instead, in which case it is not counted.
+     * @param nCount the number of sentences to write
+     * @return the outcome of the run
+     * @throws IllegalStateException if the database is closed during the run
+     * @throws RuntimeException if a worker fails to generate nonsense
+     */
+    public Stats seed( int nCount )
+    {
+        final Stats stats = new Stats() ;
+        if( nCount <= 0 ) return stats ;
+        final long tsStart = System.nanoTime() ;
+        stats.nThreads = Math.min( m_nThreads,
+                ( nCount + BATCH_ROWS - 1 ) / BATCH_ROWS ) ;
+        final ArrayBlockingQueue<ArrayList<Sentence>> qBatches =
+                new ArrayBlockingQueue<>(
+                        stats.nThreads * QUEUED_BATCHES_PER_THREAD ) ;
+        final AtomicInteger nUnclaimed = new AtomicInteger( nCount ) ;
+        final AtomicLong nGenerateNanos = new AtomicLong(0L) ;
+        final AtomicReference<RuntimeException> refError =
+                new AtomicReference<>() ;
+        final ExecutorService xWorkers = Executors.newFixedThreadPool(
+                stats.nThreads, new ThreadFactory()
+        {
+            protected final AtomicInteger m_nWorkers = new AtomicInteger(0) ;
+
+            @Override
+            public Thread newThread( Runnable r )
+            {
+                Thread t = new Thread( r, "PoppycockSeeder-"
+                        + m_nWorkers.incrementAndGet() ) ;
+                t.setPriority( Thread.NORM_PRIORITY - 1 ) ;
+                return t ;
+            }
+        });
+        try
+        {
+            for( int i = 0 ; i < stats.nThreads ; i++ )
+            {
+                xWorkers.execute( new Generator(
+                        nUnclaimed, qBatches, nGenerateNanos, refError ) ) ;
+            }
+            while( stats.nSentences < nCount )
+            {
+                final ArrayList<Sentence> aoBatch = qBatches.poll(
+                        POLL_INTERVAL_MS, TimeUnit.MILLISECONDS ) ;
+                if( refError.get() != null ) throw refError.get() ;
+                if( aoBatch == null ) continue ;
+                final long tsWrite = System.nanoTime() ;
+                final int nWritten = ( m_writer != null ?
+                        m_writer.writeBatch( aoBatch ) :
+                        m_dbh.insertSentences( aoBatch ) ) ;
+                if( nWritten < aoBatch.size() )
+                {
+                    throw new IllegalStateException(
+                            "The Historical Record is not connected." ) ;
+                }
+                stats.nWriteNanos += System.nanoTime() - tsWrite ;
+                stats.nSentences += aoBatch.size() ;
+                if( m_lProgress != null )
+                    m_lProgress.onProgress( stats.nSentences ) ;
+                if( Thread.currentThread().isInterrupted() ) break ;
+            }
+        }
+        catch( InterruptedException xInterrupt )
+        { Thread.currentThread().interrupt() ; }
+        catch( InterruptedIOException xInterrupt )
+        { Thread.currentThread().interrupt() ; }      // batch not counted
+        finally
+        { xWorkers.shutdownNow() ; }
+        stats.nElapsedNanos = System.nanoTime() - tsStart ;
+        stats.nGenerateNanos = nGenerateNanos.get() ;
+        Log.i( LOG_TAG, "Seeded: " + stats.toString() ) ;
+        return stats ;
+    }
+}
@@ -3,11 +3,50 @@ package net.zerobandwidth.android.apps.poppycock;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
 
+import net.zerobandwidth.android.apps.poppycock.database.HistoryArchive;
+import net.zerobandwidth.android.apps.poppycock.database.HistoryChange;
+import net.zerobandwidth.android.apps.poppycock.database.HistorySnapshot;
+import net.zerobandwidth.android.apps.poppycock.database.HistoryStats;
+import net.zerobandwidth.android.apps.poppycock.database.OperationMetrics;
 import net.zerobandwidth.android.apps.poppycock.database.PoppycockDatabase;
+import net.zerobandwidth.android.apps.poppycock.database.SentencePage;
+import net.zerobandwidth.android.apps.poppycock.model.Sentence;
 import net.zerobandwidth.android.lib.IntentUtils;
 import net.zerobandwidth.android.lib.services.SimpleServiceConnection;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Provides a persistent object to handle database connections, etc.
  * @since zerobandwidth-net/android-poppycock 1.0.1 (#2)
@@ -18,6 +57,67 @@ extends Service
     protected static final String LOG_TAG =
             PoppycockService.class.getSimpleName() ;
 
+    /**
+     * The number of threads which may read from the database concurrently
+     * with each other and with the database thread.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static final int READER_THREADS = 2 ;
+
+    /**
+     * The longest that the database thread will wait for readers, and for
+     * interrupted transfers, to finish before it closes the database.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected static final long READER_SHUTDOWN_TIMEOUT_MS = 5000L ;
+
+    /**
+     * The delay after a retention policy is set before it is first enforced,
+     * so that it never competes with the app's cold start.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected static final long RETENTION_INITIAL_DELAY_MS = 60000L ;
+
+    /**
+     * The interval between passes which enforce the retention policy.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected static final long RETENTION_INTERVAL_MS = 6L * 60L * 60L * 1000L ;
+
+    /**
+     * The pause between batches of a retention pass, which lets other work on
+     * the database thread run in between.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected static final long RETENTION_BATCH_DELAY_MS = 500L ;
+
+    /**
+     * The maximum number of sentences deleted by each batch of a retention
+     * pass.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected static final int RETENTION_BATCH_ROWS = 250 ;
+
+    /**
+     * The maximum number of free pages reclaimed by each batch of a retention
+     * pass.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected static final int RETENTION_BATCH_PAGES = 128 ;
+
+    /**
+     * The maximum number of sentences deleted by each batch of a purge.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected static final int PURGE_BATCH_ROWS = 500 ;
+
+    /**
+     * The delay after a write before the history snapshots are rewritten, so
+     * that a burst of writes costs only one rewrite.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected static final long SNAPSHOT_DELAY_MS = 5000L ;
+
 /// Static Service API /////////////////////////////////////////////////////////
 
     /**
@@ -68,18 +168,686 @@ extends Service
     public PoppycockService.Binder onBind( Intent sig )
     { return m_bind ; }
 
+/// Asynchronous Database API //////////////////////////////////////////////////
+
+    /**
+     * A unit of work to be performed against the database on the service's
+     * database thread.
+     * @param <T> the type of the operation's result
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public interface Operation<T>
+    {
+        /**
+         * Performs the operation. This is never called on the UI thread.
+         * @param db the app's database
+         * @return the result of the operation
+         */
+        T run( PoppycockDatabase db ) ;
+    }
+
+    /**
+     * Receives the result of an asynchronous database operation. Both methods
+     * are always called on the UI thread.
+     * @param <T> the type of the operation's result
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static abstract class Callback<T>
+    {
+        /**
+         * Called when the operation completes successfully.
+         * @param result the result of the operation
+         */
+        public abstract void onResult( T result ) ;
+
+        /**
+         * Called if the database was unavailable, or if the operation threw an
+         * exception. By default, this simply logs the failure.
+         * @param x the exception that was thrown
+         */
+        public void onError( Exception x )
+        { Log.e( LOG_TAG, "Database operation failed.", x ) ; }
+    }
+
+    /**
+     * Receives the progress and result of a long-running database operation.
+     * All methods are always called on the UI thread.
+     * @param <T> the type of the operation's result
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static abstract class ProgressCallback<T>
+    extends Callback<T>
+    {
+        /**
+         * Called after each step of the operation.
+         * @param nDone the number of units of work completed so far
+         * @param nTotal the number of units of work expected in all
+         */
+        public abstract void onProgress( int nDone, int nTotal ) ;
+    }
+
+    /**
+     * Thrown to a {@link Callback} when an operation is attempted while the
+     * database is not connected.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static class DatabaseUnavailableException
+    extends IllegalStateException
+    {
+        public DatabaseUnavailableException()
+        { super( "The Historical Record is not connected." ) ; }
+    }
+
+    /**
+     * Thrown to a {@link Callback} when an export or import fails to read or
+     * write its file, or finds a malformed record in it.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static class TransferFailedException
+    extends IllegalStateException
+    {
+        public TransferFailedException( String sMessage, Throwable xCause )
+        { super( sMessage, xCause ) ; }
+    }
+
+    /**
+     * Wraps an {@link Operation} so that it runs on the database thread, or on
+     * one of the reader threads, and delivers its outcome to a
+     * {@link Callback} on the UI thread.
+     * @param <T> the type of the operation's result
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected class OperationTask<T>
+    implements Callable<T>
+    {
+        protected final Operation<T> m_op ;
+
+        protected final Callback<T> m_cb ;
+
+        /**
+         * Indicates that the task runs on the database thread, where it must
+         * settle buffered inserts and count itself among the writes in flight.
+         */
+        protected final boolean m_bWriter ;
+
+        /**
+         * Indicates that the operation writes, so that the history snapshots
+         * must be rewritten after it. A read which is merely queued on the
+         * database thread, behind writes, does not.
+         */
+        protected final boolean m_bWrites ;
+
+        public OperationTask( Operation<T> op, Callback<T> cb, boolean bWriter )
+        { this( op, cb, bWriter, bWriter ) ; }
+
+        public OperationTask( Operation<T> op, Callback<T> cb, boolean bWriter,
+                              boolean bWrites )
+        { m_op = op ; m_cb = cb ; m_bWriter = bWriter ; m_bWrites = bWrites ; }
+
+        @Override
+        public T call()
+        throws Exception
+        {
+            try
+            {
+                final PoppycockDatabase db = m_dbh ;
+                if( db == null || ! db.isConnected() )
+                    throw new DatabaseUnavailableException() ;
+                final T result ;
+                try { result = m_op.run( db ) ; }
+                finally
+                {
+                    if( m_bWriter ) settleBufferedInserts( db, null ) ;
+                    if( m_bWrites ) scheduleSnapshot() ;
+                }
+                if( m_cb != null ) m_hMain.post( new Runnable()
+                {
+                    @Override
+                    public void run()
+                    { m_cb.onResult( result ) ; }
+                });
+                return result ;
+            }
+            catch( Exception x )
+            {
+                this.postError( x ) ;
+                throw x ;
+            }
+            finally
+            { if( m_bWriter ) m_nWritesInFlight.decrementAndGet() ; }
+        }
+
+        /**
+         * Fails the task without running it, because its executor has been
+         * shut down, and undoes its count among the writes in flight.
+         * @return a future which has already failed
+         */
+        protected Future<T> reject()
+        {
+            if( m_bWriter ) m_nWritesInFlight.decrementAndGet() ;
+            final DatabaseUnavailableException x =
+                    new DatabaseUnavailableException() ;
+            final FutureTask<T> fut = new FutureTask<>( new Callable<T>()
+            {
+                @Override
+                public T call()
+                { throw x ; }
+            });
+            fut.run() ;
+            this.postError( x ) ;
+            return fut ;
+        }
+
+        /**
+         * Delivers a failure to the callback, or logs it if there is none.
+         * @param x the exception
+         */
+        protected void postError( final Exception x )
+        {
+            if( m_cb != null ) m_hMain.post( new Runnable()
+            {
+                @Override
+                public void run()
+                { m_cb.onError( x ) ; }
+            });
+            else Log.e( LOG_TAG, "Database operation failed.", x ) ;
+        }
+    }
+
+    /**
+     * A future for a sentence which has been placed in the database's write
+     * buffer. It completes, and notifies its callback, only once the sentence
+     * has actually been written and assigned its ID.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected class BufferedInsert
+    extends FutureTask<Sentence>
+    {
+        protected final Sentence m_o ;
+
+        protected final Callback<Sentence> m_cb ;
+
+        public BufferedInsert( Sentence o, Callback<Sentence> cb )
+        {
+            super( new Runnable() { @Override public void run() {} }, o ) ;
+            m_o = o ;
+            m_cb = cb ;
+        }
+
+        /** Completes the future once the sentence has been written. */
+        protected void complete()
+        {
+            m_nWritesInFlight.decrementAndGet() ;
+            this.set( m_o ) ;
+            if( m_cb != null ) m_hMain.post( new Runnable()
+            {
+                @Override
+                public void run()
+                { m_cb.onResult( m_o ) ; }
+            });
+        }
+
+        /**
+         * Fails the future if the sentence could not be written.
+         * @param x the reason for the failure
+         */
+        protected void fail( final Exception x )
+        {
+            m_nWritesInFlight.decrementAndGet() ;
+            this.setException( x ) ;
+            if( m_cb != null ) m_hMain.post( new Runnable()
+            {
+                @Override
+                public void run()
+                { m_cb.onError( x ) ; }
+            });
+            else Log.e( LOG_TAG, "Failed to record nonsense.", x ) ;
+        }
+    }
+
+    /**
+     * Deletes a set of nonsense in bounded batches, each of which is queued
+     * separately on the database thread, so that other operations can run in
+     * between. Cancelling the future stops the purge after the current batch;
+     * its callback still receives the number of sentences deleted so far.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected class Purge
+    extends FutureTask<Integer>
+    {
+        protected final boolean m_bFavorites ;
+
+        protected final ProgressCallback<Integer> m_cb ;
+
+        /**
+         * The newest sentence that the purge may delete, fixed by its first
+         * batch. Accessed only on the database thread.
+         */
+        protected long m_nThroughID = Sentence.NOT_IDENTIFIED ;
+
+        /** The number of sentences expected to be deleted. */
+        protected int m_nTotal = 0 ;
+
+        /** The number of sentences deleted so far. */
+        protected int m_nDeleted = 0 ;
+
+        /** Runs the next batch. Runs only on the database thread. */
+        protected final Runnable m_runBatch = new Runnable()
+        {
+            @Override
+            public void run()
+            { deleteNextBatch() ; }
+        };
+
+        public Purge( boolean bFavorites, ProgressCallback<Integer> cb )
+        {
+            super( new Runnable() { @Override public void run() {} }, 0 ) ;
+            m_bFavorites = bFavorites ;
+            m_cb = cb ;
+        }
+
+        /**
+         * Deletes one batch, reports progress, and queues the next batch
+         * unless the purge is finished or cancelled.
+         */
+        protected void deleteNextBatch()
+        {
+            final PoppycockDatabase db = m_dbh ;
+            try
+            {
+                if( db == null || ! db.isConnected() )
+                    throw new DatabaseUnavailableException() ;
+                if( this.isCancelled() )
+                {
+                    this.finish() ;
+                    return ;
+                }
+                if( m_nThroughID == Sentence.NOT_IDENTIFIED )
+                { // Buffered nonsense is included, as by a single delete.
+                    flushBufferedInserts() ;
+                    m_nThroughID = db.getLastItemID() ;
+                    m_nTotal = db.countSentences( m_bFavorites ) ;
+                }
+                final int nDeleted = db.deleteBatch( m_bFavorites,
+                        m_nThroughID, PURGE_BATCH_ROWS ) ;
+                m_nDeleted += nDeleted ;
+                this.postProgress( m_nDeleted,
+                        Math.max( m_nTotal, m_nDeleted ) ) ;
+                if( nDeleted < PURGE_BATCH_ROWS || this.isCancelled() )
+                    this.finish() ;
+                else
+                    m_xDB.execute( m_runBatch ) ;
+            }
+            catch( RejectedExecutionException xShutdown )
+            { this.finish() ; }              // The service is shutting down.
+            catch( Exception x )
+            { this.fail( x ) ; }
+        }
+
+        /**
+         * Fails the purge.
+         * @param x the reason for the failure
+         */
+        protected void fail( final Exception x )
+        {
+            this.setException( x ) ;
+            if( m_cb != null ) m_hMain.post( new Runnable()
+            {
+                @Override
+                public void run()
+                { m_cb.onError( x ) ; }
+            });
+            else Log.e( LOG_TAG, "Failed to purge nonsense.", x ) ;
+        }
+
+        /**
+         * Reports progress to the callback.
+         * @param nDone the number of sentences deleted so far
+         * @param nTotal the number expected to be deleted
+         */
+        protected void postProgress( final int nDone, final int nTotal )
+        {
+            if( m_cb != null ) m_hMain.post( new Runnable()
+            {
+                @Override
+                public void run()
+                { m_cb.onProgress( nDone, nTotal ) ; }
+            });
+        }
+
+        /** Completes the purge, and delivers the number deleted. */
+        protected void finish()
+        {
+            final int nDeleted = m_nDeleted ;
+            this.set( nDeleted ) ;
+            scheduleSnapshot() ;
+            if( m_cb != null ) m_hMain.post( new Runnable()
+            {
+                @Override
+                public void run()
+                { m_cb.onResult( nDeleted ) ; }
+            });
+            Log.i( LOG_TAG, (new StringBuilder())
+                    .append(( this.isCancelled() ? "Stopped purge after [" :
+                            "Purged [" ))
+                    .append( nDeleted )
+                    .append(( nDeleted == 1 ? "] sentence." : "] sentences." ))
+                    .toString()
+                );
+        }
+    }
+
+    /**
+     * Relays the running count of an export or import to a
+     * {@link ProgressCallback} on the UI thread.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected class TransferProgress
+    implements HistoryArchive.ProgressListener
+    {
+        protected final ProgressCallback<Integer> m_cb ;
+
+        /** The number of rows expected, or zero if that isn't known. */
+        protected final int m_nTotal ;
+
+        public TransferProgress( ProgressCallback<Integer> cb, int nTotal )
+        { m_cb = cb ; m_nTotal = nTotal ; }
+
+        @Override
+        public void onProgress( final int nRows )
+        {
+            if( m_cb != null ) m_hMain.post( new Runnable()
+            {
+                @Override
+                public void run()
+                { m_cb.onProgress( nRows, m_nTotal ) ; }
+            });
+        }
+    }
+
+    /**
+     * Hands each batch of a transfer to the database thread, as every other
+     * write is, and waits for it to be written. If the waiting thread is
+     * interrupted, then the batch is withdrawn unless it has already begun.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected class SerializedBatchWriter
+    implements HistoryArchive.BatchWriter
+    {
+        @Override
+        public int writeBatch( final List<Sentence> aoBatch )
+        throws InterruptedIOException
+        {
+            final Future<Integer> fut = submit( new Operation<Integer>()
+            {
+                @Override
+                public Integer run( PoppycockDatabase db )
+                { return db.insertSentences( aoBatch ) ; }
+            }, null ) ;
+            try { return fut.get() ; }
+            catch( InterruptedException xInterrupt )
+            {
+                fut.cancel( false ) ;
+                throw new InterruptedIOException(
+                        "Interrupted while writing a batch." ) ;
+            }
+            catch( ExecutionException x )
+            {
+                if( x.getCause() instanceof RuntimeException )
+                    throw (RuntimeException)x.getCause() ;
+                throw new IllegalStateException( x.getCause() ) ;
+            }
+        }
+    }
+
 /// Instance Members ///////////////////////////////////////////////////////////
 
-    /** A persistent reference to the historical record of nonsense. */
+    /**
+     * A persistent reference to the historical record of nonsense, shared with
+     * {@link HistoryProvider}.
+     */
     protected PoppycockDatabase m_dbh = null ;
 
+    /**
+     * Indicates that the database has been opened on the database thread.
+     * Until then, reads are queued on that thread behind the open, just as
+     * writes always are.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected volatile boolean m_bDBReady = false ;
+
+    /**
+     * Indicates that the database could not be opened.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected volatile boolean m_bDBFailed = false ;
+
+    /**
+     * Runnables to be run on the UI thread once the database is open. Guarded
+     * by itself, and emptied once the database is ready.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected final ArrayList<Runnable> m_arunWhenReady = new ArrayList<>() ;
+
+    /**
+     * The value of {@link SystemClock#elapsedRealtime()} when the service was
+     * created, from which the cold-start trace is measured.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected long m_tsCreated = 0L ;
+
+    /**
+     * Opens the database. This is the first task run on the database thread,
+     * so that every operation queued there during a cold start waits for it
+     * instead of failing.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected final Runnable m_runOpen = new Runnable()
+    {
+        @Override
+        public void run()
+        { openDatabase() ; }
+    };
+
+    /**
+     * A single thread on which all database operations are performed, so that
+     * no SQLite work ever happens on the UI thread.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected ScheduledExecutorService m_xDB = null ;
+
+    /**
+     * Threads on which read-only operations are performed. The database runs
+     * in write-ahead logging mode, so these can read concurrently with each
+     * other and with whatever the database thread is writing.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected ExecutorService m_xRead = null ;
+
+    /**
+     * A thread on which long-running transfers, such as exports and imports,
+     * are performed one at a time, so that none of them ever occupies a
+     * reader for its whole duration. Transfers read on this thread directly,
+     * but hand every write to the database thread.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected ExecutorService m_xTransfer = null ;
+
+    /**
+     * The number of transfers, including seeding runs, which have asked that
+     * the retention policy not trim anything while they run.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected final AtomicInteger m_nRetentionHolds = new AtomicInteger(0) ;
+
+    /**
+     * The number of operations which have been queued on the database thread
+     * but have not yet completed, including buffered inserts which have not
+     * yet been written. While this is nonzero, reads are queued behind those
+     * writes, so that a caller always reads what it has just written.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected final AtomicInteger m_nWritesInFlight = new AtomicInteger(0) ;
+
+    /**
+     * Inserts which are waiting in the database's write buffer. Accessed only
+     * on the database thread.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected final ArrayList<BufferedInsert> m_abiPending = new ArrayList<>() ;
+
+    /**
+     * The scheduled flush of the write buffer, if any. Accessed only on the
+     * database thread.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected ScheduledFuture<?> m_futFlush = null ;
+
+    /**
+     * Flushes the database's write buffer. Runs only on the database thread.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected final Runnable m_runFlush = new Runnable()
+    {
+        @Override
+        public void run()
+        { flushBufferedInserts() ; }
+    };
+
+    /**
+     * The next scheduled batch of the retention policy. Accessed only on the
+     * database thread.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected ScheduledFuture<?> m_futRetention = null ;
+
+    /**
+     * Runs one batch of the retention policy. Runs only on the database
+     * thread.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected final Runnable m_runRetention = new Runnable()
+    {
+        @Override
+        public void run()
+        { enforceRetention() ; }
+    };
+
+    /**
+     * Indicates that a rewrite of the history snapshots has been scheduled
+     * and has not yet begun.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected final AtomicBoolean m_bSnapshotDue = new AtomicBoolean(false) ;
+
+    /**
+     * Rewrites the history snapshots. Runs only on the database thread.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected final Runnable m_runSnapshot = new Runnable()
+    {
+        @Override
+        public void run()
+        { writeSnapshots() ; }
+    };
+
+    /**
+     * Keeps pre-generated nonsense ready for the UI.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected NonsensePool m_pool = null ;
+
+    /**
+     * Delivers the results of database operations to the UI thread.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected final Handler m_hMain = new Handler( Looper.getMainLooper() ) ;
+
+    /**
+     * Listeners which are told about changes to the historical record on the
+     * UI thread.
+     * @see #addChangeListener(PoppycockDatabase.ChangeListener)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected final CopyOnWriteArrayList<PoppycockDatabase.ChangeListener>
+        m_aChangeListeners = new CopyOnWriteArrayList<>() ;
+
+    /**
+     * Receives changes from the database, on whichever thread wrote them, and
+     * passes them to {@link #m_aChangeListeners} on the UI thread. Registered
+     * with the database only while anyone is listening, so that the database
+     * doesn't gather the IDs of deleted rows for no one.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected final PoppycockDatabase.ChangeListener m_lChangeRelay =
+        new PoppycockDatabase.ChangeListener()
+    {
+        @Override
+        public void onHistoryChanged( final HistoryChange chg )
+        {
+            m_hMain.post( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    for( PoppycockDatabase.ChangeListener l :
+                            m_aChangeListeners )
+                    { l.onHistoryChanged( chg ) ; }
+                }
+            });
+        }
+    };
+
 /// Service Lifecycle //////////////////////////////////////////////////////////
 
     @Override
     public void onCreate()
     {
         super.onCreate() ;
-        m_dbh = (new PoppycockDatabase(this)).openDB() ;
+        final ScheduledThreadPoolExecutor xDB = new ScheduledThreadPoolExecutor(
+                1, new ThreadFactory()
+        {
+            @Override
+            public Thread newThread( Runnable r )
+            {
+                Thread t = new Thread( r, "PoppycockDB" ) ;
+                t.setPriority( Thread.NORM_PRIORITY - 1 ) ;
+                return t ;
+            }
+        });
+        // Delayed flushes, snapshots and retention passes are dropped at
+        // shutdown, rather than keeping the thread alive until they are due;
+        // the last task before shutdown does whatever they still had to do.
+        xDB.setExecuteExistingDelayedTasksAfterShutdownPolicy( false ) ;
+        m_xDB = xDB ;
+        m_xRead = Executors.newFixedThreadPool( READER_THREADS,
+                new ThreadFactory()
+        {
+            protected final AtomicInteger m_nThreads = new AtomicInteger(0) ;
+
+            @Override
+            public Thread newThread( Runnable r )
+            {
+                Thread t = new Thread( r, "PoppycockDBReader-"
+                        + m_nThreads.incrementAndGet() ) ;
+                t.setPriority( Thread.NORM_PRIORITY - 1 ) ;
+                return t ;
+            }
+        });
+        m_xTransfer = Executors.newSingleThreadExecutor( new ThreadFactory()
+        {
+            @Override
+            public Thread newThread( Runnable r )
+            {
+                Thread t = new Thread( r, "PoppycockTransfer" ) ;
+                t.setPriority( Thread.NORM_PRIORITY - 1 ) ;
+                return t ;
+            }
+        });
+        m_tsCreated = SystemClock.elapsedRealtime() ;
+        m_dbh = PoppycockDatabase.acquire(this) ;  // opened on the DB thread
+        m_xDB.execute( m_runOpen ) ;
+        m_pool = new NonsensePool(this) ;
     }
 
     @Override
@@ -92,13 +860,916 @@ extends Service
     @Override
     public void onDestroy()
     {
-        if( m_dbh != null ) m_dbh.closeDB().close() ;
+        if( m_pool != null )
+        {
+            Log.i( LOG_TAG, "Nonsense pool: " + m_pool.getStats().toString() ) ;
+            m_pool.shutdown() ;
+        }
+        if( m_dbh != null )
+        {
+            for( OperationMetrics.Snapshot snap :
+                    m_dbh.getMetrics().snapshot().values() )
+            { Log.i( LOG_TAG, "Database: " + snap.toString() ) ; }
+            Log.i( LOG_TAG, "Database: "
+                    + m_dbh.getSentenceCache().toString() ) ;
+            Log.i( LOG_TAG, "Database: "
+                    + m_dbh.getResultCache().toString() ) ;
+            m_dbh.removeChangeListener( m_lChangeRelay ) ;
+        }
+        m_aChangeListeners.clear() ;
+        if( m_xTransfer != null )
+        { // Stop transfers at their next batch; drop those not yet begun.
+            for( Runnable r : m_xTransfer.shutdownNow() )
+                if( r instanceof Future ) ((Future<?>)r).cancel( false ) ;
+        }
+        if( m_xRead != null ) m_xRead.shutdown() ;
+        if( m_xDB != null )
+        { // Let queued writes and reads finish, then release the DB.
+            m_xDB.execute( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    flushBufferedInserts() ;
+                    if( m_bSnapshotDue.get() ) writeSnapshots() ;
+                    try
+                    {
+                        if( m_xRead != null ) m_xRead.awaitTermination(
+                                READER_SHUTDOWN_TIMEOUT_MS,
+                                TimeUnit.MILLISECONDS ) ;
+                        if( m_xTransfer != null
+                         && ! m_xTransfer.awaitTermination(
+                                READER_SHUTDOWN_TIMEOUT_MS,
+                                TimeUnit.MILLISECONDS ) )
+                        { Log.w( LOG_TAG, "A transfer is still running." ) ; }
+                    }
+                    catch( InterruptedException xInterrupt )
+                    { Log.w( LOG_TAG, "Interrupted waiting for readers." ) ; }
+                    PoppycockDatabase.release( m_dbh ) ;
+                }
+            });
+            m_xDB.shutdown() ;
+        }
+        else PoppycockDatabase.release( m_dbh ) ;
         super.onDestroy() ;
     }
 
 /// Instance Methods ///////////////////////////////////////////////////////////
 
-    /** Accessor for the SQLite database instance. */
+    /**
+     * Accessor for the SQLite database instance. Callers on the UI thread
+     * should prefer the asynchronous methods of this service.
+     * @return the database, or {@code null} until it has been opened
+     * @see #whenDatabaseReady(Runnable)
+     */
     public PoppycockDatabase getDB()
-    { return m_dbh ; }
+    { return ( m_bDBReady ? m_dbh : null ) ; }
+
+    /**
+     * Opens the database, then releases anything waiting for it. Runs only on
+     * the database thread, as its first task.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected void openDatabase()
+    {
+        final long tsStart = SystemClock.elapsedRealtime() ;
+        final boolean bTraced = ( Build.VERSION.SDK_INT
+                >= Build.VERSION_CODES.JELLY_BEAN_MR2 ) ;
+        if( bTraced ) Trace.beginSection( "PoppycockService.openDatabase" ) ;
+        try { m_dbh.openDB() ; }
+        catch( RuntimeException x )
+        { Log.e( LOG_TAG, "Could not open the Historical Record.", x ) ; }
+        finally
+        { if( bTraced ) Trace.endSection() ; }
+        final long tsReady = SystemClock.elapsedRealtime() ;
+        Log.i( LOG_TAG, (new StringBuilder())
+                .append( "Cold start: database opened in [" )
+                .append( tsReady - tsStart )
+                .append( "ms], [" ).append( tsReady - m_tsCreated )
+                .append( "ms] after the service was created." )
+                .toString()
+            );
+        final ArrayList<Runnable> arun ;
+        synchronized( m_arunWhenReady )
+        {
+            if( m_dbh.isConnected() ) m_bDBReady = true ;
+            else m_bDBFailed = true ;
+            arun = new ArrayList<>( m_arunWhenReady ) ;
+            m_arunWhenReady.clear() ;
+        }
+        if( m_bDBReady )
+            for( Runnable r : arun ) m_hMain.post( r ) ;
+    }
+
+    /**
+     * @return whether the database has been opened
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public boolean isDatabaseReady()
+    { return m_bDBReady ; }
+
+    /**
+     * Indicates whether operations may be queued against the database: it is
+     * open, or is still being opened and will run them once it is.
+     * @return whether the database is open or opening
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public boolean isDatabaseAvailable()
+    { return ( ! m_bDBFailed && m_dbh != null ) ; }
+
+    /**
+     * Runs something on the UI thread once the database is open: at once, if
+     * it already is, or else as soon as it has been opened. Nothing is run if
+     * the database can't be opened.
+     * @param r the runnable
+     * @return (fluid)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public PoppycockService whenDatabaseReady( Runnable r )
+    {
+        synchronized( m_arunWhenReady )
+        {
+            if( ! m_bDBReady )
+            {
+                if( ! m_bDBFailed ) m_arunWhenReady.add( r ) ;
+                return this ;
+            }
+        }
+        m_hMain.post( r ) ;
+        return this ;
+    }
+
+    /**
+     * Registers a listener to be told, on the UI thread, about each change
+     * which is committed to the historical record.
+     * @param l the listener
+     * @return (fluid)
+     * @see HistoryChange
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public PoppycockService addChangeListener(
+            PoppycockDatabase.ChangeListener l )
+    {
+        if( l == null || ! m_aChangeListeners.addIfAbsent( l ) ) return this ;
+        if( m_dbh != null && m_aChangeListeners.size() == 1 )
+            m_dbh.addChangeListener( m_lChangeRelay ) ;
+        return this ;
+    }
+
+    /**
+     * Unregisters a listener. Changes which were already on their way to the
+     * UI thread are not delivered to it.
+     * @param l the listener
+     * @return (fluid)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public PoppycockService removeChangeListener(
+            PoppycockDatabase.ChangeListener l )
+    {
+        if( ! m_aChangeListeners.remove( l ) ) return this ;
+        if( m_dbh != null && m_aChangeListeners.isEmpty() )
+            m_dbh.removeChangeListener( m_lChangeRelay ) ;
+        return this ;
+    }
+
+    /**
+     * Takes the next bit of pre-generated nonsense from the service's pool.
+     * Intended to be called from the UI thread; the pool is refilled on a
+     * background thread.
+     * @return fresh nonsense, not yet recorded
+     * @see NonsensePool#next()
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public Sentence nextNonsense()
+    { return m_pool.next() ; }
+
+    /**
+     * Accessor for the hit rate and refill latency of the nonsense pool.
+     * @return a snapshot of the pool's counters
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public NonsensePool.Stats getNonsenseStats()
+    { return m_pool.getStats() ; }
+
+    /**
+     * Accessor for the latency histograms and row counts of every database
+     * operation performed since the service started, or since the metrics
+     * were last reset.
+     * @return a snapshot of each operation's metrics, keyed by the operation
+     *  names defined in {@link PoppycockDatabase}
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public Map<String,OperationMetrics.Snapshot> getDatabaseMetrics()
+    {
+        if( m_dbh == null )
+            return Collections.<String,OperationMetrics.Snapshot>emptyMap() ;
+        return m_dbh.getMetrics().snapshot() ;
+    }
+
+    /**
+     * Discards the database metrics gathered so far.
+     * @return (fluid)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public PoppycockService resetDatabaseMetrics()
+    {
+        if( m_dbh != null ) m_dbh.getMetrics().reset() ;
+        return this ;
+    }
+
+    /**
+     * Queues an operation against the database. Operations which write must
+     * be queued here, so that all writes are serialized on the database
+     * thread.
+     * @param op the operation to be performed on the database thread
+     * @param cb receives the outcome on the UI thread; may be {@code null}
+     * @param <T> the type of the operation's result
+     * @return a future for the operation's result
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public <T> Future<T> submit( Operation<T> op, Callback<T> cb )
+    {
+        return this.enqueueOnDBThread( op, cb, true ) ;
+    }
+
+    /**
+     * Queues a read-only operation against the database. It runs on one of the
+     * reader threads, concurrently with other reads and with the database
+     * thread, unless writes queued earlier are still in flight, or the
+     * database is still being opened; then it is queued behind them on the
+     * database thread, so that it sees them.
+     * @param op an operation which only reads from the database
+     * @param cb receives the outcome on the UI thread; may be {@code null}
+     * @param <T> the type of the operation's result
+     * @return a future for the operation's result
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public <T> Future<T> submitRead( Operation<T> op, Callback<T> cb )
+    {
+        if( ! m_bDBReady || m_nWritesInFlight.get() > 0 )
+            return this.enqueueOnDBThread( op, cb, false ) ;
+        return this.enqueue( m_xRead, new OperationTask<>( op, cb, false ) ) ;
+    }
+
+    /**
+     * Queues an operation on the database thread, counting it among the
+     * writes in flight, so that later reads are queued behind it.
+     * @param op the operation
+     * @param cb receives the outcome on the UI thread; may be {@code null}
+     * @param bWrites whether the operation writes, rather than just reading
+     *                behind writes
+     * @param <T> the type of the operation's result
+     * @return a future for the operation's result
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected <T> Future<T> enqueueOnDBThread( Operation<T> op,
+                                               Callback<T> cb, boolean bWrites )
+    {
+        m_nWritesInFlight.incrementAndGet() ;
+        return this.enqueue( m_xDB,
+                new OperationTask<>( op, cb, true, bWrites ) ) ;
+    }
+
+    /**
+     * Queues a task on one of the service's executors. If the executor has
+     * been shut down, because the service is being destroyed, then the task
+     * fails at once with a {@link DatabaseUnavailableException}, as it would
+     * if the database were closed, rather than throwing into the caller.
+     * @param x the executor
+     * @param task the task
+     * @param <T> the type of the task's result
+     * @return a future for the task's result
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected <T> Future<T> enqueue( ExecutorService x, OperationTask<T> task )
+    {
+        try { return x.submit( task ) ; }
+        catch( RejectedExecutionException xShutdown )
+        { return task.reject() ; }
+    }
+
+    /**
+     * Writes nonsense to the historical record, unless it was already written.
+     * The sentence is placed in the database's write buffer, which is flushed
+     * in a single transaction once it fills, or after
+     * {@link PoppycockDatabase#WRITE_BUFFER_MAX_DELAY_MS}, or before any other
+     * database operation, whichever comes first.
+     * @param o the nonsense to be hoarded
+     * @param cb receives the sentence once it has been written and assigned
+     *           its ID; may be {@code null}
+     * @return a future for the recorded sentence, which completes only once
+     *  the sentence has been written
+     * @see PoppycockDatabase#bufferSentence(Sentence)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public Future<Sentence> insertSentence( final Sentence o,
+                                            Callback<Sentence> cb )
+    {
+        final BufferedInsert bi = new BufferedInsert( o, cb ) ;
+        final Runnable runInsert = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                final PoppycockDatabase db = m_dbh ;
+                if( db == null || ! db.isConnected() )
+                {
+                    bi.fail( new DatabaseUnavailableException() ) ;
+                    return ;
+                }
+                if( o.nItemID != Sentence.NOT_IDENTIFIED )
+                { // An earlier request already wrote it.
+                    bi.complete() ;
+                    return ;
+                }
+                boolean bAlreadyBuffered = false ;
+                for( BufferedInsert biPending : m_abiPending )
+                    if( biPending.m_o == o ) bAlreadyBuffered = true ;
+                m_abiPending.add( bi ) ;
+                if( bAlreadyBuffered ) return ;
+
+                requestFlush( db.bufferSentence(o) ) ;
+            }
+        };
+        m_nWritesInFlight.incrementAndGet() ;
+        try { m_xDB.execute( runInsert ) ; }
+        catch( RejectedExecutionException xShutdown )
+        { bi.fail( new DatabaseUnavailableException() ) ; } // undoes the count
+        return bi ;
+    }
+
+    /**
+     * Sets the favorite status of a sentence, without waiting for it to be
+     * written. The status is placed in the database's write buffer, where
+     * repeated toggles of the same sentence are coalesced, and is written
+     * along with other buffered writes, in a single transaction. The UI
+     * should show the new status at once; listeners registered through
+     * {@link #addChangeListener} are told once it has been written, or with a
+     * {@link HistoryChange#DISCARDED} change if it never can be.
+     * @param nID the ID of the sentence
+     * @param bFavorite the sentence's new status, which should be the opposite
+     *                  of the status it is currently shown with
+     * @return (fluid)
+     * @see PoppycockDatabase#bufferFavorite(long, boolean)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public PoppycockService setFavorite( final long nID,
+                                         final boolean bFavorite )
+    {
+        final Runnable runFavorite = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    final PoppycockDatabase db = m_dbh ;
+                    if( db == null || ! db.isConnected() )
+                    {
+                        discardFavorite( nID ) ;
+                        return ;
+                    }
+                    requestFlush( db.bufferFavorite( nID, bFavorite ) ) ;
+                    scheduleSnapshot() ;
+                }
+                finally
+                { m_nWritesInFlight.decrementAndGet() ; }
+            }
+        };
+        m_nWritesInFlight.incrementAndGet() ;
+        try { m_xDB.execute( runFavorite ) ; }
+        catch( RejectedExecutionException xShutdown )
+        {
+            m_nWritesInFlight.decrementAndGet() ;
+            this.discardFavorite( nID ) ;
+        }
+        return this ;
+    }
+
+    /**
+     * Reports that a favorite status could not be recorded, and tells change
+     * listeners that it was discarded, so that the UI stops showing it.
+     * @param nID the ID of the sentence
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected void discardFavorite( long nID )
+    {
+        Log.e( LOG_TAG, "Could not record a favorite.",
+                new DatabaseUnavailableException() ) ;
+        m_lChangeRelay.onHistoryChanged( new HistoryChange(
+                HistoryChange.DISCARDED, new long[] { nID } ) ) ;
+    }
+
+    /**
+     * Flushes the database's write buffer now, or schedules a flush within
+     * {@link PoppycockDatabase#WRITE_BUFFER_MAX_DELAY_MS} if none is scheduled
+     * yet. Runs only on the database thread.
+     * @param bNow whether to flush now, as when the buffer is full
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected void requestFlush( boolean bNow )
+    {
+        if( bNow ) this.flushBufferedInserts() ;
+        else if( m_futFlush == null )
+        {
+            try
+            {
+                m_futFlush = m_xDB.schedule( m_runFlush,
+                        PoppycockDatabase.WRITE_BUFFER_MAX_DELAY_MS,
+                        TimeUnit.MILLISECONDS ) ;
+            }
+            catch( RejectedExecutionException xShutdown )
+            { this.flushBufferedInserts() ; }  // No later flush would run.
+        }
+    }
+
+    /**
+     * Flushes the database's write buffer, and completes the futures of any
+     * inserts that were waiting in it. Runs only on the database thread.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected void flushBufferedInserts()
+    {
+        if( m_futFlush != null )
+        {
+            m_futFlush.cancel( false ) ;
+            m_futFlush = null ;
+        }
+        final PoppycockDatabase db = m_dbh ;
+        if( db == null ) return ;
+        try
+        {
+            db.flushWrites() ;
+            this.settleBufferedInserts( db, null ) ;
+        }
+        catch( Exception x )
+        { this.settleBufferedInserts( db, x ) ; }
+    }
+
+    /**
+     * Completes the futures of any buffered inserts which have now been
+     * written, whether by an explicit flush or implicitly by another database
+     * operation. If the write buffer is empty but some inserts were never
+     * assigned an ID, then their batch failed, and so do they.
+     * Runs only on the database thread.
+     * @param db the app's database
+     * @param x the exception which caused a flush to fail, if known
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected void settleBufferedInserts( PoppycockDatabase db, Exception x )
+    {
+        if( m_abiPending.isEmpty() ) return ;
+        final boolean bBufferEmpty = ( db.getPendingWriteCount() == 0 ) ;
+        Iterator<BufferedInsert> itr = m_abiPending.iterator() ;
+        while( itr.hasNext() )
+        {
+            final BufferedInsert bi = itr.next() ;
+            if( bi.m_o.nItemID != Sentence.NOT_IDENTIFIED )
+            {
+                bi.complete() ;
+                itr.remove() ;
+                this.scheduleSnapshot() ;
+            }
+            else if( bBufferEmpty )
+            {
+                bi.fail(( x != null ? x : new IllegalStateException(
+                        "Buffered nonsense was discarded unwritten." ) )) ;
+                itr.remove() ;
+            }
+        }
+    }
+
+    /**
+     * Deletes a set of nonsense from the historical record in bounded
+     * batches, so that a large purge never blocks other database operations
+     * for long, and reports its progress along the way. Sentences written
+     * after the purge begins are not deleted.
+     * @param bFavorites if true, then only favorites will be deleted; if false,
+     *                   then only non-favorites will be deleted
+     * @param cb receives progress after each batch, and the number of records
+     *           deleted once the purge finishes or is cancelled; may be
+     *           {@code null}
+     * @return a future for the number of records deleted, which may be
+     *  cancelled to stop the purge after its current batch
+     * @see PoppycockDatabase#deleteBatch(boolean, long, int)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public Future<Integer> purge( boolean bFavorites,
+                                  ProgressCallback<Integer> cb )
+    {
+        final Purge p = new Purge( bFavorites, cb ) ;
+        try { m_xDB.execute( p.m_runBatch ) ; }
+        catch( RejectedExecutionException xShutdown )
+        { p.fail( new DatabaseUnavailableException() ) ; }
+        return p ;
+    }
+
+    /**
+     * Exports the whole historical record to a file, oldest first, streaming
+     * it from the database in pages. Runs on the transfer thread, so that
+     * other reads and writes proceed during the export. If the export fails,
+     * then the partial file is deleted; if the service is destroyed, then the
+     * export is interrupted.
+     * @param f the file to be written, which is replaced if it exists
+     * @param zFormat {@link HistoryArchive#FORMAT_NDJSON} or
+     *                {@link HistoryArchive#FORMAT_CSV}
+     * @param cb receives progress after each page, and the number of records
+     *           exported; may be {@code null}
+     * @return a future for the number of records exported, which may be
+     *  cancelled with interruption to stop the export
+     * @see HistoryArchive#exportTo(java.nio.channels.WritableByteChannel, int)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public Future<Integer> exportHistory( final File f, final int zFormat,
+                                          final ProgressCallback<Integer> cb )
+    {
+        return this.enqueue( m_xTransfer,
+                new OperationTask<>( new Operation<Integer>()
+        {
+            @Override
+            public Integer run( PoppycockDatabase db )
+            {
+                final int nTotal = db.countSentences( false )
+                        + db.countSentences( true ) ;
+                final HistoryArchive arc = (new HistoryArchive( db ))
+                        .setProgressListener(
+                                new TransferProgress( cb, nTotal ) ) ;
+                try
+                {
+                    final FileOutputStream out = new FileOutputStream( f ) ;
+                    try { return arc.exportTo( out.getChannel(), zFormat ) ; }
+                    finally { out.close() ; }
+                }
+                catch( IOException x )
+                {
+                    if( ! f.delete() )
+                        Log.w( LOG_TAG, "Could not delete partial export." ) ;
+                    throw new TransferFailedException( (new StringBuilder())
+                            .append( "Could not export to [" )
+                            .append( f.getAbsolutePath() ).append( "]." )
+                            .toString(), x ) ;
+                }
+            }
+        }, cb, false ) ) ;
+    }
+
+    /**
+     * Adds the records in a file to the historical record, with new IDs. Runs
+     * on the transfer thread, which parses the file and hands the records to
+     * the database thread in batches, each written in its own transaction, so
+     * that other operations proceed between them. The retention policy, if
+     * one has been set, trims nothing while the import runs. If the import
+     * fails or is cancelled part way through, or the service is destroyed,
+     * then the batches already written remain.
+     * @param f the file to be read
+     * @param zFormat {@link HistoryArchive#FORMAT_NDJSON} or
+     *                {@link HistoryArchive#FORMAT_CSV}
+     * @param cb receives progress after each batch, and the number of records
+     *           imported; may be {@code null}. The total passed with progress
+     *           is always zero, as the number of records in the file isn't
+     *           known until it has been read.
+     * @return a future for the number of records imported, which may be
+     *  cancelled with interruption to stop the import
+     * @see HistoryArchive#importFrom(java.nio.channels.ReadableByteChannel, int)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public Future<Integer> importHistory( final File f, final int zFormat,
+                                          final ProgressCallback<Integer> cb )
+    {
+        return this.enqueue( m_xTransfer,
+                new OperationTask<>( new Operation<Integer>()
+        {
+            @Override
+            public Integer run( PoppycockDatabase db )
+            {
+                final HistoryArchive arc = (new HistoryArchive( db ))
+                        .setProgressListener( new TransferProgress( cb, 0 ) )
+                        .setBatchWriter( new SerializedBatchWriter() ) ;
+                m_nRetentionHolds.incrementAndGet() ;
+                try
+                {
+                    final FileInputStream in = new FileInputStream( f ) ;
+                    try { return arc.importFrom( in.getChannel(), zFormat ) ; }
+                    finally
+                    {
+                        in.close() ;
+                        scheduleSnapshot() ;    // even for a partial import
+                    }
+                }
+                catch( IOException x )
+                {
+                    throw new TransferFailedException( (new StringBuilder())
+                            .append( "Could not import from [" )
+                            .append( f.getAbsolutePath() ).append( "]." )
+                            .toString(), x ) ;
+                }
+                finally
+                { m_nRetentionHolds.decrementAndGet() ; }
+            }
+        }, cb, false ) ) ;
+    }
+
+    /**
+     * Fills the historical record with freshly generated nonsense, generated
+     * on one worker thread per core. The operation itself runs on the transfer
+     * thread, which hands each batch to the database thread to be written in
+     * its own transaction, so that other operations proceed between batches.
+     * The retention policy, if one has been set, trims nothing while the run
+     * lasts, and resumes afterward. The rate achieved is logged.
+     * @param nCount the number of sentences to generate
+     * @param cb receives progress after each batch, and the number of
+     *           sentences written; may be {@code null}
+     * @return a future for the number of sentences written, which may be
+     *  cancelled with interruption to stop the run
+     * @see NonsenseSeeder
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public Future<Integer> seedNonsense( final int nCount,
+                                         final ProgressCallback<Integer> cb )
+    {
+        return this.enqueue( m_xTransfer,
+                new OperationTask<>( new Operation<Integer>()
+        {
+            @Override
+            public Integer run( PoppycockDatabase db )
+            {
+                final NonsenseSeeder seeder =
+                        (new NonsenseSeeder( PoppycockService.this, db ))
+                        .setProgressListener(
+                                new TransferProgress( cb, nCount ) )
+                        .setBatchWriter( new SerializedBatchWriter() ) ;
+                m_nRetentionHolds.incrementAndGet() ;
+                try { return seeder.seed( nCount ).nSentences ; }
+                finally
+                {
+                    m_nRetentionHolds.decrementAndGet() ;
+                    scheduleSnapshot() ;          // even for a partial run
+                }
+            }
+        }, cb, false ) ) ;
+    }
+
+    /**
+     * Sets the policy by which the oldest non-favorite sentences are trimmed
+     * from the historical record, and starts enforcing it in the background,
+     * after {@link #RETENTION_INITIAL_DELAY_MS}. There is no policy until one
+     * is set here, so nothing is ever trimmed unless the user has asked for
+     * it; passing zero for both limits withdraws the policy again.
+     * @param nMaxRows the number of non-favorite sentences to keep, or zero to
+     *                 keep any number
+     * @param nMaxAgeMs the age beyond which non-favorite sentences are
+     *                  trimmed, in milliseconds, or zero to keep them forever
+     * @return (fluid)
+     * @see PoppycockDatabase#setRetentionPolicy(int, long)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public PoppycockService setRetentionPolicy( final int nMaxRows,
+                                                final long nMaxAgeMs )
+    {
+        try
+        {
+            m_xDB.execute( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if( m_futRetention != null )
+                    {
+                        m_futRetention.cancel( false ) ;
+                        m_futRetention = null ;
+                    }
+                    final PoppycockDatabase db = m_dbh ;
+                    if( db == null ) return ;
+                    db.setRetentionPolicy( nMaxRows, nMaxAgeMs ) ;
+                    if( db.hasRetentionPolicy() )
+                    {
+                        m_futRetention = m_xDB.schedule( m_runRetention,
+                                RETENTION_INITIAL_DELAY_MS,
+                                TimeUnit.MILLISECONDS ) ;
+                    }
+                }
+            });
+        }
+        catch( RejectedExecutionException xShutdown )
+        { Log.w( LOG_TAG, "Retention policy set after shutdown; ignored." ) ; }
+        return this ;
+    }
+
+    /**
+     * Runs one batch of the retention policy, then schedules the next. While
+     * there are sentences to trim, or free pages to reclaim, batches follow
+     * each other after {@link #RETENTION_BATCH_DELAY_MS}; once the history is
+     * within bounds, the next pass waits for {@link #RETENTION_INTERVAL_MS}.
+     * Trims nothing while a transfer holds the policy off, and stops if the
+     * policy has been withdrawn. Runs only on the database thread.
+     * @see PoppycockDatabase#trimHistory(int)
+     * @see PoppycockDatabase#compact(int)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected void enforceRetention()
+    {
+        m_futRetention = null ;
+        final PoppycockDatabase db = m_dbh ;
+        if( db == null || ! db.isConnected() || ! db.hasRetentionPolicy() )
+            return ;
+        long nDelay = RETENTION_INTERVAL_MS ;
+        try
+        {
+            final int nTrimmed = ( m_nRetentionHolds.get() > 0 ? 0 :
+                    db.trimHistory( RETENTION_BATCH_ROWS ) ) ;
+            if( nTrimmed > 0 ) this.scheduleSnapshot() ;
+            if( nTrimmed >= RETENTION_BATCH_ROWS
+             || db.compact( RETENTION_BATCH_PAGES ) >= RETENTION_BATCH_PAGES )
+            { nDelay = RETENTION_BATCH_DELAY_MS ; }
+        }
+        catch( RuntimeException x )
+        { Log.e( LOG_TAG, "Failed to enforce history retention.", x ) ; }
+        if( ! m_xDB.isShutdown() )
+        {
+            m_futRetention = m_xDB.schedule( m_runRetention, nDelay,
+                    TimeUnit.MILLISECONDS ) ;
+        }
+    }
+
+    /**
+     * Schedules a rewrite of the history snapshots on the database thread,
+     * unless one is already scheduled. May be called on any thread.
+     * @see HistorySnapshot
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected void scheduleSnapshot()
+    {
+        if( ! m_bSnapshotDue.compareAndSet( false, true ) ) return ;
+        try
+        {
+            m_xDB.schedule( m_runSnapshot,
+                    SNAPSHOT_DELAY_MS, TimeUnit.MILLISECONDS ) ;
+        }
+        catch( RejectedExecutionException xShutdown )
+        { m_bSnapshotDue.set( false ) ; }
+    }
+
+    /**
+     * Rewrites the snapshots of the first page of the historical record and
+     * of the Nonsense Hall of Fame, in both sort orders, from which the
+     * history screen shows its first page before the database can answer.
+     * Runs only on the database thread.
+     * @see HistorySnapshot
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected void writeSnapshots()
+    {
+        m_bSnapshotDue.set( false ) ;
+        final PoppycockDatabase db = m_dbh ;
+        if( db == null || ! db.isConnected() ) return ;
+        this.flushBufferedInserts() ;
+        try
+        {
+            for( int i = 0 ; i < 4 ; i++ )
+            {
+                final boolean bFavorites = ( i >= 2 ) ;
+                final boolean bOldestFirst = ( i % 2 == 0 ) ;
+                HistorySnapshot.write( ( bFavorites ?
+                        db.getFavoritesPage( bOldestFirst, null,
+                            HistorySnapshot.SNAPSHOT_ROWS ) :
+                        db.getHistoryPage( bOldestFirst, null,
+                            HistorySnapshot.SNAPSHOT_ROWS ) ),
+                    HistorySnapshot.fileFor( this, bFavorites, bOldestFirst ) ) ;
+            }
+        }
+        catch( Exception x )
+        { Log.w( LOG_TAG, "Failed to write history snapshots.", x ) ; }
+    }
+
+    /**
+     * Anoints some nonsense to the hall of fame, or demotes it to obscurity.
+     * @param o the sentence to be toggled
+     * @param cb receives the updated sentence; may be {@code null}
+     * @return a future for the updated sentence
+     * @see PoppycockDatabase#toggleFavorite(Sentence)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public Future<Sentence> toggleFavorite( final Sentence o,
+                                            Callback<Sentence> cb )
+    {
+        return this.submit( new Operation<Sentence>()
+        {
+            @Override
+            public Sentence run( PoppycockDatabase db )
+            { return db.toggleFavorite(o) ; }
+        }, cb ) ;
+    }
+
+    /**
+     * Opens a page of the historical record, or of the Nonsense Hall of Fame.
+     * @param bFavorites whether to read only favorites
+     * @param bOldestFirst specifies whether to sort oldest-first
+     * @param pgPrevious the previous page, or {@code null} to fetch the first
+     * @param nLimit the maximum number of sentences to fetch
+     * @param cb receives the page, which the callback must close
+     * @return a future for the page
+     * @see PoppycockDatabase#fetchHistoryPage(boolean, SentencePage, int)
+     * @see PoppycockDatabase#fetchFavoritesPage(boolean, SentencePage, int)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public Future<SentencePage> fetchPage( final boolean bFavorites,
+            final boolean bOldestFirst, final SentencePage pgPrevious,
+            final int nLimit, Callback<SentencePage> cb )
+    {
+        return this.submitRead( new Operation<SentencePage>()
+        {
+            @Override
+            public SentencePage run( PoppycockDatabase db )
+            {
+                return ( bFavorites ?
+                    db.fetchFavoritesPage( bOldestFirst, pgPrevious, nLimit ) :
+                    db.fetchHistoryPage( bOldestFirst, pgPrevious, nLimit ) ) ;
+            }
+        }, cb ) ;
+    }
+
+    /**
+     * Searches the historical record, or the Nonsense Hall of Fame, and opens
+     * one page of ranked results.
+     * @param sTerms the user's search terms
+     * @param bFavorites whether to search only favorites
+     * @param nOffset the number of ranked results to skip
+     * @param nLimit the maximum number of results to fetch
+     * @param cb receives the page, which the callback must close
+     * @return a future for the page
+     * @see PoppycockDatabase#search(String, boolean, int, int)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public Future<SentencePage> search( final String sTerms,
+            final boolean bFavorites, final int nOffset, final int nLimit,
+            Callback<SentencePage> cb )
+    {
+        return this.submitRead( new Operation<SentencePage>()
+        {
+            @Override
+            public SentencePage run( PoppycockDatabase db )
+            { return db.search( sTerms, bFavorites, nOffset, nLimit ) ; }
+        }, cb ) ;
+    }
+
+    /**
+     * Deletes a set of nonsense from the historical record.
+     * @param bFavorites if true, then only favorites will be deleted; if false,
+     *                   then only non-favorites will be deleted
+     * @param cb receives the number of records deleted; may be {@code null}
+     * @return a future for the number of records deleted
+     * @see PoppycockDatabase#delete(boolean)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public Future<Integer> delete( final boolean bFavorites,
+                                   Callback<Integer> cb )
+    {
+        return this.submit( new Operation<Integer>()
+        {
+            @Override
+            public Integer run( PoppycockDatabase db )
+            { return db.delete( bFavorites ) ; }
+        }, cb ) ;
+    }
+
+    /**
+     * Summarizes the historical record without loading it.
+     * @param tsDailySince the time from which to count sentences per day, or
+     *                     {@link HistoryStats#NO_TIMESTAMP} to skip the daily
+     *                     counts
+     * @param cb receives the summary
+     * @return a future for the summary
+     * @see PoppycockDatabase#getStats(long)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public Future<HistoryStats> getStats( final long tsDailySince,
+                                          Callback<HistoryStats> cb )
+    {
+        return this.submitRead( new Operation<HistoryStats>()
+        {
+            @Override
+            public HistoryStats run( PoppycockDatabase db )
+            { return db.getStats( tsDailySince ) ; }
+        }, cb ) ;
+    }
+
+    /**
+     * Opens the current rows of specific sentences, as when applying a
+     * {@link HistoryChange}.
+     * @param anIDs the IDs of the sentences
+     * @param cb receives the page, which the callback must close
+     * @return a future for the page
+     * @see PoppycockDatabase#fetchSentences(long[])
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public Future<SentencePage> fetchSentences( final long[] anIDs,
+                                                Callback<SentencePage> cb )
+    {
+        return this.submitRead( new Operation<SentencePage>()
+        {
+            @Override
+            public SentencePage run( PoppycockDatabase db )
+            { return db.fetchSentences( anIDs ) ; }
+        }, cb ) ;
+    }
 }
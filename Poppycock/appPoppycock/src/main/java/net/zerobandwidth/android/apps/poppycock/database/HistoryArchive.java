@@ -0,0 +1,730 @@
+package net.zerobandwidth.android.apps.poppycock.database;
+
+import android.database.Cursor;
+
+import net.zerobandwidth.android.apps.poppycock.model.Sentence;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Streams the historical record to and from newline-delimited JSON or CSV.
+ *
+ * An export walks the record in pages of {@link #EXPORT_PAGE_ROWS}, keyed by
+ * ID, and writes each row through a buffered writer onto the channel as soon
+ * as it is read, so that no more than one page is ever held in memory. An
+ * import parses one record at a time and writes them in batches of
+ * {@link #IMPORT_BATCH_ROWS}, each in its own transaction, so that other
+ * reads and writes can proceed between batches.
+ *
+ * Imported sentences are given new IDs; their timestamps, texts, and
+ * favorite flags are kept. Both operations may be interrupted between pages
+ * or batches, in which case they throw {@link InterruptedIOException}; rows
+ * already written by an import remain in the record.
+ * @since zerobandwidth-net/android-poppycock 1.0.2
+ */
+public class HistoryArchive
+{
+    /** One JSON object per line, with the columns as its keys. */
+    public static final int FORMAT_NDJSON = 0 ;
+
+    /** RFC 4180 CSV, with a header row naming the columns. */
+    public static final int FORMAT_CSV = 1 ;
+
+    public static final String NDJSON_EXTENSION = ".ndjson" ;
+
+    public static final String CSV_EXTENSION = ".csv" ;
+
+    /** The header row written at the top of a CSV export. */
+    public static final String CSV_HEADER =
+            "item_id,item_ts,sentence,favorite" ;
+
+    /** The number of rows read from the database by each export query. */
+    public static final int EXPORT_PAGE_ROWS = 1000 ;
+
+    /** The number of rows written by each transaction of an import. */
+    public static final int IMPORT_BATCH_ROWS = 500 ;
+
+    /** The size of the character buffers on either side of the channel. */
+    protected static final int BUFFER_CHARS = 65536 ;
+
+    protected static final String CHARSET = "UTF-8" ;
+
+/// Inner Classes //////////////////////////////////////////////////////////////
+
+    /**
+     * Receives the running count of rows transferred, after each page of an
+     * export or each batch of an import. Called on the transferring thread.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public interface ProgressListener
+    { void onProgress( int nRows ) ; }
+
+    /**
+     * Writes each batch of an import. By default, batches are written straight
+     * to the database on the importing thread; an app which serializes its
+     * writes on a thread of its own may hand them to that thread instead.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public interface BatchWriter
+    {
+        /**
+         * Writes a batch of sentences in a single transaction, assigning each
+         * its ID.
+         * @param aoBatch the sentences to be written
+         * @return the number of sentences written
+         * @throws InterruptedIOException if the thread was interrupted while
+         *  waiting for the batch to be written
+         */
+        int writeBatch( List<Sentence> aoBatch )
+        throws InterruptedIOException ;
+    }
+
+    /**
+     * Splits CSV text into records. Reads through its own buffer, rather than
+     * one synchronized {@link Reader#read()} per character, and handles
+     * quoted fields which contain commas, quotes, and line breaks. An unquoted
+     * empty field is reported as {@code null}, while a quoted empty field is
+     * reported as an empty string.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected static class CsvReader
+    {
+        protected final Reader m_r ;
+        protected final char[] m_acBuffer = new char[BUFFER_CHARS] ;
+        protected int m_nPos = 0 ;
+        protected int m_nLen = 0 ;
+        protected final StringBuilder m_sb = new StringBuilder() ;
+
+        /** The line on which the next record begins. */
+        protected int m_nLine = 1 ;
+
+        protected CsvReader( Reader r )
+        { m_r = r ; }
+
+        /** @return the line on which the next record begins */
+        protected int getLine()
+        { return m_nLine ; }
+
+        /** @return the next character, or -1 at the end of the input */
+        protected int read()
+        throws IOException
+        {
+            if( m_nPos == m_nLen && ! this.fill() ) return -1 ;
+            return m_acBuffer[m_nPos++] ;
+        }
+
+        /** @return the next character, without consuming it */
+        protected int peek()
+        throws IOException
+        {
+            if( m_nPos == m_nLen && ! this.fill() ) return -1 ;
+            return m_acBuffer[m_nPos] ;
+        }
+
+        protected boolean fill()
+        throws IOException
+        {
+            m_nPos = 0 ;
+            m_nLen = Math.max(
+                    m_r.read( m_acBuffer, 0, m_acBuffer.length ), 0 ) ;
+            return ( m_nLen > 0 ) ;
+        }
+
+        /**
+         * Reads the next record.
+         * @param asFields receives the fields of the record, replacing its
+         *  previous contents
+         * @return false if the input was already exhausted
+         * @throws IOException if the input can't be read, or is malformed
+         */
+        protected boolean readRecord( List<String> asFields )
+        throws IOException
+        {
+            asFields.clear() ;
+            int c = this.read() ;
+            if( c == -1 ) return false ;
+            for(;;)
+            {
+                m_sb.setLength(0) ;
+                final boolean bQuoted = ( c == '"' ) ;
+                if( bQuoted )
+                {
+                    for(;;)
+                    {
+                        c = this.read() ;
+                        if( c == -1 )
+                        {
+                            throw this.malformed(
+                                    "Unterminated quoted field" ) ;
+                        }
+                        if( c == '"' )
+                        {
+                            if( this.peek() != '"' ) break ;
+                            this.read() ;
+                        }
+                        else if( c == '\n' ) ++m_nLine ;
+                        m_sb.append( (char)c ) ;
+                    }
+                    c = this.read() ;
+                }
+                else while( c != ',' && c != '\n' && c != '\r' && c != -1 )
+                {
+                    m_sb.append( (char)c ) ;
+                    c = this.read() ;
+                }
+                asFields.add(( bQuoted || m_sb.length() > 0 ?
+                        m_sb.toString() : null )) ;
+
+                if( c == ',' ) { c = this.read() ; continue ; }
+                if( c == '\r' && this.peek() == '\n' ) this.read() ;
+                if( c == '\r' || c == '\n' ) ++m_nLine ;
+                else if( c != -1 )
+                    throw this.malformed( "Text after a quoted field" ) ;
+                return true ;
+            }
+        }
+
+        protected IOException malformed( String sProblem )
+        {
+            return new IOException( (new StringBuilder())
+                    .append( sProblem ).append( " in CSV at line " )
+                    .append( m_nLine ).append( "." )
+                    .toString()
+                );
+        }
+    }
+
+    /**
+     * Parses one line of newline-delimited JSON into a sentence. Understands
+     * only what an export writes: a flat object whose values are strings,
+     * numbers, booleans, or null. Unknown keys are ignored.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected static class JsonLineParser
+    {
+        protected final StringBuilder m_sb = new StringBuilder() ;
+        protected String m_sLine = null ;
+        protected int m_nPos = 0 ;
+
+        /**
+         * @param sLine a line of JSON
+         * @return the sentence described by the line
+         * @throws IllegalArgumentException if the line is malformed
+         */
+        protected Sentence parse( String sLine )
+        {
+            m_sLine = sLine ;
+            m_nPos = 0 ;
+            final Sentence o = new Sentence() ;
+            this.expect( '{' ) ;
+            if( this.peek() == '}' ) { ++m_nPos ; return this.end(o) ; }
+            for(;;)
+            {
+                final String sKey = this.readString() ;
+                this.expect( ':' ) ;
+                final Object val = this.readValue() ;
+                if( "item_ts".equals( sKey ) )
+                {
+                    if( !( val instanceof Number ) )
+                        throw this.malformed( "item_ts is not a number" ) ;
+                    o.nItemTS = ((Number)val).longValue() ;
+                }
+                else if( "sentence".equals( sKey ) )
+                {
+                    if( val != null && !( val instanceof String ) )
+                        throw this.malformed( "sentence is not a string" ) ;
+                    o.sSentence = (String)val ;
+                }
+                else if( "favorite".equals( sKey ) )
+                    o.bIsFavorite = toBoolean( val ) ;
+
+                final char c = this.peek() ;
+                ++m_nPos ;
+                if( c == '}' ) return this.end(o) ;
+                if( c != ',' ) throw this.malformed( "Expected , or }" ) ;
+            }
+        }
+
+        protected Sentence end( Sentence o )
+        {
+            if( this.peek() != 0 ) throw this.malformed( "Text after object" ) ;
+            return o ;
+        }
+
+        /** @return the next non-space character, or 0 at the end */
+        protected char peek()
+        {
+            while( m_nPos < m_sLine.length()
+                    && Character.isWhitespace( m_sLine.charAt(m_nPos) ) )
+            { ++m_nPos ; }
+            return ( m_nPos < m_sLine.length() ?
+                    m_sLine.charAt(m_nPos) : 0 ) ;
+        }
+
+        protected void expect( char c )
+        {
+            if( this.peek() != c ) throw this.malformed( "Expected " + c ) ;
+            ++m_nPos ;
+        }
+
+        protected Object readValue()
+        {
+            final char c = this.peek() ;
+            if( c == '"' ) return this.readString() ;
+            if( m_sLine.startsWith( "true", m_nPos ) )
+            { m_nPos += 4 ; return Boolean.TRUE ; }
+            if( m_sLine.startsWith( "false", m_nPos ) )
+            { m_nPos += 5 ; return Boolean.FALSE ; }
+            if( m_sLine.startsWith( "null", m_nPos ) )
+            { m_nPos += 4 ; return null ; }
+
+            final int nStart = m_nPos ;
+            boolean bIntegral = true ;
+            while( m_nPos < m_sLine.length() )
+            {
+                final char d = m_sLine.charAt(m_nPos) ;
+                if( d == '.' || d == 'e' || d == 'E' ) bIntegral = false ;
+                else if( !( ( d >= '0' && d <= '9' ) || d == '-' || d == '+' ) )
+                    break ;
+                ++m_nPos ;
+            }
+            if( m_nPos == nStart ) throw this.malformed( "Expected a value" ) ;
+            final String sNumber = m_sLine.substring( nStart, m_nPos ) ;
+            try
+            {
+                return ( bIntegral ? (Number)Long.valueOf( sNumber ) :
+                        (Number)Double.valueOf( sNumber ) ) ;
+            }
+            catch( NumberFormatException x )
+            { throw this.malformed( "Malformed number" ) ; }
+        }
+
+        protected String readString()
+        {
+            this.expect( '"' ) ;
+            m_sb.setLength(0) ;
+            for(;;)
+            {
+                if( m_nPos >= m_sLine.length() )
+                    throw this.malformed( "Unterminated string" ) ;
+                char c = m_sLine.charAt( m_nPos++ ) ;
+                if( c == '"' ) return m_sb.toString() ;
+                if( c == '\\' )
+                {
+                    if( m_nPos >= m_sLine.length() )
+                        throw this.malformed( "Unterminated string" ) ;
+                    c = m_sLine.charAt( m_nPos++ ) ;
+                    switch(c)
+                    {
+                        case 'b': c = '\b' ; break ;
+                        case 'f': c = '\f' ; break ;
+                        case 'n': c = '\n' ; break ;
+                        case 'r': c = '\r' ; break ;
+                        case 't': c = '\t' ; break ;
+                        case 'u':
+                            if( m_nPos + 4 > m_sLine.length() )
+                                throw this.malformed( "Short \\u escape" ) ;
+                            try
+                            {
+                                c = (char)Integer.parseInt(
+                                    m_sLine.substring( m_nPos, m_nPos + 4 ),
+                                    16 ) ;
+                            }
+                            catch( NumberFormatException x )
+                            { throw this.malformed( "Bad \\u escape" ) ; }
+                            m_nPos += 4 ;
+                            break ;
+                        case '"': case '\\': case '/': break ;
+                        default: throw this.malformed( "Bad escape" ) ;
+                    }
+                }
+                m_sb.append( c ) ;
+            }
+        }
+
+        protected IllegalArgumentException malformed( String sProblem )
+        {
+            return new IllegalArgumentException( (new StringBuilder())
+                    .append( sProblem ).append( " at column " )
+                    .append( m_nPos + 1 ).append( "." )
+                    .toString()
+                );
+        }
+    }
+
+/// Static Methods /////////////////////////////////////////////////////////////
+
+    /**
+     * Chooses a format by the extension of a file name.
+     * @param sFilename the name of a file
+     * @return {@link #FORMAT_CSV} if the name ends in {@link #CSV_EXTENSION},
+     *  or {@link #FORMAT_NDJSON} otherwise
+     */
+    public static int formatForFilename( String sFilename )
+    {
+        return ( sFilename != null
+                && sFilename.toLowerCase( Locale.US ).endsWith( CSV_EXTENSION )
+                ? FORMAT_CSV : FORMAT_NDJSON ) ;
+    }
+
+    /**
+     * Appends one sentence as a line of JSON.
+     * @param sb the line is appended here, with its line break
+     * @param nID the sentence's ID
+     * @param nTS the sentence's timestamp
+     * @param sSentence the nonsense itself, which may be null
+     * @param bFavorite whether the sentence is a favorite
+     * @return the same builder
+     */
+    protected static StringBuilder appendJsonLine( StringBuilder sb, long nID,
+            long nTS, String sSentence, boolean bFavorite )
+    {
+        sb.append( "{\"item_id\":" ).append( nID )
+          .append( ",\"item_ts\":" ).append( nTS )
+          .append( ",\"sentence\":" ) ;
+        if( sSentence == null ) sb.append( "null" ) ;
+        else
+        {
+            sb.append( '"' ) ;
+            for( int i = 0 ; i < sSentence.length() ; i++ )
+            {
+                final char c = sSentence.charAt(i) ;
+                switch(c)
+                {
+                    case '"': sb.append( "\\\"" ) ; break ;
+                    case '\\': sb.append( "\\\\" ) ; break ;
+                    case '\n': sb.append( "\\n" ) ; break ;
+                    case '\r': sb.append( "\\r" ) ; break ;
+                    case '\t': sb.append( "\\t" ) ; break ;
+                    default:
+                        if( c < 0x20 )
+                        {
+                            sb.append( "\\u00" )
+                              .append( Character.forDigit( c >> 4, 16 ) )
+                              .append( Character.forDigit( c & 0xF, 16 ) ) ;
+                        }
+                        else sb.append( c ) ;
+                }
+            }
+            sb.append( '"' ) ;
+        }
+        return sb.append( ",\"favorite\":" ).append( bFavorite )
+                 .append( "}\n" ) ;
+    }
+
+    /**
+     * Appends one sentence as a CSV record. The text is quoted only if it must
+     * be; a null text is written as an empty field, and an empty text as a
+     * pair of quotes, so that the two can be told apart on import.
+     * @param sb the record is appended here, with its line break
+     * @param nID the sentence's ID
+     * @param nTS the sentence's timestamp
+     * @param sSentence the nonsense itself, which may be null
+     * @param bFavorite whether the sentence is a favorite
+     * @return the same builder
+     */
+    protected static StringBuilder appendCsvRecord( StringBuilder sb, long nID,
+            long nTS, String sSentence, boolean bFavorite )
+    {
+        sb.append( nID ).append( ',' ).append( nTS ).append( ',' ) ;
+        if( sSentence != null )
+        {
+            boolean bQuote = sSentence.isEmpty() ;
+            for( int i = 0 ; ! bQuote && i < sSentence.length() ; i++ )
+            {
+                final char c = sSentence.charAt(i) ;
+                bQuote = ( c == '"' || c == ',' || c == '\n' || c == '\r' ) ;
+            }
+            if( bQuote )
+            {
+                sb.append( '"' ) ;
+                for( int i = 0 ; i < sSentence.length() ; i++ )
+                {
+                    final char c = sSentence.charAt(i) ;
+                    if( c == '"' ) sb.append( '"' ) ;
+                    sb.append( c ) ;
+                }
+                sb.append( '"' ) ;
+            }
+            else sb.append( sSentence ) ;
+        }
+        return sb.append( ',' ).append(( bFavorite ? '1' : '0' ))
+                 .append( '\n' ) ;
+    }
+
+    /**
+     * Interprets a favorite flag written as a boolean, a number, or text.
+     * @param val the value
+     * @return whether the value means "favorite"
+     */
+    protected static boolean toBoolean( Object val )
+    {
+        if( val == null ) return false ;
+        if( val instanceof Boolean ) return (Boolean)val ;
+        if( val instanceof Number ) return ((Number)val).longValue() != 0L ;
+        final String s = val.toString().trim() ;
+        return ( "1".equals(s) || "true".equalsIgnoreCase(s) ) ;
+    }
+
+    /**
+     * Builds a sentence from a CSV record, given the positions of its columns
+     * as found in the header.
+     * @param asFields the fields of the record
+     * @param nTSColumn the position of {@code item_ts}, or -1 if absent
+     * @param nSentenceColumn the position of {@code sentence}
+     * @param nFavoriteColumn the position of {@code favorite}, or -1 if absent
+     * @return the sentence
+     * @throws IllegalArgumentException if the timestamp isn't a number
+     */
+    protected static Sentence fromCsvRecord( List<String> asFields,
+            int nTSColumn, int nSentenceColumn, int nFavoriteColumn )
+    {
+        final Sentence o = new Sentence() ;
+        final String sTS = fieldAt( asFields, nTSColumn ) ;
+        if( sTS != null )
+        {
+            try { o.nItemTS = Long.parseLong( sTS.trim() ) ; }
+            catch( NumberFormatException x )
+            {
+                throw new IllegalArgumentException(
+                        "item_ts is not a number." ) ;
+            }
+        }
+        o.sSentence = fieldAt( asFields, nSentenceColumn ) ;
+        o.bIsFavorite = toBoolean( fieldAt( asFields, nFavoriteColumn ) ) ;
+        return o ;
+    }
+
+    protected static String fieldAt( List<String> asFields, int nColumn )
+    {
+        return ( nColumn >= 0 && nColumn < asFields.size() ?
+                asFields.get(nColumn) : null ) ;
+    }
+
+    /**
+     * Stops a transfer between pages or batches if its thread was interrupted.
+     * @throws InterruptedIOException if the thread was interrupted
+     */
+    protected static void checkInterrupted()
+    throws InterruptedIOException
+    {
+        if( Thread.interrupted() )
+            throw new InterruptedIOException( "Transfer was interrupted." ) ;
+    }
+
+/// Instance Members ///////////////////////////////////////////////////////////
+
+    /** The database whose record is transferred. */
+    protected final PoppycockDatabase m_dbh ;
+
+    /** Receives progress, if anything is listening. */
+    protected ProgressListener m_lis = null ;
+
+    /** Writes the batches of an import, if not the database directly. */
+    protected BatchWriter m_writer = null ;
+
+/// Constructor ////////////////////////////////////////////////////////////////
+
+    /**
+     * @param dbh an open database whose record will be exported or added to
+     */
+    public HistoryArchive( PoppycockDatabase dbh )
+    { m_dbh = dbh ; }
+
+/// Instance Methods ///////////////////////////////////////////////////////////
+
+    /**
+     * @param lis receives the running count of rows transferred
+     * @return (fluid)
+     */
+    public HistoryArchive setProgressListener( ProgressListener lis )
+    { m_lis = lis ; return this ; }
+
+    /**
+     * @param writer writes each batch of an import, or {@code null} to write
+     *               them directly to the database
+     * @return (fluid)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public HistoryArchive setBatchWriter( BatchWriter writer )
+    { m_writer = writer ; return this ; }
+
+    /**
+     * Writes the whole historical record to a channel, oldest first. The
+     * channel is flushed, but not closed.
+     * @param ch the channel to which the export is written
+     * @param zFormat {@link #FORMAT_NDJSON} or {@link #FORMAT_CSV}
+     * @return the number of sentences written
+     * @throws IOException if the channel can't be written
+     * @throws InterruptedIOException if the thread is interrupted
+     */
+    public int exportTo( WritableByteChannel ch, int zFormat )
+    throws IOException
+    {
+        final boolean bCSV = ( zFormat == FORMAT_CSV ) ;
+        final Writer w = new BufferedWriter(
+                Channels.newWriter( ch, CHARSET ), BUFFER_CHARS ) ;
+        final StringBuilder sb = new StringBuilder( 256 ) ;
+        if( bCSV ) w.write( CSV_HEADER + "\n" ) ;
+
+        int nRows = 0 ;
+        long nAfterID = Sentence.NOT_IDENTIFIED ;
+        int nPageRows ;
+        do
+        {
+            checkInterrupted() ;
+            nPageRows = 0 ;
+            Cursor crs = m_dbh.fetchArchivePage( nAfterID, EXPORT_PAGE_ROWS ) ;
+            try
+            {
+                if( crs.moveToFirst() )
+                {
+                    final SentenceRowMapper map = new SentenceRowMapper( crs ) ;
+                    do
+                    {
+                        nAfterID = map.getItemID( crs ) ;
+                        sb.setLength(0) ;
+                        if( bCSV )
+                        {
+                            appendCsvRecord( sb, nAfterID, map.getItemTS(crs),
+                                map.getSentence(crs), map.isFavorite(crs) ) ;
+                        }
+                        else
+                        {
+                            appendJsonLine( sb, nAfterID, map.getItemTS(crs),
+                                map.getSentence(crs), map.isFavorite(crs) ) ;
+                        }
+                        w.append( sb ) ;
+                        ++nPageRows ;
+                    } while( crs.moveToNext() ) ;
+                }
+            }
+            finally
+            { crs.close() ; }
+            nRows += nPageRows ;
+            if( m_lis != null && nPageRows > 0 ) m_lis.onProgress( nRows ) ;
+        } while( nPageRows == EXPORT_PAGE_ROWS ) ;
+
+        w.flush() ;
+        return nRows ;
+    }
+
+    /**
+     * Adds every sentence read from a channel to the historical record. Blank
+     * lines are skipped. The channel is not closed.
+     * @param ch the channel from which the import is read
+     * @param zFormat {@link #FORMAT_NDJSON} or {@link #FORMAT_CSV}
+     * @return the number of sentences added
+     * @throws IOException if the channel can't be read, or a record is
+     *  malformed; batches before the malformed record will have been written
+     * @throws InterruptedIOException if the thread is interrupted
+     */
+    public int importFrom( ReadableByteChannel ch, int zFormat )
+    throws IOException
+    {
+        final Reader r = Channels.newReader( ch, CHARSET ) ;
+        return ( zFormat == FORMAT_CSV ?
+                this.importCsv( r ) :
+                this.importJson( new BufferedReader( r, BUFFER_CHARS ) ) ) ;
+    }
+
+    protected int importJson( BufferedReader r )
+    throws IOException
+    {
+        final JsonLineParser parser = new JsonLineParser() ;
+        final ArrayList<Sentence> aoBatch =
+                new ArrayList<>( IMPORT_BATCH_ROWS ) ;
+        int nRows = 0 ;
+        int nLine = 0 ;
+        String sLine ;
+        while( ( sLine = r.readLine() ) != null )
+        {
+            ++nLine ;
+            if( sLine.trim().isEmpty() ) continue ;
+            try { aoBatch.add( parser.parse( sLine ) ) ; }
+            catch( IllegalArgumentException x )
+            {
+                throw new IOException( (new StringBuilder())
+                        .append( "Malformed JSON at line " ).append( nLine )
+                        .append( ": " ).append( x.getMessage() )
+                        .toString()
+                    );
+            }
+            if( aoBatch.size() == IMPORT_BATCH_ROWS )
+                nRows = this.writeBatch( aoBatch, nRows ) ;
+        }
+        return this.writeBatch( aoBatch, nRows ) ;
+    }
+
+    protected int importCsv( Reader r )
+    throws IOException
+    {
+        final CsvReader csv = new CsvReader( r ) ;
+        final ArrayList<String> asFields = new ArrayList<>() ;
+        if( ! csv.readRecord( asFields ) ) return 0 ;
+        final int nTSColumn = asFields.indexOf( "item_ts" ) ;
+        final int nSentenceColumn = asFields.indexOf( "sentence" ) ;
+        final int nFavoriteColumn = asFields.indexOf( "favorite" ) ;
+        if( nSentenceColumn < 0 )
+            throw new IOException( "CSV header has no sentence column." ) ;
+
+        final ArrayList<Sentence> aoBatch =
+                new ArrayList<>( IMPORT_BATCH_ROWS ) ;
+        int nRows = 0 ;
+        int nLine = csv.getLine() ;
+        while( csv.readRecord( asFields ) )
+        {
+            if( asFields.size() == 1 && asFields.get(0) == null )
+            { nLine = csv.getLine() ; continue ; } // blank line
+            try
+            {
+                aoBatch.add( fromCsvRecord( asFields,
+                        nTSColumn, nSentenceColumn, nFavoriteColumn ) ) ;
+            }
+            catch( IllegalArgumentException x )
+            {
+                throw new IOException( (new StringBuilder())
+                        .append( "Malformed CSV at line " ).append( nLine )
+                        .append( ": " ).append( x.getMessage() )
+                        .toString()
+                    );
+            }
+            nLine = csv.getLine() ;
+            if( aoBatch.size() == IMPORT_BATCH_ROWS )
+                nRows = this.writeBatch( aoBatch, nRows ) ;
+        }
+        return this.writeBatch( aoBatch, nRows ) ;
+    }
+
+    /**
+     * Writes and empties a batch of imported sentences.
+     * @param aoBatch the batch
+     * @param nSoFar the number of sentences imported before this batch
+     * @return the number imported including this batch
+     * @throws InterruptedIOException if the thread was interrupted before the
+     *  batch could be written
+     */
+    protected int writeBatch( ArrayList<Sentence> aoBatch, int nSoFar )
+    throws InterruptedIOException
+    {
+        if( aoBatch.isEmpty() ) return nSoFar ;
+        checkInterrupted() ;
+        final int nRows = nSoFar + ( m_writer != null ?
+                m_writer.writeBatch( aoBatch ) :
+                m_dbh.insertSentences( aoBatch ) ) ;
+        aoBatch.clear() ;
+        if( m_lis != null ) m_lis.onProgress( nRows ) ;
+        return nRows ;
+    }
+}
@@ -0,0 +1,80 @@
+package net.zerobandwidth.android.apps.poppycock.database;
+
+/**
+ * Describes one committed change to the historical record, so that a screen
+ * which shows part of the record can apply just that change, rather than
+ * querying everything again, or one buffered change which was discarded
+ * before it could be committed. Changes are published by
+ * {@link PoppycockDatabase} to its {@link PoppycockDatabase.ChangeListener}s.
+ * @since zerobandwidth-net/android-poppycock 1.0.2
+ */
+public class HistoryChange
+{
+    /** The sentences in {@link #anIDs} were written. */
+    public static final int INSERTED = 1 ;
+
+    /** The sentences in {@link #anIDs} were modified. */
+    public static final int UPDATED = 2 ;
+
+    /** The sentences in {@link #anIDs} were deleted. */
+    public static final int DELETED = 3 ;
+
+    /**
+     * Every sentence whose favorite status was {@link #bFavorites} was
+     * deleted, and their IDs were not gathered; {@link #anIDs} is empty.
+     */
+    public static final int PURGED = 4 ;
+
+    /**
+     * The favorite statuses buffered for the sentences in {@link #anIDs} were
+     * discarded unwritten, so those sentences are as they were; a screen which
+     * showed the new statuses early should show the rows as they are again.
+     */
+    public static final int DISCARDED = 5 ;
+
+    /** One of {@link #INSERTED}, {@link #UPDATED}, etc. */
+    public final int zKind ;
+
+    /** The IDs of the sentences which changed. */
+    public final long[] anIDs ;
+
+    /** For {@link #PURGED}, the set which was deleted. */
+    public final boolean bFavorites ;
+
+    /**
+     * Describes a change to specific sentences.
+     * @param zKind {@link #INSERTED}, {@link #UPDATED}, {@link #DELETED}, or
+     *              {@link #DISCARDED}
+     * @param anIDs the IDs of the sentences
+     */
+    public HistoryChange( int zKind, long[] anIDs )
+    {
+        this.zKind = zKind ;
+        this.anIDs = anIDs ;
+        this.bFavorites = false ;
+    }
+
+    /**
+     * Describes the deletion of a whole set of sentences.
+     * @param bFavorites whether the favorites were deleted, rather than the
+     *                   rest
+     */
+    public HistoryChange( boolean bFavorites )
+    {
+        this.zKind = PURGED ;
+        this.anIDs = new long[0] ;
+        this.bFavorites = bFavorites ;
+    }
+
+    @Override
+    public String toString()
+    {
+        return (new StringBuilder())
+            .append( "HistoryChange kind [" ).append( zKind )
+            .append( "] rows [" ).append( anIDs.length )
+            .append( "] favorites [" ).append( bFavorites )
+            .append( "]" )
+            .toString()
+            ;
+    }
+}
@@ -0,0 +1,270 @@
+package net.zerobandwidth.android.apps.poppycock.database;
+
+import android.content.Context;
+import android.database.MatrixCursor;
+import android.util.Log;
+
+import net.zerobandwidth.android.apps.poppycock.model.Sentence;
+import net.zerobandwidth.android.lib.database.SQLitePortal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A small binary file holding the first page of the historical record, or of
+ * the Nonsense Hall of Fame, in one sort order, so that the history screen can
+ * show its first page before the service is bound and the database has been
+ * queried. The service rewrites the snapshots in the background after writes
+ * settle; the screen reads one by memory-mapping it, shows it, and replaces it
+ * with live data as soon as the first real page arrives.
+ *
+ * The file is a fixed-width header, then one fixed-width index entry per
+ * sentence, then a heap of UTF-8 text to which the entries point:
+ * <pre>
+ * header: int magic, int version, int count, int heap length
+ * entry:  long item_id, long item_ts, int text offset, int text length
+ *         (-1 for null), int flags
+ * heap:   the texts, back to back
+ * </pre>
+ * A file which doesn't match this layout exactly is ignored, so a torn or
+ * stale-format file costs nothing but the snapshot.
+ * @since zerobandwidth-net/android-poppycock 1.0.2
+ */
+public class HistorySnapshot
+{
+    public static final String LOG_TAG =
+            HistorySnapshot.class.getSimpleName() ;
+
+    /** The number of sentences kept in each snapshot. */
+    public static final int SNAPSHOT_ROWS =
+            PoppycockDatabase.DEFAULT_PAGE_SIZE ;
+
+    /** The prefix of the snapshots of the historical record. */
+    protected static final String HISTORY_PREFIX = "history" ;
+
+    /** The prefix of the snapshots of the Nonsense Hall of Fame. */
+    protected static final String FAVORITES_PREFIX = "favorites" ;
+
+    protected static final String OLDEST_FIRST_SUFFIX = "_asc.snapshot" ;
+
+    protected static final String NEWEST_FIRST_SUFFIX = "_desc.snapshot" ;
+
+    /** Identifies a snapshot file: the bytes {@code PPHS}. */
+    protected static final int MAGIC = 0x50504853 ;
+
+    /** Changes whenever the layout of the file changes. */
+    protected static final int FORMAT_VERSION = 1 ;
+
+    protected static final int HEADER_BYTES = 16 ;
+
+    protected static final int ENTRY_BYTES = 28 ;
+
+    /** Marks an entry whose sentence is a favorite. */
+    protected static final int FLAG_FAVORITE = 0x1 ;
+
+    /** The text length which marks a null text. */
+    protected static final int NULL_TEXT = -1 ;
+
+    protected static final Charset UTF8 = Charset.forName( "UTF-8" ) ;
+
+/// Static Methods /////////////////////////////////////////////////////////////
+
+    /**
+     * @param ctx a context of the app
+     * @param bFavorites whether to find the Hall of Fame's snapshot, rather
+     *                   than that of the whole record
+     * @param bOldestFirst whether to find the snapshot of the oldest page,
+     *                     rather than the newest
+     * @return the snapshot file, which may not exist
+     */
+    public static File fileFor( Context ctx, boolean bFavorites,
+                                boolean bOldestFirst )
+    {
+        return new File( ctx.getFilesDir(), (new StringBuilder())
+                .append(( bFavorites ? FAVORITES_PREFIX : HISTORY_PREFIX ))
+                .append(( bOldestFirst ?
+                        OLDEST_FIRST_SUFFIX : NEWEST_FIRST_SUFFIX ))
+                .toString()
+            );
+    }
+
+    /**
+     * Encodes sentences in the snapshot layout.
+     * @param ao the sentences, in the order in which they will be shown
+     * @return a buffer holding the whole file, positioned at its start
+     */
+    protected static ByteBuffer encode( List<Sentence> ao )
+    {
+        final byte[][] aabTexts = new byte[ao.size()][] ;
+        int nHeapBytes = 0 ;
+        for( int i = 0 ; i < aabTexts.length ; i++ )
+        {
+            final String s = ao.get(i).sSentence ;
+            if( s == null ) continue ;
+            aabTexts[i] = s.getBytes( UTF8 ) ;
+            nHeapBytes += aabTexts[i].length ;
+        }
+        final ByteBuffer buf = ByteBuffer.allocate( HEADER_BYTES
+                + ENTRY_BYTES * aabTexts.length + nHeapBytes ) ;
+        buf.putInt( MAGIC ).putInt( FORMAT_VERSION )
+           .putInt( aabTexts.length ).putInt( nHeapBytes ) ;
+        int nOffset = 0 ;
+        for( int i = 0 ; i < aabTexts.length ; i++ )
+        {
+            final Sentence o = ao.get(i) ;
+            buf.putLong( o.nItemID ).putLong( o.nItemTS ).putInt( nOffset )
+               .putInt(( aabTexts[i] == null ? NULL_TEXT : aabTexts[i].length ))
+               .putInt(( o.bIsFavorite ? FLAG_FAVORITE : 0 )) ;
+            if( aabTexts[i] != null ) nOffset += aabTexts[i].length ;
+        }
+        for( byte[] ab : aabTexts )
+            if( ab != null ) buf.put( ab ) ;
+        buf.flip() ;
+        return buf ;
+    }
+
+    /**
+     * Decodes a snapshot, checking every size and offset against the buffer.
+     * @param buf a buffer holding the whole file, from position zero
+     * @return the sentences, in the order in which they were written
+     * @throws IllegalArgumentException if the buffer isn't a valid snapshot
+     */
+    protected static ArrayList<Sentence> decode( ByteBuffer buf )
+    {
+        if( buf.limit() < HEADER_BYTES
+         || buf.getInt(0) != MAGIC || buf.getInt(4) != FORMAT_VERSION )
+        { throw new IllegalArgumentException( "Not a history snapshot." ) ; }
+        final int nCount = buf.getInt(8) ;
+        final int nHeapBytes = buf.getInt(12) ;
+        final long nHeapStart = HEADER_BYTES + (long)ENTRY_BYTES * nCount ;
+        if( nCount < 0 || nHeapBytes < 0
+         || nHeapStart + nHeapBytes != buf.limit() )
+        { throw new IllegalArgumentException( "Snapshot is truncated." ) ; }
+
+        final ArrayList<Sentence> ao = new ArrayList<>( nCount ) ;
+        final ByteBuffer bufText = buf.duplicate() ;
+        for( int i = 0 ; i < nCount ; i++ )
+        {
+            final int nEntry = HEADER_BYTES + ENTRY_BYTES * i ;
+            final Sentence o = new Sentence() ;
+            o.nItemID = buf.getLong( nEntry ) ;
+            o.nItemTS = buf.getLong( nEntry + 8 ) ;
+            final int nOffset = buf.getInt( nEntry + 16 ) ;
+            final int nLength = buf.getInt( nEntry + 20 ) ;
+            o.bIsFavorite = ( ( buf.getInt( nEntry + 24 ) & FLAG_FAVORITE )
+                    != 0 ) ;
+            if( nLength != NULL_TEXT )
+            {
+                if( nOffset < 0 || nLength < 0
+                 || (long)nOffset + nLength > nHeapBytes )
+                {
+                    throw new IllegalArgumentException(
+                            "Snapshot text is out of bounds." ) ;
+                }
+                final byte[] ab = new byte[nLength] ;
+                bufText.position( (int)nHeapStart + nOffset ) ;
+                bufText.get( ab ) ;
+                o.sSentence = new String( ab, UTF8 ) ;
+            }
+            ao.add( o ) ;
+        }
+        return ao ;
+    }
+
+    /**
+     * Replaces a snapshot file. The file is written beside the old one and
+     * then renamed over it, so that a reader never maps a partial file.
+     * @param ao the sentences to be kept, in the order in which they will be
+     *           shown
+     * @param f the snapshot file
+     * @throws IOException if the file can't be written
+     */
+    public static void write( List<Sentence> ao, File f )
+    throws IOException
+    {
+        final ByteBuffer buf = encode( ao ) ;
+        final File fTemp = new File( f.getPath() + ".tmp" ) ;
+        final FileOutputStream out = new FileOutputStream( fTemp ) ;
+        try
+        {
+            final FileChannel ch = out.getChannel() ;
+            while( buf.hasRemaining() ) ch.write( buf ) ;
+        }
+        finally
+        { out.close() ; }
+        if( ! fTemp.renameTo( f ) )
+        {
+            throw new IOException( (new StringBuilder())
+                    .append( "Could not replace snapshot [" )
+                    .append( f.getAbsolutePath() ).append( "]." )
+                    .toString()
+                );
+        }
+    }
+
+    /**
+     * Reads a snapshot file by mapping it into memory. This is cheap enough to
+     * call on the UI thread, but it is still a disk read, so a caller there
+     * must allow one under StrictMode.
+     * @param f the snapshot file
+     * @return a page over the snapshot's sentences, which the caller must
+     *  close, or {@code null} if there is no valid snapshot
+     */
+    public static SentencePage read( File f )
+    {
+        if( f == null || ! f.isFile() ) return null ;
+        final long tsStart = System.nanoTime() ;
+        final ArrayList<Sentence> ao ;
+        try
+        {
+            final RandomAccessFile raf = new RandomAccessFile( f, "r" ) ;
+            try
+            {
+                final FileChannel ch = raf.getChannel() ;
+                ao = decode( ch.map( FileChannel.MapMode.READ_ONLY,
+                        0, ch.size() ) ) ;
+            }
+            finally
+            { raf.close() ; }
+        }
+        catch( IOException x )
+        {
+            Log.w( LOG_TAG, "Could not read history snapshot.", x ) ;
+            return null ;
+        }
+        catch( IllegalArgumentException x )
+        {
+            Log.w( LOG_TAG, "Ignored bad history snapshot.", x ) ;
+            return null ;
+        }
+
+        final MatrixCursor crs = new MatrixCursor(
+                SentenceRowMapper.PROJECTION, ao.size() ) ;
+        for( Sentence o : ao )
+        {
+            crs.addRow( new Object[]
+                {
+                    o.nItemID, o.nItemTS, o.sSentence,
+                    SQLitePortal.boolToInt( o.bIsFavorite )
+                });
+        }
+        if( Log.isLoggable( LOG_TAG, Log.DEBUG ) )
+        {
+            Log.d( LOG_TAG, (new StringBuilder())
+                    .append( "Read [" ).append( ao.size() )
+                    .append( "] sentences from snapshot in [" )
+                    .append( ( System.nanoTime() - tsStart ) / 1000L )
+                    .append( "us]." )
+                    .toString()
+                );
+        }
+        return new SentencePage( crs ) ;
+    }
+}
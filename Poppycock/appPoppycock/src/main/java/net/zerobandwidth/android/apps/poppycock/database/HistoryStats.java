@@ -0,0 +1,95 @@
+package net.zerobandwidth.android.apps.poppycock.database;
+
+import java.util.TreeMap;
+
+/**
+ * Counts and timestamps which summarize the historical record, as computed by
+ * {@link PoppycockDatabase#getStats(long)} without loading any rows. Like
+ * {@link net.zerobandwidth.android.apps.poppycock.model.Sentence}, this
+ * container does not hide its fields.
+ * @since zerobandwidth-net/android-poppycock 1.0.2
+ */
+public class HistoryStats
+{
+    /** Marks a timestamp of an empty set of sentences. */
+    public static final long NO_TIMESTAMP = -1L ;
+
+    /** The number of sentences which are not favorites. */
+    public int nHistoryCount = 0 ;
+
+    /** The number of sentences in the Nonsense Hall of Fame. */
+    public int nFavoriteCount = 0 ;
+
+    /** The timestamp of the oldest sentence which is not a favorite. */
+    public long tsHistoryFirst = NO_TIMESTAMP ;
+
+    /** The timestamp of the newest sentence which is not a favorite. */
+    public long tsHistoryLast = NO_TIMESTAMP ;
+
+    /** The timestamp of the oldest favorite. */
+    public long tsFavoritesFirst = NO_TIMESTAMP ;
+
+    /** The timestamp of the newest favorite. */
+    public long tsFavoritesLast = NO_TIMESTAMP ;
+
+    /**
+     * The number of sentences written on each day, keyed by the local date in
+     * the form {@code yyyy-MM-dd}, for the days that were asked for. Days on
+     * which nothing was written are absent.
+     */
+    public final TreeMap<String,Integer> mapDailyCounts = new TreeMap<>() ;
+
+    /** @return the number of sentences in the historical record */
+    public int getTotalCount()
+    { return nHistoryCount + nFavoriteCount ; }
+
+    /**
+     * @param bFavorites whether to count favorites, rather than the rest
+     * @return the number of sentences in that set
+     */
+    public int getCount( boolean bFavorites )
+    { return ( bFavorites ? nFavoriteCount : nHistoryCount ) ; }
+
+    /**
+     * @return the timestamp of the oldest sentence of all, or
+     *  {@link #NO_TIMESTAMP} if there are none
+     */
+    public long getFirstTS()
+    { return earliest( tsHistoryFirst, tsFavoritesFirst ) ; }
+
+    /**
+     * @return the timestamp of the newest sentence of all, or
+     *  {@link #NO_TIMESTAMP} if there are none
+     */
+    public long getLastTS()
+    {
+        return ( tsHistoryLast == NO_TIMESTAMP ? tsFavoritesLast :
+                Math.max( tsHistoryLast, tsFavoritesLast ) ) ;
+    }
+
+    /**
+     * @param tsA a timestamp, or {@link #NO_TIMESTAMP}
+     * @param tsB a timestamp, or {@link #NO_TIMESTAMP}
+     * @return the earlier of the two timestamps which are present
+     */
+    protected static long earliest( long tsA, long tsB )
+    {
+        if( tsA == NO_TIMESTAMP ) return tsB ;
+        if( tsB == NO_TIMESTAMP ) return tsA ;
+        return Math.min( tsA, tsB ) ;
+    }
+
+    @Override
+    public String toString()
+    {
+        return (new StringBuilder())
+            .append( "HistoryStats history [" ).append( nHistoryCount )
+            .append( "] favorites [" ).append( nFavoriteCount )
+            .append( "] first [" ).append( this.getFirstTS() )
+            .append( "] last [" ).append( this.getLastTS() )
+            .append( "] days [" ).append( mapDailyCounts.size() )
+            .append( "]" )
+            .toString()
+            ;
+    }
+}
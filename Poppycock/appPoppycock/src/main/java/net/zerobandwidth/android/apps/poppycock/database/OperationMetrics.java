@@ -0,0 +1,217 @@
+package net.zerobandwidth.android.apps.poppycock.database;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records the latency and row count of each kind of database operation.
+ * Latencies are kept in histograms whose buckets double in width, so that
+ * recording is a handful of atomic increments with no allocation, and any
+ * number of threads may record at once.
+ * @since zerobandwidth-net/android-poppycock 1.0.2
+ */
+public class OperationMetrics
+{
+    /**
+     * The number of histogram buckets. Bucket 0 counts operations which took
+     * less than one microsecond; bucket {@code i} counts those which took at
+     * least 2<sup>i-1</sup> and less than 2<sup>i</sup> microseconds; the last
+     * bucket counts everything slower than that, which is over eight seconds.
+     */
+    public static final int BUCKET_COUNT = 25 ;
+
+/// Inner Classes //////////////////////////////////////////////////////////////
+
+    /**
+     * Accumulates the latency histogram and row count for one operation.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected static class Histogram
+    {
+        protected final AtomicLongArray m_anBuckets =
+                new AtomicLongArray( BUCKET_COUNT ) ;
+        protected final AtomicLong m_nCount = new AtomicLong(0L) ;
+        protected final AtomicLong m_nTotalNanos = new AtomicLong(0L) ;
+        protected final AtomicLong m_nMaxNanos = new AtomicLong(0L) ;
+        protected final AtomicLong m_nRows = new AtomicLong(0L) ;
+
+        /**
+         * Records one operation.
+         * @param nNanos the duration of the operation
+         * @param nRows the number of rows it read or wrote
+         */
+        protected void record( long nNanos, long nRows )
+        {
+            m_anBuckets.incrementAndGet( bucketFor( nNanos ) ) ;
+            m_nCount.incrementAndGet() ;
+            m_nTotalNanos.addAndGet( nNanos ) ;
+            m_nRows.addAndGet( nRows ) ;
+            long nMax = m_nMaxNanos.get() ;
+            while( nNanos > nMax
+                    && ! m_nMaxNanos.compareAndSet( nMax, nNanos ) )
+            { nMax = m_nMaxNanos.get() ; }
+        }
+
+        /**
+         * @param sName the name of the operation
+         * @return a copy of the histogram's current state
+         */
+        protected Snapshot snapshot( String sName )
+        {
+            Snapshot snap = new Snapshot( sName ) ;
+            for( int i = 0 ; i < BUCKET_COUNT ; i++ )
+                snap.anBuckets[i] = m_anBuckets.get(i) ;
+            snap.nCount = m_nCount.get() ;
+            snap.nTotalNanos = m_nTotalNanos.get() ;
+            snap.nMaxNanos = m_nMaxNanos.get() ;
+            snap.nRows = m_nRows.get() ;
+            return snap ;
+        }
+    }
+
+    /**
+     * A copy of the metrics for one operation at a point in time.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static class Snapshot
+    {
+        /** The name of the operation. */
+        public final String sName ;
+
+        /** The number of operations in each latency bucket. */
+        public final long[] anBuckets = new long[BUCKET_COUNT] ;
+
+        /** The number of operations recorded. */
+        public long nCount = 0L ;
+
+        /** The total time taken by all operations, in nanoseconds. */
+        public long nTotalNanos = 0L ;
+
+        /** The longest single operation, in nanoseconds. */
+        public long nMaxNanos = 0L ;
+
+        /** The total number of rows read or written. */
+        public long nRows = 0L ;
+
+        public Snapshot( String sName )
+        { this.sName = sName ; }
+
+        /** @return the mean duration of an operation, in milliseconds */
+        public double getMeanMillis()
+        {
+            return ( nCount == 0L ? 0.0d :
+                    ((double)nTotalNanos) / nCount / 1000000.0d ) ;
+        }
+
+        /**
+         * Estimates a percentile of the latency distribution. The estimate is
+         * the upper bound of the bucket in which the percentile falls, so it
+         * may overstate the true value by up to a factor of two.
+         * @param dPercentile the percentile, between 0 and 100
+         * @return the estimated latency at that percentile, in milliseconds
+         */
+        public double getPercentileMillis( double dPercentile )
+        {
+            if( nCount == 0L ) return 0.0d ;
+            final long nTarget =
+                    (long)Math.ceil( nCount * dPercentile / 100.0d ) ;
+            long nSeen = 0L ;
+            for( int i = 0 ; i < BUCKET_COUNT - 1 ; i++ )
+            {
+                nSeen += anBuckets[i] ;
+                if( nSeen >= nTarget ) return ( 1L << i ) / 1000.0d ;
+            }
+            return nMaxNanos / 1000000.0d ;
+        }
+
+        /** @return the mean number of rows per operation */
+        public double getMeanRows()
+        { return ( nCount == 0L ? 0.0d : ((double)nRows) / nCount ) ; }
+
+        @Override
+        public String toString()
+        {
+            return (new StringBuilder())
+                .append( sName )
+                .append( ": count [" ).append( nCount )
+                .append( "] mean [" ).append( this.getMeanMillis() )
+                .append( "ms] p50 [" ).append( this.getPercentileMillis(50) )
+                .append( "ms] p95 [" ).append( this.getPercentileMillis(95) )
+                .append( "ms] p99 [" ).append( this.getPercentileMillis(99) )
+                .append( "ms] max [" ).append( nMaxNanos / 1000000.0d )
+                .append( "ms] rows [" ).append( nRows )
+                .append( "]" )
+                .toString()
+                ;
+        }
+    }
+
+/// Static Methods /////////////////////////////////////////////////////////////
+
+    /**
+     * @param nNanos a duration
+     * @return the index of the histogram bucket for that duration
+     */
+    protected static int bucketFor( long nNanos )
+    {
+        final long nMicros = nNanos / 1000L ;
+        final int nBucket = 64 - Long.numberOfLeadingZeros( nMicros ) ;
+        return ( nBucket < BUCKET_COUNT ? nBucket : BUCKET_COUNT - 1 ) ;
+    }
+
+/// Instance Members ///////////////////////////////////////////////////////////
+
+    /** The histogram for each operation, by name. */
+    protected final ConcurrentHashMap<String,Histogram> m_mapHistograms =
+            new ConcurrentHashMap<>() ;
+
+/// Instance Methods ///////////////////////////////////////////////////////////
+
+    /**
+     * Records the completion of an operation.
+     * @param sOperation the name of the operation
+     * @param tsStart the value of {@link System#nanoTime()} when the operation
+     *  began
+     * @param nRows the number of rows the operation read or wrote
+     * @return (fluid)
+     */
+    public OperationMetrics record( String sOperation, long tsStart,
+                                    long nRows )
+    {
+        final long nNanos = System.nanoTime() - tsStart ;
+        Histogram hist = m_mapHistograms.get( sOperation ) ;
+        if( hist == null )
+        {
+            final Histogram histNew = new Histogram() ;
+            hist = m_mapHistograms.putIfAbsent( sOperation, histNew ) ;
+            if( hist == null ) hist = histNew ;
+        }
+        hist.record( nNanos, nRows ) ;
+        return this ;
+    }
+
+    /**
+     * @return a copy of the metrics for every operation recorded so far,
+     *  sorted by the name of the operation
+     */
+    public Map<String,Snapshot> snapshot()
+    {
+        TreeMap<String,Snapshot> map = new TreeMap<>() ;
+        for( Map.Entry<String,Histogram> entry : m_mapHistograms.entrySet() )
+        {
+            map.put( entry.getKey(),
+                    entry.getValue().snapshot( entry.getKey() ) ) ;
+        }
+        return map ;
+    }
+
+    /**
+     * Discards everything recorded so far.
+     * @return (fluid)
+     */
+    public OperationMetrics reset()
+    { m_mapHistograms.clear() ; return this ; }
+}
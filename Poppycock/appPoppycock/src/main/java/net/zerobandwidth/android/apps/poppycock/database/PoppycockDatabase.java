@@ -1,18 +1,43 @@
 package net.zerobandwidth.android.apps.poppycock.database;
 
+import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
 import net.zerobandwidth.android.apps.poppycock.model.Sentence;
 import net.zerobandwidth.android.lib.database.SQLitePortal;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Provides access to an SQLite database in which we keep historical nonsense.
+ *
+ * The database runs in write-ahead logging mode, so that any number of threads
+ * may read from it while one thread writes. Methods which read are therefore
+ * not synchronized at all; methods which write are serialized on
+ * {@link #m_oWriteLock}, which also guards the write buffer.
+ *
+ * Each distinct text is stored only once, in the text store; rows of the
+ * sentence table refer to it by ID, and are read through a view which joins
+ * the text back in.
  * @since zerobandwidth-net/android-poppycock 1.0.1 (#2)
  */
 public class PoppycockDatabase
@@ -37,198 +62,2584 @@ extends SQLitePortal
      *             <td>1.0.1</td>
      *             <td>1</td>
      *         </tr>
+     *         <tr>
+     *             <td>1.0.2</td>
+     *             <td>4</td>
+     *         </tr>
      *     </tbody>
      * </table>
      */
-    public static final int SCHEMA_VERSION = 1 ;
+    public static final int SCHEMA_VERSION = 4 ;
+
+    /** The filename for the SQLite database. */
+    public static final String DATABASE_NAME = "poppycock_db" ;
+
+    /**
+     * The table name where the historical records of sentences will be stored.
+     */
+    public static final String SENTENCE_TABLE_NAME = "sentence" ;
+
+    /**
+     * The SQL statement to create the table where all historical entries will
+     * be stored. The text of each sentence is kept only once, in the
+     * {@link #SENTENCE_TEXT_TABLE_NAME} table, no matter how many times it
+     * recurs in the history; a null {@code text_id} is a null sentence.
+     */
+    public static final String SENTENCE_TABLE_SQL =
+              "CREATE TABLE " + SENTENCE_TABLE_NAME + " ("
+            + "item_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + "item_ts INTEGER, "
+            + "text_id INTEGER, "
+            + "favorite INT "
+            + ") ;"
+            ;
+
+    /**
+     * The table in which the distinct texts of all sentences are stored.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static final String SENTENCE_TEXT_TABLE_NAME = "sentence_text" ;
+
+    /**
+     * The SQL statement to create the text store. Texts are found by the hash
+     * of their content, computed by {@link #hashSentence(String)}, and then
+     * compared in full, so that a hash collision merely costs a comparison.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static final String SENTENCE_TEXT_TABLE_SQL =
+              "CREATE TABLE IF NOT EXISTS " + SENTENCE_TEXT_TABLE_NAME + " ("
+            + "text_id INTEGER PRIMARY KEY, "
+            + "text_hash INTEGER NOT NULL, "
+            + "sentence TEXT NOT NULL "
+            + ") ;"
+            ;
+
+    /**
+     * The name of the index by which texts are found by their hash.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static final String SENTENCE_TEXT_HASH_INDEX_NAME =
+            "sentence_text_hash_idx" ;
+
+    /**
+     * The SQL statement to create the index on the hash of each text.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static final String SENTENCE_TEXT_HASH_INDEX_SQL =
+              "CREATE INDEX IF NOT EXISTS " + SENTENCE_TEXT_HASH_INDEX_NAME
+            + " ON " + SENTENCE_TEXT_TABLE_NAME + " ( text_hash ) ;"
+            ;
+
+    /**
+     * The name of the index by which the uses of each text are found, when
+     * deciding whether it can be released, and when joining search results.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static final String SENTENCE_TEXT_ID_INDEX_NAME =
+            "sentence_text_id_idx" ;
+
+    /**
+     * The SQL statement to create the index on each sentence's text ID.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static final String SENTENCE_TEXT_ID_INDEX_SQL =
+              "CREATE INDEX IF NOT EXISTS " + SENTENCE_TEXT_ID_INDEX_NAME
+            + " ON " + SENTENCE_TABLE_NAME + " ( text_id ) ;"
+            ;
+
+    /**
+     * The SQL statement which creates the trigger that deletes a text from the
+     * store once no sentence uses it any more.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static final String SENTENCE_TEXT_RELEASE_TRIGGER_SQL =
+          "CREATE TRIGGER IF NOT EXISTS sentence_text_release AFTER DELETE ON "
+        + SENTENCE_TABLE_NAME + " WHEN old.text_id IS NOT NULL AND NOT EXISTS "
+        + "( SELECT 1 FROM " + SENTENCE_TABLE_NAME
+        + " WHERE text_id = old.text_id ) BEGIN DELETE FROM "
+        + SENTENCE_TEXT_TABLE_NAME + " WHERE text_id = old.text_id ; END ;"
+        ;
+
+    /**
+     * The view through which sentences are read, with their texts joined back
+     * in. Its columns are those of {@link SentenceRowMapper#PROJECTION}. SQLite
+     * flattens the view into each query, so that queries against it use the
+     * indexes of the sentence table just as if they were made against it.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static final String SENTENCE_VIEW_NAME = "sentence_view" ;
+
+    /**
+     * The SQL statement to create the view through which sentences are read.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static final String SENTENCE_VIEW_SQL =
+              "CREATE VIEW IF NOT EXISTS " + SENTENCE_VIEW_NAME + " AS SELECT "
+            + "item_id, item_ts, sentence, favorite FROM " + SENTENCE_TABLE_NAME
+            + " LEFT JOIN " + SENTENCE_TEXT_TABLE_NAME + " USING ( text_id ) ;"
+            ;
+
+    /**
+     * The name of the index which supports sorting the historical record by
+     * timestamp, and keyset pagination through it.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static final String SENTENCE_TS_INDEX_NAME = "sentence_ts_idx" ;
+
+    /**
+     * The SQL statement to create the index on the sort key.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static final String SENTENCE_TS_INDEX_SQL =
+              "CREATE INDEX IF NOT EXISTS " + SENTENCE_TS_INDEX_NAME
+            + " ON " + SENTENCE_TABLE_NAME + " ( item_ts, item_id ) ;"
+            ;
+
+    /**
+     * The name of the index which supports the Nonsense Hall of Fame.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static final String SENTENCE_FAVORITE_INDEX_NAME =
+            "sentence_favorite_ts_idx" ;
+
+    /**
+     * The SQL statement to create the index which supports filtering by
+     * favorite status while sorting by timestamp. Partial indexes require
+     * SQLite 3.8.0, which is newer than the platform's SQLite at our minimum
+     * API level, so the filter column leads a composite index instead.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static final String SENTENCE_FAVORITE_INDEX_SQL =
+              "CREATE INDEX IF NOT EXISTS " + SENTENCE_FAVORITE_INDEX_NAME
+            + " ON " + SENTENCE_TABLE_NAME + " ( favorite, item_ts, item_id ) ;"
+            ;
+
+    /**
+     * The name of the full-text index over the nonsense. Each row's
+     * {@code docid} is the {@code text_id} of the text it indexes, so that a
+     * text which recurs in the history is indexed only once.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static final String SENTENCE_FTS_TABLE_NAME = "sentence_fts" ;
+
+    /**
+     * The SQL statement to create the full-text index. FTS4 tables with
+     * external content require SQLite 3.7.9, which is newer than the
+     * platform's SQLite at our minimum API level, so the index keeps its own
+     * copy of the text.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static final String SENTENCE_FTS_TABLE_SQL =
+              "CREATE VIRTUAL TABLE IF NOT EXISTS " + SENTENCE_FTS_TABLE_NAME
+            + " USING fts4( sentence ) ;"
+            ;
+
+    /**
+     * The SQL statements which create the triggers that keep the full-text
+     * index in step with the text store. Texts are never updated in place, so
+     * there is no update trigger.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static final String[] SENTENCE_FTS_TRIGGER_SQL =
+    {
+          "CREATE TRIGGER IF NOT EXISTS sentence_fts_insert AFTER INSERT ON "
+        + SENTENCE_TEXT_TABLE_NAME + " BEGIN INSERT INTO "
+        + SENTENCE_FTS_TABLE_NAME
+        + " ( docid, sentence ) VALUES ( new.text_id, new.sentence ) ; END ;"
+        ,
+          "CREATE TRIGGER IF NOT EXISTS sentence_fts_delete AFTER DELETE ON "
+        + SENTENCE_TEXT_TABLE_NAME + " BEGIN DELETE FROM "
+        + SENTENCE_FTS_TABLE_NAME + " WHERE docid = old.text_id ; END ;"
+    };
+
+    /**
+     * The names of the triggers which kept the full-text index of schema
+     * version 3 in step with the sentence table.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected static final String[] LEGACY_FTS_TRIGGER_NAMES =
+    {
+        "sentence_fts_insert", "sentence_fts_delete", "sentence_fts_update"
+    };
+
+    /**
+     * The maximum number of matches that are ranked by a search. If more
+     * sentences than this match, then only the most recent are ranked, so that
+     * a search for a common word stays fast on a very large history.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static final int SEARCH_MAX_CANDIDATES = 1000 ;
+
+    /**
+     * The default number of non-favorite sentences which are kept by the
+     * retention policy. This is zero, so that nothing is trimmed by
+     * {@link #trimHistory(int)} until a policy is explicitly set.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static final int DEFAULT_RETENTION_MAX_ROWS = 0 ;
+
+    /**
+     * The default age, in milliseconds, beyond which non-favorite sentences
+     * are trimmed by the retention policy. This is zero, so that sentences are
+     * kept forever until a policy is explicitly set.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static final long DEFAULT_RETENTION_MAX_AGE_MS = 0L ;
+
+    /**
+     * The value of SQLite's {@code auto_vacuum} pragma which allows free pages
+     * to be reclaimed a few at a time by {@link #compact(int)}.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected static final int AUTO_VACUUM_INCREMENTAL = 2 ;
+
+    /**
+     * The default number of rows fetched by each call to
+     * {@link #getHistoryPage} or {@link #getFavoritesPage}.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static final int DEFAULT_PAGE_SIZE = 50 ;
+
+    /**
+     * The number of buffered writes at which {@link #bufferSentence} and
+     * {@link #bufferFavorite} report that the write buffer should be flushed
+     * immediately.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static final int WRITE_BUFFER_MAX_ROWS = 32 ;
+
+    /**
+     * The longest that a buffered sentence should wait before the write buffer
+     * is flushed, in milliseconds.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static final long WRITE_BUFFER_MAX_DELAY_MS = 2000L ;
+
+    /**
+     * The statement compiled to insert a new sentence.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected static final String INSERT_SENTENCE_SQL =
+              "INSERT INTO " + SENTENCE_TABLE_NAME
+            + " ( item_ts, text_id, favorite ) VALUES ( ?, ?, ? )"
+            ;
+
+    /**
+     * The statement compiled to set the favorite status of a sentence. It
+     * touches only the {@code favorite} column, and only if the status
+     * actually changes.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected static final String SET_FAVORITE_SQL =
+              "UPDATE " + SENTENCE_TABLE_NAME
+            + " SET favorite=? WHERE item_id=? AND favorite<>?"
+            ;
+
+    /**
+     * The statement compiled to find the ID of a text that is already stored.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected static final String FIND_TEXT_SQL =
+              "SELECT text_id FROM " + SENTENCE_TEXT_TABLE_NAME
+            + " WHERE text_hash = ? AND sentence = ?"
+            ;
+
+    /**
+     * The statement compiled to store a new text.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected static final String INSERT_TEXT_SQL =
+              "INSERT INTO " + SENTENCE_TEXT_TABLE_NAME
+            + " ( text_hash, sentence ) VALUES ( ?, ? )"
+            ;
+
+    /**
+     * The sort clause used by paged queries. The ID breaks ties between
+     * sentences created in the same millisecond, so that the pair forms a
+     * unique key for keyset pagination.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static final String PAGE_ORDER_ASC = "item_ts ASC, item_id ASC" ;
+
+    /** @see #PAGE_ORDER_ASC */
+    public static final String PAGE_ORDER_DESC =
+            "item_ts DESC, item_id DESC" ;
+
+    /**
+     * Selects rows which follow a given {@code (item_ts, item_id)} key when
+     * sorting oldest-first. The leading range term on {@code item_ts} lets
+     * SQLite seek into the timestamp index rather than filter the whole thing.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected static final String KEYSET_AFTER_ASC =
+            "item_ts >= ? AND ( item_ts > ? OR item_id > ? )" ;
+
+    /**
+     * Selects rows which follow a given {@code (item_ts, item_id)} key when
+     * sorting newest-first.
+     * @see #KEYSET_AFTER_ASC
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected static final String KEYSET_AFTER_DESC =
+            "item_ts <= ? AND ( item_ts < ? OR item_id < ? )" ;
+
+    /**
+     * Selects rows which are the same as, or older than, a given
+     * {@code (item_ts, item_id)} key.
+     * @see #KEYSET_AFTER_DESC
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected static final String KEYSET_THROUGH_DESC =
+            "item_ts <= ? AND ( item_ts < ? OR item_id <= ? )" ;
+
+    /**
+     * Finds the counts and extreme timestamps of both the favorites and the
+     * rest in one statement. Each subquery is a range of
+     * {@link #SENTENCE_FAVORITE_INDEX_NAME}: the counts walk the index without
+     * touching the table, and the timestamps are read from either end of it.
+     * {@code ORDER BY ... LIMIT 1} is used rather than {@code MIN()} and
+     * {@code MAX()}, which older versions of SQLite may not answer from an
+     * index when there is also a {@code WHERE} clause.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected static final String STATS_SQL = (new StringBuilder())
+            .append( "SELECT " )
+            .append( "( SELECT COUNT(*) FROM " ).append( SENTENCE_TABLE_NAME )
+                .append( " WHERE favorite=0 ), " )
+            .append( "( SELECT item_ts FROM " ).append( SENTENCE_TABLE_NAME )
+                .append( " WHERE favorite=0 ORDER BY item_ts ASC LIMIT 1 ), " )
+            .append( "( SELECT item_ts FROM " ).append( SENTENCE_TABLE_NAME )
+                .append( " WHERE favorite=0 ORDER BY item_ts DESC LIMIT 1 ), " )
+            .append( "( SELECT COUNT(*) FROM " ).append( SENTENCE_TABLE_NAME )
+                .append( " WHERE favorite=1 ), " )
+            .append( "( SELECT item_ts FROM " ).append( SENTENCE_TABLE_NAME )
+                .append( " WHERE favorite=1 ORDER BY item_ts ASC LIMIT 1 ), " )
+            .append( "( SELECT item_ts FROM " ).append( SENTENCE_TABLE_NAME )
+                .append( " WHERE favorite=1 ORDER BY item_ts DESC LIMIT 1 )" )
+            .toString()
+            ;
+
+    /**
+     * Counts the sentences written on each local day since a given time,
+     * reading only a range of {@link #SENTENCE_TS_INDEX_NAME}.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected static final String DAILY_COUNTS_SQL =
+              "SELECT DATE( item_ts / 1000, 'unixepoch', 'localtime' ) AS day, "
+            + "COUNT(*) FROM " + SENTENCE_TABLE_NAME
+            + " WHERE item_ts >= ? GROUP BY day ORDER BY day"
+            ;
+
+    /** Names the operations recorded in {@link #getMetrics()}. */
+    public static final String OP_FLUSH_WRITES = "flushWrites" ;
+    public static final String OP_INSERT_SENTENCE = "insertSentence" ;
+    public static final String OP_INSERT_SENTENCES = "insertSentences" ;
+    public static final String OP_GET_SENTENCE = "getSentence" ;
+    public static final String OP_GET_FAVORITES = "getFavorites" ;
+    public static final String OP_GET_HISTORY = "getHistory" ;
+    public static final String OP_GET_HISTORY_PAGE = "getHistoryPage" ;
+    public static final String OP_GET_FAVORITES_PAGE = "getFavoritesPage" ;
+    public static final String OP_FETCH_HISTORY_PAGE = "fetchHistoryPage" ;
+    public static final String OP_FETCH_FAVORITES_PAGE = "fetchFavoritesPage" ;
+    public static final String OP_TOGGLE_FAVORITE = "toggleFavorite" ;
+    public static final String OP_DELETE = "delete" ;
+    public static final String OP_DELETE_BATCH = "deleteBatch" ;
+    public static final String OP_SEARCH = "search" ;
+    public static final String OP_TRIM_HISTORY = "trimHistory" ;
+    public static final String OP_COMPACT = "compact" ;
+    public static final String OP_GET_STATS = "getStats" ;
+    public static final String OP_SET_FAVORITES = "setFavorites" ;
+    public static final String OP_DELETE_SENTENCES = "deleteSentences" ;
+
+/// Static Methods /////////////////////////////////////////////////////////////
+
+    /**
+     * Converts a user's search terms into an FTS {@code MATCH} expression in
+     * which every word must appear, as a prefix of a word in the sentence.
+     * Punctuation and FTS operators are discarded, so that no input can cause
+     * a syntax error.
+     * @param sTerms the user's search terms
+     * @return a {@code MATCH} expression, or {@code null} if the terms contain
+     *  no words
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static String toMatchExpression( String sTerms )
+    {
+        if( sTerms == null ) return null ;
+        StringBuilder sb = new StringBuilder() ;
+        for( String sWord : sTerms.toLowerCase( Locale.getDefault() )
+                                  .split( "[^\\p{L}\\p{N}]+" ) )
+        {
+            if( sWord.isEmpty() ) continue ;
+            if( sb.length() > 0 ) sb.append( ' ' ) ;
+            sb.append( sWord ).append( '*' ) ;
+        }
+        return ( sb.length() > 0 ? sb.toString() : null ) ;
+    }
+
+    /**
+     * Hashes the text of a sentence for the text store, using the 64-bit
+     * FNV-1a function over its UTF-16 code units. The hash only narrows the
+     * search for a stored text; texts with equal hashes are still compared.
+     * @param sSentence the text of a sentence
+     * @return its hash
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static long hashSentence( String sSentence )
+    {
+        long nHash = 0xcbf29ce484222325L ;
+        for( int i = 0 ; i < sSentence.length() ; i++ )
+        {
+            nHash ^= sSentence.charAt(i) ;
+            nHash *= 0x100000001b3L ;
+        }
+        return nHash ;
+    }
+
+    /**
+     * Scores one match of a full-text search, as the sum over its phrases of
+     * the number of times each phrase appears in the sentence, weighted by how
+     * rare the phrase is across the whole history.
+     * @param abMatchInfo the result of {@code matchinfo(..., 'pcnx')}
+     * @return the relevance of the match; higher is better
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected static double scoreMatch( byte[] abMatchInfo )
+    {
+        if( abMatchInfo == null || abMatchInfo.length < 12 ) return 0.0d ;
+        final ByteBuffer buf = ByteBuffer.wrap( abMatchInfo )
+                .order( ByteOrder.nativeOrder() ) ;
+        final int nPhrases = buf.getInt() ;
+        final int nColumns = buf.getInt() ;
+        final double dRows = buf.getInt() ;
+        double dScore = 0.0d ;
+        for( int i = 0 ; i < nPhrases * nColumns ; i++ )
+        {
+            final int nHitsHere = buf.getInt() ;
+            buf.getInt() ;                              // hits across all rows
+            final int nRowsWithHits = buf.getInt() ;
+            if( nHitsHere > 0 )
+            {
+                dScore += nHitsHere
+                    * Math.log( 1.0d + dRows / Math.max( 1, nRowsWithHits ) ) ;
+            }
+        }
+        return dScore ;
+    }
+
+    /**
+     * Debug logging in this class is built only if this returns {@code true},
+     * so that release builds don't assemble log strings on every query. Enable
+     * it on a device with {@code adb shell setprop log.tag.PoppycockDatabase
+     * DEBUG}.
+     * @return whether debug messages should be logged
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected static boolean isDebugLogged()
+    { return Log.isLoggable( LOG_TAG, Log.DEBUG ) ; }
+
+/// Shared Instance ////////////////////////////////////////////////////////////
+
+    /**
+     * The one instance of the app's database which is shared by every
+     * component of the process, or {@code null} if no component holds it.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected static PoppycockDatabase s_dbhShared = null ;
+
+    /**
+     * The number of components which hold {@link #s_dbhShared}.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected static int s_nSharedHolders = 0 ;
+
+    /**
+     * Obtains the instance of the app's database which is shared by every
+     * component of the process, creating it if necessary. Components must
+     * share one instance, rather than each opening their own, so that one
+     * write lock serializes all of their writes, and so that every write
+     * invalidates the caches and reaches the change listeners of all of them.
+     * The instance is not opened here; the caller should open it, off the UI
+     * thread, before using it. Each call must be balanced by a call to
+     * {@link #release(PoppycockDatabase)}.
+     * @param ctx any context of the app
+     * @return the shared instance
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static synchronized PoppycockDatabase acquire( Context ctx )
+    {
+        if( s_dbhShared == null )
+            s_dbhShared = new PoppycockDatabase( ctx.getApplicationContext() ) ;
+        ++s_nSharedHolders ;
+        return s_dbhShared ;
+    }
+
+    /**
+     * Releases a hold on the shared instance of the app's database. When the
+     * last holder releases it, it is flushed and closed.
+     * @param dbh the instance returned by {@link #acquire(Context)}
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static synchronized void release( PoppycockDatabase dbh )
+    {
+        if( dbh == null || dbh != s_dbhShared ) return ;
+        if( --s_nSharedHolders > 0 ) return ;
+        s_dbhShared = null ;
+        s_nSharedHolders = 0 ;
+        dbh.closeDB().close() ;
+    }
+
+/// Instance Members ///////////////////////////////////////////////////////////
+
+    /**
+     * Latency histograms and row counts for each operation.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected final OperationMetrics m_metrics = new OperationMetrics() ;
+
+    /**
+     * Recently read sentences, so that {@link #getSentence(long)} can skip the
+     * database when the same sentence is asked for again. Every write which
+     * changes or removes a sentence also invalidates it here. New sentences
+     * always get new IDs, since the key is {@code AUTOINCREMENT}, so only an
+     * insert with an explicit ID needs to invalidate anything.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected final SentenceCache m_cache = new SentenceCache() ;
+
+    /**
+     * Complete walks of the historical record and of the Hall of Fame, from
+     * which either view can be paged again, in either order, until the next
+     * write.
+     * @see #fetchHistoryPage(boolean, SentencePage, int)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected final ResultCache m_results = new ResultCache() ;
+
+    /**
+     * The version of the data, advanced after every committed change, by which
+     * {@link #m_results} knows whether a result is still current.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected final AtomicLong m_nVersion = new AtomicLong(0L) ;
+
+    /**
+     * The listeners which are told about each committed change.
+     * @see #addChangeListener(ChangeListener)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected final CopyOnWriteArrayList<ChangeListener> m_aListeners =
+            new CopyOnWriteArrayList<>() ;
+
+    /**
+     * Serializes writers, and guards the write buffer and compiled insert
+     * statement. Readers never take this lock, except to flush the write
+     * buffer when it isn't empty.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected final Object m_oWriteLock = new Object() ;
+
+    /**
+     * The depth of the transactions begun by
+     * {@link #runInTransaction(Transaction)} which have not yet ended. Guarded
+     * by {@link #m_oWriteLock}.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected int m_nTransactionDepth = 0 ;
+
+    /**
+     * Changes made inside a transaction, which are published only once it is
+     * committed. Guarded by {@link #m_oWriteLock}.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected final ArrayList<HistoryChange> m_achgDeferred =
+            new ArrayList<>() ;
+
+    /**
+     * Indicates that a transaction nested inside the current one has failed,
+     * so that SQLite will roll back the outermost one as well. Guarded by
+     * {@link #m_oWriteLock}.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected boolean m_bTransactionFailed = false ;
+
+    /**
+     * Specifies whether write-ahead logging will be enabled when the database
+     * is opened.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected boolean m_bWriteAheadLogging = true ;
+
+    /**
+     * Sentences which have been accepted by {@link #bufferSentence} but not
+     * yet written to the database.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected final ArrayList<Sentence> m_aoWriteBuffer = new ArrayList<>() ;
+
+    /**
+     * Favorite statuses which have been accepted by {@link #bufferFavorite}
+     * but not yet written, keyed by item ID. A sentence which is toggled back
+     * before the buffer is flushed leaves this map again, so that it is never
+     * written at all.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected final LinkedHashMap<Long,Boolean> m_mapFavoriteBuffer =
+            new LinkedHashMap<>() ;
+
+    /**
+     * The number of writes waiting in {@link #m_aoWriteBuffer} and
+     * {@link #m_mapFavoriteBuffer}, published so that readers can see
+     * whether a flush is needed without taking {@link #m_oWriteLock}.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected volatile int m_nPendingWrites = 0 ;
+
+    /**
+     * The compiled insert statement, created when first needed, along with
+     * {@link #m_stmtFindText} and {@link #m_stmtInsertText}.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected SQLiteStatement m_stmtInsert = null ;
+
+    /**
+     * The compiled statement which finds a stored text.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected SQLiteStatement m_stmtFindText = null ;
+
+    /**
+     * The compiled statement which stores a new text.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected SQLiteStatement m_stmtInsertText = null ;
+
+    /**
+     * The compiled statement which sets the favorite status of a sentence.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected SQLiteStatement m_stmtSetFavorite = null ;
+
+    /**
+     * The number of non-favorite sentences kept by the retention policy, or
+     * zero to keep any number.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected volatile int m_nRetentionMaxRows = DEFAULT_RETENTION_MAX_ROWS ;
+
+    /**
+     * The age beyond which non-favorite sentences are trimmed by the retention
+     * policy, in milliseconds, or zero to keep them forever.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected volatile long m_nRetentionMaxAgeMs =
+            DEFAULT_RETENTION_MAX_AGE_MS ;
+
+    /**
+     * Indicates that the database was created or upgraded while it was being
+     * opened, and should be switched to incremental auto-vacuum, if it isn't
+     * already, before the open completes.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected boolean m_bVacuumModePending = false ;
+
+/// Constructor ////////////////////////////////////////////////////////////////
+
+    /**
+     * Constructor which sets the context and then defines parameters for
+     * Poppycock's database.
+     * @param ctx the context in which the database will exist
+     */
+    public PoppycockDatabase( Context ctx )
+    { this( ctx, DATABASE_NAME ) ; }
+
+    /**
+     * Constructor which allows the database filename to be overridden, so
+     * that tests may operate on a scratch database.
+     * @param ctx the context in which the database will exist
+     * @param sName the filename for the SQLite database
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public PoppycockDatabase( Context ctx, String sName )
+    { super( ctx, sName, null, SCHEMA_VERSION ) ; }
+
+/// android.database.sqlite.SQLiteOpenHelper ///////////////////////////////////
+
+    @Override
+    public void onCreate( SQLiteDatabase db )
+    {
+        // Takes effect only while the file holds no tables; if the platform
+        // has already added its own, then the open finishes the job.
+        db.execSQL( "PRAGMA auto_vacuum = " + AUTO_VACUUM_INCREMENTAL + " ;" ) ;
+        m_bVacuumModePending = true ;
+        db.execSQL( SENTENCE_TABLE_SQL ) ;
+        db.execSQL( SENTENCE_TEXT_TABLE_SQL ) ;
+        this.createDependentObjects( db ) ;
+    }
+
+    @Override
+    public void onUpgrade( SQLiteDatabase db, int nOld, int nNew )
+    {
+        Log.i( LOG_TAG, (new StringBuilder())
+                .append( "Upgrading schema from version [" ).append( nOld )
+                .append( "] to [" ).append( nNew ).append( "]." )
+                .toString()
+            );
+        if( nOld < 4 )
+        { // Versions 2 and 3 added indexes and a full-text index to the
+          // sentence table. Version 4 rebuilds that table around the text
+          // store, and builds all of those afresh, so they are built only once.
+            this.migrateToTextStore( db ) ;
+            db.execSQL( "ANALYZE ;" ) ;
+        }
+        m_bVacuumModePending = true ;
+    }
+
+    /**
+     * Creates the indexes, view, full-text index and triggers which depend on
+     * the sentence table and the text store.
+     * @param db the database
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected void createDependentObjects( SQLiteDatabase db )
+    {
+        db.execSQL( SENTENCE_TS_INDEX_SQL ) ;
+        db.execSQL( SENTENCE_FAVORITE_INDEX_SQL ) ;
+        db.execSQL( SENTENCE_TEXT_ID_INDEX_SQL ) ;
+        db.execSQL( SENTENCE_TEXT_HASH_INDEX_SQL ) ;
+        db.execSQL( SENTENCE_TEXT_RELEASE_TRIGGER_SQL ) ;
+        db.execSQL( SENTENCE_VIEW_SQL ) ;
+        db.execSQL( SENTENCE_FTS_TABLE_SQL ) ;
+        for( String sSQL : SENTENCE_FTS_TRIGGER_SQL ) db.execSQL( sSQL ) ;
+    }
+
+    /**
+     * Moves the text of every sentence in a database of schema version 1, 2
+     * or 3 into the text store, storing each distinct text once, and rebuilds
+     * the sentence table to refer to it.
+     * @param db the database
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected void migrateToTextStore( SQLiteDatabase db )
+    {
+        final String sLegacyTable = SENTENCE_TABLE_NAME + "_v3" ;
+        final String sMigrationIndex = SENTENCE_TEXT_TABLE_NAME + "_v3_idx" ;
+        // Set aside the old table, without the indexes and triggers whose
+        // names the new schema will reuse.
+        for( String sTrigger : LEGACY_FTS_TRIGGER_NAMES )
+            db.execSQL( "DROP TRIGGER IF EXISTS " + sTrigger + " ;" ) ;
+        db.execSQL( "DROP TABLE IF EXISTS " + SENTENCE_FTS_TABLE_NAME + " ;" ) ;
+        db.execSQL( "DROP INDEX IF EXISTS " + SENTENCE_TS_INDEX_NAME + " ;" ) ;
+        db.execSQL( "DROP INDEX IF EXISTS "
+                + SENTENCE_FAVORITE_INDEX_NAME + " ;" ) ;
+        db.execSQL( "ALTER TABLE " + SENTENCE_TABLE_NAME
+                + " RENAME TO " + sLegacyTable + " ;" ) ;
+
+        db.execSQL( SENTENCE_TEXT_TABLE_SQL ) ;
+        final SQLiteStatement stmt = db.compileStatement( INSERT_TEXT_SQL ) ;
+        Cursor crs = null ;
+        int nTexts = 0 ;
+        try
+        {
+            crs = db.rawQuery( "SELECT DISTINCT sentence FROM " + sLegacyTable
+                    + " WHERE sentence IS NOT NULL", null ) ;
+            while( crs.moveToNext() )
+            {
+                final String sSentence = crs.getString(0) ;
+                stmt.bindLong( 1, hashSentence( sSentence ) ) ;
+                stmt.bindString( 2, sSentence ) ;
+                stmt.executeInsert() ;
+                ++nTexts ;
+            }
+        }
+        finally
+        {
+            SQLitePortal.closeCursor(crs) ;
+            stmt.close() ;
+        }
+
+        // Join each old row to its text once, through a temporary index.
+        db.execSQL( "CREATE INDEX " + sMigrationIndex + " ON "
+                + SENTENCE_TEXT_TABLE_NAME + " ( sentence ) ;" ) ;
+        db.execSQL( SENTENCE_TABLE_SQL ) ;
+        db.execSQL( "INSERT INTO " + SENTENCE_TABLE_NAME
+                + " ( item_id, item_ts, text_id, favorite )"
+                + " SELECT s.item_id, s.item_ts, t.text_id, s.favorite"
+                + " FROM " + sLegacyTable + " AS s LEFT JOIN "
+                + SENTENCE_TEXT_TABLE_NAME + " AS t"
+                + " ON t.sentence = s.sentence ;" ) ;
+        db.execSQL( "DROP INDEX " + sMigrationIndex + " ;" ) ;
+        db.execSQL( "DROP TABLE " + sLegacyTable + " ;" ) ;
+
+        this.createDependentObjects( db ) ;
+        db.execSQL( "INSERT INTO " + SENTENCE_FTS_TABLE_NAME
+                + " ( docid, sentence ) SELECT text_id, sentence FROM "
+                + SENTENCE_TEXT_TABLE_NAME + " ;" ) ;
+        db.execSQL( "INSERT INTO " + SENTENCE_FTS_TABLE_NAME + " ( "
+                + SENTENCE_FTS_TABLE_NAME + " ) VALUES ( 'optimize' ) ;" ) ;
+        Log.i( LOG_TAG, (new StringBuilder())
+                .append( "Moved [" ).append( nTexts )
+                .append( "] distinct texts into the text store." )
+                .toString()
+            );
+    }
+
+/// net.zerobandwidth.android.lib.database.SQLitePortal (trivial) //////////////
+
+    /**
+     * Opens the database, switching it into write-ahead logging mode unless
+     * that has been disabled by {@link #setWriteAheadLogging(boolean)}. Does
+     * nothing if the database is already open, so that each component which
+     * shares an instance may open it.
+     * @return (fluid)
+     */
+    @Override
+    public PoppycockDatabase openDB()
+    {
+        synchronized( m_oWriteLock )
+        {
+            if( m_db != null && this.isConnected() ) return this ;
+            super.openDB() ;
+            if( m_db != null && m_bVacuumModePending )
+                this.enableIncrementalVacuum() ;
+            if( m_db != null && m_bWriteAheadLogging )
+            {
+                final boolean bEnabled = m_db.enableWriteAheadLogging() ;
+                if( isDebugLogged() )
+                {
+                    Log.d( LOG_TAG, (new StringBuilder())
+                            .append( "Write-ahead logging " )
+                            .append(( bEnabled ? "enabled." : "unavailable." ))
+                            .toString()
+                        );
+                }
+            }
+        }
+        return this ;
+    }
+
+    /**
+     * Switches the database to incremental auto-vacuum, so that
+     * {@link #compact(int)} can reclaim free pages a few at a time. A database
+     * which already holds tables must be rebuilt once with {@code VACUUM} to
+     * switch, so this is done only when the database has just been created,
+     * when it is nearly empty, or upgraded, when the upgrade has just rewritten
+     * it anyway; never by the periodic retention pass. The caller must hold
+     * {@link #m_oWriteLock}.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected void enableIncrementalVacuum()
+    {
+        m_bVacuumModePending = false ;
+        if( this.queryPragma( "auto_vacuum" ) == AUTO_VACUUM_INCREMENTAL )
+            return ;
+        final long tsStart = System.nanoTime() ;
+        try
+        {
+            m_db.execSQL( "PRAGMA auto_vacuum = "
+                    + AUTO_VACUUM_INCREMENTAL + " ;" ) ;
+            m_db.execSQL( "VACUUM ;" ) ;
+        }
+        catch( SQLiteException x )
+        { // The database still works; it just can't be compacted.
+            Log.w( LOG_TAG,
+                    "Could not switch to incremental auto-vacuum.", x ) ;
+            return ;
+        }
+        Log.i( LOG_TAG, (new StringBuilder())
+                .append( "Converted a database of [" )
+                .append( this.queryPragma( "page_count" ) )
+                .append( "] pages to incremental auto-vacuum in [" )
+                .append( ( System.nanoTime() - tsStart ) / 1000000L )
+                .append( "ms]." )
+                .toString()
+            );
+    }
+
+    /**
+     * Flushes any buffered writes, then closes the database.
+     * @return (fluid)
+     */
+    @Override
+    public PoppycockDatabase closeDB()
+    {
+        synchronized( m_oWriteLock )
+        {
+            if( m_db != null ) this.flushWrites() ;
+            if( m_stmtInsert != null )
+            {
+                m_stmtInsert.close() ;
+                m_stmtFindText.close() ;
+                m_stmtInsertText.close() ;
+                m_stmtSetFavorite.close() ;
+                m_stmtInsert = null ;
+                m_stmtFindText = null ;
+                m_stmtInsertText = null ;
+                m_stmtSetFavorite = null ;
+            }
+            super.closeDB() ;
+            m_cache.clear() ;
+            m_results.clear() ;
+        }
+        return this ;
+    }
+
+    /**
+     * Specifies whether write-ahead logging should be enabled when the
+     * database is next opened. It is enabled by default; tests may disable it
+     * to compare against the rollback journal.
+     * @param b whether to enable write-ahead logging
+     * @return (fluid)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public PoppycockDatabase setWriteAheadLogging( boolean b )
+    { m_bWriteAheadLogging = b ; return this ; }
+
+    /**
+     * Sets the retention policy enforced by {@link #trimHistory(int)}. There
+     * is no policy by default. Favorites are never trimmed.
+     * @param nMaxRows the number of non-favorite sentences to keep, or zero to
+     *                 keep any number
+     * @param nMaxAgeMs the age beyond which non-favorite sentences are
+     *                  trimmed, in milliseconds, or zero to keep them forever
+     * @return (fluid)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public PoppycockDatabase setRetentionPolicy( int nMaxRows, long nMaxAgeMs )
+    {
+        m_nRetentionMaxRows = Math.max( 0, nMaxRows ) ;
+        m_nRetentionMaxAgeMs = Math.max( 0L, nMaxAgeMs ) ;
+        return this ;
+    }
+
+    /**
+     * @return the number of non-favorite sentences kept by the retention
+     *  policy, or zero if there is no limit
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public int getRetentionMaxRows()
+    { return m_nRetentionMaxRows ; }
+
+    /**
+     * @return the age beyond which non-favorite sentences are trimmed, in
+     *  milliseconds, or zero if there is no limit
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public long getRetentionMaxAgeMs()
+    { return m_nRetentionMaxAgeMs ; }
+
+    /**
+     * @return {@code true} if a retention policy has been set which limits
+     *  either the number or the age of non-favorite sentences
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public boolean hasRetentionPolicy()
+    { return ( m_nRetentionMaxRows > 0 || m_nRetentionMaxAgeMs > 0L ) ; }
+
+    /**
+     * Accessor for the latency and row count metrics of this instance's
+     * operations, keyed by the {@code OP_*} names defined by this class.
+     * @return the metrics recorder
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public OperationMetrics getMetrics()
+    { return m_metrics ; }
+
+    /**
+     * Sets the memory budget of the cache used by {@link #getSentence(long)},
+     * evicting sentences if it is now over budget.
+     * @param nBytes the budget, in bytes; zero disables the cache
+     * @return (fluid)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public PoppycockDatabase setSentenceCacheBudget( int nBytes )
+    { m_cache.setBudget( nBytes ) ; return this ; }
+
+    /**
+     * Accessor for the cache used by {@link #getSentence(long)}, whose hit and
+     * miss counters show how well it is working.
+     * @return the cache
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public SentenceCache getSentenceCache()
+    { return m_cache ; }
+
+    /**
+     * Accessor for the cache of complete paged results.
+     * @return the result cache
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public ResultCache getResultCache()
+    { return m_results ; }
+
+/// Write Buffer ///////////////////////////////////////////////////////////////
+
+    /**
+     * Accepts nonsense for the historical record without writing it yet.
+     * Buffered sentences are written together, in a single transaction, by the
+     * next call to {@link #flushWrites()}, which also happens implicitly before
+     * any other read or write. The caller is responsible for flushing once
+     * this method returns {@code true}, or once
+     * {@link #WRITE_BUFFER_MAX_DELAY_MS} has elapsed.
+     * @param o the nonsense to be hoarded; its ID is assigned when flushed
+     * @return {@code true} if the buffer has reached
+     *  {@link #WRITE_BUFFER_MAX_ROWS} and should be flushed now
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public boolean bufferSentence( Sentence o )
+    {
+        synchronized( m_oWriteLock )
+        {
+            if( o != null ) m_aoWriteBuffer.add( o ) ;
+            return this.countPendingWrites() ;
+        }
+    }
+
+    /**
+     * Accepts a new favorite status for a sentence without writing it yet.
+     * Buffered statuses are coalesced by sentence: if the same sentence is
+     * toggled again before the buffer is flushed, then the two toggles cancel
+     * out, and nothing is written for it. The rest are written together, in
+     * the same transaction as any buffered sentences, by the next call to
+     * {@link #flushWrites()}.
+     * @param nID the ID of the sentence
+     * @param bFavorite the sentence's new status, which should be the
+     *                  opposite of its current status
+     * @return {@code true} if the buffer has reached
+     *  {@link #WRITE_BUFFER_MAX_ROWS} and should be flushed now
+     * @see #bufferSentence(Sentence)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public boolean bufferFavorite( long nID, boolean bFavorite )
+    {
+        synchronized( m_oWriteLock )
+        {
+            m_cache.remove( nID ) ;
+            final Boolean bPending = m_mapFavoriteBuffer.get( nID ) ;
+            if( bPending == null ) m_mapFavoriteBuffer.put( nID, bFavorite ) ;
+            else if( bPending != bFavorite )
+                m_mapFavoriteBuffer.remove( nID ) ;    // toggled back again
+            return this.countPendingWrites() ;
+        }
+    }
+
+    /**
+     * Republishes the number of buffered writes. The caller must hold
+     * {@link #m_oWriteLock}.
+     * @return {@code true} if the buffer should be flushed now
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected boolean countPendingWrites()
+    {
+        m_nPendingWrites = m_aoWriteBuffer.size() + m_mapFavoriteBuffer.size() ;
+        return ( m_nPendingWrites >= WRITE_BUFFER_MAX_ROWS ) ;
+    }
+
+    /**
+     * @return the number of sentences and favorite statuses waiting in the
+     *  write buffer
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public int getPendingWriteCount()
+    { return m_nPendingWrites ; }
+
+    /**
+     * Writes all buffered sentences and favorite statuses in a single
+     * transaction through compiled statements, assigning each new sentence
+     * its ID. If the transaction fails, then nothing in the buffer is written,
+     * and listeners are told of a {@link HistoryChange#DISCARDED} change for
+     * the sentences whose favorite status was never written.
+     * @return the number of sentences written, and of sentences whose
+     *  favorite status changed
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public int flushWrites()
+    {
+        final long tsStart = System.nanoTime() ;
+        final int nCount ;
+        final long[] anIDs ;
+        long[] anToggled = null ;
+        int nToggled = 0 ;
+        RuntimeException xFailed = null ;
+        synchronized( m_oWriteLock )
+        {
+            if( m_db == null || ( m_aoWriteBuffer.isEmpty()
+                    && m_mapFavoriteBuffer.isEmpty() ) )
+            { return 0 ; }
+            nCount = m_aoWriteBuffer.size() ;
+            anIDs = new long[nCount] ;
+            m_db.beginTransactionNonExclusive() ;
+            try
+            {
+                for( int i = 0 ; i < nCount ; i++ )
+                {
+                    final Sentence o = m_aoWriteBuffer.get(i) ;
+                    o.nItemID = this.writeSentence( o ) ;
+                    anIDs[i] = o.nItemID ;
+                }
+                if( ! m_mapFavoriteBuffer.isEmpty() )
+                {
+                    anToggled = new long[m_mapFavoriteBuffer.size()] ;
+                    for( Map.Entry<Long,Boolean> ent :
+                            m_mapFavoriteBuffer.entrySet() )
+                    {
+                        if( this.writeFavorite( ent.getKey(), ent.getValue() ) )
+                            anToggled[nToggled++] = ent.getKey() ;
+                    }
+                }
+                m_db.setTransactionSuccessful() ;
+            }
+            catch( RuntimeException x )
+            { // Nothing was committed, so none of the IDs are real.
+                for( Sentence o : m_aoWriteBuffer )
+                    o.nItemID = Sentence.NOT_IDENTIFIED ;
+                anToggled = new long[m_mapFavoriteBuffer.size()] ;
+                nToggled = 0 ;
+                for( Long nID : m_mapFavoriteBuffer.keySet() )
+                    anToggled[nToggled++] = nID ;
+                xFailed = x ;
+            }
+            finally
+            {
+                m_db.endTransaction() ;
+                m_aoWriteBuffer.clear() ;
+                m_mapFavoriteBuffer.clear() ;
+                m_nPendingWrites = 0 ;
+            }
+        }
+        if( xFailed != null )
+        { // Nothing changed, so the version stands; only the toggles are news.
+            if( nToggled > 0 )
+            {
+                final HistoryChange chg = new HistoryChange(
+                        HistoryChange.DISCARDED, anToggled ) ;
+                for( ChangeListener l : m_aListeners )
+                    l.onHistoryChanged( chg ) ;
+            }
+            throw xFailed ;
+        }
+        m_metrics.record( OP_FLUSH_WRITES, tsStart, nCount + nToggled ) ;
+        if( nCount > 0 )
+        {
+            this.fireChange(
+                    new HistoryChange( HistoryChange.INSERTED, anIDs ) ) ;
+        }
+        if( nToggled > 0 )
+        {
+            this.fireChange( new HistoryChange( HistoryChange.UPDATED,
+                    Arrays.copyOf( anToggled, nToggled ) ) ) ;
+        }
+        if( isDebugLogged() )
+        {
+            Log.d( LOG_TAG, (new StringBuilder())
+                    .append( "Flushed [" ).append( nCount )
+                    .append(( nCount == 1 ? "] sentence " : "] sentences " ))
+                    .append( "and [" ).append( nToggled )
+                    .append( "] favorite changes to the Historical Record." )
+                    .toString()
+                );
+        }
+        return nCount + nToggled ;
+    }
+
+    /**
+     * Compiles the statements used to write sentences, if that hasn't been
+     * done since the database was opened. The caller must hold
+     * {@link #m_oWriteLock}.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected void compileStatements()
+    {
+        if( m_stmtInsert != null ) return ;
+        m_stmtFindText = m_db.compileStatement( FIND_TEXT_SQL ) ;
+        m_stmtInsertText = m_db.compileStatement( INSERT_TEXT_SQL ) ;
+        m_stmtInsert = m_db.compileStatement( INSERT_SENTENCE_SQL ) ;
+        m_stmtSetFavorite = m_db.compileStatement( SET_FAVORITE_SQL ) ;
+    }
+
+    /**
+     * Writes one sentence through the compiled statements, storing its text
+     * if that text is not already stored. The caller must hold
+     * {@link #m_oWriteLock}, and should have begun a transaction.
+     * @param o the sentence to be written
+     * @return the ID assigned to the sentence
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected long writeSentence( Sentence o )
+    {
+        this.compileStatements() ;
+        m_stmtInsert.bindLong( 1, o.nItemTS ) ;
+        if( o.sSentence == null ) m_stmtInsert.bindNull( 2 ) ;
+        else m_stmtInsert.bindLong( 2, this.storeText( o.sSentence ) ) ;
+        m_stmtInsert.bindLong( 3, boolToInt( o.bIsFavorite ) ) ;
+        return m_stmtInsert.executeInsert() ;
+    }
+
+    /**
+     * Sets the favorite status of one sentence through the compiled statement,
+     * and invalidates its cached copy. The caller must hold
+     * {@link #m_oWriteLock}, and should have begun a transaction.
+     * @param nID the ID of the sentence
+     * @param bFavorite the sentence's new status
+     * @return {@code true} if the status changed
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected boolean writeFavorite( long nID, boolean bFavorite )
+    {
+        this.compileStatements() ;
+        m_stmtSetFavorite.bindLong( 1, boolToInt( bFavorite ) ) ;
+        m_stmtSetFavorite.bindLong( 2, nID ) ;
+        m_stmtSetFavorite.bindLong( 3, boolToInt( bFavorite ) ) ;
+        final boolean bChanged =
+                ( m_stmtSetFavorite.executeUpdateDelete() > 0 ) ;
+        if( bChanged ) m_cache.remove( nID ) ;
+        return bChanged ;
+    }
+
+    /**
+     * Finds the ID of a stored text, storing it first if necessary. The caller
+     * must hold {@link #m_oWriteLock}.
+     * @param sSentence the text
+     * @return the ID of the text in the text store
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected long storeText( String sSentence )
+    {
+        this.compileStatements() ;
+        final long nHash = hashSentence( sSentence ) ;
+        m_stmtFindText.bindLong( 1, nHash ) ;
+        m_stmtFindText.bindString( 2, sSentence ) ;
+        try { return m_stmtFindText.simpleQueryForLong() ; }
+        catch( SQLiteDoneException xNotFound )
+        {
+            m_stmtInsertText.bindLong( 1, nHash ) ;
+            m_stmtInsertText.bindString( 2, sSentence ) ;
+            return m_stmtInsertText.executeInsert() ;
+        }
+    }
+
+    /**
+     * Flushes the write buffer before a read, so that readers see everything
+     * that has been accepted. Takes the write lock only if something is
+     * actually waiting to be written.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected void flushBeforeRead()
+    { if( m_nPendingWrites > 0 ) this.flushWrites() ; }
+
+/// Data Marshalling Functions /////////////////////////////////////////////////
+
+    /**
+     * Writes nonsense to the historical record, updating its ID along the way.
+     * A sentence which already has an ID keeps it; if that ID is taken, then
+     * nothing is written, and the sentence's ID is reset to
+     * {@link Sentence#NOT_IDENTIFIED}.
+     * @param o the nonsense to be hoarded
+     * @return the same nonsense, lightly massaged
+     */
+    public Sentence insertSentence( Sentence o )
+    {
+        if( m_db == null || o == null ) return null ;
+        final long tsStart = System.nanoTime() ;
+        synchronized( m_oWriteLock )
+        {
+            if( o.nItemID == Sentence.NOT_IDENTIFIED )
+            { // Goes through the compiled statement, with anything pending.
+                m_aoWriteBuffer.add( o ) ;
+                this.flushWrites() ;
+            }
+            else
+            { // Keeps the ID it was given, so the text is stored explicitly.
+                this.flushWrites() ;
+                m_cache.remove( o.nItemID ) ;
+                long nRowID = -1L ;
+                m_db.beginTransactionNonExclusive() ;
+                try
+                {
+                    final ContentValues vals = new ContentValues() ;
+                    vals.put( "item_id", o.nItemID ) ;
+                    vals.put( "item_ts", o.nItemTS ) ;
+                    if( o.sSentence == null ) vals.putNull( "text_id" ) ;
+                    else vals.put( "text_id", this.storeText( o.sSentence ) ) ;
+                    vals.put( "favorite", boolToInt( o.bIsFavorite ) ) ;
+                    nRowID = m_db.insert( SENTENCE_TABLE_NAME, null, vals ) ;
+                    if( nRowID != -1L )   // else the text rolls back with it
+                        m_db.setTransactionSuccessful() ;
+                }
+                finally
+                { m_db.endTransaction() ; }
+                if( nRowID == -1L )
+                {
+                    Log.w( LOG_TAG, (new StringBuilder())
+                            .append( "Could not insert sentence with ID [" )
+                            .append( o.nItemID ).append( "]." )
+                            .toString()
+                        );
+                    o.nItemID = Sentence.NOT_IDENTIFIED ;
+                    return o ;
+                }
+                this.fireChange( new HistoryChange( HistoryChange.INSERTED,
+                        new long[] { o.nItemID } ) ) ;
+            }
+        }
+        m_metrics.record( OP_INSERT_SENTENCE, tsStart, 1 ) ;
+        if( isDebugLogged() )
+        {
+            Log.d( LOG_TAG, (new StringBuilder())
+                    .append( "Inserted sentence: " )
+                    .append( o.sSentence )
+                    .append(( o.bIsFavorite ? " ***" : "" ))
+                    .toString()
+                );
+        }
+        return o ;
+    }
+
+    /**
+     * Reads a specific bit of nonsense from the historical record. Recently
+     * read sentences are served from a cache; the caller receives its own
+     * copy either way, and may modify it freely.
+     * @param nID the ID of the nonsense
+     * @return the nonsense itself
+     * @see #setSentenceCacheBudget(int)
+     */
+    public Sentence getSentence( long nID )
+    {
+        if( m_db == null || nID < 0 ) return null ;
+        final long tsStart = System.nanoTime() ;
+        Sentence o = m_cache.get( nID ) ;
+        if( o != null )
+        { // Buffered sentences only add new IDs, and buffered favorites
+          // were evicted when they were accepted, so no flush is needed.
+            m_metrics.record( OP_GET_SENTENCE, tsStart, 1 ) ;
+            return o ;
+        }
+        this.flushBeforeRead() ;
+        final long nGeneration = m_cache.getGeneration() ;
+        Cursor crs = m_db.query( SENTENCE_VIEW_NAME,
+                SentenceRowMapper.PROJECTION, "item_id=?",
+                new String[] { Long.toString(nID) }, null, null, null, "1" ) ;
+        o = ( crs.moveToFirst() ?
+                (new SentenceRowMapper(crs)).map(crs) : null ) ;
+        crs.close() ;
+        if( o != null ) m_cache.put( o, nGeneration ) ;
+        m_metrics.record( OP_GET_SENTENCE, tsStart, ( o != null ? 1 : 0 ) ) ;
+        return o ;
+    }
+
+    public ArrayList<Sentence> getFavorites( boolean bOldestFirst )
+    {
+        if( m_db == null ) return null ;
+        final long tsStart = System.nanoTime() ;
+        this.flushBeforeRead() ;
+        ArrayList<Sentence> ao = null ;
+        Cursor crs = null ;
+        try
+        {
+            crs = m_db.query( SENTENCE_VIEW_NAME,
+                    SentenceRowMapper.PROJECTION, "favorite=?",
+                    new String[] { Integer.toString(boolToInt(true)) },
+                    null, null,
+                    ( bOldestFirst ? "item_ts ASC" : "item_ts DESC" ), null ) ;
+            final int nCount = crs.getCount() ;
+            if( isDebugLogged() )
+            {
+                Log.d( LOG_TAG, (new StringBuilder())
+                        .append( "Retrieved [" )
+                        .append( nCount )
+                        .append(( nCount == 1 ? "] item " : "] items " ))
+                        .append( "from the Nonsense Hall of Fame." )
+                        .toString()
+                    );
+            }
+            ao = (new SentenceRowMapper(crs)).mapAll(crs) ;
+        }
+        finally
+        { SQLitePortal.closeCursor(crs) ; }
+
+        m_metrics.record( OP_GET_FAVORITES, tsStart, ao.size() ) ;
+        return ao ;
+    }
+
+    /**
+     * Reads all the nonsense from the historical record.
+     * @param bOldestFirst specifies whether to sort oldest-first ({@code true})
+     *                     or newest-first ({@code false})
+     * @return all the nonsense
+     * @since zerobandwidth-net/android-poppycock 1.0.1 (#3)
+     */
+    public ArrayList<Sentence> getHistory( boolean bOldestFirst )
+    {
+        if( m_db == null ) return null ;
+        final long tsStart = System.nanoTime() ;
+        this.flushBeforeRead() ;
+        ArrayList<Sentence> ao = null ;
+        Cursor crs = null ;
+        try
+        {
+            crs = m_db.query( SENTENCE_VIEW_NAME,
+                    SentenceRowMapper.PROJECTION, null, null, null, null,
+                    ( bOldestFirst ? "item_ts ASC" : "item_ts DESC" ), null ) ;
+            final int nCount = crs.getCount() ;
+            if( isDebugLogged() )
+            {
+                Log.d( LOG_TAG, (new StringBuilder())
+                        .append( "Retrieved [" )
+                        .append( nCount )
+                        .append(( nCount == 1 ? "] item " : "] items " ))
+                        .append( "from the Historical Record." )
+                        .toString()
+                    );
+            }
+            ao = (new SentenceRowMapper(crs)).mapAll(crs) ;
+        }
+        finally
+        { SQLitePortal.closeCursor(crs) ; }
+
+        m_metrics.record( OP_GET_HISTORY, tsStart, ao.size() ) ;
+        return ao ;
+    }
+
+    /**
+     * Reads one page of nonsense from the historical record.
+     * Pages are keyed on the {@code (item_ts, item_id)} of the last sentence
+     * in the previous page, rather than on an offset, so that fetching a page
+     * deep in the history costs no more than fetching the first one.
+     * @param bOldestFirst specifies whether to sort oldest-first ({@code true})
+     *                     or newest-first ({@code false})
+     * @param oAfter the last sentence of the previous page, or {@code null} to
+     *               fetch the first page
+     * @param nLimit the maximum number of sentences to fetch
+     * @return a page of nonsense, which will be shorter than {@code nLimit}
+     *  only if the end of the record has been reached
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public ArrayList<Sentence> getHistoryPage(
+            boolean bOldestFirst, Sentence oAfter, int nLimit )
+    {
+        final long tsStart = System.nanoTime() ;
+        final ArrayList<Sentence> ao =
+                this.getPage( null, null, bOldestFirst, oAfter, nLimit ) ;
+        if( ao != null )
+            m_metrics.record( OP_GET_HISTORY_PAGE, tsStart, ao.size() ) ;
+        return ao ;
+    }
+
+    /**
+     * Reads one page of nonsense from the Nonsense Hall of Fame.
+     * @param bOldestFirst specifies whether to sort oldest-first ({@code true})
+     *                     or newest-first ({@code false})
+     * @param oAfter the last sentence of the previous page, or {@code null} to
+     *               fetch the first page
+     * @param nLimit the maximum number of sentences to fetch
+     * @return a page of favorite nonsense
+     * @see #getHistoryPage(boolean, Sentence, int)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public ArrayList<Sentence> getFavoritesPage(
+            boolean bOldestFirst, Sentence oAfter, int nLimit )
+    {
+        final long tsStart = System.nanoTime() ;
+        final ArrayList<Sentence> ao = this.getPage( "favorite=?",
+                new String[] { Integer.toString(boolToInt(true)) },
+                bOldestFirst, oAfter, nLimit ) ;
+        if( ao != null )
+            m_metrics.record( OP_GET_FAVORITES_PAGE, tsStart, ao.size() ) ;
+        return ao ;
+    }
+
+    /**
+     * Opens one page of nonsense from the historical record as a cursor-backed
+     * {@link SentencePage}, whose rows are bound straight from the cursor
+     * rather than being marshalled into {@link Sentence} objects.
+     * @param bOldestFirst specifies whether to sort oldest-first ({@code true})
+     *                     or newest-first ({@code false})
+     * @param pgPrevious the previous page, or {@code null} to fetch the first
+     * @param nLimit the maximum number of sentences to fetch
+     * @return a page of nonsense, which the caller must close
+     * @see #getHistoryPage(boolean, Sentence, int)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public SentencePage fetchHistoryPage( boolean bOldestFirst,
+            SentencePage pgPrevious, int nLimit )
+    {
+        final long tsStart = System.nanoTime() ;
+        final SentencePage pg =
+            this.fetchPage( false, bOldestFirst, pgPrevious, nLimit ) ;
+        if( pg != null )
+            m_metrics.record( OP_FETCH_HISTORY_PAGE, tsStart, pg.size() ) ;
+        return pg ;
+    }
+
+    /**
+     * Opens one page of nonsense from the Nonsense Hall of Fame as a
+     * cursor-backed {@link SentencePage}.
+     * @param bOldestFirst specifies whether to sort oldest-first ({@code true})
+     *                     or newest-first ({@code false})
+     * @param pgPrevious the previous page, or {@code null} to fetch the first
+     * @param nLimit the maximum number of sentences to fetch
+     * @return a page of favorite nonsense, which the caller must close
+     * @see #fetchHistoryPage(boolean, SentencePage, int)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public SentencePage fetchFavoritesPage( boolean bOldestFirst,
+            SentencePage pgPrevious, int nLimit )
+    {
+        final long tsStart = System.nanoTime() ;
+        final SentencePage pg =
+            this.fetchPage( true, bOldestFirst, pgPrevious, nLimit ) ;
+        if( pg != null )
+            m_metrics.record( OP_FETCH_FAVORITES_PAGE, tsStart, pg.size() ) ;
+        return pg ;
+    }
+
+    /**
+     * Opens a keyset-paginated page of the historical record or of the Hall of
+     * Fame as a {@link SentencePage}. The page is served from the result cache
+     * if a complete walk of the same data has already been read, in either
+     * order; otherwise it is read from the database, and recorded in the cache
+     * if it continues a walk which might still fit there.
+     * @param bFavorites whether to read only favorites
+     * @param bOldestFirst specifies the sort order
+     * @param pgPrevious the previous page, if any
+     * @param nLimit the maximum number of sentences to fetch
+     * @return a page of nonsense
+     * @see ResultCache
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected SentencePage fetchPage( boolean bFavorites, boolean bOldestFirst,
+            SentencePage pgPrevious, int nLimit )
+    {
+        if( m_db == null ) return null ;
+        this.flushBeforeRead() ;
+        final long nVersion = m_nVersion.get() ;     // before reading anything
+        final boolean bHasKey = ( pgPrevious != null && pgPrevious.size() > 0 ) ;
+        final long nAfterTS = ( bHasKey ? pgPrevious.getLastItemTS() : 0L ) ;
+        final long nAfterID = ( bHasKey ? pgPrevious.getLastItemID() : 0L ) ;
+        final ArrayList<Sentence> aoCached = m_results.find( bFavorites,
+                bOldestFirst, bHasKey, nAfterTS, nAfterID, nLimit, nVersion ) ;
+        if( aoCached != null )
+        {
+            final MatrixCursor crs = new MatrixCursor(
+                    SentenceRowMapper.PROJECTION, aoCached.size() ) ;
+            for( Sentence o : aoCached )
+            {
+                crs.addRow( new Object[]
+                    {
+                        o.nItemID, o.nItemTS, o.sSentence,
+                        boolToInt( o.bIsFavorite )
+                    });
+            }
+            return new SentencePage( crs ) ;
+        }
+
+        final SentencePage pg = new SentencePage( this.queryPage(
+                SentenceRowMapper.PROJECTION,
+                ( bFavorites ? "favorite=?" : null ),
+                ( bFavorites ?
+                    new String[] { Integer.toString(boolToInt(true)) } : null ),
+                bOldestFirst, bHasKey, nAfterTS, nAfterID, nLimit )) ;
+        if( m_results.wants( bFavorites, bOldestFirst, bHasKey,
+                nAfterTS, nAfterID, nVersion ) )
+        {
+            final ArrayList<Sentence> ao = new ArrayList<>( pg.size() ) ;
+            for( int i = 0 ; i < pg.size() ; i++ ) ao.add( pg.toSentence(i) ) ;
+            m_results.record( bFavorites, bOldestFirst, bHasKey,
+                    nAfterTS, nAfterID, nVersion, ao, nLimit ) ;
+        }
+        return pg ;
+    }
+
+    /**
+     * Executes a keyset-paginated query and materializes its results.
+     * @param sFilter an additional {@code WHERE} clause, or {@code null}
+     * @param asFilterArgs arguments for {@code sFilter}, or {@code null}
+     * @param bOldestFirst specifies the sort order
+     * @param oAfter the last sentence of the previous page, if any
+     * @param nLimit the maximum number of sentences to fetch
+     * @return a page of nonsense
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected ArrayList<Sentence> getPage( String sFilter,
+            String[] asFilterArgs, boolean bOldestFirst, Sentence oAfter,
+            int nLimit )
+    {
+        if( m_db == null ) return null ;
+        this.flushBeforeRead() ;
+        ArrayList<Sentence> ao = null ;
+        Cursor crs = null ;
+        try
+        {
+            crs = this.queryPage( SentenceRowMapper.PROJECTION,
+                    sFilter, asFilterArgs, bOldestFirst,
+                    ( oAfter != null ),
+                    ( oAfter != null ? oAfter.nItemTS : 0L ),
+                    ( oAfter != null ? oAfter.nItemID : 0L ),
+                    nLimit ) ;
+            ao = (new SentenceRowMapper(crs)).mapAll(crs) ;
+        }
+        finally
+        { SQLitePortal.closeCursor(crs) ; }
+
+        return ao ;
+    }
+
+    /**
+     * Opens a cursor over one page of the sentence table.
+     * @param asProjection the columns to read, from among those of
+     *  {@link SentenceRowMapper#PROJECTION}
+     * @param sFilter an additional {@code WHERE} clause, or {@code null}
+     * @param asFilterArgs arguments for {@code sFilter}, or {@code null}
+     * @param bOldestFirst specifies the sort order
+     * @param bHasKey indicates whether the page follows a previous page
+     * @param nAfterTS the timestamp of the last row of the previous page
+     * @param nAfterID the ID of the last row of the previous page
+     * @param nLimit the maximum number of sentences to fetch
+     * @return a cursor over the page
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected Cursor queryPage( String[] asProjection, String sFilter,
+            String[] asFilterArgs, boolean bOldestFirst, boolean bHasKey,
+            long nAfterTS, long nAfterID, int nLimit )
+    {
+        ArrayList<String> asArgs = new ArrayList<>() ;
+        StringBuilder sbWhere = new StringBuilder() ;
+        if( sFilter != null )
+        {
+            sbWhere.append( "( " ).append( sFilter ).append( " )" ) ;
+            if( asFilterArgs != null )
+                Collections.addAll( asArgs, asFilterArgs ) ;
+        }
+        if( bHasKey )
+        {
+            if( sbWhere.length() > 0 ) sbWhere.append( " AND " ) ;
+            sbWhere.append(( bOldestFirst ?
+                    KEYSET_AFTER_ASC : KEYSET_AFTER_DESC )) ;
+            final String sTS = Long.toString( nAfterTS ) ;
+            asArgs.add( sTS ) ;
+            asArgs.add( sTS ) ;
+            asArgs.add( Long.toString( nAfterID ) ) ;
+        }
+
+        return m_db.query( SENTENCE_VIEW_NAME, asProjection,
+                ( sbWhere.length() > 0 ? sbWhere.toString() : null ),
+                ( asArgs.isEmpty() ? null :
+                        asArgs.toArray( new String[asArgs.size()] ) ),
+                null, null,
+                ( bOldestFirst ? PAGE_ORDER_ASC : PAGE_ORDER_DESC ),
+                Integer.toString( nLimit ) ) ;
+    }
+
+    /**
+     * Opens a cursor over one keyset-paginated page of the sentence view,
+     * reading only the specified columns, and filtered by an arbitrary
+     * {@code WHERE} clause over the columns of the view. This serves callers,
+     * such as the app's content provider, which page through the record
+     * without marshalling it; the result cache is neither consulted nor
+     * filled.
+     * @param asProjection the columns to read, from among those of
+     *  {@link SentenceRowMapper#PROJECTION}
+     * @param sFilter a {@code WHERE} clause, or {@code null}
+     * @param asFilterArgs arguments for {@code sFilter}, or {@code null}
+     * @param bOldestFirst specifies the sort order
+     * @param bHasKey indicates whether the page follows a previous page
+     * @param nAfterTS the timestamp of the last row of the previous page
+     * @param nAfterID the ID of the last row of the previous page
+     * @param nLimit the maximum number of sentences to fetch
+     * @return a cursor over the page, which the caller must close
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public Cursor queryHistory( String[] asProjection, String sFilter,
+            String[] asFilterArgs, boolean bOldestFirst, boolean bHasKey,
+            long nAfterTS, long nAfterID, int nLimit )
+    {
+        if( m_db == null ) return null ;
+        this.flushBeforeRead() ;
+        return this.queryPage( asProjection, sFilter, asFilterArgs,
+                bOldestFirst, bHasKey, nAfterTS, nAfterID, nLimit ) ;
+    }
+
+    /**
+     * Searches the historical record, or the Nonsense Hall of Fame, for
+     * sentences containing every word in the search terms, and opens one page
+     * of the results, ranked from most to least relevant.
+     * @param sTerms the user's search terms
+     * @param bFavorites whether to search only favorites
+     * @param nOffset the number of ranked results to skip
+     * @param nLimit the maximum number of results to fetch
+     * @return a page of matching nonsense, which the caller must close
+     * @see #toMatchExpression(String)
+     * @see #SEARCH_MAX_CANDIDATES
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public SentencePage search( String sTerms, boolean bFavorites,
+                                int nOffset, int nLimit )
+    {
+        if( m_db == null ) return null ;
+        final long tsStart = System.nanoTime() ;
+        this.flushBeforeRead() ;
+        final MatrixCursor crsPage =
+                new MatrixCursor( SentenceRowMapper.PROJECTION, nLimit ) ;
+        final String sMatch = toMatchExpression( sTerms ) ;
+        if( sMatch != null )
+        {
+            final long[] anRanked = this.rankMatches( sMatch, bFavorites ) ;
+            final int nEnd = Math.min( anRanked.length, nOffset + nLimit ) ;
+            if( nOffset < nEnd )
+                this.fillSearchPage( crsPage, anRanked, nOffset, nEnd ) ;
+        }
+        final SentencePage pg = new SentencePage( crsPage ) ;
+        m_metrics.record( OP_SEARCH, tsStart, pg.size() ) ;
+        return pg ;
+    }
+
+    /**
+     * Finds the most recent {@link #SEARCH_MAX_CANDIDATES} matches for a
+     * full-text query, and ranks them by relevance. Ties are broken in favor
+     * of the more recent sentence.
+     * @param sMatch an FTS {@code MATCH} expression
+     * @param bFavorites whether to consider only favorites
+     * @return the IDs of the matching sentences, most relevant first
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected long[] rankMatches( String sMatch, boolean bFavorites )
+    {
+        final ArrayList<Long> anIDs = new ArrayList<>() ;
+        final HashMap<Long,Double> mapScores = new HashMap<>() ;
+        Cursor crs = null ;
+        try
+        {
+            crs = m_db.rawQuery( (new StringBuilder())
+                    .append( "SELECT s.item_id, matchinfo( " )
+                    .append( SENTENCE_FTS_TABLE_NAME ).append( ", 'pcnx' ) " )
+                    .append( "FROM " ).append( SENTENCE_FTS_TABLE_NAME )
+                    .append( " JOIN " ).append( SENTENCE_TABLE_NAME )
+                    .append( " AS s ON s.text_id = " )
+                    .append( SENTENCE_FTS_TABLE_NAME ).append( ".docid" )
+                    .append( " WHERE " ).append( SENTENCE_FTS_TABLE_NAME )
+                    .append( " MATCH ?" )
+                    .append(( bFavorites ? " AND s.favorite=1" : "" ))
+                    .append( " ORDER BY s.item_id DESC LIMIT " )
+                    .append( SEARCH_MAX_CANDIDATES )
+                    .toString(),
+                new String[] { sMatch } ) ;
+            while( crs.moveToNext() )
+            {
+                final long nID = crs.getLong(0) ;
+                anIDs.add( nID ) ;
+                mapScores.put( nID, scoreMatch( crs.getBlob(1) ) ) ;
+            }
+        }
+        finally
+        { SQLitePortal.closeCursor(crs) ; }
+
+        Collections.sort( anIDs, new Comparator<Long>()
+        {
+            @Override
+            public int compare( Long nA, Long nB )
+            {
+                final int nByScore = Double.compare(
+                        mapScores.get(nB), mapScores.get(nA) ) ;
+                return ( nByScore != 0 ? nByScore : nB.compareTo(nA) ) ;
+            }
+        });
+        final long[] anRanked = new long[anIDs.size()] ;
+        for( int i = 0 ; i < anRanked.length ; i++ )
+            anRanked[i] = anIDs.get(i) ;
+        return anRanked ;
+    }
+
+    /**
+     * Reads the sentences for a slice of ranked search results, and adds them
+     * to a cursor in ranked order.
+     * @param crsPage the cursor to be filled
+     * @param anRanked the IDs of all ranked results
+     * @param nStart the index of the first result in the slice
+     * @param nEnd the index after the last result in the slice
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected void fillSearchPage( MatrixCursor crsPage, long[] anRanked,
+                                   int nStart, int nEnd )
+    {
+        final String[] asIDs = new String[ nEnd - nStart ] ;
+        final StringBuilder sbWhere = new StringBuilder( "item_id IN (" ) ;
+        for( int i = nStart ; i < nEnd ; i++ )
+        {
+            asIDs[i-nStart] = Long.toString( anRanked[i] ) ;
+            sbWhere.append(( i == nStart ? " ?" : ", ?" )) ;
+        }
+        sbWhere.append( " )" ) ;
+
+        final HashMap<Long,Object[]> mapRows = new HashMap<>() ;
+        Cursor crs = null ;
+        try
+        {
+            crs = m_db.query( SENTENCE_VIEW_NAME,
+                    SentenceRowMapper.PROJECTION, sbWhere.toString(), asIDs,
+                    null, null, null ) ;
+            final SentenceRowMapper map = new SentenceRowMapper( crs ) ;
+            while( crs.moveToNext() )
+            {
+                final long nID = map.getItemID( crs ) ;
+                mapRows.put( nID, new Object[]
+                    {
+                        nID, map.getItemTS( crs ), map.getSentence( crs ),
+                        boolToInt( map.isFavorite( crs ) )
+                    });
+            }
+        }
+        finally
+        { SQLitePortal.closeCursor(crs) ; }
+
+        for( int i = nStart ; i < nEnd ; i++ )
+        {
+            final Object[] aoRow = mapRows.get( anRanked[i] ) ;
+            if( aoRow != null ) crsPage.addRow( aoRow ) ;
+        }
+    }
+
+	/**
+	 * Anoints some nonsense to the hall of fame, or demotes it to obscurity.
+     * @param o the sentence to be toggled
+     * @return the updated sentence
+     * @since zerobandwidth-net/android-poppycock 1.0.1 (#3)
+     */
+    public Sentence toggleFavorite( Sentence o )
+    {
+        if( m_db == null ) return null ;
+        final long tsStart = System.nanoTime() ;
+        final int nUpdated ;
+        synchronized( m_oWriteLock )
+        {
+            this.flushWrites() ;
+            o.bIsFavorite = ! o.bIsFavorite ;
+            final ContentValues vals = new ContentValues() ;
+            vals.put( "favorite", boolToInt( o.bIsFavorite ) ) ;
+            nUpdated = m_db.update( SENTENCE_TABLE_NAME, vals, "item_id=?",
+                    new String[] { Long.toString( o.nItemID ) } ) ;
+            m_cache.remove( o.nItemID ) ;
+        }
+        m_metrics.record( OP_TOGGLE_FAVORITE, tsStart, nUpdated ) ;
+        if( nUpdated > 0 )
+        {
+            this.fireChange( new HistoryChange( HistoryChange.UPDATED,
+                    new long[] { o.nItemID } ) ) ;
+        }
+        if( isDebugLogged() )
+        {
+            Log.d( LOG_TAG, (new StringBuilder())
+                    .append( "Updated [" ).append( nUpdated )
+                    .append(( nUpdated == 1 ? "] row." : "] rows." ))
+                    .toString()
+                );
+        }
+        return o ;
+    }
 
-    /** The filename for the SQLite database. */
-    public static final String DATABASE_NAME = "poppycock_db" ;
+	/**
+	 * Deletes a set of nonsense from the historical record.
+     * @param bFavorites if true, then only favorites will be deleted; if false,
+     *                   then only non-favorites will be deleted
+     * @return the number of records deleted
+     */
+    public int delete( boolean bFavorites )
+    {
+        if( m_db == null ) return 0 ;
+        final long tsStart = System.nanoTime() ;
+        final int nCount ;
+        synchronized( m_oWriteLock )
+        {
+            this.flushWrites() ;
+            nCount = m_db.delete( SENTENCE_TABLE_NAME, "favorite=?",
+                    new String[] { Integer.toString( boolToInt(bFavorites) ) }
+                ) ;
+            if( nCount > 0 ) m_cache.clear() ;
+        }
+        m_metrics.record( OP_DELETE, tsStart, nCount ) ;
+        if( nCount > 0 ) this.fireChange( new HistoryChange( bFavorites ) ) ;
+        return nCount ;
+    }
 
     /**
-     * The table name where the historical records of sentences will be stored.
+     * Deletes one bounded batch of a set of nonsense from the historical
+     * record, oldest first, in its own short transaction. A large purge should
+     * call this repeatedly, so that other reads and writes can proceed between
+     * batches, until it returns fewer than {@code nLimit}.
+     * @param bFavorites if true, then only favorites will be deleted; if false,
+     *                   then only non-favorites will be deleted
+     * @param nThroughID the ID of the newest sentence which may be deleted, so
+     *                   that sentences written during the purge survive it
+     * @param nLimit the maximum number of sentences to delete
+     * @return the number of records deleted
+     * @see #delete(boolean)
+     * @see #getLastItemID()
+     * @since zerobandwidth-net/android-poppycock 1.0.2
      */
-    public static final String SENTENCE_TABLE_NAME = "sentence" ;
+    public int deleteBatch( boolean bFavorites, long nThroughID, int nLimit )
+    {
+        if( m_db == null || nLimit <= 0 ) return 0 ;
+        final long tsStart = System.nanoTime() ;
+        final String sBatch = (new StringBuilder())
+                .append( "SELECT item_id FROM " ).append( SENTENCE_TABLE_NAME )
+                .append( " WHERE favorite=? AND item_id<=? ORDER BY " )
+                .append( PAGE_ORDER_ASC )
+                .append( " LIMIT " ).append( nLimit )
+                .toString()
+                ;
+        final String[] asArgs = new String[]
+        {
+            Integer.toString( boolToInt(bFavorites) ),
+            Long.toString( nThroughID )
+        };
+        final int nCount ;
+        long[] anIDs = null ;
+        synchronized( m_oWriteLock )
+        {
+            this.flushWrites() ;
+            if( ! m_aListeners.isEmpty() )
+                anIDs = this.selectIDs( sBatch, asArgs ) ;
+            nCount = m_db.delete( SENTENCE_TABLE_NAME,
+                    "item_id IN ( " + sBatch + " )", asArgs ) ;
+            if( nCount > 0 ) m_cache.clear() ;
+        }
+        m_metrics.record( OP_DELETE_BATCH, tsStart, nCount ) ;
+        if( nCount > 0 )
+        { // The IDs are gathered only if anyone was listening.
+            this.fireChange( new HistoryChange( HistoryChange.DELETED,
+                    ( anIDs != null ? anIDs : new long[0] ) ) ) ;
+        }
+        return nCount ;
+    }
 
     /**
-     * The SQL statement to create the table where all historical entries will
-     * be stored.
+     * Sets the favorite status of every sentence which matches a filter, in
+     * one statement.
+     * @param sFilter a {@code WHERE} clause over the columns of
+     *  {@link #SENTENCE_VIEW_NAME}, or {@code null} to match every sentence
+     * @param asFilterArgs arguments for {@code sFilter}, or {@code null}
+     * @param bFavorite the new status
+     * @return the number of sentences whose status changed
+     * @since zerobandwidth-net/android-poppycock 1.0.2
      */
-    public static final String SENTENCE_TABLE_SQL =
-              "CREATE TABLE " + SENTENCE_TABLE_NAME + " ("
-            + "item_id INTEGER PRIMARY KEY AUTOINCREMENT, "
-            + "item_ts INTEGER, "
-            + "sentence TEXT, "
-            + "favorite INT "
-            + ") ;"
-            ;
-
-/// Constructor ////////////////////////////////////////////////////////////////
+    public int setFavorites( String sFilter, String[] asFilterArgs,
+                             boolean bFavorite )
+    {
+        if( m_db == null ) return 0 ;
+        final long tsStart = System.nanoTime() ;
+        final String sStatus = Integer.toString( boolToInt(bFavorite) ) ;
+        final String sSelect = selectIDsWhere( "favorite<>?", sFilter ) ;
+        final String[] asArgs = prependArg( sStatus, asFilterArgs ) ;
+        final ContentValues vals = new ContentValues() ;
+        vals.put( "favorite", boolToInt(bFavorite) ) ;
+        final int nCount ;
+        long[] anIDs = null ;
+        synchronized( m_oWriteLock )
+        {
+            this.flushWrites() ;
+            if( ! m_aListeners.isEmpty() )
+                anIDs = this.selectIDs( sSelect, asArgs ) ;
+            nCount = m_db.update( SENTENCE_TABLE_NAME, vals,
+                    "item_id IN ( " + sSelect + " )", asArgs ) ;
+            if( nCount > 0 ) m_cache.clear() ;
+        }
+        m_metrics.record( OP_SET_FAVORITES, tsStart, nCount ) ;
+        if( nCount > 0 )
+        {
+            this.fireChange( new HistoryChange( HistoryChange.UPDATED,
+                    ( anIDs != null ? anIDs : new long[0] ) ) ) ;
+        }
+        return nCount ;
+    }
 
     /**
-     * Constructor which sets the context and then defines parameters for
-     * Poppycock's database.
-     * @param ctx the context in which the database will exist
+     * Deletes every sentence which matches a filter, in one statement.
+     * @param sFilter a {@code WHERE} clause over the columns of
+     *  {@link #SENTENCE_VIEW_NAME}, or {@code null} to match every sentence
+     * @param asFilterArgs arguments for {@code sFilter}, or {@code null}
+     * @return the number of sentences deleted
+     * @see #deleteBatch(boolean, long, int)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
      */
-    public PoppycockDatabase( Context ctx )
-    { super( ctx, DATABASE_NAME, null, SCHEMA_VERSION ) ; }
+    public int deleteSentences( String sFilter, String[] asFilterArgs )
+    {
+        if( m_db == null ) return 0 ;
+        final long tsStart = System.nanoTime() ;
+        final String sSelect = selectIDsWhere( null, sFilter ) ;
+        final int nCount ;
+        long[] anIDs = null ;
+        synchronized( m_oWriteLock )
+        {
+            this.flushWrites() ;
+            if( ! m_aListeners.isEmpty() )
+                anIDs = this.selectIDs( sSelect, asFilterArgs ) ;
+            nCount = m_db.delete( SENTENCE_TABLE_NAME,
+                    "item_id IN ( " + sSelect + " )", asFilterArgs ) ;
+            if( nCount > 0 ) m_cache.clear() ;
+        }
+        m_metrics.record( OP_DELETE_SENTENCES, tsStart, nCount ) ;
+        if( nCount > 0 )
+        {
+            this.fireChange( new HistoryChange( HistoryChange.DELETED,
+                    ( anIDs != null ? anIDs : new long[0] ) ) ) ;
+        }
+        return nCount ;
+    }
 
-/// android.database.sqlite.SQLiteOpenHelper ///////////////////////////////////
+    /**
+     * Builds a query which selects the IDs of the sentences which satisfy a
+     * condition of our own and a caller's filter.
+     * @param sCondition our condition, or {@code null}
+     * @param sFilter the caller's filter, or {@code null}
+     * @return a query which selects only {@code item_id}
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected static String selectIDsWhere( String sCondition, String sFilter )
+    {
+        final StringBuilder sb = (new StringBuilder())
+                .append( "SELECT item_id FROM " ).append( SENTENCE_VIEW_NAME ) ;
+        if( sCondition != null ) sb.append( " WHERE " ).append( sCondition ) ;
+        if( sFilter != null )
+        {
+            sb.append(( sCondition != null ? " AND ( " : " WHERE ( " ))
+              .append( sFilter ).append( " )" ) ;
+        }
+        return sb.toString() ;
+    }
 
-    @Override
-    public void onCreate( SQLiteDatabase db )
-    { db.execSQL( SENTENCE_TABLE_SQL ) ; }
+    /**
+     * Prepends an argument to a caller's filter arguments.
+     * @param sFirst the argument to be prepended
+     * @param asRest the caller's arguments, or {@code null}
+     * @return all of the arguments
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected static String[] prependArg( String sFirst, String[] asRest )
+    {
+        final String[] asArgs =
+                new String[ 1 + ( asRest != null ? asRest.length : 0 ) ] ;
+        asArgs[0] = sFirst ;
+        if( asRest != null )
+            System.arraycopy( asRest, 0, asArgs, 1, asRest.length ) ;
+        return asArgs ;
+    }
 
-    @Override
-    public void onUpgrade( SQLiteDatabase db, int nOld, int nNew )
+    /**
+     * Counts a set of nonsense in the historical record.
+     * @param bFavorites if true, then favorites are counted; if false, then
+     *                   non-favorites are counted
+     * @return the number of sentences in that set
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public int countSentences( boolean bFavorites )
     {
-        // Nothing to do yet.
+        if( m_db == null ) return 0 ;
+        this.flushBeforeRead() ;
+        Cursor crs = null ;
+        try
+        {
+            crs = m_db.rawQuery( "SELECT COUNT(*) FROM " + SENTENCE_TABLE_NAME
+                    + " WHERE favorite=?",
+                    new String[] { Integer.toString( boolToInt(bFavorites) ) }
+                ) ;
+            return ( crs.moveToFirst() ? crs.getInt(0) : 0 ) ;
+        }
+        finally
+        { SQLitePortal.closeCursor(crs) ; }
     }
 
-/// net.zerobandwidth.android.lib.database.SQLitePortal (trivial) //////////////
+    /**
+     * @return the ID of the most recently written sentence, or
+     *  {@link Sentence#NOT_IDENTIFIED} if the historical record is empty
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public long getLastItemID()
+    {
+        if( m_db == null ) return Sentence.NOT_IDENTIFIED ;
+        this.flushBeforeRead() ;
+        Cursor crs = null ;
+        try
+        {
+            crs = m_db.rawQuery( "SELECT MAX(item_id) FROM "
+                    + SENTENCE_TABLE_NAME, null ) ;
+            return ( crs.moveToFirst() && ! crs.isNull(0) ?
+                    crs.getLong(0) : Sentence.NOT_IDENTIFIED ) ;
+        }
+        finally
+        { SQLitePortal.closeCursor(crs) ; }
+    }
 
-    @Override
-    public PoppycockDatabase openDB() { super.openDB() ; return this ; }
+/// Change Notification ////////////////////////////////////////////////////////
 
-    @Override
-    public PoppycockDatabase closeDB() { super.closeDB() ; return this ; }
+    /**
+     * Receives a {@link HistoryChange} for each write which is committed to
+     * the historical record. Listeners are called on the thread which made the
+     * write, sometimes while it still holds the write lock, so they should
+     * only hand the change off to another thread, and must not use the
+     * database themselves.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public interface ChangeListener
+    {
+        /**
+         * Called after a change has been committed.
+         * @param chg a description of the change
+         */
+        void onHistoryChanged( HistoryChange chg ) ;
+    }
 
-/// Data Marshalling Functions /////////////////////////////////////////////////
+    /**
+     * Registers a listener to be told about each committed change.
+     * @param l the listener
+     * @return (fluid)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public PoppycockDatabase addChangeListener( ChangeListener l )
+    {
+        if( l != null ) m_aListeners.addIfAbsent( l ) ;
+        return this ;
+    }
 
     /**
-     * Writes nonsense to the historical record, updating its ID along the way.
-     * @param o the nonsense to be hoarded
-     * @return the same nonsense, lightly massaged
+     * Unregisters a listener.
+     * @param l the listener
+     * @return (fluid)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
      */
-    public synchronized Sentence insertSentence( Sentence o )
+    public PoppycockDatabase removeChangeListener( ChangeListener l )
     {
-        if( m_db == null || o == null ) return null ;
-        o.nItemID =
-                m_db.insert( SENTENCE_TABLE_NAME, null, o.toContentValues() ) ;
-        Log.d( LOG_TAG, (new StringBuilder())
-                .append( "Inserted sentence: " )
-                .append( o.sSentence )
-                .append(( o.bIsFavorite ? " ***" : "" ))
-                .toString()
-            );
-        return o ;
+        m_aListeners.remove( l ) ;
+        return this ;
     }
 
     /**
-     * Reads a specific bit of nonsense from the historical record.
-     * @param nID the ID of the nonsense
-     * @return the nonsense itself
+     * Advances the version of the data, then tells every listener about a
+     * change. Every write must call this once its change is committed, even if
+     * it has no IDs to report.
+     * @param chg the change
+     * @since zerobandwidth-net/android-poppycock 1.0.2
      */
-    public synchronized Sentence getSentence( long nID )
+    protected void fireChange( HistoryChange chg )
     {
-        if( m_db == null || nID < 0 ) return null ;
-        Cursor crs = m_db.query( SENTENCE_TABLE_NAME, null, "item_id=?",
-                new String[] { Long.toString(nID) }, null, null, null, "1" ) ;
-        Sentence o = ( crs.moveToFirst() ? Sentence.fromCursor(crs) : null ) ;
-        crs.close() ;
-        return o ;
+        if( m_nTransactionDepth > 0 && Thread.holdsLock( m_oWriteLock ) )
+        { // Not committed yet; see runInTransaction().
+            m_achgDeferred.add( chg ) ;
+            return ;
+        }
+        m_nVersion.incrementAndGet() ;
+        if( chg.zKind != HistoryChange.PURGED && chg.anIDs.length == 0 )
+            return ;
+        for( ChangeListener l : m_aListeners )
+            l.onHistoryChanged( chg ) ;
     }
 
-    public synchronized ArrayList<Sentence> getFavorites( boolean bOldestFirst )
+    /**
+     * Selects the IDs of the sentences which a batch operation is about to
+     * affect, so that they can be published afterward. The caller must hold
+     * {@link #m_oWriteLock}, so that the batch doesn't change in between.
+     * @param sSelect a query which selects only {@code item_id}
+     * @param asArgs the query's arguments
+     * @return the IDs
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected long[] selectIDs( String sSelect, String[] asArgs )
     {
-        if( m_db == null ) return null ;
-        ArrayList<Sentence> ao = new ArrayList<>() ;
         Cursor crs = null ;
         try
         {
-            crs = m_db.query( SENTENCE_TABLE_NAME, null, "favorite=?",
-                    new String[] { Integer.toString(boolToInt(true)) },
-                    null, null,
-                    ( bOldestFirst ? "item_ts ASC" : "item_ts DESC" ), null ) ;
-            final int nCount = crs.getCount() ;
-            Log.d( LOG_TAG, (new StringBuilder())
-                    .append( "Retrieved [" )
-                    .append( nCount )
-                    .append(( nCount == 1 ? "] item " : "] items " ))
-                    .append( "from the Nonsense Hall of Fame." )
-                    .toString()
-                );
-            if( crs.moveToFirst() )
-            {
-                do ao.add( Sentence.fromCursor(crs) ) ;
-                while( crs.moveToNext() ) ;
-            }
+            crs = m_db.rawQuery( sSelect, asArgs ) ;
+            final long[] anIDs = new long[crs.getCount()] ;
+            for( int i = 0 ; crs.moveToNext() ; i++ )
+                anIDs[i] = crs.getLong(0) ;
+            return anIDs ;
         }
         finally
         { SQLitePortal.closeCursor(crs) ; }
+    }
 
-        return ao ;
+    /**
+     * Opens the current rows of specific sentences, as when a screen applies
+     * a {@link HistoryChange}. Sentences which no longer exist are absent.
+     * @param anIDs the IDs of the sentences
+     * @return a page of those sentences, in no particular order, which the
+     *  caller must close
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public SentencePage fetchSentences( long[] anIDs )
+    {
+        if( m_db == null || anIDs == null ) return null ;
+        this.flushBeforeRead() ;
+        final StringBuilder sbWhere = new StringBuilder( "item_id IN (" ) ;
+        for( int i = 0 ; i < anIDs.length ; i++ )
+            sbWhere.append(( i == 0 ? " " : ", " )).append( anIDs[i] ) ;
+        sbWhere.append( " )" ) ;
+        return new SentencePage( m_db.query( SENTENCE_VIEW_NAME,
+                SentenceRowMapper.PROJECTION, sbWhere.toString(), null,
+                null, null, null, null ) ) ;
     }
 
+/// Transactions ///////////////////////////////////////////////////////////////
+
     /**
-     * Reads all the nonsense from the historical record.
-     * @param bOldestFirst specifies whether to sort oldest-first ({@code true})
-     *                     or newest-first ({@code false})
-     * @return all the nonsense
-     * @since zerobandwidth-net/android-poppycock 1.0.1 (#3)
+     * A unit of work to be performed against the database in a single
+     * transaction.
+     * @param <T> the type of the work's result
+     * @param <X> the type of exception which the work may throw to roll back
+     *  the transaction
+     * @see #runInTransaction(Transaction)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public interface Transaction<T, X extends Exception>
+    {
+        /**
+         * Performs the work. The write lock is held throughout.
+         * @param dbh the database
+         * @return the result of the work
+         * @throws X to roll back the transaction
+         */
+        T run( PoppycockDatabase dbh ) throws X ;
+    }
+
+    /**
+     * Performs several writes in a single transaction, which is committed
+     * only if the work returns normally, and is rolled back if it throws. The
+     * write lock is held throughout, so that no other writer can begin a
+     * transaction of its own in the middle, and wait forever for this one to
+     * release the database. The changes made by the work are published only
+     * once they are committed, and are discarded if they are rolled back.
+     * Transactions may be nested; only the outermost one commits.
+     * @param txn the work to be performed
+     * @param <T> the type of the work's result
+     * @param <X> the type of exception which the work may throw
+     * @return the result of the work
+     * @throws X if the work threw it, after rolling back the transaction
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public <T, X extends Exception> T runInTransaction( Transaction<T,X> txn )
+    throws X
+    {
+        final ArrayList<HistoryChange> achgCommitted ;
+        final T result ;
+        synchronized( m_oWriteLock )
+        {
+            if( m_db == null ) return null ;
+            this.flushWrites() ;
+            boolean bCommitted = false ;
+            m_db.beginTransactionNonExclusive() ;
+            ++m_nTransactionDepth ;
+            try
+            {
+                result = txn.run( this ) ;
+                m_db.setTransactionSuccessful() ;
+                bCommitted = true ;
+            }
+            finally
+            {
+                --m_nTransactionDepth ;
+                m_db.endTransaction() ;
+                if( ! bCommitted ) m_bTransactionFailed = true ;
+                if( m_nTransactionDepth == 0 && m_bTransactionFailed )
+                { // SQLite rolls back everything if any level failed.
+                    m_bTransactionFailed = false ;
+                    m_achgDeferred.clear() ;
+                    m_cache.clear() ;      // may hold rows which were undone
+                    m_nVersion.incrementAndGet() ;
+                }
+            }
+            if( m_nTransactionDepth > 0 || m_achgDeferred.isEmpty() )
+                return result ;                 // the outermost one publishes
+            achgCommitted = new ArrayList<>( m_achgDeferred ) ;
+            m_achgDeferred.clear() ;
+        }
+        for( HistoryChange chg : achgCommitted )
+            this.fireChange( chg ) ;
+        return result ;
+    }
+
+/// Statistics /////////////////////////////////////////////////////////////////
+
+    /**
+     * Summarizes the historical record with aggregate queries, without loading
+     * any of its rows.
+     * @param tsDailySince the time from which to count sentences per day, or
+     *                     {@link HistoryStats#NO_TIMESTAMP} to skip the daily
+     *                     counts
+     * @return the counts and timestamps, or {@code null} if the database is
+     *  not open
+     * @since zerobandwidth-net/android-poppycock 1.0.2
      */
-    public synchronized ArrayList<Sentence> getHistory( boolean bOldestFirst )
+    public HistoryStats getStats( long tsDailySince )
     {
         if( m_db == null ) return null ;
-        ArrayList<Sentence> ao = new ArrayList<>() ;
+        final long tsStart = System.nanoTime() ;
+        this.flushBeforeRead() ;
+        final HistoryStats stats = new HistoryStats() ;
         Cursor crs = null ;
         try
         {
-            crs = m_db.query( SENTENCE_TABLE_NAME, null, null, null, null, null,
-                    ( bOldestFirst ? "item_ts ASC" : "item_ts DESC" ), null ) ;
-            final int nCount = crs.getCount() ;
-            Log.d( LOG_TAG, (new StringBuilder())
-                    .append( "Retrieved [" )
-                    .append( nCount )
-                    .append(( nCount == 1 ? "] item " : "] items " ))
-                    .append( "from the Historical Record." )
-                    .toString()
-                );
+            crs = m_db.rawQuery( STATS_SQL, null ) ;
             if( crs.moveToFirst() )
             {
-                do ao.add( Sentence.fromCursor(crs) ) ;
-                while( crs.moveToNext() ) ;
+                stats.nHistoryCount = crs.getInt(0) ;
+                stats.tsHistoryFirst = getTimestamp( crs, 1 ) ;
+                stats.tsHistoryLast = getTimestamp( crs, 2 ) ;
+                stats.nFavoriteCount = crs.getInt(3) ;
+                stats.tsFavoritesFirst = getTimestamp( crs, 4 ) ;
+                stats.tsFavoritesLast = getTimestamp( crs, 5 ) ;
+            }
+            if( tsDailySince != HistoryStats.NO_TIMESTAMP )
+            {
+                crs.close() ;
+                crs = m_db.rawQuery( DAILY_COUNTS_SQL,
+                        new String[] { Long.toString( tsDailySince ) } ) ;
+                while( crs.moveToNext() )
+                {
+                    stats.mapDailyCounts.put(
+                            crs.getString(0), crs.getInt(1) ) ;
+                }
             }
         }
         finally
         { SQLitePortal.closeCursor(crs) ; }
+        m_metrics.record( OP_GET_STATS, tsStart, 1 ) ;
+        if( isDebugLogged() ) Log.d( LOG_TAG, stats.toString() ) ;
+        return stats ;
+    }
 
-        return ao ;
+    /**
+     * @param crs a cursor
+     * @param nColumn the index of a column holding a timestamp, or null
+     * @return the timestamp, or {@link HistoryStats#NO_TIMESTAMP} if null
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected static long getTimestamp( Cursor crs, int nColumn )
+    {
+        return ( crs.isNull( nColumn ) ?
+                HistoryStats.NO_TIMESTAMP : crs.getLong( nColumn ) ) ;
     }
 
-	/**
-	 * Anoints some nonsense to the hall of fame, or demotes it to obscurity.
-     * @param o the sentence to be toggled
-     * @return the updated sentence
-     * @since zerobandwidth-net/android-poppycock 1.0.1 (#3)
+/// Bulk Transfer //////////////////////////////////////////////////////////////
+
+    /**
+     * Writes a batch of nonsense to the historical record in a single
+     * transaction, assigning each sentence a new ID. Any IDs the sentences
+     * already had are ignored; their timestamps, texts, and favorite flags are
+     * kept.
+     * @param ao the sentences to be written
+     * @return the number of sentences written
+     * @see HistoryArchive
+     * @since zerobandwidth-net/android-poppycock 1.0.2
      */
-    public synchronized Sentence toggleFavorite( Sentence o )
+    public int insertSentences( List<Sentence> ao )
     {
-        if( m_db == null ) return null ;
-        o.bIsFavorite = ! o.bIsFavorite ;
-        final int nUpdated =m_db.update( SENTENCE_TABLE_NAME,
-                o.toContentValues(), "item_id=?",
-                new String[] { Long.toString( o.nItemID ) } ) ;
-        Log.d( LOG_TAG, (new StringBuilder())
-                .append( "Updated [" ).append( nUpdated )
-                .append(( nUpdated == 1 ? "] row." : "] rows." ))
-                .toString()
-            );
-        return o ;
+        if( m_db == null || ao == null || ao.isEmpty() ) return 0 ;
+        final long tsStart = System.nanoTime() ;
+        synchronized( m_oWriteLock )
+        {
+            this.flushWrites() ;
+            m_db.beginTransactionNonExclusive() ;
+            try
+            {
+                for( Sentence o : ao )
+                    o.nItemID = this.writeSentence( o ) ;
+                m_db.setTransactionSuccessful() ;
+            }
+            catch( RuntimeException x )
+            { // Nothing was committed, so none of the IDs are real.
+                for( Sentence o : ao )
+                    o.nItemID = Sentence.NOT_IDENTIFIED ;
+                throw x ;
+            }
+            finally
+            { m_db.endTransaction() ; }
+        }
+        m_metrics.record( OP_INSERT_SENTENCES, tsStart, ao.size() ) ;
+        final long[] anIDs = new long[ao.size()] ;
+        for( int i = 0 ; i < anIDs.length ; i++ )
+            anIDs[i] = ao.get(i).nItemID ;
+        this.fireChange( new HistoryChange( HistoryChange.INSERTED, anIDs ) ) ;
+        return ao.size() ;
     }
 
-	/**
-	 * Deletes a set of nonsense from the historical record.
-     * @param bFavorites if true, then only favorites will be deleted; if false,
-     *                   then only non-favorites will be deleted
-     * @return the number of records deleted
+    /**
+     * Opens a cursor over the sentences that follow a given ID, in the order
+     * in which they were written. Each call is a short keyset query, so that
+     * an export can walk the whole record without SQLite counting it first,
+     * and without holding a read transaction open for the whole walk.
+     * @param nAfterID the ID of the last sentence already read, or
+     *                 {@link Sentence#NOT_IDENTIFIED} to start from the first
+     * @param nLimit the maximum number of sentences to fetch
+     * @return a cursor over {@link SentenceRowMapper#PROJECTION}, which the
+     *  caller must close
+     * @see HistoryArchive
+     * @since zerobandwidth-net/android-poppycock 1.0.2
      */
-    @SuppressWarnings( "UnnecessaryLocalVariable" ) // I respectlessly disagree.
-    public synchronized int delete( boolean bFavorites )
+    protected Cursor fetchArchivePage( long nAfterID, int nLimit )
     {
-        if( m_db == null ) return 0 ;
-        final int nCount = m_db.delete( SENTENCE_TABLE_NAME, "favorite=?",
-                new String[] { Integer.toString( boolToInt(bFavorites) ) } ) ;
+        this.flushBeforeRead() ;
+        return m_db.query( SENTENCE_VIEW_NAME, SentenceRowMapper.PROJECTION,
+                "item_id>?", new String[] { Long.toString( nAfterID ) },
+                null, null, "item_id ASC", Integer.toString( nLimit ) ) ;
+    }
+
+/// Retention //////////////////////////////////////////////////////////////////
+
+    /**
+     * Deletes the oldest non-favorite sentences which fall outside the
+     * retention policy, at most one batch at a time, so that the write lock is
+     * never held for long. Callers should repeat this until it returns fewer
+     * than {@code nBatchSize}, and then {@link #compact(int)} the file.
+     * @param nBatchSize the maximum number of sentences to delete
+     * @return the number of sentences deleted
+     * @see #setRetentionPolicy(int, long)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public int trimHistory( int nBatchSize )
+    {
+        if( m_db == null || nBatchSize <= 0 ) return 0 ;
+        final int nMaxRows = m_nRetentionMaxRows ;
+        final long nMaxAgeMs = m_nRetentionMaxAgeMs ;
+        if( nMaxRows <= 0 && nMaxAgeMs <= 0L ) return 0 ;
+        final long tsStart = System.nanoTime() ;
+        final String sNotFavorite = Integer.toString( boolToInt(false) ) ;
+        int nCount = 0 ;
+        long[] anIDs = null ;
+        synchronized( m_oWriteLock )
+        {
+            ArrayList<String> asArgs = new ArrayList<>() ;
+            asArgs.add( sNotFavorite ) ;
+            StringBuilder sbExpired = new StringBuilder() ;
+            if( nMaxAgeMs > 0L )
+            {
+                sbExpired.append( "item_ts < ?" ) ;
+                asArgs.add( Long.toString(
+                        System.currentTimeMillis() - nMaxAgeMs ) ) ;
+            }
+            if( nMaxRows > 0 )
+            { // Find the newest sentence which is beyond the row limit.
+                Cursor crs = null ;
+                try
+                {
+                    crs = m_db.query( SENTENCE_TABLE_NAME,
+                            new String[] { "item_ts", "item_id" },
+                            "favorite=?", new String[] { sNotFavorite },
+                            null, null, PAGE_ORDER_DESC,
+                            Integer.toString( nMaxRows ) + ",1" ) ;
+                    if( crs.moveToFirst() )
+                    {
+                        if( sbExpired.length() > 0 )
+                            sbExpired.append( " OR " ) ;
+                        sbExpired.append( "( " ).append( KEYSET_THROUGH_DESC )
+                                 .append( " )" ) ;
+                        final String sTS = Long.toString( crs.getLong(0) ) ;
+                        asArgs.add( sTS ) ;
+                        asArgs.add( sTS ) ;
+                        asArgs.add( Long.toString( crs.getLong(1) ) ) ;
+                    }
+                }
+                finally
+                { SQLitePortal.closeCursor(crs) ; }
+            }
+            if( sbExpired.length() > 0 )
+            {
+                final String sBatch = (new StringBuilder())
+                        .append( "SELECT item_id FROM " )
+                        .append( SENTENCE_TABLE_NAME )
+                        .append( " WHERE favorite=? AND ( " )
+                        .append( sbExpired )
+                        .append( " ) ORDER BY " ).append( PAGE_ORDER_ASC )
+                        .append( " LIMIT " ).append( nBatchSize )
+                        .toString()
+                        ;
+                final String[] asBatchArgs =
+                        asArgs.toArray( new String[asArgs.size()] ) ;
+                if( ! m_aListeners.isEmpty() )
+                    anIDs = this.selectIDs( sBatch, asBatchArgs ) ;
+                nCount = m_db.delete( SENTENCE_TABLE_NAME,
+                        "item_id IN ( " + sBatch + " )", asBatchArgs ) ;
+                if( nCount > 0 ) m_cache.clear() ;
+            }
+        }
+        m_metrics.record( OP_TRIM_HISTORY, tsStart, nCount ) ;
+        if( nCount > 0 )
+        { // The IDs are gathered only if anyone was listening.
+            this.fireChange( new HistoryChange( HistoryChange.DELETED,
+                    ( anIDs != null ? anIDs : new long[0] ) ) ) ;
+        }
+        if( isDebugLogged() )
+        {
+            Log.d( LOG_TAG, (new StringBuilder())
+                    .append( "Trimmed [" ).append( nCount )
+                    .append(( nCount == 1 ? "] sentence " : "] sentences " ))
+                    .append( "from the Historical Record." )
+                    .toString()
+                );
+        }
         return nCount ;
     }
+
+    /**
+     * Returns free pages in the database file to the filesystem, a few at a
+     * time. Does nothing unless the database uses incremental auto-vacuum,
+     * which is switched on when it is created or upgraded; this never
+     * rebuilds the whole file.
+     * @param nMaxPages the maximum number of pages to reclaim
+     * @return the number of pages reclaimed
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public int compact( int nMaxPages )
+    {
+        if( m_db == null || nMaxPages <= 0 ) return 0 ;
+        final long tsStart = System.nanoTime() ;
+        final long nFreed ;
+        synchronized( m_oWriteLock )
+        {
+            if( this.queryPragma( "auto_vacuum" ) != AUTO_VACUUM_INCREMENTAL )
+                nFreed = 0L ;
+            else
+            {
+                final long nFree = this.queryPragma( "freelist_count" ) ;
+                if( nFree > 0L )
+                { // Each step of the pragma frees one page, so read them all.
+                    Cursor crs = null ;
+                    try
+                    {
+                        crs = m_db.rawQuery( "PRAGMA incremental_vacuum("
+                                + Math.min( nFree, nMaxPages ) + ")", null ) ;
+                        while( crs.moveToNext() ) ;
+                    }
+                    finally
+                    { SQLitePortal.closeCursor(crs) ; }
+                }
+                nFreed = nFree - this.queryPragma( "freelist_count" ) ;
+            }
+        }
+        m_metrics.record( OP_COMPACT, tsStart, nFreed ) ;
+        if( isDebugLogged() )
+        {
+            Log.d( LOG_TAG, (new StringBuilder())
+                    .append( "Reclaimed [" ).append( nFreed )
+                    .append(( nFreed == 1 ? "] page." : "] pages." ))
+                    .toString()
+                );
+        }
+        return (int)Math.max( 0L, nFreed ) ;
+    }
+
+    /**
+     * Reads the value of an SQLite pragma which returns a single number.
+     * @param sPragma the name of the pragma
+     * @return its value, or zero if it returned nothing
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected long queryPragma( String sPragma )
+    {
+        Cursor crs = null ;
+        try
+        {
+            crs = m_db.rawQuery( "PRAGMA " + sPragma, null ) ;
+            return ( crs.moveToFirst() ? crs.getLong(0) : 0L ) ;
+        }
+        finally
+        { SQLitePortal.closeCursor(crs) ; }
+    }
 }
@@ -0,0 +1,309 @@
+package net.zerobandwidth.android.apps.poppycock.database;
+
+import net.zerobandwidth.android.apps.poppycock.model.Sentence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Remembers the complete result of a paged walk through the historical record,
+ * or through the Nonsense Hall of Fame, so that the same rows can be served
+ * again, in either sort order, without going back to the database. A complete
+ * walk of the whole record also serves the Hall of Fame, by filtering it.
+ *
+ * A walk is recorded as its pages are fetched, and becomes a result only once
+ * its last page has been fetched, and only if it is no longer than the cache's
+ * row limit; a larger record is always read from the database. Every walk and
+ * result is tagged with the version of the data from which it was read, and a
+ * result is served only while that is still the current version, so any write
+ * invalidates it.
+ *
+ * The cache keeps the sentences it is given; callers must not modify them, or
+ * the sentences it returns.
+ * @see PoppycockDatabase#fetchHistoryPage(boolean, SentencePage, int)
+ * @since zerobandwidth-net/android-poppycock 1.0.2
+ */
+public class ResultCache
+{
+    /** The default maximum number of rows kept by the cache. */
+    public static final int DEFAULT_MAX_ROWS = 2000 ;
+
+    /** Marks a walk or result which has not been read from any version. */
+    protected static final long NO_VERSION = -1L ;
+
+    /**
+     * Indicates whether one sentence sorts before another, oldest-first.
+     * @param nTSA the timestamp of the first sentence
+     * @param nIDA the ID of the first sentence
+     * @param nTSB the timestamp of the second sentence
+     * @param nIDB the ID of the second sentence
+     * @return {@code true} if the first sentence sorts before the second
+     */
+    protected static boolean sortsBefore( long nTSA, long nIDA,
+                                          long nTSB, long nIDB )
+    { return ( nTSA < nTSB || ( nTSA == nTSB && nIDA < nIDB ) ) ; }
+
+/// Instance Members ///////////////////////////////////////////////////////////
+
+    /** The maximum number of rows kept by a walk or result. */
+    protected int m_nMaxRows = DEFAULT_MAX_ROWS ;
+
+    /**
+     * The complete record, oldest first, or {@code null} if it hasn't been
+     * walked since the last write.
+     */
+    protected ArrayList<Sentence> m_aoHistory = null ;
+
+    /** The version of the data from which {@link #m_aoHistory} was read. */
+    protected long m_nHistoryVersion = NO_VERSION ;
+
+    /**
+     * The complete Hall of Fame, oldest first, or {@code null} if it hasn't
+     * been walked since the last write.
+     */
+    protected ArrayList<Sentence> m_aoFavorites = null ;
+
+    /** The version of the data from which {@link #m_aoFavorites} was read. */
+    protected long m_nFavoritesVersion = NO_VERSION ;
+
+    /** The rows of the walk being recorded, in the order they were fetched. */
+    protected final ArrayList<Sentence> m_aoWalk = new ArrayList<>() ;
+
+    /** Whether the walk being recorded covers only the Hall of Fame. */
+    protected boolean m_bWalkFavorites = false ;
+
+    /** Whether the walk being recorded is sorted oldest-first. */
+    protected boolean m_bWalkOldestFirst = true ;
+
+    /**
+     * The version of the data from which the walk is being read, or
+     * {@link #NO_VERSION} if no walk is being recorded.
+     */
+    protected long m_nWalkVersion = NO_VERSION ;
+
+    protected long m_nHits = 0L ;
+
+    protected long m_nMisses = 0L ;
+
+/// Constructors ///////////////////////////////////////////////////////////////
+
+    /** Constructs a cache with the default row limit. */
+    public ResultCache()
+    { this( DEFAULT_MAX_ROWS ) ; }
+
+    /**
+     * Constructs a cache with a specific row limit.
+     * @param nMaxRows the limit; zero disables the cache
+     */
+    public ResultCache( int nMaxRows )
+    { this.setMaxRows( nMaxRows ) ; }
+
+/// Cache Operations ///////////////////////////////////////////////////////////
+
+    /**
+     * Serves one page of a view from a complete result, if there is one for
+     * the current version of the data, counting a hit or a miss.
+     * @param bFavorites whether the view covers only the Hall of Fame
+     * @param bOldestFirst whether the view is sorted oldest-first
+     * @param bHasKey whether the page follows a previous page
+     * @param nAfterTS the timestamp of the last row of the previous page
+     * @param nAfterID the ID of the last row of the previous page
+     * @param nLimit the maximum number of rows
+     * @param nVersion the current version of the data
+     * @return the rows of the page, in order, or {@code null} if the page
+     *  must be read from the database
+     */
+    public synchronized ArrayList<Sentence> find( boolean bFavorites,
+            boolean bOldestFirst, boolean bHasKey, long nAfterTS,
+            long nAfterID, int nLimit, long nVersion )
+    {
+        ArrayList<Sentence> aoSource = null ;
+        boolean bFilter = false ;
+        if( m_aoHistory != null && m_nHistoryVersion == nVersion )
+        {
+            aoSource = m_aoHistory ;
+            bFilter = bFavorites ;
+        }
+        else if( bFavorites && m_aoFavorites != null
+                && m_nFavoritesVersion == nVersion )
+        { aoSource = m_aoFavorites ; }
+        if( aoSource == null )
+        {
+            ++m_nMisses ;
+            return null ;
+        }
+        ++m_nHits ;
+
+        // Count the rows which sort before where the page starts.
+        int nLow = ( bHasKey || bOldestFirst ? 0 : aoSource.size() ) ;
+        int nHigh = aoSource.size() ;
+        while( bHasKey && nLow < nHigh )
+        {
+            final int nMid = ( nLow + nHigh ) >>> 1 ;
+            final Sentence o = aoSource.get( nMid ) ;
+            final boolean bBeforeKey = ( bOldestFirst ?
+                    ! sortsBefore( nAfterTS, nAfterID, o.nItemTS, o.nItemID ) :
+                    sortsBefore( o.nItemTS, o.nItemID, nAfterTS, nAfterID ) ) ;
+            if( bBeforeKey ) nLow = nMid + 1 ;
+            else nHigh = nMid ;
+        }
+        final ArrayList<Sentence> aoPage =
+                new ArrayList<>( Math.min( nLimit, aoSource.size() ) ) ;
+        final int nStep = ( bOldestFirst ? 1 : -1 ) ;
+        for( int i = ( bOldestFirst ? nLow : nLow - 1 ) ;
+             i >= 0 && i < aoSource.size() && aoPage.size() < nLimit ;
+             i += nStep )
+        {
+            final Sentence o = aoSource.get(i) ;
+            if( ! bFilter || o.bIsFavorite ) aoPage.add( o ) ;
+        }
+        return aoPage ;
+    }
+
+    /**
+     * Indicates whether a page which is about to be read from the database
+     * would be recorded, so that the caller can skip marshalling its rows if
+     * not. A page is recorded if it is the first page of a view, or if it
+     * follows the last page of the walk being recorded.
+     * @param bFavorites whether the view covers only the Hall of Fame
+     * @param bOldestFirst whether the view is sorted oldest-first
+     * @param bHasKey whether the page follows a previous page
+     * @param nAfterTS the timestamp of the last row of the previous page
+     * @param nAfterID the ID of the last row of the previous page
+     * @param nVersion the version of the data from which it will be read
+     * @return {@code true} if the page should be passed to
+     *  {@link #record}
+     */
+    public synchronized boolean wants( boolean bFavorites,
+            boolean bOldestFirst, boolean bHasKey, long nAfterTS,
+            long nAfterID, long nVersion )
+    {
+        if( m_nMaxRows == 0 ) return false ;
+        if( ! bHasKey ) return true ;
+        if( m_nWalkVersion != nVersion || m_bWalkFavorites != bFavorites
+                || m_bWalkOldestFirst != bOldestFirst || m_aoWalk.isEmpty() )
+        { return false ; }
+        final Sentence oLast = m_aoWalk.get( m_aoWalk.size() - 1 ) ;
+        return ( oLast.nItemTS == nAfterTS && oLast.nItemID == nAfterID ) ;
+    }
+
+    /**
+     * Records one page of a walk. The first page of a view starts a new walk;
+     * any other page extends the current walk, if it continues from where the
+     * walk left off. A page shorter than its limit completes the walk, which
+     * then becomes the result for its view.
+     * @param bFavorites whether the view covers only the Hall of Fame
+     * @param bOldestFirst whether the view is sorted oldest-first
+     * @param bHasKey whether the page follows a previous page
+     * @param nAfterTS the timestamp of the last row of the previous page
+     * @param nAfterID the ID of the last row of the previous page
+     * @param nVersion the version of the data from which it was read
+     * @param aoPage the rows of the page, in order
+     * @param nLimit the maximum number of rows which were requested
+     * @return (fluid)
+     */
+    public synchronized ResultCache record( boolean bFavorites,
+            boolean bOldestFirst, boolean bHasKey, long nAfterTS,
+            long nAfterID, long nVersion, List<Sentence> aoPage, int nLimit )
+    {
+        if( ! this.wants( bFavorites, bOldestFirst, bHasKey,
+                nAfterTS, nAfterID, nVersion ) )
+        { return this ; }
+        if( ! bHasKey )
+        {
+            m_aoWalk.clear() ;
+            m_bWalkFavorites = bFavorites ;
+            m_bWalkOldestFirst = bOldestFirst ;
+            m_nWalkVersion = nVersion ;
+        }
+        if( m_aoWalk.size() + aoPage.size() > m_nMaxRows )
+            return this.abandonWalk() ;
+        m_aoWalk.addAll( aoPage ) ;
+        if( aoPage.size() >= nLimit ) return this ;
+
+        final ArrayList<Sentence> aoResult = new ArrayList<>( m_aoWalk ) ;
+        if( ! bOldestFirst ) Collections.reverse( aoResult ) ;
+        if( bFavorites )
+        {
+            m_aoFavorites = aoResult ;
+            m_nFavoritesVersion = nVersion ;
+        }
+        else
+        {
+            m_aoHistory = aoResult ;
+            m_nHistoryVersion = nVersion ;
+        }
+        return this.abandonWalk() ;
+    }
+
+    /**
+     * Stops recording the current walk.
+     * @return (fluid)
+     */
+    protected ResultCache abandonWalk()
+    {
+        m_aoWalk.clear() ;
+        m_nWalkVersion = NO_VERSION ;
+        return this ;
+    }
+
+    /**
+     * Discards every walk and result. The counters are kept.
+     * @return (fluid)
+     */
+    public synchronized ResultCache clear()
+    {
+        m_aoHistory = null ;
+        m_nHistoryVersion = NO_VERSION ;
+        m_aoFavorites = null ;
+        m_nFavoritesVersion = NO_VERSION ;
+        return this.abandonWalk() ;
+    }
+
+/// Accessors //////////////////////////////////////////////////////////////////
+
+    /**
+     * Sets the maximum number of rows kept by a walk or result, discarding
+     * anything larger.
+     * @param nMaxRows the limit; zero disables the cache
+     * @return (fluid)
+     */
+    public synchronized ResultCache setMaxRows( int nMaxRows )
+    {
+        m_nMaxRows = Math.max( 0, nMaxRows ) ;
+        if( m_aoHistory != null && m_aoHistory.size() > m_nMaxRows )
+            m_aoHistory = null ;
+        if( m_aoFavorites != null && m_aoFavorites.size() > m_nMaxRows )
+            m_aoFavorites = null ;
+        if( m_aoWalk.size() > m_nMaxRows ) this.abandonWalk() ;
+        return this ;
+    }
+
+    /** @return the maximum number of rows kept by a walk or result */
+    public synchronized int getMaxRows()
+    { return m_nMaxRows ; }
+
+    /** @return the number of pages served from a complete result */
+    public synchronized long getHitCount()
+    { return m_nHits ; }
+
+    /** @return the number of pages which had to be read from the database */
+    public synchronized long getMissCount()
+    { return m_nMisses ; }
+
+    @Override
+    public synchronized String toString()
+    {
+        return (new StringBuilder())
+            .append( "ResultCache history [" )
+            .append(( m_aoHistory == null ? 0 : m_aoHistory.size() ))
+            .append( "] favorites [" )
+            .append(( m_aoFavorites == null ? 0 : m_aoFavorites.size() ))
+            .append( "] hits [" ).append( m_nHits )
+            .append( "] misses [" ).append( m_nMisses )
+            .append( "]" )
+            .toString()
+            ;
+    }
+}
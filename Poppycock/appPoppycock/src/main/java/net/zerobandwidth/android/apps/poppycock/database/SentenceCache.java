@@ -0,0 +1,255 @@
+package net.zerobandwidth.android.apps.poppycock.database;
+
+import net.zerobandwidth.android.apps.poppycock.model.Sentence;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A least-recently-used cache of sentences, keyed by ID, whose size is bounded
+ * by an estimate of the memory its entries occupy rather than by their number,
+ * since a sentence may be a few words or a few hundred.
+ *
+ * The cache keeps its own copies of the sentences it is given, and hands out
+ * copies of those, because callers are free to modify the sentences they
+ * receive. Only sentences which exist are cached; a lookup which finds nothing
+ * is always passed through to the database.
+ *
+ * Every removal advances the cache's generation. A reader which loads a
+ * sentence from the database should note the generation before it queries,
+ * and cache the result with {@link #put(Sentence, long)}, so that a write
+ * which lands between the query and the put can't leave a stale copy behind.
+ * @since zerobandwidth-net/android-poppycock 1.0.2
+ */
+public class SentenceCache
+{
+    /** The default memory budget of the cache, in bytes. */
+    public static final int DEFAULT_BUDGET_BYTES = 256 * 1024 ;
+
+    /**
+     * The estimated size of a cached sentence apart from its text: the map
+     * entry, the key, the sentence object, and the string's own overhead.
+     */
+    protected static final int ENTRY_OVERHEAD_BYTES = 128 ;
+
+    /**
+     * Estimates the memory occupied by one cached sentence.
+     * @param o the sentence
+     * @return its estimated size in bytes
+     */
+    protected static int sizeOf( Sentence o )
+    {
+        return ENTRY_OVERHEAD_BYTES
+            + ( o.sSentence == null ? 0 : 2 * o.sSentence.length() ) ;
+    }
+
+    /**
+     * @param o a sentence
+     * @return a new sentence with the same fields
+     */
+    protected static Sentence copyOf( Sentence o )
+    {
+        final Sentence oCopy = new Sentence() ;
+        oCopy.nItemID = o.nItemID ;
+        oCopy.nItemTS = o.nItemTS ;
+        oCopy.sSentence = o.sSentence ;
+        oCopy.bIsFavorite = o.bIsFavorite ;
+        return oCopy ;
+    }
+
+/// Instance Members ///////////////////////////////////////////////////////////
+
+    /** The cached sentences, least recently used first. */
+    protected final LinkedHashMap<Long,Sentence> m_map =
+            new LinkedHashMap<>( 16, 0.75f, true ) ;
+
+    /** The memory budget, in bytes. */
+    protected int m_nBudgetBytes = DEFAULT_BUDGET_BYTES ;
+
+    /** The estimated size of all cached sentences, in bytes. */
+    protected int m_nSizeBytes = 0 ;
+
+    protected long m_nHits = 0L ;
+
+    protected long m_nMisses = 0L ;
+
+    protected long m_nEvictions = 0L ;
+
+    /** Advanced by every removal; see {@link #put(Sentence, long)}. */
+    protected long m_nGeneration = 0L ;
+
+/// Constructors ///////////////////////////////////////////////////////////////
+
+    /** Constructs a cache with the default memory budget. */
+    public SentenceCache()
+    { this( DEFAULT_BUDGET_BYTES ) ; }
+
+    /**
+     * Constructs a cache with a specific memory budget.
+     * @param nBudgetBytes the budget, in bytes; zero disables the cache
+     */
+    public SentenceCache( int nBudgetBytes )
+    { this.setBudget( nBudgetBytes ) ; }
+
+/// Cache Operations ///////////////////////////////////////////////////////////
+
+    /**
+     * Finds a sentence in the cache, counting a hit or a miss.
+     * @param nID the ID of the sentence
+     * @return a copy of the cached sentence, or {@code null} if it isn't cached
+     */
+    public synchronized Sentence get( long nID )
+    {
+        final Sentence o = m_map.get( nID ) ;
+        if( o == null )
+        {
+            ++m_nMisses ;
+            return null ;
+        }
+        ++m_nHits ;
+        return copyOf( o ) ;
+    }
+
+    /**
+     * Caches a copy of a sentence, replacing any entry with the same ID, then
+     * evicts the least recently used entries until the cache is within its
+     * budget. A sentence which has no ID, or which is larger than the whole
+     * budget, is not cached.
+     * @param o the sentence
+     * @return (fluid)
+     */
+    public synchronized SentenceCache put( Sentence o )
+    {
+        if( o == null || o.nItemID == Sentence.NOT_IDENTIFIED ) return this ;
+        this.discard( o.nItemID ) ;
+        final int nSize = sizeOf( o ) ;
+        if( nSize > m_nBudgetBytes ) return this ;
+        m_map.put( o.nItemID, copyOf( o ) ) ;
+        m_nSizeBytes += nSize ;
+        this.trimTo( m_nBudgetBytes ) ;
+        return this ;
+    }
+
+    /**
+     * Caches a copy of a sentence which was read from the database, unless
+     * anything has been removed from the cache since the read began.
+     * @param o the sentence
+     * @param nGeneration the value of {@link #getGeneration()} before the
+     *                    sentence was read
+     * @return (fluid)
+     */
+    public synchronized SentenceCache put( Sentence o, long nGeneration )
+    {
+        if( nGeneration == m_nGeneration ) this.put( o ) ;
+        return this ;
+    }
+
+    /**
+     * Discards the cached copy of a sentence, if there is one.
+     * @param nID the ID of the sentence
+     * @return (fluid)
+     */
+    public synchronized SentenceCache remove( long nID )
+    {
+        ++m_nGeneration ;
+        this.discard( nID ) ;
+        return this ;
+    }
+
+    /**
+     * Discards every cached sentence. The counters are kept.
+     * @return (fluid)
+     */
+    public synchronized SentenceCache clear()
+    {
+        ++m_nGeneration ;
+        m_map.clear() ;
+        m_nSizeBytes = 0 ;
+        return this ;
+    }
+
+    /**
+     * Drops an entry without advancing the generation, as when it is about to
+     * be replaced.
+     * @param nID the ID of the sentence
+     */
+    protected void discard( long nID )
+    {
+        final Sentence o = m_map.remove( nID ) ;
+        if( o != null ) m_nSizeBytes -= sizeOf( o ) ;
+    }
+
+    /**
+     * Evicts the least recently used entries until the cache's estimated size
+     * is no more than a given limit.
+     * @param nBytes the limit
+     */
+    protected void trimTo( int nBytes )
+    {
+        final Iterator<Sentence> itr = m_map.values().iterator() ;
+        while( m_nSizeBytes > nBytes && itr.hasNext() )
+        {
+            m_nSizeBytes -= sizeOf( itr.next() ) ;
+            itr.remove() ;
+            ++m_nEvictions ;
+        }
+    }
+
+/// Accessors //////////////////////////////////////////////////////////////////
+
+    /**
+     * Sets the memory budget of the cache, evicting entries if the cache is
+     * now over budget.
+     * @param nBudgetBytes the budget, in bytes; zero disables the cache
+     * @return (fluid)
+     */
+    public synchronized SentenceCache setBudget( int nBudgetBytes )
+    {
+        m_nBudgetBytes = Math.max( 0, nBudgetBytes ) ;
+        this.trimTo( m_nBudgetBytes ) ;
+        return this ;
+    }
+
+    /** @return the memory budget of the cache, in bytes */
+    public synchronized int getBudget()
+    { return m_nBudgetBytes ; }
+
+    /** @return the estimated size of all cached sentences, in bytes */
+    public synchronized int getSizeBytes()
+    { return m_nSizeBytes ; }
+
+    /** @return the number of removals so far */
+    public synchronized long getGeneration()
+    { return m_nGeneration ; }
+
+    /** @return the number of cached sentences */
+    public synchronized int size()
+    { return m_map.size() ; }
+
+    /** @return the number of lookups which found a cached sentence */
+    public synchronized long getHitCount()
+    { return m_nHits ; }
+
+    /** @return the number of lookups which found nothing in the cache */
+    public synchronized long getMissCount()
+    { return m_nMisses ; }
+
+    /** @return the number of sentences evicted to stay within the budget */
+    public synchronized long getEvictionCount()
+    { return m_nEvictions ; }
+
+    @Override
+    public synchronized String toString()
+    {
+        return (new StringBuilder())
+            .append( "SentenceCache [" ).append( m_map.size() )
+            .append( "] entries [" ).append( m_nSizeBytes / 1024 )
+            .append( "/" ).append( m_nBudgetBytes / 1024 )
+            .append( "KB] hits [" ).append( m_nHits )
+            .append( "] misses [" ).append( m_nMisses )
+            .append( "] evictions [" ).append( m_nEvictions )
+            .append( "]" )
+            .toString()
+            ;
+    }
+}
@@ -0,0 +1,135 @@
+package net.zerobandwidth.android.apps.poppycock.database;
+
+import android.database.Cursor;
+
+import net.zerobandwidth.android.apps.poppycock.model.Sentence;
+import net.zerobandwidth.android.lib.database.SQLitePortal;
+
+import java.io.Closeable;
+
+/**
+ * A read-only window over one page of rows from the sentence table, backed
+ * directly by the query's {@link Cursor}. Column indices are resolved once, by
+ * a {@link SentenceRowMapper}, when the page is opened, and individual fields
+ * are read from the cursor window on demand, so that a {@link Sentence} object
+ * is created only when a caller explicitly asks for one.
+ *
+ * Like its cursor, a page should be read from only one thread at a time; only
+ * the key of its last row may safely be read from elsewhere.
+ * @since zerobandwidth-net/android-poppycock 1.0.2
+ */
+public class SentencePage
+implements Closeable
+{
+    /** The cursor over the page's rows. */
+    protected final Cursor m_crs ;
+
+    /** The number of rows in the page. */
+    protected final int m_nCount ;
+
+    /** Maps the page's rows, with column indices resolved once. */
+    protected final SentenceRowMapper m_map ;
+
+    /**
+     * The {@code item_ts} of the last row, captured when the page is opened
+     * so that the next page can be keyed from any thread.
+     */
+    protected final long m_nLastTS ;
+
+    /** The {@code item_id} of the last row. */
+    protected final long m_nLastID ;
+
+    /**
+     * Wraps a cursor over a page of the sentence table. The cursor's count is
+     * read immediately, which fills its window, so that the page can be opened
+     * on one thread and bound on another.
+     * @param crs the cursor; the page takes ownership of it
+     */
+    public SentencePage( Cursor crs )
+    {
+        m_crs = crs ;
+        m_nCount = crs.getCount() ;
+        m_map = new SentenceRowMapper( crs ) ;
+        if( m_nCount > 0 && crs.moveToPosition( m_nCount - 1 ) )
+        {
+            m_nLastTS = m_map.getItemTS( crs ) ;
+            m_nLastID = m_map.getItemID( crs ) ;
+        }
+        else
+        {
+            m_nLastTS = 0L ;
+            m_nLastID = Sentence.NOT_IDENTIFIED ;
+        }
+    }
+
+    /** @return the number of rows in the page */
+    public int size()
+    { return m_nCount ; }
+
+    /**
+     * Safe to call from any thread.
+     * @return the {@code item_ts} of the last row, which keys the next page
+     */
+    public long getLastItemTS()
+    { return m_nLastTS ; }
+
+    /**
+     * Safe to call from any thread.
+     * @return the {@code item_id} of the last row, which keys the next page
+     */
+    public long getLastItemID()
+    { return m_nLastID ; }
+
+    /**
+     * Moves the cursor to the specified row.
+     * @param nIndex the index of the row within the page
+     * @return the cursor, positioned at that row
+     */
+    protected Cursor moveTo( int nIndex )
+    {
+        if( ! m_crs.moveToPosition( nIndex ) )
+            throw new IndexOutOfBoundsException( "No row at index " + nIndex ) ;
+        return m_crs ;
+    }
+
+    /**
+     * @param nIndex the index of the row within the page
+     * @return the {@code item_id} of that row
+     */
+    public long getItemID( int nIndex )
+    { return m_map.getItemID( this.moveTo(nIndex) ) ; }
+
+    /**
+     * @param nIndex the index of the row within the page
+     * @return the {@code item_ts} of that row
+     */
+    public long getItemTS( int nIndex )
+    { return m_map.getItemTS( this.moveTo(nIndex) ) ; }
+
+    /**
+     * @param nIndex the index of the row within the page
+     * @return the nonsense in that row
+     */
+    public String getSentence( int nIndex )
+    { return m_map.getSentence( this.moveTo(nIndex) ) ; }
+
+    /**
+     * @param nIndex the index of the row within the page
+     * @return whether the nonsense in that row is a favorite
+     */
+    public boolean isFavorite( int nIndex )
+    { return m_map.isFavorite( this.moveTo(nIndex) ) ; }
+
+    /**
+     * Marshals a single row into a {@link Sentence}, for callers which need to
+     * hold onto it or pass it back to the database.
+     * @param nIndex the index of the row within the page
+     * @return a sentence populated from that row
+     */
+    public Sentence toSentence( int nIndex )
+    { return m_map.map( this.moveTo(nIndex) ) ; }
+
+    @Override
+    public void close()
+    { SQLitePortal.closeCursor( m_crs ) ; }
+}
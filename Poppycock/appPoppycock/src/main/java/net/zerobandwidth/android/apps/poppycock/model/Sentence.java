@@ -36,6 +36,10 @@ implements Parcelable
 
     /**
      * Marshals data out of a {@link Cursor} containing a database row.
+     * This looks up every column by name for each row; code which maps many
+     * rows from one cursor should use a
+     * {@link net.zerobandwidth.android.apps.poppycock.database.SentenceRowMapper}
+     * instead.
      * @param crs the cursor
      * @return an instance with values extracted from the cursor
      */
@@ -51,9 +55,10 @@ implements Parcelable
     }
 
     /**
-     * Marshals the object into {@link ContentValues} for storage in the
-     * database.
-     * @return the object's fields, for storage in the DB
+     * Marshals the object into {@link ContentValues} whose keys are the
+     * columns of a sentence as it is read from the database. The database
+     * itself stores the text separately, by reference.
+     * @return the object's fields, keyed by column
      */
     public ContentValues toContentValues()
     {
@@ -65,6 +70,29 @@ implements Parcelable
         return vals ;
     }
 
+    /**
+     * Marshals data out of {@link ContentValues} whose keys are the columns of
+     * a sentence, as written by {@link #toContentValues()}. Columns which are
+     * absent keep the defaults of a new instance; columns which are present
+     * must not be {@code null}, except for the sentence itself.
+     * @param vals the values
+     * @return an instance with values extracted from them
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static Sentence fromContentValues( ContentValues vals )
+    {
+        Sentence o = new Sentence() ;
+        if( vals.containsKey( "item_id" ) )
+            o.nItemID = vals.getAsLong( "item_id" ) ;
+        if( vals.containsKey( "item_ts" ) )
+            o.nItemTS = vals.getAsLong( "item_ts" ) ;
+        if( vals.containsKey( "sentence" ) )
+            o.sSentence = vals.getAsString( "sentence" ) ;
+        if( vals.containsKey( "favorite" ) )
+            o.bIsFavorite = vals.getAsBoolean( "favorite" ) ;
+        return o ;
+    }
+
 /// Parcel Exchange ////////////////////////////////////////////////////////////
 
     /** Required by {@link Parcelable}. */
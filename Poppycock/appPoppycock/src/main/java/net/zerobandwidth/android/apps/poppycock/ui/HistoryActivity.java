@@ -2,34 +2,44 @@ package net.zerobandwidth.android.apps.poppycock.ui;
 
 import android.app.Service;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
-import android.support.annotation.NonNull;
+import android.support.v4.view.MenuItemCompat;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.os.Bundle;
+import android.os.StrictMode;
 import android.util.Log;
-import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.ImageButton;
-import android.widget.ListView;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import net.zerobandwidth.android.apps.poppycock.PoppycockService;
 import net.zerobandwidth.android.apps.poppycock.R;
+import net.zerobandwidth.android.apps.poppycock.database.HistoryArchive;
+import net.zerobandwidth.android.apps.poppycock.database.HistoryChange;
+import net.zerobandwidth.android.apps.poppycock.database.HistorySnapshot;
+import net.zerobandwidth.android.apps.poppycock.database.HistoryStats;
 import net.zerobandwidth.android.apps.poppycock.database.PoppycockDatabase;
-import net.zerobandwidth.android.apps.poppycock.model.Sentence;
+import net.zerobandwidth.android.apps.poppycock.database.SentencePage;
 import net.zerobandwidth.android.lib.AppUtils;
 import net.zerobandwidth.android.lib.services.SimpleServiceConnection;
 import net.zerobandwidth.android.lib.ui.MultitapAlertCompatDialog;
 
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.text.DateFormat;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Future;
 
 /**
  * This activity shows the historical record of nonsense, or the nonsense hall
@@ -42,6 +52,33 @@ implements SimpleServiceConnection.Listener
 {
     public static final String LOG_TAG = HistoryActivity.class.getSimpleName() ;
 
+    /**
+     * The number of unseen rows remaining below the visible part of the list
+     * at which the next page of nonsense will be fetched.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected static final int PAGE_PREFETCH_THRESHOLD = 10 ;
+
+    /**
+     * The time to wait after the user stops typing in the search box before
+     * running the search.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected static final long SEARCH_DELAY_MS = 300L ;
+
+    /**
+     * The time to wait after a change to the historical record before asking
+     * for a new summary, so that a burst of changes costs only one.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected static final long STATS_DELAY_MS = 300L ;
+
+    /**
+     * The name, less its extension, of the file written by an export.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected static final String EXPORT_BASENAME = "poppycock_history" ;
+
 /// Static Intent API //////////////////////////////////////////////////////////
 
     /**
@@ -103,125 +140,130 @@ implements SimpleServiceConnection.Listener
 /// Inner Classes //////////////////////////////////////////////////////////////
 
     /**
-     * Adapter for the view that shows the list of sentences in the historical
-     * record.
+     * Handles the event where the user has clicked on the favorite indicator.
+     * A single instance is shared by every row in the list; the row's position
+     * is discovered from the button that was clicked. The new status is shown
+     * at once, and written later by the service, coalesced with any other
+     * toggles made meanwhile.
      * @since zerobandwidth-net/android-poppycock 1.0.1 (#2)
      */
-    protected class SentenceListAdapter
-    extends ArrayAdapter<Sentence>
+    protected class FavoriteButtonClickListener
+    implements ImageButton.OnClickListener
     {
-        /** The context in which the adapter was created. */
-        protected Context m_ctx = null ;
-
-        /** The list of sentences to be displayed. */
-        protected List<Sentence> m_aoSentences = null ;
+	    /**
+         * A persistent reference back to the activity.
+         * @since zerobandwidth-net/android-poppycock 1.0.1 (#3)
+         */
+        final protected HistoryActivity m_act = HistoryActivity.this ;
 
-        public SentenceListAdapter( Context ctx, int resListViewID, List<Sentence> aoSentences )
+        @Override
+        public void onClick( final View w )
         {
-            super( ctx, resListViewID, aoSentences ) ;
-            this.m_ctx = ctx ;
-            this.m_aoSentences = aoSentences ;
+            final SentenceListAdapter adapter = ((SentenceListAdapter)
+                    ( m_act.m_awSentences.getAdapter() )) ; // maybe a snapshot
+            if( adapter == null ) return ;
+            final int nPosition = adapter.getPosition(w) ;
+            if( nPosition == RecyclerView.NO_POSITION ) return ;
+            final PoppycockService svc = m_act.getServiceIfReady() ;
+            if( svc == null ) return ;
+            final long nID = adapter.getItemId( nPosition ) ;
+            final boolean bFavorite = ! adapter.isFavorite( nPosition ) ;
+            Log.d( LOG_TAG, (new StringBuilder())
+                    .append( "Clicked favorite button for sentence [" )
+                    .append( nID )
+                    .append( "]; favorite is now [" )
+                    .append( bFavorite )
+                    .append( "]." )
+                    .toString()
+                );
+            adapter.setFavorite( nID, bFavorite ) ;
+            svc.setFavorite( nID, bFavorite ) ;
         }
+    }
+
+    /**
+     * Fetches the next page of nonsense whenever the user scrolls near the end
+     * of what has already been loaded.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected class EndlessScrollListener
+    extends RecyclerView.OnScrollListener
+    implements Runnable
+    {
+        protected final HistoryActivity m_act = HistoryActivity.this ;
 
-        @NonNull
         @Override
-        public View getView( int nIndex, View w, @NonNull ViewGroup awParent )
+        public void onScrolled( RecyclerView aw, int dx, int dy )
         {
-            final Sentence oSentence = this.m_aoSentences.get(nIndex) ;
-
-            LayoutInflater infl = ((LayoutInflater)
-                ( m_ctx.getSystemService( Context.LAYOUT_INFLATER_SERVICE ) )) ;
-            View wRow = infl.inflate(
-                    R.layout.listitem_poppycock_sentence, awParent, false ) ;
-
-            ImageButton btnFavorite = ((ImageButton)
-                        ( wRow.findViewById( R.id.btnFavorite ) )) ;
-            if( oSentence.bIsFavorite )
-            {
-                btnFavorite.setImageResource(
-                        R.drawable.ic_favorite_black_24dp ) ;
-                btnFavorite.setContentDescription( this.m_ctx.getString(
-                        R.string.label_btnFavoriteTrue ) ) ;
-            }
-            else
-            {
-                btnFavorite.setImageResource(
-                        R.drawable.ic_favorite_border_black_24dp ) ;
-                btnFavorite.setContentDescription( this.m_ctx.getString(
-                        R.string.label_btnFavoriteFalse ) ) ;
-            }
-            btnFavorite.setOnClickListener(
-                    new FavoriteButtonClickListener( oSentence ) ) ;
-
-            TextView twHistoricalNonsense = ((TextView)
-                        ( wRow.findViewById( R.id.twHistoricalNonsense ) )) ;
-            twHistoricalNonsense.setText(
-                    this.m_aoSentences.get(nIndex).sSentence ) ;
-
-            TextView twDate = ((TextView)
-                        ( wRow.findViewById( R.id.twHistoricalDate ) )) ;
-            twDate.setText( SimpleDateFormat.getDateTimeInstance()
-                    .format( new Date( oSentence.nItemTS ) )) ;
-
-            return wRow ;
+            final int nTotalCount = m_act.m_lmSentences.getItemCount() ;
+            if( nTotalCount > 0 && m_act.m_lmSentences
+                    .findLastVisibleItemPosition()
+                    >= nTotalCount - PAGE_PREFETCH_THRESHOLD )
+            { aw.post(this) ; } // The adapter can't change during a scroll.
         }
+
+        @Override
+        public void run()
+        { m_act.loadNextPage() ; }
     }
 
     /**
-     * Handles the event where the user has clicked on the favorite indicator.
-     * @since zerobandwidth-net/android-poppycock 1.0.1 (#2)
+     * Runs a search of the historical record as the user types into the
+     * search box, once they pause, and returns to the full list when the
+     * search box is closed.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
      */
-    protected class FavoriteButtonClickListener
-    implements ImageButton.OnClickListener
+    protected class SearchListener
+    implements SearchView.OnQueryTextListener,
+        MenuItemCompat.OnActionExpandListener, Runnable
     {
-	    /**
-         * A persistent reference back to the activity.
-         * @since zerobandwidth-net/android-poppycock 1.0.1 (#3)
-         */
-        final protected HistoryActivity m_act = HistoryActivity.this ;
+        protected final HistoryActivity m_act = HistoryActivity.this ;
 
-        /**
-         * A reference to the bit of nonsense that corresponds to this element.
-         */
-        protected Sentence m_oSentence = null ;
+        /** The terms most recently typed, which have not yet been searched. */
+        protected String m_sPending = null ;
 
-        /**
-         * A constructor which binds the listener to a sentence instance.
-         * @param oSentence the bit of nonsense to bind
-         */
-        public FavoriteButtonClickListener( Sentence oSentence )
+        @Override
+        public boolean onQueryTextChange( String sTerms )
         {
-            super() ;
-            m_oSentence = oSentence ;
+            m_sPending = sTerms ;
+            m_act.m_awSentences.removeCallbacks(this) ;
+            m_act.m_awSentences.postDelayed( this, SEARCH_DELAY_MS ) ;
+            return true ;
         }
 
         @Override
-        public void onClick( final View w )
+        public boolean onQueryTextSubmit( String sTerms )
         {
-            Log.d( LOG_TAG, (new StringBuilder())
-                    .append( "Clicked favorite button for sentence [" )
-                    .append( m_oSentence.nItemID )
-                    .append( "]: " )
-                    .append( m_oSentence.sSentence )
-                    .toString()
-                );
-            final PoppycockDatabase db = this.m_act.getDBFromService() ;
-            if( db != null )
-            {
-                db.toggleFavorite( m_oSentence ) ;
-                m_act.runOnUiThread( new Runnable()
-                {
-                    @Override
-                    public void run()
-                    {
-                        ((ImageButton)w).setImageResource((
-                                m_oSentence.bIsFavorite ?
-                                    R.drawable.ic_favorite_black_24dp :
-                                    R.drawable.ic_favorite_border_black_24dp
-                            )) ;
-                    }
-                });
-            }
+            m_sPending = sTerms ;
+            m_act.m_awSentences.removeCallbacks(this) ;
+            this.run() ;
+            return true ;
+        }
+
+        @Override
+        public boolean onMenuItemActionExpand( MenuItem mi )
+        { return true ; }
+
+        @Override
+        public boolean onMenuItemActionCollapse( MenuItem mi )
+        {
+            m_act.m_awSentences.removeCallbacks(this) ;
+            m_sPending = null ;
+            this.run() ;
+            return true ;
+        }
+
+        @Override
+        public void run()
+        {
+            final String sTerms =
+                ( PoppycockDatabase.toMatchExpression( m_sPending ) != null ?
+                    m_sPending : null ) ;
+            if( sTerms == null ? m_act.m_sSearchTerms == null :
+                    sTerms.equals( m_act.m_sSearchTerms ) )
+            { return ; }                               // nothing new to find
+            m_act.m_sSearchTerms = sTerms ;
+            m_act.populate() ;
         }
     }
 
@@ -284,8 +326,8 @@ implements SimpleServiceConnection.Listener
         @Override
         public void run()
         {
-            final PoppycockDatabase db = this.m_act.getDBFromService() ;
-            if( db == null )
+            final PoppycockService svc = this.m_act.getServiceIfReady() ;
+            if( svc == null )
             {
                 Toast.makeText( this.m_act, R.string.toast_DatabaseNoWorky,
                         Toast.LENGTH_SHORT )
@@ -293,10 +335,215 @@ implements SimpleServiceConnection.Listener
                     ;
                 return ;
             }
-            db.delete(( m_zDeletionSet == API.MODE_FAVORITES )) ;
-            this.m_act.populate() ;
+            if( m_act.m_futPurge != null ) return ;     // already underway
+            final PurgeProgressListener cb = new PurgeProgressListener() ;
+            m_act.m_cbPurge = cb ;
+            m_act.m_futPurge = svc.purge(
+                    ( m_zDeletionSet == API.MODE_FAVORITES ), cb ) ;
+            m_act.showPurgeProgress( 0, 0 ) ;
+        }
+
+    }
+
+    /**
+     * Shows the progress of a purge started by {@link WinstonSmith}. The purge
+     * runs in batches in the service, so the list stays usable, and it may be
+     * stopped; each batch is removed from the list by
+     * {@link HistoryChangeListener} as it is deleted.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected class PurgeProgressListener
+    extends PoppycockService.ProgressCallback<Integer>
+    {
+        protected final HistoryActivity m_act = HistoryActivity.this ;
+
+        @Override
+        public void onProgress( int nDone, int nTotal )
+        {
+            if( m_act.m_cbPurge != this ) return ;      // activity has moved on
+            m_act.showPurgeProgress( nDone, nTotal ) ;
+        }
+
+        @Override
+        public void onResult( Integer nDeleted )
+        {
+            if( m_act.m_cbPurge != this ) return ;
+            final boolean bStopped = m_act.m_futPurge.isCancelled() ;
+            m_act.m_cbPurge = null ;
+            m_act.m_futPurge = null ;
+            m_act.m_layPurge.setVisibility( View.GONE ) ;
+            if( bStopped )
+            {
+                Toast.makeText( m_act, m_act.getString(
+                        R.string.toast_PurgeStopped, nDeleted ),
+                        Toast.LENGTH_SHORT )
+                    .show()
+                    ;
+            } // The deleted rows have already left the list, batch by batch.
+        }
+
+        @Override
+        public void onError( Exception x )
+        {
+            super.onError(x) ;
+            if( m_act.m_cbPurge != this ) return ;
+            m_act.m_cbPurge = null ;
+            m_act.m_futPurge = null ;
+            m_act.m_layPurge.setVisibility( View.GONE ) ;
+            Toast.makeText( m_act, R.string.toast_DatabaseNoWorky,
+                    Toast.LENGTH_SHORT )
+                .show()
+                ;
+            m_act.populate() ;
+        }
+    }
+
+    /**
+     * Receives the summary of the historical record which is shown in the
+     * title and in the delete confirmation dialogs.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected class StatsListener
+    extends PoppycockService.Callback<HistoryStats>
+    {
+        protected final HistoryActivity m_act = HistoryActivity.this ;
+
+        @Override
+        public void onResult( HistoryStats stats )
+        {
+            if( m_act.m_cbStats != this ) return ;    // a newer one is coming
+            m_act.m_cbStats = null ;
+            m_act.m_stats = stats ;
+            m_act.updateTitleForMode() ;
+        }
+    }
+
+    /**
+     * Applies each change to the historical record to the list as it happens,
+     * rather than fetching the list again. Deleted rows are simply removed;
+     * the current rows of new and modified sentences are fetched, and then
+     * replaced, inserted where they sort, or removed if they no longer belong
+     * in the list.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected class HistoryChangeListener
+    implements PoppycockDatabase.ChangeListener
+    {
+        protected final HistoryActivity m_act = HistoryActivity.this ;
+
+        @Override
+        public void onHistoryChanged( HistoryChange chg )
+        {
+            final SentenceListAdapter adapter = m_act.m_adapter ;
+            if( adapter == null ) return ;
+            if( chg.zKind == HistoryChange.DISCARDED )
+            { // Favorites toggled in the list were never written.
+                adapter.revertFavorites( chg.anIDs ) ;
+                Toast.makeText( m_act, R.string.toast_DatabaseNoWorky,
+                        Toast.LENGTH_SHORT )
+                    .show()
+                    ;
+                return ;
+            }
+            m_act.scheduleStatsRefresh() ;
+            final boolean bFavoritesOnly =
+                    ( m_act.m_zMode == API.MODE_FAVORITES ) ;
+            switch( chg.zKind )
+            {
+                case HistoryChange.DELETED:
+                    adapter.removeItems( chg.anIDs ) ;
+                    return ;
+                case HistoryChange.PURGED:
+                    if( chg.bFavorites || ! bFavoritesOnly )
+                        adapter.removeItems( chg.bFavorites ) ;
+                    return ;
+                case HistoryChange.INSERTED:
+                    if( m_act.m_sSearchTerms != null ) return ;    // unranked
+                    if( m_act.m_cbTransfer != null
+                            && m_act.m_cbTransfer.m_bImport )
+                        return ;    // The list is repopulated after an import.
+                    break ;
+                case HistoryChange.UPDATED:
+                    break ;
+                default:
+                    return ;
+            }
+            final PoppycockService svc = m_act.getServiceIfReady() ;
+            if( svc == null ) return ;
+            svc.fetchSentences( chg.anIDs,
+                    new PoppycockService.Callback<SentencePage>()
+            {
+                @Override
+                public void onResult( SentencePage pg )
+                {
+                    if( pg == null ) return ;
+                    if( adapter != m_act.m_adapter )
+                    { // The list was repopulated meanwhile.
+                        pg.close() ;
+                        return ;
+                    }
+                    adapter.applyPage( pg, bFavoritesOnly,
+                            ( m_act.m_sSearchTerms == null ),
+                            ( m_act.m_zSortOrder != API.SORTING_DESC ),
+                            m_act.m_bExhausted ) ;
+                }
+            });
+        }
+    }
+
+    /**
+     * Reports the outcome of an export or import, and repopulates the list
+     * once an import has added to it.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected class TransferListener
+    extends PoppycockService.ProgressCallback<Integer>
+    {
+        protected final HistoryActivity m_act = HistoryActivity.this ;
+
+        /** The file being written or read. */
+        protected final File m_file ;
+
+        /** Indicates that the transfer is an import. */
+        protected final boolean m_bImport ;
+
+        public TransferListener( File f, boolean bImport )
+        { m_file = f ; m_bImport = bImport ; }
+
+        @Override
+        public void onProgress( int nDone, int nTotal )
+        {} // The toasts at either end are enough.
+
+        @Override
+        public void onResult( Integer nRows )
+        {
+            if( m_act.m_cbTransfer != this ) return ;   // activity has moved on
+            m_act.m_cbTransfer = null ;
+            Toast.makeText( m_act, ( m_bImport ?
+                    m_act.getString( R.string.toast_ImportFinished, nRows ) :
+                    m_act.getString( R.string.toast_ExportFinished, nRows,
+                            m_file.getAbsolutePath() ) ),
+                    Toast.LENGTH_LONG )
+                .show()
+                ;
+            if( m_bImport ) m_act.populate() ;
         }
 
+        @Override
+        public void onError( Exception x )
+        {
+            super.onError(x) ;
+            if( m_act.m_cbTransfer != this ) return ;
+            m_act.m_cbTransfer = null ;
+            final Throwable xReason = ( x.getCause() != null ?
+                    x.getCause() : x ) ;
+            Toast.makeText( m_act, m_act.getString(
+                    R.string.toast_TransferFailed, xReason.getMessage() ),
+                    Toast.LENGTH_LONG )
+                .show()
+                ;
+            if( m_bImport ) m_act.populate() ;  // earlier batches were kept
+        }
     }
 
 /// Instance Members ///////////////////////////////////////////////////////////
@@ -313,7 +560,20 @@ implements SimpleServiceConnection.Listener
     /**
      * A persistent binding to the list of historical records.
      */
-    protected ListView m_awSentences = null ;
+    protected RecyclerView m_awSentences = null ;
+
+    /**
+     * The layout manager for the list of historical records.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected LinearLayoutManager m_lmSentences = null ;
+
+    /**
+     * The single listener shared by the favorite buttons of all rows.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected final FavoriteButtonClickListener m_lisFavorite =
+            new FavoriteButtonClickListener() ;
 
 	/**
      * A persistent binding to the menu item for sorting the list of nonsense.
@@ -339,6 +599,128 @@ implements SimpleServiceConnection.Listener
      */
     protected MenuItem m_miSwitchMode = null ;
 
+    /**
+     * The adapter currently bound to the list of historical records.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected SentenceListAdapter m_adapter = null ;
+
+    /**
+     * The adapter over the history snapshot, while it is still shown in place
+     * of {@link #m_adapter}, which is waiting for its first live page.
+     * @see HistorySnapshot
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected SentenceListAdapter m_adapterSnapshot = null ;
+
+    /**
+     * Indicates that the last page of nonsense has been fetched for the current
+     * mode and sort order.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected boolean m_bExhausted = false ;
+
+    /**
+     * Indicates that a page of nonsense is currently being fetched, so that
+     * the same page is not requested twice.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected boolean m_bLoadingPage = false ;
+
+    /**
+     * The terms being searched for, or {@code null} if the list shows the
+     * whole historical record (or Hall of Fame) rather than search results.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected String m_sSearchTerms = null ;
+
+    /**
+     * Listens to the search box in the action bar.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected final SearchListener m_lisSearch = new SearchListener() ;
+
+    /**
+     * The purge currently running, if any, which may be cancelled.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected Future<Integer> m_futPurge = null ;
+
+    /**
+     * The listener for the purge currently running, if any. A listener which
+     * is no longer this one ignores its purge's events.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected PurgeProgressListener m_cbPurge = null ;
+
+    /**
+     * A persistent binding to the panel which shows the progress of a purge.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected View m_layPurge = null ;
+
+    /**
+     * A persistent binding to the progress bar for a purge.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected ProgressBar m_pbPurge = null ;
+
+    /**
+     * A persistent binding to the caption of the progress bar for a purge.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected TextView m_twPurge = null ;
+
+    /**
+     * The listener for the export or import currently running, if any. Only
+     * one may run at a time.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected TransferListener m_cbTransfer = null ;
+
+    /**
+     * The latest summary of the historical record, or {@code null} until the
+     * first one arrives.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected HistoryStats m_stats = null ;
+
+    /**
+     * The listener for the summary currently being computed, if any. Only the
+     * most recently requested summary is kept.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected StatsListener m_cbStats = null ;
+
+    /**
+     * Asks for a new summary, once {@link #STATS_DELAY_MS} has passed since
+     * the first change which made it stale.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected final Runnable m_runStats = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            m_bStatsDue = false ;
+            refreshStats() ;
+        }
+    };
+
+    /**
+     * Indicates that {@link #m_runStats} has been posted and has not yet run.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected boolean m_bStatsDue = false ;
+
+    /**
+     * Applies changes to the historical record to the list, while the service
+     * is connected.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected final HistoryChangeListener m_lisChanges =
+            new HistoryChangeListener() ;
+
 /// Activity Lifecycle /////////////////////////////////////////////////////////
 
     /**
@@ -378,7 +760,16 @@ implements SimpleServiceConnection.Listener
         }
         AppUtils.initBackButtonForActivity(this) ;
         PoppycockService.API.kickoff(this) ;                 // Just in case...?
-        m_awSentences = ((ListView)(this.findViewById( R.id.awSentences ))) ;
+        m_awSentences =
+                ((RecyclerView)(this.findViewById( R.id.awSentences ))) ;
+        m_lmSentences = new LinearLayoutManager(this) ;
+        m_awSentences.setLayoutManager( m_lmSentences ) ;
+        m_awSentences.setHasFixedSize( true ) ;
+        m_awSentences.addOnScrollListener( new EndlessScrollListener() ) ;
+        m_layPurge = this.findViewById( R.id.layPurgeProgress ) ;
+        m_pbPurge = ((ProgressBar)(this.findViewById( R.id.pbPurgeProgress ))) ;
+        m_twPurge = ((TextView)(this.findViewById( R.id.twPurgeProgress ))) ;
+        this.showSnapshot() ;
     }
 
     @Override
@@ -399,6 +790,12 @@ implements SimpleServiceConnection.Listener
     public boolean onCreateOptionsMenu( Menu menu )
     {
         this.getMenuInflater().inflate( R.menu.menu_poppycock_history, menu ) ;
+        final MenuItem miSearch = menu.findItem( R.id.miSearchHistory ) ;
+        final SearchView wSearch =
+                ((SearchView)( MenuItemCompat.getActionView( miSearch ) )) ;
+        wSearch.setQueryHint( this.getString( R.string.hint_SearchHistory ) ) ;
+        wSearch.setOnQueryTextListener( m_lisSearch ) ;
+        MenuItemCompat.setOnActionExpandListener( miSearch, m_lisSearch ) ;
         return true ;
     }
 
@@ -424,6 +821,14 @@ implements SimpleServiceConnection.Listener
     @Override
     public void onDestroy()
     {
+        m_awSentences.removeCallbacks( m_lisSearch ) ;
+        m_awSentences.removeCallbacks( m_runStats ) ;
+        m_cbPurge = null ;          // A purge carries on, but unobserved.
+        m_cbTransfer = null ;       // So does a transfer.
+        if( m_adapter != null ) m_adapter.close() ;
+        this.discardSnapshot() ;
+        if( m_conn != null && m_conn.isConnected() )
+            m_conn.getServiceInstance().removeChangeListener( m_lisChanges ) ;
         if( m_conn != null && m_conn.isBound() )
             m_conn.removeListener(this).disconnect(this) ;
         super.onDestroy() ;
@@ -436,6 +841,7 @@ implements SimpleServiceConnection.Listener
     {
         if( ! conn.isServiceClass( PoppycockService.class ) ) return ;
         Log.d( LOG_TAG, "Connected to service." ) ;
+        m_conn.getServiceInstance().addChangeListener( m_lisChanges ) ;
         this.populate() ;
     }
 
@@ -463,6 +869,12 @@ implements SimpleServiceConnection.Listener
             case R.id.miDeleteHistory:
                 this.onDeleteButtonPressed() ;
                 break ;
+            case R.id.miExportHistory:
+                this.onExportButtonPressed() ;
+                break ;
+            case R.id.miImportHistory:
+                this.onImportButtonPressed() ;
+                break ;
         }
         return super.onOptionsItemSelected(mi) ;
     }
@@ -470,15 +882,19 @@ implements SimpleServiceConnection.Listener
 /// Other Instance Methods /////////////////////////////////////////////////////
 
 	/**
-     * Fetches the database only if it's usable.
-     * @return the app's database, only if it is usable, or {@code null} otherwise
+     * Fetches the service only if its database is usable, or is still being
+     * opened; work requested meanwhile waits for it. All database work should
+     * be requested through the service's asynchronous methods.
+     * @return the app's service, only if its database is usable, or
+     *  {@code null} otherwise
+     * @since zerobandwidth-net/android-poppycock 1.0.2
      */
-    protected PoppycockDatabase getDBFromService()
+    protected PoppycockService getServiceIfReady()
     {
         if( m_conn == null || ! m_conn.isConnected() ) return null ;
-        final PoppycockDatabase db = m_conn.getServiceInstance().getDB() ;
-        if( ! db.isConnected() ) return null ;  // It's no good to us like this.
-        return db ;
+        final PoppycockService svc = m_conn.getServiceInstance() ;
+        if( ! svc.isDatabaseAvailable() ) return null ;        // no good to us
+        return svc ;
     }
 
 	/**
@@ -487,8 +903,8 @@ implements SimpleServiceConnection.Listener
      */
     protected HistoryActivity onDeleteButtonPressed()
     {
-        final PoppycockDatabase db = this.getDBFromService() ;
-        if( db == null )
+        if( m_futPurge != null ) return this ;      // one purge at a time
+        if( this.getServiceIfReady() == null )
         { // Give up.
             Log.e( LOG_TAG, "Database unavailable for delete operation." ) ;
             Toast.makeText( this, R.string.toast_DatabaseNoWorky,
@@ -497,13 +913,23 @@ implements SimpleServiceConnection.Listener
                 ;
             return this ;
         }
+        final boolean bFavorites = ( m_zMode == API.MODE_FAVORITES ) ;
+        if( m_stats != null && m_stats.getCount( bFavorites ) == 0 )
+        { // Nothing to confirm.
+            Toast.makeText( this, R.string.toast_NothingToDelete,
+                    Toast.LENGTH_SHORT )
+                .show()
+                ;
+            return this ;
+        }
+        final String sMessage = this.getDeleteMessage( bFavorites ) ;
         switch( m_zMode )
         {
             case API.MODE_FAVORITES:
             { // Delete only favorites.
-                (new MultitapAlertCompatDialog(
-                        this, R.string.title_DeleteFavorites,
-                        R.string.message_DeleteFavorites ))
+                (new MultitapAlertCompatDialog( this,
+                        this.getString( R.string.title_DeleteFavorites ),
+                        sMessage ))
                     .setStandardButtons(
                             new WinstonSmith(API.MODE_FAVORITES), null )
                     .setPositiveTapsRequired(10)
@@ -513,9 +939,9 @@ implements SimpleServiceConnection.Listener
             case API.MODE_HISTORY:
             default:
             { // Delete only non-favorites.
-                (new MultitapAlertCompatDialog(
-                        this, R.string.title_DeleteHistory,
-                        R.string.message_DeleteHistory ))
+                (new MultitapAlertCompatDialog( this,
+                        this.getString( R.string.title_DeleteHistory ),
+                        sMessage ))
                     .setStandardButtons(
                             new WinstonSmith(API.MODE_HISTORY), null )
                     .setPositiveTapsRequired(3)
@@ -526,6 +952,223 @@ implements SimpleServiceConnection.Listener
         return this ;
     }
 
+    /**
+     * Composes the message of a delete confirmation dialog, stating how many
+     * sentences would be deleted and from when, if the summary of the
+     * historical record has arrived.
+     * @param bFavorites whether favorites would be deleted, rather than the
+     *                   rest
+     * @return the message
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected String getDeleteMessage( boolean bFavorites )
+    {
+        if( m_stats == null || m_stats.getCount( bFavorites ) == 0 )
+        {
+            return this.getString(( bFavorites ?
+                    R.string.message_DeleteFavorites :
+                    R.string.message_DeleteHistory )) ;
+        }
+        final DateFormat fmt = DateFormat.getDateInstance( DateFormat.MEDIUM ) ;
+        return this.getString(( bFavorites ?
+                    R.string.format_DeleteFavorites :
+                    R.string.format_DeleteHistory ),
+                m_stats.getCount( bFavorites ),
+                fmt.format( new Date( bFavorites ?
+                        m_stats.tsFavoritesFirst : m_stats.tsHistoryFirst ) ),
+                fmt.format( new Date( bFavorites ?
+                        m_stats.tsFavoritesLast : m_stats.tsHistoryLast ) )
+            );
+    }
+
+    /**
+     * Stops the purge that is currently running, after its current batch.
+     * Bound to the cancel button by the layout.
+     * @param w the button
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public void onCancelPurgeClicked( View w )
+    {
+        if( m_futPurge != null ) m_futPurge.cancel( false ) ;
+        w.setEnabled( false ) ;
+    }
+
+    /**
+     * Shows, or updates, the progress of a purge.
+     * @param nDone the number of sentences deleted so far
+     * @param nTotal the number of sentences to be deleted, or zero if that is
+     *               not yet known
+     * @return (fluid)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected HistoryActivity showPurgeProgress( int nDone, int nTotal )
+    {
+        if( m_layPurge.getVisibility() != View.VISIBLE )
+        {
+            this.findViewById( R.id.btnCancelPurge ).setEnabled( true ) ;
+            m_layPurge.setVisibility( View.VISIBLE ) ;
+        }
+        m_pbPurge.setIndeterminate( nTotal == 0 ) ;
+        m_pbPurge.setMax( nTotal ) ;
+        m_pbPurge.setProgress( nDone ) ;
+        m_twPurge.setText( this.getString(
+                R.string.format_PurgeProgress, nDone, nTotal ) ) ;
+        return this ;
+    }
+
+    /**
+     * Offers the formats in which the historical record may be exported.
+     * @return (fluid)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected HistoryActivity onExportButtonPressed()
+    {
+        if( m_cbTransfer != null ) return this ;    // one transfer at a time
+        (new AlertDialog.Builder( this ))
+            .setTitle( R.string.title_ExportHistory )
+            .setItems( new CharSequence[]
+                {
+                    this.getString( R.string.label_FormatNdjson ),
+                    this.getString( R.string.label_FormatCsv )
+                },
+                new DialogInterface.OnClickListener()
+                {
+                    @Override
+                    public void onClick( DialogInterface dlg, int nWhich )
+                    {
+                        startExport(( nWhich == 1 ?
+                                HistoryArchive.FORMAT_CSV :
+                                HistoryArchive.FORMAT_NDJSON )) ;
+                    }
+                })
+            .setNegativeButton( android.R.string.cancel, null )
+            .show()
+            ;
+        return this ;
+    }
+
+    /**
+     * Exports the historical record to the app's directory in external
+     * storage, replacing any earlier export in the same format.
+     * @param zFormat {@link HistoryArchive#FORMAT_NDJSON} or
+     *                {@link HistoryArchive#FORMAT_CSV}
+     * @return (fluid)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected HistoryActivity startExport( int zFormat )
+    {
+        final PoppycockService svc = this.getServiceIfReady() ;
+        final File dir = this.getTransferDirectory( svc ) ;
+        if( dir == null ) return this ;
+        final File f = new File( dir, EXPORT_BASENAME +
+                ( zFormat == HistoryArchive.FORMAT_CSV ?
+                        HistoryArchive.CSV_EXTENSION :
+                        HistoryArchive.NDJSON_EXTENSION ) ) ;
+        m_cbTransfer = new TransferListener( f, false ) ;
+        svc.exportHistory( f, zFormat, m_cbTransfer ) ;
+        Toast.makeText( this, R.string.toast_TransferStarted,
+                Toast.LENGTH_SHORT )
+            .show()
+            ;
+        return this ;
+    }
+
+    /**
+     * Offers the exports found in the app's directory in external storage,
+     * from which entries may be imported.
+     * @return (fluid)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected HistoryActivity onImportButtonPressed()
+    {
+        if( m_cbTransfer != null ) return this ;    // one transfer at a time
+        final File dir = this.getTransferDirectory( this.getServiceIfReady() ) ;
+        if( dir == null ) return this ;
+        final File[] afArchives = dir.listFiles( new FilenameFilter()
+        {
+            @Override
+            public boolean accept( File d, String sName )
+            {
+                final String s = sName.toLowerCase( Locale.US ) ;
+                return ( s.endsWith( HistoryArchive.NDJSON_EXTENSION )
+                      || s.endsWith( HistoryArchive.CSV_EXTENSION ) ) ;
+            }
+        });
+        if( afArchives == null || afArchives.length == 0 )
+        {
+            Toast.makeText( this, this.getString(
+                    R.string.toast_NoArchivesFound, dir.getAbsolutePath() ),
+                    Toast.LENGTH_LONG )
+                .show()
+                ;
+            return this ;
+        }
+        Arrays.sort( afArchives ) ;
+        final CharSequence[] asNames = new CharSequence[afArchives.length] ;
+        for( int i = 0 ; i < afArchives.length ; i++ )
+            asNames[i] = afArchives[i].getName() ;
+        (new AlertDialog.Builder( this ))
+            .setTitle( R.string.title_ImportHistory )
+            .setItems( asNames, new DialogInterface.OnClickListener()
+                {
+                    @Override
+                    public void onClick( DialogInterface dlg, int nWhich )
+                    { startImport( afArchives[nWhich] ) ; }
+                })
+            .setNegativeButton( android.R.string.cancel, null )
+            .show()
+            ;
+        return this ;
+    }
+
+    /**
+     * Imports the entries in a file into the historical record.
+     * @param f the file, whose format is chosen by its extension
+     * @return (fluid)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected HistoryActivity startImport( File f )
+    {
+        final PoppycockService svc = this.getServiceIfReady() ;
+        if( this.getTransferDirectory( svc ) == null ) return this ;
+        m_cbTransfer = new TransferListener( f, true ) ;
+        svc.importHistory( f, HistoryArchive.formatForFilename( f.getName() ),
+                m_cbTransfer ) ;
+        Toast.makeText( this, R.string.toast_TransferStarted,
+                Toast.LENGTH_SHORT )
+            .show()
+            ;
+        return this ;
+    }
+
+    /**
+     * Finds the directory in which exports are written, if both it and the
+     * database are usable, and otherwise tells the user why not.
+     * @param svc the app's service, from {@link #getServiceIfReady()}
+     * @return the app's directory in external storage, or {@code null}
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected File getTransferDirectory( PoppycockService svc )
+    {
+        if( svc == null )
+        {
+            Toast.makeText( this, R.string.toast_DatabaseNoWorky,
+                    Toast.LENGTH_SHORT )
+                .show()
+                ;
+            return null ;
+        }
+        final File dir = this.getExternalFilesDir( null ) ;
+        if( dir == null )
+        {
+            Toast.makeText( this, R.string.toast_StorageNoWorky,
+                    Toast.LENGTH_SHORT )
+                .show()
+                ;
+        }
+        return dir ;
+    }
+
 	/**
      * Inverts the sort order and updates the menu item.
      * @return (fluid)
@@ -548,26 +1191,167 @@ implements SimpleServiceConnection.Listener
     }
 
     /**
-     * Populates the screen with the appropriate historical records.
+     * Populates the screen with the first page of the appropriate historical
+     * records. Subsequent pages are fetched by {@link #loadNextPage()} as the
+     * user scrolls.
      * @return (fluid)
      */
     protected HistoryActivity populate()
     {
-        ArrayList<Sentence> aoSentences = null ;
-        final PoppycockDatabase db = this.getDBFromService() ;
-        if( db != null )
+        this.refreshStats() ;
+        final SentenceListAdapter adapterOld = m_adapter ;
+        m_adapter = new SentenceListAdapter( this, m_lisFavorite ) ;
+        m_bExhausted = false ;
+        m_bLoadingPage = false ;
+        if( adapterOld == null || adapterOld != m_adapterSnapshot )
+        { // Otherwise the snapshot stays up until the first live page.
+            m_awSentences.setAdapter( m_adapter ) ;
+            if( adapterOld != null ) adapterOld.close() ;
+            this.discardSnapshot() ;
+        }
+        return this.loadNextPage() ;
+    }
+
+    /**
+     * Asks the service for a new summary of the historical record, which
+     * updates the title when it arrives.
+     * @return (fluid)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected HistoryActivity refreshStats()
+    {
+        final PoppycockService svc = this.getServiceIfReady() ;
+        if( svc == null ) return this ;
+        m_cbStats = new StatsListener() ;
+        svc.getStats( HistoryStats.NO_TIMESTAMP, m_cbStats ) ;
+        return this ;
+    }
+
+    /**
+     * Asks for a new summary after {@link #STATS_DELAY_MS}, unless one has
+     * already been scheduled, so that a purge, import or seed which changes
+     * the record in many batches causes only one recount per interval.
+     * @return (fluid)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected HistoryActivity scheduleStatsRefresh()
+    {
+        if( m_bStatsDue ) return this ;
+        m_bStatsDue = true ;
+        m_awSentences.postDelayed( m_runStats, STATS_DELAY_MS ) ;
+        return this ;
+    }
+
+    /**
+     * Shows the snapshot of the first page for the current mode and sort
+     * order, if the service has written one, so that the list appears at
+     * once. The first live page replaces it when it arrives. This is the only
+     * disk read that the main thread makes, and it is allowed explicitly.
+     * @return (fluid)
+     * @see HistorySnapshot
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected HistoryActivity showSnapshot()
+    {
+        if( m_adapter != null ) return this ;       // live data already shown
+        // The snapshot is only useful if it is shown before the service can
+        // answer, so it must be read here; mapping one small file is cheap.
+        final StrictMode.ThreadPolicy policy =
+                StrictMode.allowThreadDiskReads() ;
+        final SentencePage pg ;
+        try
         {
-            final boolean bSortOrder = ( m_zSortOrder != API.SORTING_DESC ) ;
-            aoSentences = ( m_zMode == API.MODE_FAVORITES ?
-                    db.getFavorites( bSortOrder ) :
-                    db.getHistory( bSortOrder )
-                );
+            pg = HistorySnapshot.read( HistorySnapshot.fileFor(
+                    this, ( m_zMode == API.MODE_FAVORITES ),
+                    ( m_zSortOrder != API.SORTING_DESC ) ) ) ;
+        }
+        finally
+        { StrictMode.setThreadPolicy( policy ) ; }
+        if( pg == null ) return this ;
+        if( pg.size() == 0 )
+        {
+            pg.close() ;
+            return this ;
+        }
+        m_adapter = new SentenceListAdapter( this, m_lisFavorite ) ;
+        m_adapter.appendPage( pg ) ;
+        m_adapterSnapshot = m_adapter ;
+        m_awSentences.setAdapter( m_adapter ) ;
+        return this ;
+    }
+
+    /**
+     * Releases the snapshot's adapter, once it is no longer shown.
+     * @return (fluid)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected HistoryActivity discardSnapshot()
+    {
+        if( m_adapterSnapshot != null )
+        {
+            if( m_adapterSnapshot != m_adapter ) m_adapterSnapshot.close() ;
+            m_adapterSnapshot = null ;
         }
-        else aoSentences = new ArrayList<>() ;
+        return this ;
+    }
 
-        final SentenceListAdapter adapter = new SentenceListAdapter( this,
-            R.layout.listitem_poppycock_sentence, aoSentences ) ;
-        m_awSentences.setAdapter( adapter ) ;
+    /**
+     * Fetches the page of historical records which follows the last one
+     * currently shown in the list, and appends it to the list.
+     * @return (fluid)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected HistoryActivity loadNextPage()
+    {
+        if( m_adapter == null || m_bExhausted || m_bLoadingPage ) return this ;
+        final PoppycockService svc = this.getServiceIfReady() ;
+        if( svc == null ) return this ;
+
+        final SentenceListAdapter adapter = m_adapter ;
+        m_bLoadingPage = true ;
+        final PoppycockService.Callback<SentencePage> cb =
+                new PoppycockService.Callback<SentencePage>()
+        {
+            @Override
+            public void onResult( SentencePage pg )
+            {
+                if( adapter != m_adapter || pg == null )
+                { // The list was repopulated while this page was in flight.
+                    if( pg != null ) pg.close() ;
+                    return ;
+                }
+                m_bLoadingPage = false ;
+                if( pg.size() < PoppycockDatabase.DEFAULT_PAGE_SIZE )
+                    m_bExhausted = true ;
+                adapter.appendPage( pg ) ;
+                if( m_adapterSnapshot != null )
+                { // Reconciles the snapshot with the live page.
+                    m_awSentences.setAdapter( adapter ) ;
+                    discardSnapshot() ;
+                }
+            }
+
+            @Override
+            public void onError( Exception x )
+            {
+                super.onError(x) ;
+                if( adapter == m_adapter ) m_bLoadingPage = false ;
+            }
+        };
+
+        if( m_sSearchTerms != null )
+        { // Search results are ranked by relevance, not sorted by time.
+            svc.search( m_sSearchTerms, ( m_zMode == API.MODE_FAVORITES ),
+                    adapter.getFetchedCount(),
+                    PoppycockDatabase.DEFAULT_PAGE_SIZE,
+                    cb ) ;
+        }
+        else
+        {
+            svc.fetchPage( ( m_zMode == API.MODE_FAVORITES ),
+                    ( m_zSortOrder != API.SORTING_DESC ), adapter.getLastPage(),
+                    PoppycockDatabase.DEFAULT_PAGE_SIZE, cb ) ;
+        }
 
         return this ;
     }
@@ -662,9 +1446,21 @@ implements SimpleServiceConnection.Listener
             @Override
             public void run()
             {
-                this.m_act.setTitle(( m_zMode == API.MODE_FAVORITES ?
-                        R.string.title_HistoryActivity_favorites :
-                        R.string.title_HistoryActivity_history )) ;
+                final boolean bFavorites = ( m_zMode == API.MODE_FAVORITES ) ;
+                if( m_stats == null )
+                {
+                    this.m_act.setTitle(( bFavorites ?
+                            R.string.title_HistoryActivity_favorites :
+                            R.string.title_HistoryActivity_history )) ;
+                }
+                else
+                { // The history shows favorites too.
+                    this.m_act.setTitle( this.m_act.getString(( bFavorites ?
+                            R.string.format_TitleFavorites :
+                            R.string.format_TitleHistory ),
+                        ( bFavorites ? m_stats.nFavoriteCount :
+                            m_stats.getTotalCount() ) ) ) ;
+                }
             }
         });
 
@@ -1,17 +1,20 @@
 package net.zerobandwidth.android.apps.poppycock.ui;
 
 import android.app.Service;
+import android.os.Build;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.TextView;
 
 import net.zerobandwidth.android.apps.poppycock.PoppycockService;
 import net.zerobandwidth.android.apps.poppycock.R;
-import net.zerobandwidth.android.apps.poppycock.database.PoppycockDatabase;
 import net.zerobandwidth.android.apps.poppycock.model.Sentence;
 import net.zerobandwidth.android.lib.nonsense.NonsenseBuilder;
 import net.zerobandwidth.android.lib.services.SimpleServiceConnection;
@@ -33,6 +36,62 @@ implements SimpleServiceConnection.Listener
     protected static final String EXTRA_TAG_LAST_NONSENSE =
         "net.zerobandwidth.android.apps.poppycock.ui.MainActivity.LAST_NONSENSE" ;
 
+    /**
+     * The value of {@link SystemClock#elapsedRealtime()} when the activity was
+     * first created in this process, from which the cold-start trace is
+     * measured; zero until then.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected static long s_tsColdStart = 0L ;
+
+    /**
+     * Indicates that the cold-start trace is still waiting for the first bit
+     * of nonsense to be recorded.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected static boolean s_bAwaitingFirstRecord = false ;
+
+/// Inner Classes //////////////////////////////////////////////////////////////
+
+    /**
+     * Logs the steps of a cold start, measured from the activity's first
+     * creation: when the first nonsense is drawn, and when it has been
+     * written to the historical record. Compare these across builds to see
+     * what the app's start costs.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected class ColdStartTrace
+    extends PoppycockService.Callback<Sentence>
+    implements ViewTreeObserver.OnPreDrawListener
+    {
+        protected final MainActivity m_act = MainActivity.this ;
+
+        @Override
+        public boolean onPreDraw()
+        {
+            m_act.m_twNonsense.getViewTreeObserver()
+                    .removeOnPreDrawListener(this) ;
+            log( "drawn" ) ;
+            return true ;
+        }
+
+        @Override
+        public void onResult( Sentence o )
+        { log( "recorded" ) ; }
+
+        /** @param sStep the step of the cold start which was reached */
+        protected void log( String sStep )
+        {
+            Log.i( LOG_TAG, (new StringBuilder())
+                    .append( "Cold start: first nonsense " ).append( sStep )
+                    .append( " after [" )
+                    .append( SystemClock.elapsedRealtime() - s_tsColdStart )
+                    .append( "ms]." )
+                    .toString()
+                );
+        }
+    }
+
 /// Instance Members ///////////////////////////////////////////////////////////
 
     /**
@@ -56,10 +115,23 @@ implements SimpleServiceConnection.Listener
     protected void onCreate( Bundle bndlState )
     {
         super.onCreate( bndlState ) ;
+        final boolean bTraced = ( Build.VERSION.SDK_INT
+                >= Build.VERSION_CODES.JELLY_BEAN_MR2 ) ;
+        if( bTraced ) Trace.beginSection( "MainActivity.onCreate" ) ;
+        ColdStartTrace trace = null ;
+        if( s_tsColdStart == 0L )
+        {
+            s_tsColdStart = SystemClock.elapsedRealtime() ;
+            s_bAwaitingFirstRecord = true ;
+            trace = new ColdStartTrace() ;
+        }
         if( m_xyzzy == null ) m_xyzzy = new NonsenseBuilder(this) ;
         this.setContentView( R.layout.activity_poppycock_main ) ;
         this.bindToElements().restoreText(bndlState) ;
+        if( trace != null )
+            m_twNonsense.getViewTreeObserver().addOnPreDrawListener( trace ) ;
         PoppycockService.API.kickoff(this) ;
+        if( bTraced ) Trace.endSection() ;
     }
 
     /**
@@ -236,11 +308,18 @@ implements SimpleServiceConnection.Listener
     protected Sentence recordForPosterity( Sentence o )
     {
         if( m_conn != null && m_conn.isConnected() )
-        {
-            final PoppycockDatabase db =
-                    m_conn.getServiceInstance().getDB() ;
-            if( db != null )
-                db.insertSentence(o) ;
+        { // The ID is assigned asynchronously, on the service's DB thread.
+            final PoppycockService svc = m_conn.getServiceInstance() ;
+            if( svc.isDatabaseAvailable() )
+            { // The service holds it until the database has been opened.
+                ColdStartTrace trace = null ;
+                if( s_bAwaitingFirstRecord )
+                {
+                    s_bAwaitingFirstRecord = false ;
+                    trace = new ColdStartTrace() ;
+                }
+                svc.insertSentence( o, trace ) ;
+            }
         }
         return o ;
     }
@@ -267,14 +346,22 @@ implements SimpleServiceConnection.Listener
      * Generates new nonsense, and inserts it into the historical record.
      * If we have previous nonsense which has not been added to the historical
      * record, then it will be preserved before it is clobbered.
+     * Once the service is connected, the nonsense is taken from its pool of
+     * pre-generated sentences; until then, it is generated here.
      * @return the new nonsense
      * @since zerobandwidth-net/android-poppycock 1.0.1 (#2)
      */
     protected String regenerateNonsense()
     {
         this.preserveLastNonsense() ;
-        Sentence oNonsense = new Sentence() ;
-        oNonsense.sSentence = m_xyzzy.getString() ;
+        Sentence oNonsense ;
+        if( m_conn != null && m_conn.isConnected() )
+            oNonsense = m_conn.getServiceInstance().nextNonsense() ;
+        else
+        {
+            oNonsense = new Sentence() ;
+            oNonsense.sSentence = m_xyzzy.getString() ;
+        }
         this.recordForPosterity(oNonsense) ;
         m_oLastNonsense = oNonsense ;
         return oNonsense.sSentence ;
@@ -0,0 +1,564 @@
+package net.zerobandwidth.android.apps.poppycock.ui;
+
+import android.content.Context;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageButton;
+import android.widget.TextView;
+
+import net.zerobandwidth.android.apps.poppycock.R;
+import net.zerobandwidth.android.apps.poppycock.database.HistoryChange;
+import net.zerobandwidth.android.apps.poppycock.database.SentencePage;
+import net.zerobandwidth.android.apps.poppycock.model.Sentence;
+
+import java.io.Closeable;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+
+/**
+ * Adapter for the view that shows the list of sentences in the historical
+ * record. The adapter holds the cursor-backed {@link SentencePage}s that have
+ * been fetched so far, and binds each row directly from its page into a
+ * recycled {@link SentenceListAdapter.ViewHolder}, so that {@link Sentence}
+ * objects are created only when a row is acted upon.
+ *
+ * Each list position refers to a row of one of those pages, so that changes
+ * to the historical record can be applied row by row, from small pages of
+ * just the changed sentences, without fetching the whole list again. Each
+ * page is closed as soon as no row of the list refers to it any longer.
+ *
+ * All rows share a single click listener for their favorite buttons; the
+ * listener can discover the row's position through {@link #getPosition(View)}.
+ * @since zerobandwidth-net/android-poppycock 1.0.2
+ */
+public class SentenceListAdapter
+extends RecyclerView.Adapter<SentenceListAdapter.ViewHolder>
+implements Closeable
+{
+/// Inner Classes //////////////////////////////////////////////////////////////
+
+    /**
+     * Holds persistent references to the views within a row of the list, so
+     * that they are found only once per inflated row.
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public static class ViewHolder
+    extends RecyclerView.ViewHolder
+    {
+        /** The button which toggles the sentence's favorite status. */
+        public final ImageButton btnFavorite ;
+
+        /** Displays the nonsense itself. */
+        public final TextView twNonsense ;
+
+        /** Displays the date on which the nonsense was created. */
+        public final TextView twDate ;
+
+        public ViewHolder( View wRow )
+        {
+            super( wRow ) ;
+            btnFavorite = ((ImageButton)( wRow.findViewById( R.id.btnFavorite ) )) ;
+            twNonsense = ((TextView)
+                    ( wRow.findViewById( R.id.twHistoricalNonsense ) )) ;
+            twDate = ((TextView)( wRow.findViewById( R.id.twHistoricalDate ) )) ;
+            btnFavorite.setTag( this ) ;
+        }
+    }
+
+/// Instance Members ///////////////////////////////////////////////////////////
+
+    /** Inflates rows for the list. */
+    protected final LayoutInflater m_infl ;
+
+    /** The single listener shared by all rows' favorite buttons. */
+    protected final View.OnClickListener m_lisFavorite ;
+
+    /** Formats the creation date of each row; cached across binds. */
+    protected final DateFormat m_fmtDate =
+            SimpleDateFormat.getDateTimeInstance() ;
+
+    /** A scratch date, reused for each bind to avoid an allocation per row. */
+    protected final Date m_dtScratch = new Date() ;
+
+    /** Content description for a button whose sentence is a favorite. */
+    protected final String m_sFavoriteTrue ;
+
+    /** Content description for a button whose sentence is not a favorite. */
+    protected final String m_sFavoriteFalse ;
+
+    /**
+     * Every page which holds a row of the list, whether fetched in order or to
+     * apply a {@link HistoryChange}, with the number of list rows which refer
+     * to it. A page is closed, and removed, when that number reaches zero.
+     */
+    protected final IdentityHashMap<SentencePage,Integer> m_mapPageRefs =
+            new IdentityHashMap<>() ;
+
+    /** The page which holds each row of the list, by list position. */
+    protected SentencePage[] m_apgRowPages = new SentencePage[0] ;
+
+    /** The index of each row of the list within its page. */
+    protected int[] m_anRows = new int[0] ;
+
+    /** The item ID of each row of the list. */
+    protected long[] m_anIDs = new long[0] ;
+
+    /** The number of rows in the list. */
+    protected int m_nCount = 0 ;
+
+    /**
+     * The last page appended by {@link #appendPage(SentencePage)}, from which
+     * the next page continues. It is kept open, even if none of its rows are
+     * still in the list, until another page is appended.
+     */
+    protected SentencePage m_pgLastFetched = null ;
+
+    /** The number of rows appended by {@link #appendPage(SentencePage)}. */
+    protected int m_nFetched = 0 ;
+
+    /**
+     * The favorite status of rows which have been toggled since their page was
+     * fetched, keyed by item ID.
+     */
+    protected final HashMap<Long,Boolean> m_mapFavorites = new HashMap<>() ;
+
+/// Constructor ////////////////////////////////////////////////////////////////
+
+    /**
+     * Constructs the adapter.
+     * @param ctx the context in which the list is displayed
+     * @param lisFavorite a listener which will be shared by the favorite
+     *                    buttons of all rows
+     */
+    public SentenceListAdapter( Context ctx, View.OnClickListener lisFavorite )
+    {
+        super() ;
+        m_infl = LayoutInflater.from( ctx ) ;
+        m_lisFavorite = lisFavorite ;
+        m_sFavoriteTrue = ctx.getString( R.string.label_btnFavoriteTrue ) ;
+        m_sFavoriteFalse = ctx.getString( R.string.label_btnFavoriteFalse ) ;
+        this.setHasStableIds( true ) ;
+    }
+
+/// Page Management ////////////////////////////////////////////////////////////
+
+    /**
+     * Appends a page of sentences to the list. Empty pages are closed and
+     * discarded.
+     * @param pg the page to be appended; the adapter takes ownership of it
+     * @return (fluid)
+     */
+    public SentenceListAdapter appendPage( SentencePage pg )
+    {
+        if( pg.size() == 0 )
+        {
+            pg.close() ;
+            return this ;
+        }
+        final int nStart = m_nCount ;
+        this.ensureCapacity( m_nCount + pg.size() ) ;
+        for( int i = 0 ; i < pg.size() ; i++ )
+            this.setRow( m_nCount++, pg, i ) ;
+        final SentencePage pgPrevious = m_pgLastFetched ;
+        m_pgLastFetched = pg ;
+        if( pgPrevious != null && ! m_mapPageRefs.containsKey( pgPrevious ) )
+            pgPrevious.close() ;            // kept open only for its last key
+        m_nFetched += pg.size() ;
+        this.notifyItemRangeInserted( nStart, pg.size() ) ;
+        return this ;
+    }
+
+    /**
+     * Returns the last page appended to the list, from which the next page
+     * should continue. Its rows may since have been removed from the list.
+     * @return the last page appended, or {@code null} if none
+     */
+    public SentencePage getLastPage()
+    { return m_pgLastFetched ; }
+
+    /**
+     * @return the number of rows appended in pages, regardless of any which
+     *  were since inserted or removed; the offset of the next page of a
+     *  ranked search
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public int getFetchedCount()
+    { return m_nFetched ; }
+
+    /**
+     * Grows the row arrays to hold at least a given number of rows.
+     * @param nRows the number of rows
+     */
+    protected void ensureCapacity( int nRows )
+    {
+        if( nRows <= m_anIDs.length ) return ;
+        final int nCapacity = Math.max( nRows, 2 * m_anIDs.length ) ;
+        m_apgRowPages = Arrays.copyOf( m_apgRowPages, nCapacity ) ;
+        m_anRows = Arrays.copyOf( m_anRows, nCapacity ) ;
+        m_anIDs = Arrays.copyOf( m_anIDs, nCapacity ) ;
+    }
+
+    /**
+     * Points a list position at a row of a page. Whatever page the position
+     * referred to before is not released; callers which replace a row must
+     * {@link #releasePage} its old page themselves.
+     * @param nPosition the position in the list
+     * @param pg the page
+     * @param nRow the index of the row within the page
+     */
+    protected void setRow( int nPosition, SentencePage pg, int nRow )
+    {
+        m_apgRowPages[nPosition] = pg ;
+        m_anRows[nPosition] = nRow ;
+        m_anIDs[nPosition] = pg.getItemID( nRow ) ;
+        final Integer nRefs = m_mapPageRefs.get( pg ) ;
+        m_mapPageRefs.put( pg, ( nRefs == null ? 1 : nRefs + 1 ) ) ;
+    }
+
+    /**
+     * Notes that one fewer list row refers to a page, and closes the page if
+     * none do, unless it is the last page appended.
+     * @param pg the page
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    protected void releasePage( SentencePage pg )
+    {
+        final Integer nRefs = m_mapPageRefs.get( pg ) ;
+        if( nRefs == null ) return ;
+        if( nRefs > 1 )
+        {
+            m_mapPageRefs.put( pg, nRefs - 1 ) ;
+            return ;
+        }
+        m_mapPageRefs.remove( pg ) ;
+        if( pg != m_pgLastFetched ) pg.close() ;
+    }
+
+    /**
+     * Finds the list position of a sentence.
+     * @param nID the ID of the sentence
+     * @return its position, or {@link RecyclerView#NO_POSITION} if it is not
+     *  in the list
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public int positionOf( long nID )
+    {
+        for( int i = 0 ; i < m_nCount ; i++ )
+            if( m_anIDs[i] == nID ) return i ;
+        return RecyclerView.NO_POSITION ;
+    }
+
+    /**
+     * Indicates whether the sentence at a given position is a favorite, taking
+     * into account any toggles since its page was fetched.
+     * @param nPosition the position in the list
+     * @return {@code true} if the sentence is a favorite
+     */
+    public boolean isFavorite( int nPosition )
+    {
+        final Boolean bToggled = m_mapFavorites.get( m_anIDs[nPosition] ) ;
+        return ( bToggled != null ? bToggled :
+                m_apgRowPages[nPosition].isFavorite( m_anRows[nPosition] ) ) ;
+    }
+
+    /**
+     * Shows the new favorite status of a sentence as soon as it is toggled,
+     * before it is written, and rebinds its row, wherever it now is. The
+     * status is kept until the row is replaced by its current version.
+     * @param nID the ID of the sentence that was toggled
+     * @param bFavorite its new status
+     * @return (fluid)
+     */
+    public SentenceListAdapter setFavorite( long nID, boolean bFavorite )
+    {
+        m_mapFavorites.put( nID, bFavorite ) ;
+        final int nPosition = this.positionOf( nID ) ;
+        if( nPosition != RecyclerView.NO_POSITION )
+            this.notifyItemChanged( nPosition ) ;
+        return this ;
+    }
+
+    /**
+     * Forgets the favorite statuses shown early for some sentences, which
+     * were never written, and rebinds their rows to show them as they are.
+     * @param anIDs the IDs of the sentences
+     * @return (fluid)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public SentenceListAdapter revertFavorites( long[] anIDs )
+    {
+        for( long nID : anIDs )
+        {
+            if( m_mapFavorites.remove( nID ) == null ) continue ;
+            final int nPosition = this.positionOf( nID ) ;
+            if( nPosition != RecyclerView.NO_POSITION )
+                this.notifyItemChanged( nPosition ) ;
+        }
+        return this ;
+    }
+
+    /**
+     * Marshals the row at the given position into a {@link Sentence}.
+     * @param nPosition the position in the list
+     * @return a sentence populated from that row
+     */
+    public Sentence getItem( int nPosition )
+    {
+        Sentence o =
+                m_apgRowPages[nPosition].toSentence( m_anRows[nPosition] ) ;
+        final Boolean bToggled = m_mapFavorites.get( o.nItemID ) ;
+        if( bToggled != null ) o.bIsFavorite = bToggled ;
+        return o ;
+    }
+
+    /**
+     * Discovers the list position of the row containing a favorite button.
+     * @param btnFavorite a favorite button which was bound by this adapter
+     * @return the adapter position of that button's row, or
+     *  {@link RecyclerView#NO_POSITION} if it is not currently bound
+     */
+    public int getPosition( View btnFavorite )
+    {
+        final Object oTag = btnFavorite.getTag() ;
+        return ( oTag instanceof ViewHolder ?
+                ((ViewHolder)oTag).getAdapterPosition() :
+                RecyclerView.NO_POSITION ) ;
+    }
+
+/// Incremental Changes ////////////////////////////////////////////////////////
+
+    /**
+     * Removes one row from the list.
+     * @param nPosition the position of the row
+     * @return (fluid)
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public SentenceListAdapter removeItem( int nPosition )
+    {
+        final SentencePage pg = m_apgRowPages[nPosition] ;
+        final int nTail = m_nCount - nPosition - 1 ;
+        System.arraycopy( m_apgRowPages, nPosition + 1,
+                m_apgRowPages, nPosition, nTail ) ;
+        System.arraycopy( m_anRows, nPosition + 1,
+                m_anRows, nPosition, nTail ) ;
+        System.arraycopy( m_anIDs, nPosition + 1, m_anIDs, nPosition, nTail ) ;
+        m_apgRowPages[--m_nCount] = null ;
+        this.releasePage( pg ) ;
+        this.notifyItemRemoved( nPosition ) ;
+        return this ;
+    }
+
+    /**
+     * Removes the rows of specific sentences, if they are in the list, in a
+     * single pass over the list however many IDs are given.
+     * @param anIDs the IDs of the sentences
+     * @return the number of rows removed
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public int removeItems( long[] anIDs )
+    {
+        if( anIDs.length == 0 ) return 0 ;
+        final HashSet<Long> setIDs = new HashSet<>( anIDs.length * 2 ) ;
+        for( long nID : anIDs ) setIDs.add( nID ) ;
+        int nKept = 0 ;
+        for( int i = 0 ; i < m_nCount ; i++ )
+        {
+            if( setIDs.contains( m_anIDs[i] ) )
+            { // Each removal is reported where the row is by then.
+                final SentencePage pg = m_apgRowPages[i] ;
+                m_apgRowPages[i] = null ;
+                this.releasePage( pg ) ;
+                this.notifyItemRemoved( nKept ) ;
+                continue ;
+            }
+            if( nKept < i )
+            {
+                m_apgRowPages[nKept] = m_apgRowPages[i] ;
+                m_anRows[nKept] = m_anRows[i] ;
+                m_anIDs[nKept] = m_anIDs[i] ;
+                m_apgRowPages[i] = null ;
+            }
+            ++nKept ;
+        }
+        final int nRemoved = m_nCount - nKept ;
+        m_nCount = nKept ;
+        return nRemoved ;
+    }
+
+    /**
+     * Removes every row whose favorite status matches the given one, as when
+     * that whole set has been deleted.
+     * @param bFavorites the favorite status of the rows to be removed
+     * @return the number of rows removed
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public int removeItems( boolean bFavorites )
+    {
+        int nRemoved = 0 ;
+        for( int i = m_nCount - 1 ; i >= 0 ; i-- )
+        {
+            if( this.isFavorite(i) != bFavorites ) continue ;
+            this.removeItem(i) ;
+            ++nRemoved ;
+        }
+        return nRemoved ;
+    }
+
+    /**
+     * Applies the current rows of changed sentences to the list. A sentence
+     * which is already shown is rebound from its new row, or removed if it no
+     * longer belongs in the list. A sentence which isn't shown is inserted
+     * where it sorts, unless it sorts after the last row fetched so far, in
+     * which case a later page will bring it.
+     * @param pg the current rows; the adapter takes ownership of the page,
+     *  and closes it once none of its rows are used
+     * @param bFavoritesOnly whether the list shows only favorites
+     * @param bInsert whether sentences which aren't shown may be inserted;
+     *  false for lists, such as search results, which aren't sorted by time
+     * @param bOldestFirst whether the list is sorted oldest-first
+     * @param bExhausted whether every page of the list has been fetched
+     * @return the number of rows which were changed, inserted, or removed
+     * @since zerobandwidth-net/android-poppycock 1.0.2
+     */
+    public int applyPage( SentencePage pg, boolean bFavoritesOnly,
+            boolean bInsert, boolean bOldestFirst, boolean bExhausted )
+    {
+        int nApplied = 0 ;
+        for( int i = 0 ; i < pg.size() ; i++ )
+        {
+            final long nID = pg.getItemID(i) ;
+            int nPosition = this.positionOf( nID ) ;
+            if( bFavoritesOnly && ! pg.isFavorite(i) )
+            {
+                if( nPosition == RecyclerView.NO_POSITION ) continue ;
+                m_mapFavorites.remove( nID ) ;
+                this.removeItem( nPosition ) ;
+                ++nApplied ;
+                continue ;
+            }
+            if( nPosition != RecyclerView.NO_POSITION )
+            {
+                m_mapFavorites.remove( nID ) ;
+                final SentencePage pgOld = m_apgRowPages[nPosition] ;
+                this.setRow( nPosition, pg, i ) ;
+                this.releasePage( pgOld ) ;
+                this.notifyItemChanged( nPosition ) ;
+            }
+            else
+            {
+                if( ! bInsert ) continue ;
+                nPosition = this.findInsertPosition(
+                        pg.getItemTS(i), nID, bOldestFirst ) ;
+                if( nPosition == m_nCount && ! bExhausted ) continue ;
+                this.ensureCapacity( m_nCount + 1 ) ;
+                final int nTail = m_nCount - nPosition ;
+                System.arraycopy( m_apgRowPages, nPosition,
+                        m_apgRowPages, nPosition + 1, nTail ) ;
+                System.arraycopy( m_anRows, nPosition,
+                        m_anRows, nPosition + 1, nTail ) ;
+                System.arraycopy( m_anIDs, nPosition,
+                        m_anIDs, nPosition + 1, nTail ) ;
+                ++m_nCount ;
+                this.setRow( nPosition, pg, i ) ;
+                this.notifyItemInserted( nPosition ) ;
+            }
+            ++nApplied ;
+        }
+        if( ! m_mapPageRefs.containsKey( pg ) ) pg.close() ;
+        return nApplied ;
+    }
+
+    /**
+     * Finds the position at which a sentence would be inserted to keep the
+     * list in order.
+     * @param nTS the timestamp of the sentence
+     * @param nID the ID of the sentence
+     * @param bOldestFirst whether the list is sorted oldest-first
+     * @return the position of the first row which sorts after the sentence,
+     *  or the number of rows, if none do
+     */
+    protected int findInsertPosition( long nTS, long nID, boolean bOldestFirst )
+    {
+        int nLow = 0 ;
+        int nHigh = m_nCount ;
+        while( nLow < nHigh )
+        {
+            final int nMid = ( nLow + nHigh ) >>> 1 ;
+            final long nMidTS =
+                    m_apgRowPages[nMid].getItemTS( m_anRows[nMid] ) ;
+            final long nMidID = m_anIDs[nMid] ;
+            final boolean bMidFirst = ( nMidTS == nTS ?
+                    ( bOldestFirst ? nMidID < nID : nMidID > nID ) :
+                    ( bOldestFirst ? nMidTS < nTS : nMidTS > nTS ) ) ;
+            if( bMidFirst ) nLow = nMid + 1 ;
+            else nHigh = nMid ;
+        }
+        return nLow ;
+    }
+
+/// android.support.v7.widget.RecyclerView.Adapter /////////////////////////////
+
+    @Override
+    public int getItemCount()
+    { return m_nCount ; }
+
+    @Override
+    public long getItemId( int nPosition )
+    { return m_anIDs[nPosition] ; }
+
+    @Override
+    public ViewHolder onCreateViewHolder( ViewGroup awParent, int zViewType )
+    {
+        ViewHolder vh = new ViewHolder( m_infl.inflate(
+                R.layout.listitem_poppycock_sentence, awParent, false ) ) ;
+        vh.btnFavorite.setOnClickListener( m_lisFavorite ) ;
+        return vh ;
+    }
+
+    @Override
+    public void onBindViewHolder( ViewHolder vh, int nPosition )
+    {
+        final SentencePage pg = m_apgRowPages[nPosition] ;
+        final int nRow = m_anRows[nPosition] ;
+
+        if( this.isFavorite( nPosition ) )
+        {
+            vh.btnFavorite.setImageResource( R.drawable.ic_favorite_black_24dp ) ;
+            vh.btnFavorite.setContentDescription( m_sFavoriteTrue ) ;
+        }
+        else
+        {
+            vh.btnFavorite.setImageResource(
+                    R.drawable.ic_favorite_border_black_24dp ) ;
+            vh.btnFavorite.setContentDescription( m_sFavoriteFalse ) ;
+        }
+
+        vh.twNonsense.setText( pg.getSentence(nRow) ) ;
+
+        m_dtScratch.setTime( pg.getItemTS(nRow) ) ;
+        vh.twDate.setText( m_fmtDate.format( m_dtScratch ) ) ;
+    }
+
+/// java.io.Closeable //////////////////////////////////////////////////////////
+
+    /** Closes the cursors behind all pages held by the adapter. */
+    @Override
+    public void close()
+    {
+        for( SentencePage pg : m_mapPageRefs.keySet() ) pg.close() ;
+        if( m_pgLastFetched != null
+         && ! m_mapPageRefs.containsKey( m_pgLastFetched ) )
+        { m_pgLastFetched.close() ; }
+        m_mapPageRefs.clear() ;
+        Arrays.fill( m_apgRowPages, null ) ;
+        m_nCount = 0 ;
+        m_pgLastFetched = null ;
+    }
+}
@@ -0,0 +1,168 @@
+package net.zerobandwidth.android.apps.poppycock.database;
+
+import net.zerobandwidth.android.apps.poppycock.model.Sentence;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Exercises the encoders and parsers of {@link HistoryArchive}, which don't
+ * touch the database and so can be tested on the host.
+ * @since zerobandwidth-net/android-poppycock 1.0.2
+ */
+public class HistoryArchiveTest
+{
+    /** Text that needs every kind of escaping in both formats. */
+    protected static final String AWKWARD =
+            "He said, \"Quoth\\the\traven\"\r\nNevermore.\u0001 \u00e9\u2603" ;
+
+    @Test
+    public void testJsonRoundTrip()
+    {
+        final HistoryArchive.JsonLineParser parser =
+                new HistoryArchive.JsonLineParser() ;
+        String sLine = HistoryArchive.appendJsonLine(
+                new StringBuilder(), 7L, 1234567890123L, AWKWARD, true )
+                .toString() ;
+        assertTrue( sLine.endsWith( "}\n" ) ) ;
+        assertEquals( sLine.length() - 1, sLine.indexOf( '\n' ) ) ;
+
+        Sentence o = parser.parse( sLine.trim() ) ;
+        assertEquals( Sentence.NOT_IDENTIFIED, o.nItemID ) ;
+        assertEquals( 1234567890123L, o.nItemTS ) ;
+        assertEquals( AWKWARD, o.sSentence ) ;
+        assertTrue( o.bIsFavorite ) ;
+
+        sLine = HistoryArchive.appendJsonLine(
+                new StringBuilder(), 8L, 5L, null, false ).toString() ;
+        o = parser.parse( sLine.trim() ) ;
+        assertNull( o.sSentence ) ;
+        assertFalse( o.bIsFavorite ) ;
+    }
+
+    @Test
+    public void testJsonParserTolerance()
+    {
+        final HistoryArchive.JsonLineParser parser =
+                new HistoryArchive.JsonLineParser() ;
+        Sentence o = parser.parse( " { \"favorite\" : 1 , \"extra\" : 2.5e3 ,"
+                + " \"sentence\" : \"\\u0041\\/b\" , \"item_ts\" : 42 } " ) ;
+        assertEquals( 42L, o.nItemTS ) ;
+        assertEquals( "A/b", o.sSentence ) ;
+        assertTrue( o.bIsFavorite ) ;
+
+        final String[] asMalformed =
+        {
+            "", "[]", "{\"sentence\":\"open", "{\"item_ts\":\"x\"}",
+            "{\"sentence\":5}", "{\"a\":1} trailing", "{\"a\" 1}",
+            "{\"sentence\":\"\\q\"}", "{\"a\":}"
+        };
+        for( String s : asMalformed )
+        {
+            try
+            {
+                parser.parse( s ) ;
+                fail( "Parsed malformed line: " + s ) ;
+            }
+            catch( IllegalArgumentException x ) {}
+        }
+    }
+
+    @Test
+    public void testCsvRoundTrip()
+    throws IOException
+    {
+        StringBuilder sb = new StringBuilder( HistoryArchive.CSV_HEADER )
+                .append( '\n' ) ;
+        HistoryArchive.appendCsvRecord( sb, 1L, 100L, AWKWARD, true ) ;
+        HistoryArchive.appendCsvRecord( sb, 2L, 200L, "plain", false ) ;
+        HistoryArchive.appendCsvRecord( sb, 3L, 300L, null, false ) ;
+        HistoryArchive.appendCsvRecord( sb, 4L, 400L, "", true ) ;
+        assertTrue( sb.toString().contains( "\n2,200,plain,0\n" ) ) ;
+
+        HistoryArchive.CsvReader csv = new HistoryArchive.CsvReader(
+                new StringReader( sb.toString() ) ) ;
+        ArrayList<String> as = new ArrayList<>() ;
+        assertTrue( csv.readRecord( as ) ) ;
+        assertEquals( 2, as.indexOf( "sentence" ) ) ;
+
+        assertTrue( csv.readRecord( as ) ) ;
+        Sentence o = HistoryArchive.fromCsvRecord( as, 1, 2, 3 ) ;
+        assertEquals( 100L, o.nItemTS ) ;
+        assertEquals( AWKWARD, o.sSentence ) ;
+        assertTrue( o.bIsFavorite ) ;
+        assertEquals( 4, csv.getLine() ) ; // The text spans two lines.
+
+        assertTrue( csv.readRecord( as ) ) ;
+        assertEquals( "plain", HistoryArchive.fromCsvRecord( as, 1, 2, 3 )
+                .sSentence ) ;
+
+        assertTrue( csv.readRecord( as ) ) ;
+        assertNull( HistoryArchive.fromCsvRecord( as, 1, 2, 3 ).sSentence ) ;
+
+        assertTrue( csv.readRecord( as ) ) ;
+        o = HistoryArchive.fromCsvRecord( as, 1, 2, 3 ) ;
+        assertEquals( "", o.sSentence ) ;
+        assertTrue( o.bIsFavorite ) ;
+
+        assertFalse( csv.readRecord( as ) ) ;
+    }
+
+    /** Reads records which span the reader's internal buffer boundary. */
+    @Test
+    public void testCsvAcrossBuffers()
+    throws IOException
+    {
+        StringBuilder sb = new StringBuilder() ;
+        for( int i = 0 ; i < 10000 ; i++ )
+            HistoryArchive.appendCsvRecord( sb, i, i, "\"" + i + "\"", false ) ;
+        HistoryArchive.CsvReader csv = new HistoryArchive.CsvReader(
+                new StringReader( sb.toString() ) ) ;
+        ArrayList<String> as = new ArrayList<>() ;
+        for( int i = 0 ; i < 10000 ; i++ )
+        {
+            assertTrue( csv.readRecord( as ) ) ;
+            assertEquals( "\"" + i + "\"", as.get(2) ) ;
+        }
+        assertFalse( csv.readRecord( as ) ) ;
+    }
+
+    @Test
+    public void testCsvMalformed()
+    {
+        final String[] asMalformed = { "1,\"open\n", "1,\"a\"b,0\n" } ;
+        for( String s : asMalformed )
+        {
+            try
+            {
+                (new HistoryArchive.CsvReader( new StringReader(s) ))
+                        .readRecord( new ArrayList<String>() ) ;
+                fail( "Read malformed record: " + s ) ;
+            }
+            catch( IOException x ) {}
+        }
+        try
+        {
+            HistoryArchive.fromCsvRecord(
+                    java.util.Arrays.asList( "1", "x", "s", "0" ), 1, 2, 3 ) ;
+            fail( "Accepted a malformed timestamp." ) ;
+        }
+        catch( IllegalArgumentException x ) {}
+    }
+
+    @Test
+    public void testFormatForFilename()
+    {
+        assertEquals( HistoryArchive.FORMAT_CSV,
+                HistoryArchive.formatForFilename( "history.CSV" ) ) ;
+        assertEquals( HistoryArchive.FORMAT_NDJSON,
+                HistoryArchive.formatForFilename( "history.ndjson" ) ) ;
+        assertEquals( HistoryArchive.FORMAT_NDJSON,
+                HistoryArchive.formatForFilename( null ) ) ;
+    }
+}
@@ -0,0 +1,83 @@
+package net.zerobandwidth.android.apps.poppycock.database;
+
+import net.zerobandwidth.android.apps.poppycock.model.Sentence;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Exercises the file layout of {@link HistorySnapshot}, which is plain NIO and
+ * so can be tested on the host.
+ * @since zerobandwidth-net/android-poppycock 1.0.2
+ */
+public class HistorySnapshotTest
+{
+    protected static Sentence sentence( long nID, String s, boolean bFavorite )
+    {
+        Sentence o = new Sentence() ;
+        o.nItemID = nID ;
+        o.nItemTS = 1000L * nID ;
+        o.sSentence = s ;
+        o.bIsFavorite = bFavorite ;
+        return o ;
+    }
+
+    @Test
+    public void testRoundTrip()
+    {
+        final ArrayList<Sentence> aoIn = new ArrayList<>( Arrays.asList(
+                sentence( 3L, "Colorless green ideas sleep furiously.", false ),
+                sentence( 2L, null, true ),
+                sentence( 1L, "", false ),
+                sentence( Long.MAX_VALUE, "Sn\u00f6wm\u00e4n \u2603", true )
+            ));
+        final ByteBuffer buf = HistorySnapshot.encode( aoIn ) ;
+        assertEquals( 0, buf.position() ) ;
+        final ArrayList<Sentence> aoOut = HistorySnapshot.decode( buf ) ;
+        assertEquals( aoIn.size(), aoOut.size() ) ;
+        for( int i = 0 ; i < aoIn.size() ; i++ )
+        {
+            assertEquals( aoIn.get(i).nItemID, aoOut.get(i).nItemID ) ;
+            assertEquals( aoIn.get(i).nItemTS, aoOut.get(i).nItemTS ) ;
+            assertEquals( aoIn.get(i).sSentence, aoOut.get(i).sSentence ) ;
+            assertEquals( aoIn.get(i).bIsFavorite, aoOut.get(i).bIsFavorite ) ;
+        }
+        assertTrue( HistorySnapshot.decode( HistorySnapshot.encode(
+                new ArrayList<Sentence>() ) ).isEmpty() ) ;
+    }
+
+    @Test
+    public void testRejectsDamage()
+    {
+        final ByteBuffer buf = HistorySnapshot.encode( Arrays.asList(
+                sentence( 1L, "Twas brillig.", false ) ) ) ;
+        final byte[] ab = Arrays.copyOf( buf.array(), buf.limit() ) ;
+
+        assertRejected( Arrays.copyOf( ab, ab.length - 1 ) ) ;  // truncated
+        assertRejected( Arrays.copyOf( ab, 8 ) ) ;               // no header
+        byte[] abBad = ab.clone() ;
+        abBad[0] ^= 0x01 ;                                       // magic
+        assertRejected( abBad ) ;
+        abBad = ab.clone() ;
+        abBad[7] ^= 0x01 ;                                       // version
+        assertRejected( abBad ) ;
+        abBad = ab.clone() ;
+        abBad[HistorySnapshot.HEADER_BYTES + 23] += 1 ;          // text length
+        assertRejected( abBad ) ;
+    }
+
+    protected static void assertRejected( byte[] ab )
+    {
+        try
+        {
+            HistorySnapshot.decode( ByteBuffer.wrap( ab ) ) ;
+            fail( "Decoded a damaged snapshot." ) ;
+        }
+        catch( IllegalArgumentException x ) {}
+    }
+}
@@ -0,0 +1,37 @@
+package net.zerobandwidth.android.apps.poppycock.database;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Exercises the totals which {@link HistoryStats} derives from its two sets.
+ * @since zerobandwidth-net/android-poppycock 1.0.2
+ */
+public class HistoryStatsTest
+{
+    @Test
+    public void testTotalsAcrossSets()
+    {
+        HistoryStats stats = new HistoryStats() ;
+        assertEquals( 0, stats.getTotalCount() ) ;
+        assertEquals( HistoryStats.NO_TIMESTAMP, stats.getFirstTS() ) ;
+        assertEquals( HistoryStats.NO_TIMESTAMP, stats.getLastTS() ) ;
+
+        stats.nFavoriteCount = 2 ;
+        stats.tsFavoritesFirst = 50L ;
+        stats.tsFavoritesLast = 60L ;
+        assertEquals( 2, stats.getTotalCount() ) ;
+        assertEquals( 50L, stats.getFirstTS() ) ;
+        assertEquals( 60L, stats.getLastTS() ) ;
+
+        stats.nHistoryCount = 3 ;
+        stats.tsHistoryFirst = 10L ;
+        stats.tsHistoryLast = 40L ;
+        assertEquals( 5, stats.getTotalCount() ) ;
+        assertEquals( 3, stats.getCount( false ) ) ;
+        assertEquals( 2, stats.getCount( true ) ) ;
+        assertEquals( 10L, stats.getFirstTS() ) ;
+        assertEquals( 60L, stats.getLastTS() ) ;
+    }
+}
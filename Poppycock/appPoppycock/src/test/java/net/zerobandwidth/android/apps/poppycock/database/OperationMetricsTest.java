@@ -0,0 +1,66 @@
+package net.zerobandwidth.android.apps.poppycock.database;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Exercises {@link OperationMetrics}, which has no Android dependencies and so
+ * can be tested on the host.
+ * @since zerobandwidth-net/android-poppycock 1.0.2
+ */
+public class OperationMetricsTest
+{
+    @Test
+    public void testBucketFor()
+    {
+        assertEquals( 0, OperationMetrics.bucketFor( 999L ) ) ;
+        assertEquals( 1, OperationMetrics.bucketFor( 1000L ) ) ;
+        assertEquals( 2, OperationMetrics.bucketFor( 2000L ) ) ;
+        assertEquals( 2, OperationMetrics.bucketFor( 3999L ) ) ;
+        assertEquals( 11, OperationMetrics.bucketFor( 1024000L ) ) ;
+        assertEquals( OperationMetrics.BUCKET_COUNT - 1,
+                OperationMetrics.bucketFor( Long.MAX_VALUE ) ) ;
+    }
+
+    @Test
+    public void testRecordAndSnapshot()
+    {
+        OperationMetrics metrics = new OperationMetrics() ;
+        final long tsNow = System.nanoTime() ;
+        metrics.record( "a", tsNow, 3 ) ;
+        metrics.record( "a", tsNow, 5 ) ;
+        metrics.record( "b", tsNow, 0 ) ;
+
+        Map<String,OperationMetrics.Snapshot> map = metrics.snapshot() ;
+        assertEquals( 2, map.size() ) ;
+        OperationMetrics.Snapshot snap = map.get( "a" ) ;
+        assertEquals( 2L, snap.nCount ) ;
+        assertEquals( 8L, snap.nRows ) ;
+        assertEquals( 4.0d, snap.getMeanRows(), 0.0d ) ;
+        long nBucketed = 0L ;
+        for( long n : snap.anBuckets ) nBucketed += n ;
+        assertEquals( 2L, nBucketed ) ;
+        assertTrue( snap.nMaxNanos <= snap.nTotalNanos ) ;
+
+        metrics.reset() ;
+        assertTrue( metrics.snapshot().isEmpty() ) ;
+    }
+
+    @Test
+    public void testPercentile()
+    {
+        OperationMetrics.Snapshot snap = new OperationMetrics.Snapshot( "x" ) ;
+        snap.anBuckets[1] = 90L ;   // [1, 2) microseconds
+        snap.anBuckets[11] = 10L ;  // [1024, 2048) microseconds
+        snap.nCount = 100L ;
+        assertEquals( 0.002d, snap.getPercentileMillis(50), 1e-9 ) ;
+        assertEquals( 0.002d, snap.getPercentileMillis(90), 1e-9 ) ;
+        assertEquals( 2.048d, snap.getPercentileMillis(95), 1e-9 ) ;
+        assertEquals( 0.0d,
+                (new OperationMetrics.Snapshot( "empty" ))
+                    .getPercentileMillis(50), 0.0d ) ;
+    }
+}
@@ -0,0 +1,157 @@
+package net.zerobandwidth.android.apps.poppycock.database;
+
+import net.zerobandwidth.android.apps.poppycock.model.Sentence;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Exercises the recording, serving, and invalidation of {@link ResultCache}.
+ * @since zerobandwidth-net/android-poppycock 1.0.2
+ */
+public class ResultCacheTest
+{
+    /**
+     * Builds a history, oldest first, in which every third sentence is a
+     * favorite, and two pairs of sentences share a timestamp.
+     * @param nRows the number of sentences
+     * @return the history
+     */
+    protected static ArrayList<Sentence> history( int nRows )
+    {
+        ArrayList<Sentence> ao = new ArrayList<>() ;
+        for( int i = 0 ; i < nRows ; i++ )
+        {
+            Sentence o = new Sentence() ;
+            o.nItemID = i + 1 ;
+            o.nItemTS = 1000L + ( i / 2 ) ;
+            o.sSentence = "Nonsense " + i ;
+            o.bIsFavorite = ( i % 3 == 0 ) ;
+            ao.add( o ) ;
+        }
+        return ao ;
+    }
+
+    /**
+     * Records a complete walk of a view, as the database would, in pages.
+     * @param cache the cache
+     * @param aoView the rows of the view, in order
+     * @param bFavorites whether the view covers only favorites
+     * @param bOldestFirst whether the view is sorted oldest-first
+     * @param nLimit the page size
+     * @param nVersion the version of the data
+     */
+    protected static void walk( ResultCache cache, List<Sentence> aoView,
+            boolean bFavorites, boolean bOldestFirst, int nLimit,
+            long nVersion )
+    {
+        Sentence oLast = null ;
+        for( int i = 0 ; i <= aoView.size() ; i += nLimit )
+        {
+            final List<Sentence> aoPage =
+                    aoView.subList( i, Math.min( i + nLimit, aoView.size() ) ) ;
+            cache.record( bFavorites, bOldestFirst, ( oLast != null ),
+                    ( oLast != null ? oLast.nItemTS : 0L ),
+                    ( oLast != null ? oLast.nItemID : 0L ),
+                    nVersion, aoPage, nLimit ) ;
+            if( ! aoPage.isEmpty() ) oLast = aoPage.get( aoPage.size() - 1 ) ;
+        }
+    }
+
+    /**
+     * Pages through a view served by the cache.
+     * @param cache the cache
+     * @param bFavorites whether the view covers only favorites
+     * @param bOldestFirst whether the view is sorted oldest-first
+     * @param nLimit the page size
+     * @param nVersion the version of the data
+     * @return the IDs of every row served, in order, or {@code null} if any
+     *  page was not served
+     */
+    protected static ArrayList<Long> page( ResultCache cache,
+            boolean bFavorites, boolean bOldestFirst, int nLimit,
+            long nVersion )
+    {
+        ArrayList<Long> anIDs = new ArrayList<>() ;
+        Sentence oLast = null ;
+        while( true )
+        {
+            final ArrayList<Sentence> aoPage = cache.find( bFavorites,
+                    bOldestFirst, ( oLast != null ),
+                    ( oLast != null ? oLast.nItemTS : 0L ),
+                    ( oLast != null ? oLast.nItemID : 0L ),
+                    nLimit, nVersion ) ;
+            if( aoPage == null ) return null ;
+            for( Sentence o : aoPage ) anIDs.add( o.nItemID ) ;
+            if( aoPage.size() < nLimit ) return anIDs ;
+            oLast = aoPage.get( aoPage.size() - 1 ) ;
+        }
+    }
+
+    @Test
+    public void testServesEveryViewOfACompleteHistory()
+    {
+        final ArrayList<Sentence> ao = history( 23 ) ;
+        final ArrayList<Sentence> aoReversed = new ArrayList<>( ao ) ;
+        Collections.reverse( aoReversed ) ;
+        ResultCache cache = new ResultCache() ;
+        assertNull( cache.find( false, true, false, 0L, 0L, 5, 7L ) ) ;
+
+        walk( cache, aoReversed, false, false, 5, 7L ) ;   // newest first
+
+        ArrayList<Long> anExpected = new ArrayList<>() ;
+        for( Sentence o : ao ) anExpected.add( o.nItemID ) ;
+        assertEquals( anExpected, page( cache, false, true, 5, 7L ) ) ;
+
+        anExpected.clear() ;
+        for( Sentence o : aoReversed )
+            if( o.bIsFavorite ) anExpected.add( o.nItemID ) ;
+        assertEquals( anExpected, page( cache, true, false, 3, 7L ) ) ;
+        assertEquals( anExpected, page( cache, true, false, 100, 7L ) ) ;
+        assertTrue( cache.getHitCount() > 0L ) ;
+        assertEquals( 1L, cache.getMissCount() ) ;
+    }
+
+    @Test
+    public void testWritesInvalidate()
+    {
+        final ArrayList<Sentence> ao = history( 12 ) ;
+        ResultCache cache = new ResultCache() ;
+        walk( cache, ao, false, true, 5, 1L ) ;
+        assertNotNull( page( cache, false, false, 5, 1L ) ) ;
+        assertNull( cache.find( false, true, false, 0L, 0L, 5, 2L ) ) ;
+
+        // A walk which spans a write is never completed.
+        cache.record( true, true, false, 0L, 0L, 2L, ao.subList( 0, 5 ), 5 ) ;
+        final Sentence oLast = ao.get(4) ;
+        assertFalse( cache.wants( true, true, true,
+                oLast.nItemTS, oLast.nItemID, 3L ) ) ;
+        cache.record( true, true, true, oLast.nItemTS, oLast.nItemID, 3L,
+                ao.subList( 5, 7 ), 5 ) ;
+        assertNull( cache.find( true, true, false, 0L, 0L, 5, 3L ) ) ;
+    }
+
+    @Test
+    public void testAbandonsWalksOverTheLimit()
+    {
+        final ArrayList<Sentence> ao = history( 12 ) ;
+        ResultCache cache = new ResultCache( 10 ) ;
+        walk( cache, ao, false, true, 5, 1L ) ;
+        assertNull( cache.find( false, true, false, 0L, 0L, 5, 1L ) ) ;
+
+        // Favorites alone fit, and serve only the favorites views.
+        ArrayList<Sentence> aoFavorites = new ArrayList<>() ;
+        for( Sentence o : ao ) if( o.bIsFavorite ) aoFavorites.add( o ) ;
+        walk( cache, aoFavorites, true, true, 5, 1L ) ;
+        assertEquals( 4, page( cache, true, false, 5, 1L ).size() ) ;
+        assertNull( cache.find( false, true, false, 0L, 0L, 5, 1L ) ) ;
+
+        cache.setMaxRows( 0 ) ;
+        assertNull( cache.find( true, true, false, 0L, 0L, 5, 1L ) ) ;
+    }
+}
@@ -0,0 +1,85 @@
+package net.zerobandwidth.android.apps.poppycock.database;
+
+import net.zerobandwidth.android.apps.poppycock.model.Sentence;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Exercises the eviction, budgeting, and invalidation of
+ * {@link SentenceCache}.
+ * @since zerobandwidth-net/android-poppycock 1.0.2
+ */
+public class SentenceCacheTest
+{
+    protected static Sentence sentence( long nID, String sSentence )
+    {
+        Sentence o = new Sentence() ;
+        o.nItemID = nID ;
+        o.sSentence = sSentence ;
+        return o ;
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed()
+    {
+        final int nEntryBytes = SentenceCache.sizeOf( sentence( 1L, "abcd" ) ) ;
+        SentenceCache cache = new SentenceCache( 3 * nEntryBytes ) ;
+        cache.put( sentence( 1L, "abcd" ) ).put( sentence( 2L, "efgh" ) )
+             .put( sentence( 3L, "ijkl" ) ) ;
+        assertEquals( 3, cache.size() ) ;
+        assertNotNull( cache.get( 1L ) ) ; // 2 is now the eldest
+        cache.put( sentence( 4L, "mnop" ) ) ;
+        assertEquals( 3, cache.size() ) ;
+        assertNull( cache.get( 2L ) ) ;
+        assertNotNull( cache.get( 1L ) ) ;
+        assertEquals( 1L, cache.getEvictionCount() ) ;
+        assertEquals( 2L, cache.getHitCount() ) ;
+        assertEquals( 1L, cache.getMissCount() ) ;
+        assertEquals( 3 * nEntryBytes, cache.getSizeBytes() ) ;
+
+        cache.setBudget( nEntryBytes ) ;
+        assertEquals( 1, cache.size() ) ;
+        assertNotNull( cache.get( 1L ) ) ; // the most recently used
+
+        cache.put( sentence( 5L, "This sentence is over budget." ) ) ;
+        assertNull( cache.get( 5L ) ) ;
+        assertNotNull( cache.get( 1L ) ) ;
+    }
+
+    @Test
+    public void testHandsOutCopies()
+    {
+        SentenceCache cache = new SentenceCache() ;
+        Sentence o = sentence( 1L, "Original." ) ;
+        cache.put( o ) ;
+        o.sSentence = "Changed after caching." ;
+        Sentence oCached = cache.get( 1L ) ;
+        assertEquals( "Original.", oCached.sSentence ) ;
+        oCached.bIsFavorite = true ;
+        assertFalse( cache.get( 1L ).bIsFavorite ) ;
+
+        cache.put( sentence( Sentence.NOT_IDENTIFIED, "Unidentified." ) ) ;
+        assertEquals( 1, cache.size() ) ;
+    }
+
+    @Test
+    public void testRemovalRejectsStalePuts()
+    {
+        SentenceCache cache = new SentenceCache() ;
+        long nGeneration = cache.getGeneration() ;
+        cache.put( sentence( 1L, "Read before any write." ), nGeneration ) ;
+        assertEquals( 1, cache.size() ) ;
+
+        nGeneration = cache.getGeneration() ;
+        cache.remove( 2L ) ; // a write lands while the read is in flight
+        cache.put( sentence( 2L, "Read before the write." ), nGeneration ) ;
+        assertNull( cache.get( 2L ) ) ;
+
+        cache.clear() ;
+        assertEquals( 0, cache.size() ) ;
+        assertEquals( 0, cache.getSizeBytes() ) ;
+        assertEquals( 0L, cache.getEvictionCount() ) ;
+    }
+}